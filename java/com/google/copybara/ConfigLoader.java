@@ -20,6 +20,7 @@ import com.google.common.base.Preconditions;
 import com.google.copybara.config.Config;
 import com.google.copybara.config.ConfigFile;
 import com.google.copybara.config.SkylarkParser;
+import com.google.copybara.config.SkylarkParser.ConfigWithDependencies;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.profiler.Profiler.ProfilerTask;
@@ -56,13 +57,33 @@ public class ConfigLoader {
     return loadForConfigFile(console, configFile);
   }
 
+  /**
+   * Loads the configuration from {@code configFile}, reusing the config previously loaded from a
+   * file with the same path if neither it nor the files that it loads changed.
+   *
+   * <p>Configs are cached per module set, so this is useful when the loader is reused or created
+   * again with the same module set, like in server mode, or when {@link #loadForRevision} is
+   * called for many revisions that share the same config.
+   */
   protected Config loadForConfigFile(Console console, ConfigFile<?> configFile)
       throws IOException, ValidationException {
+    Config cached = moduleSet.getConfigCache().get(configFile);
+    if (cached != null) {
+      console.progressFmt("Reusing config %s", configFile.getIdentifier());
+      return cached;
+    }
+    ConfigWithDependencies<?> loaded = loadWithDependencies(console, configFile);
+    moduleSet.getConfigCache().put(configFile, loaded.files, loaded.labels, loaded.config);
+    return loaded.config;
+  }
+
+  private ConfigWithDependencies<?> loadWithDependencies(Console console,
+      ConfigFile<?> configFile) throws IOException, ValidationException {
     console.progressFmt("Loading config %s", configFile.getIdentifier());
 
     try (ProfilerTask ignore = moduleSet.getOptions().get(GeneralOptions.class).profiler()
         .start("loading_config")){
-      return skylarkParser.loadConfig(configFile, moduleSet, console);
+      return skylarkParser.getConfigWithTransitiveImports(configFile, moduleSet, console);
     }
   }
 
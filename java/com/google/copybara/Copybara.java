@@ -19,19 +19,33 @@ package com.google.copybara;
 import static com.google.copybara.exception.ValidationException.checkCondition;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
 import com.google.copybara.Info.MigrationReference;
 import com.google.copybara.config.Config;
 import com.google.copybara.config.ConfigValidator;
 import com.google.copybara.config.Migration;
 import com.google.copybara.config.ValidationResult;
+import com.google.copybara.exception.EmptyChangeException;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
+import com.google.copybara.git.GitOptions;
 import com.google.copybara.monitor.EventMonitor.InfoFinishedEvent;
 import com.google.copybara.util.console.Console;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
 /**
@@ -85,6 +99,91 @@ public class Copybara {
         .run(workdir, sourceRefs);
   }
 
+  /**
+   * Runs all the migrations of the config, with their default source refs.
+   *
+   * <p>Migrations that write to the same destination run one after the other, in the order of the
+   * config. Migrations that write to different destinations run in parallel, up to {@code
+   * --all-parallelism} at the same time. While they run, the refs fetched from the origins and
+   * destinations are shared, so that migrations that read the same repository don't fetch it
+   * again.
+   *
+   * <p>A failing migration doesn't stop the rest. Once all of them finish, the first failure is
+   * thrown, ignoring migrations without changes unless none of the migrations had any.
+   */
+  public void runAll(Options options, ConfigLoader configLoader, Path workdir)
+      throws RepoException, ValidationException, IOException {
+    WorkflowOptions workflowOptions = options.get(WorkflowOptions.class);
+    checkCondition(!workflowOptions.isReadConfigFromChange(), "%s is not supported with %s",
+        WorkflowOptions.READ_CONFIG_FROM_CHANGE, WorkflowOptions.ALL_MIGRATIONS_FLAG);
+    Console console = options.get(GeneralOptions.class).console();
+    Config config = loadAllConfig(options, configLoader);
+
+    // Migrations that write to the same destination share the local repository
+    Map<String, List<Migration>> byDestination = new LinkedHashMap<>();
+    for (Migration migration : config.getMigrations().values()) {
+      ImmutableSetMultimap<String, String> destination = migration.getDestinationDescription();
+      String key = destination.containsKey("url")
+          ? destination.get("url").toString()
+          : destination.toString();
+      byDestination.computeIfAbsent(key, k -> new ArrayList<>()).add(migration);
+    }
+
+    Map<String, Exception> failures = new ConcurrentHashMap<>();
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(workflowOptions.getAllParallelism(), Math.max(1, byDestination.size())));
+    // The migrations share the options. The state they keep (cached repositories, credentials,
+    // shared fetches) is thread-safe, and GitOptions.withRepoLock serializes the work that
+    // writes the shared state of a cached repository, like origin checkouts.
+    GitOptions gitOptions = options.get(GitOptions.class);
+    gitOptions.startSharingFetches();
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (List<Migration> migrations : byDestination.values()) {
+        futures.add(executor.submit(() -> {
+          for (Migration migration : migrations) {
+            try {
+              console.progressFmt("Running migration '%s'", migration.getName());
+              Path migrationWorkdir = workdir.resolve(migration.getName());
+              Files.createDirectories(migrationWorkdir);
+              migrationRanConsumer.accept(migration);
+              migration.run(migrationWorkdir, ImmutableList.of());
+            } catch (RepoException | ValidationException | IOException | RuntimeException e) {
+              failures.put(migration.getName(), e);
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        Futures.getUnchecked(future);
+      }
+    } finally {
+      gitOptions.stopSharingFetches();
+      executor.shutdownNow();
+    }
+
+    Exception firstFailure = null;
+    EmptyChangeException firstEmpty = null;
+    for (String name : config.getMigrations().keySet()) {
+      Exception e = failures.get(name);
+      if (e instanceof EmptyChangeException) {
+        console.warnFmt("Migration '%s': %s", name, e.getMessage());
+        firstEmpty = firstEmpty == null ? (EmptyChangeException) e : firstEmpty;
+      } else if (e != null) {
+        console.errorFmt("Migration '%s' failed: %s", name, e.getMessage());
+        firstFailure = firstFailure == null ? e : firstFailure;
+      }
+    }
+    if (firstFailure != null) {
+      Throwables.propagateIfPossible(firstFailure, RepoException.class, ValidationException.class);
+      Throwables.throwIfInstanceOf(firstFailure, IOException.class);
+      throw new IllegalStateException(firstFailure);
+    }
+    if (firstEmpty != null && failures.size() == config.getMigrations().size()) {
+      throw firstEmpty;
+    }
+  }
+
   /** Retrieves the {@link Info} of the {@code migrationName} and prints it to the console. */
   public void info(Options options, Config config, String migrationName)
       throws ValidationException, RepoException {
@@ -181,6 +280,24 @@ public class Copybara {
     throw new ValidationException("Error validating configuration: Configuration is invalid.");
   }
 
+  private Config loadAllConfig(Options options, ConfigLoader configLoader)
+      throws IOException, ValidationException {
+    Console console = options.get(GeneralOptions.class).console();
+    Config config = configLoader.load(console);
+    console.progress("Validating configuration");
+    ValidationResult.Builder result = new ValidationResult.Builder();
+    for (String migrationName : config.getMigrations().keySet()) {
+      result.append(validateConfig(config, migrationName));
+    }
+    ValidationResult validation = result.build();
+    if (!validation.hasErrors()) {
+      return config;
+    }
+    validation.getErrors().forEach(console::error);
+    console.error("Configuration is invalid.");
+    throw new ValidationException("Error validating configuration: Configuration is invalid.");
+  }
+
   /**
    * Returns a list of validation error messages, if any, for the given configuration.
    */
@@ -22,6 +22,7 @@ import static com.google.copybara.config.SkylarkUtil.convertFromNoneable;
 import static com.google.copybara.config.SkylarkUtil.stringToEnum;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.copybara.authoring.Author;
@@ -45,6 +46,7 @@ import com.google.copybara.transform.Sequence;
 import com.google.copybara.transform.SkylarkTransformation;
 import com.google.copybara.transform.TodoReplace;
 import com.google.copybara.transform.TodoReplace.Mode;
+import com.google.copybara.transform.TransformationCache;
 import com.google.copybara.transform.VerifyMatch;
 import com.google.copybara.util.Glob;
 import com.google.devtools.build.lib.events.Location;
@@ -89,10 +91,13 @@ public class Core implements LabelsAwareModule {
   private ConfigFile<?> mainConfigFile;
   private Supplier<ImmutableMap<String, ? extends ConfigFile<?>>> allConfigFiles;
   private Supplier<Environment> dynamicEnvironment;
+  private final Supplier<TransformationCache> transformationCache;
 
   public Core(GeneralOptions generalOptions, WorkflowOptions workflowOptions) {
     this.generalOptions = Preconditions.checkNotNull(generalOptions);
     this.workflowOptions = Preconditions.checkNotNull(workflowOptions);
+    this.transformationCache =
+        Suppliers.memoize(() -> new TransformationCache(generalOptions.getDirFactory()));
   }
 
   @SuppressWarnings("unused")
@@ -606,7 +611,8 @@ public class Core implements LabelsAwareModule {
         multiline,
         repeatedGroups,
         Type.STRING_LIST.convert(ignore, "patterns_to_ignore"),
-        workflowOptions);
+        workflowOptions,
+        workflowOptions.transformationCache ? transformationCache.get() : null);
   }
 
   @SuppressWarnings("unused")
@@ -677,7 +683,7 @@ public class Core implements LabelsAwareModule {
       check(location, mapping.isEmpty(), "'mapping' cannot be used with mode %s", mode);
     }
     return new TodoReplace(location, convertFromNoneable(paths, Glob.ALL_FILES), tags, mode,
-        mapping, defaultString, workflowOptions.parallelizer());
+        mapping, defaultString, workflowOptions.parallelizer(), workflowOptions.getRegexEngine());
   }
 
   @SuppressWarnings("unused")
@@ -710,7 +716,8 @@ public class Core implements LabelsAwareModule {
         regex,
         convertFromNoneable(paths, Glob.ALL_FILES),
         verifyNoMatch,
-        workflowOptions.parallelizer());
+        workflowOptions.parallelizer(),
+        workflowOptions.getRegexEngine());
   }
 
   @SuppressWarnings("unused")
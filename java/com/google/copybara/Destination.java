@@ -27,6 +27,7 @@ import com.google.devtools.build.lib.skylarkinterface.SkylarkModule;
 import com.google.devtools.build.lib.skylarkinterface.SkylarkModuleCategory;
 import java.io.IOException;
 import java.util.Objects;
+import java.util.function.Predicate;
 import javax.annotation.Nullable;
 
 /** A repository which a source of truth can be copied to. */
@@ -67,6 +68,30 @@ public interface Destination<R extends Revision> extends ConfigItemDescription {
      */
     boolean supportsHistory();
 
+    /**
+     * Returns the revision of the newest change in the destination that has the label {@code
+     * labelName} with a value accepted by {@code valueMatcher}, or null if there is none.
+     *
+     * <p>The default implementation visits the history with {@link #visitChangesWithAnyLabel}.
+     * Destinations that can look up labels faster should override it.
+     */
+    @Nullable
+    default String findRevisionWithLabel(String labelName, Predicate<String> valueMatcher)
+        throws RepoException, ValidationException {
+      String[] result = new String[] {null};
+      visitChangesWithAnyLabel(/*start=*/ null, ImmutableList.of(labelName),
+          (change, matchedLabels) -> {
+            for (String value : matchedLabels.values()) {
+              if (valueMatcher.test(value)) {
+                result[0] = change.getRevision().asString();
+                return VisitResult.TERMINATE;
+              }
+            }
+            return VisitResult.CONTINUE;
+          });
+      return result[0];
+    }
+
     /**
      * Writes the fully-transformed repository stored at {@code workdir} to this destination.
      * @param transformResult what to write to the destination
@@ -80,6 +105,22 @@ public interface Destination<R extends Revision> extends ConfigItemDescription {
     ImmutableList<DestinationEffect> write(TransformResult transformResult, Console console)
         throws ValidationException, RepoException, IOException;
 
+    /**
+     * Returns true if changes returned by {@link #write(TransformResult, Console)} are not visible
+     * in the destination yet, because the writer batches them. The effects returned by
+     * {@code write} only happen after {@link #flush(Console)}, or after a later {@code write}
+     * that returns with no pending writes.
+     */
+    default boolean hasPendingWrites() {
+      return false;
+    }
+
+    /**
+     * Makes visible in the destination the changes written successfully that are pending, if
+     * any. Changes whose {@code write} failed are never made visible.
+     */
+    default void flush(Console console) throws ValidationException, RepoException, IOException {}
+
     /**
      * Utility endpoint for accessing and adding feedback data.
      */
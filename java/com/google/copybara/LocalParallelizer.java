@@ -17,38 +17,66 @@
 package com.google.copybara;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
-import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
 import com.google.copybara.exception.ValidationException;
+import com.google.copybara.treestate.TreeState.FileState;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToLongFunction;
 
 /**
  * A class that allows to run a list of things in parallel batches.
+ *
+ * <p>The list is split in small batches (Several per thread) that are run in a work-stealing
+ * {@link ForkJoinPool}, so that a thread that finishes early helps with the remaining batches
+ * instead of sitting idle. Elements can be weighted (For example by file size) so that batches
+ * have similar cost.
  */
 public class LocalParallelizer {
 
+  private static final long PER_FILE_COST = 4096;
+
+  /**
+   * Weighs {@link FileState}s by file size, plus a fixed cost for opening the file, so that big
+   * files are spread between the threads.
+   */
+  public static final ToLongFunction<FileState> BY_FILE_SIZE = file -> {
+    try {
+      return PER_FILE_COST + file.getSize();
+    } catch (IOException e) {
+      // The transformation will fail or skip it later.
+      return PER_FILE_COST;
+    }
+  };
+
+  /**
+   * Number of batches per thread. More batches balance better when the cost of the elements is
+   * uneven, at the cost of more calls to {@link TransformFunc#run}.
+   */
+  private static final int BATCHES_PER_THREAD = 8;
+
+  /**
+   * Pools are shared by all the instances with the same parallelism. {@link ForkJoinPool} threads
+   * are daemon and finish after being idle for a while, so pools don't need to be shut down.
+   */
+  private static final ConcurrentMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
   private final int threads;
   private final int minSize;
-  private final ListeningExecutorService executor;
 
   public LocalParallelizer(int threads, int minSize) {
     this.threads = threads;
     this.minSize = minSize;
     Preconditions.checkState(threads >= 1, "Threads need to be positive");
     Preconditions.checkState(threads < 1000, "Too many threads (max: 1000)");
-    executor = threads == 1
-        ? null
-        : MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads));
   }
 
   /**
@@ -56,24 +84,110 @@ public class LocalParallelizer {
    */
   public <K, V> List<V> run(Iterable<K> list, TransformFunc<K, V> func)
       throws IOException, ValidationException {
+    return run(list, e -> 1, func);
+  }
+
+  /**
+   * Run a list of things in batches, calling {@code func} for each batch. Batches are created so
+   * that the sum of the {@code weigher} values of the elements is similar for all of them.
+   *
+   * <p>The results are returned in the order of the batches, that follow the order of
+   * {@code list}.
+   */
+  public <K, V> List<V> run(Iterable<K> list, ToLongFunction<? super K> weigher,
+      TransformFunc<K, V> func) throws IOException, ValidationException {
     if (threads == 1 || Iterables.size(list) < minSize) {
       return ImmutableList.of(func.run(list));
     }
-    List<ListenableFuture<V>> results = new ArrayList<>(threads);
-    List<K> newList = Lists.newArrayList(list);
-    for (List<K> batch : Lists.partition(newList, Math.max(1, newList.size() / threads))) {
-      results.add(executor.submit(() -> func.run(batch)));
+    List<List<K>> batches = split(list, weigher, threads * BATCHES_PER_THREAD);
+    @SuppressWarnings("unchecked")
+    V[] results = (V[]) new Object[batches.size()];
+    AtomicReference<Exception> thrown = new AtomicReference<>();
+    POOLS.computeIfAbsent(threads, ForkJoinPool::new)
+        .invoke(new BatchAction<>(batches, 0, batches.size(), func, results, thrown));
+    Exception e = thrown.get();
+    if (e instanceof IOException) {
+      throw (IOException) e;
+    }
+    if (e instanceof ValidationException) {
+      throw (ValidationException) e;
+    }
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Splits {@code list} in contiguous batches of similar weight. Elements heavier than the
+   * target weight get a batch for themselves.
+   */
+  private static <K> List<List<K>> split(Iterable<K> list, ToLongFunction<? super K> weigher,
+      int maxBatches) {
+    List<K> elements = new ArrayList<>();
+    long[] weights = new long[Iterables.size(list)];
+    long total = 0;
+    for (K element : list) {
+      long weight = Math.max(1, weigher.applyAsLong(element));
+      weights[elements.size()] = weight;
+      elements.add(element);
+      total += weight;
+    }
+    long target = Math.max(1, total / maxBatches);
+    List<List<K>> batches = new ArrayList<>(maxBatches + 1);
+    int start = 0;
+    long current = 0;
+    for (int i = 0; i < elements.size(); i++) {
+      current += weights[i];
+      if (current >= target) {
+        batches.add(elements.subList(start, i + 1));
+        start = i + 1;
+        current = 0;
+      }
+    }
+    if (start < elements.size()) {
+      batches.add(elements.subList(start, elements.size()));
+    }
+    return batches;
+  }
+
+  /**
+   * Runs the batches in {@code [from, to)}, splitting the range in two halves until there is one
+   * batch, so that idle threads can steal the other halves.
+   */
+  private static class BatchAction<K, V> extends RecursiveAction {
+
+    private final List<List<K>> batches;
+    private final int from;
+    private final int to;
+    private final TransformFunc<K, V> func;
+    private final V[] results;
+    private final AtomicReference<Exception> thrown;
+
+    BatchAction(List<List<K>> batches, int from, int to, TransformFunc<K, V> func, V[] results,
+        AtomicReference<Exception> thrown) {
+      this.batches = batches;
+      this.from = from;
+      this.to = to;
+      this.func = func;
+      this.results = results;
+      this.thrown = thrown;
     }
-    try {
-      return Futures.allAsList(results).get();
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-      //TODO We cannot do much here. We might expose InterruptedException all the way up to Main...
-      throw new RuntimeException("Interrupted", e);
-    } catch (ExecutionException e) {
-      Throwables.propagateIfPossible(e.getCause(), IOException.class, ValidationException.class);
-      throw new RuntimeException("Unhandled error", e.getCause());
 
+    @Override
+    protected void compute() {
+      if (to - from > 1) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new BatchAction<>(batches, from, middle, func, results, thrown),
+            new BatchAction<>(batches, middle, to, func, results, thrown));
+        return;
+      }
+      // Don't start new batches once one has failed.
+      if (thrown.get() != null) {
+        return;
+      }
+      try {
+        results[from] = func.run(batches.get(from));
+      } catch (IOException | ValidationException e) {
+        thrown.compareAndSet(null, e);
+      }
     }
   }
 
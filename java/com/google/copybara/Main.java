@@ -23,8 +23,11 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
 import com.google.common.base.StandardSystemProperty;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -41,18 +44,26 @@ import com.google.copybara.exception.ValidationException;
 import com.google.copybara.profiler.LogProfilerListener;
 import com.google.copybara.profiler.Profiler;
 import com.google.copybara.util.ExitCode;
+import com.google.copybara.util.FileUtil;
 import com.google.copybara.util.console.AnsiConsole;
 import com.google.copybara.util.console.Console;
 import com.google.copybara.util.console.LogConsole;
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.logging.Level;
@@ -68,6 +79,7 @@ import javax.annotation.Nullable;
 public class Main {
 
   private static final String COPYBARA_NAMESPACE = "com.google.copybara";
+  private static final int MAX_WARM_INVOCATIONS = 64;
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
   /**
@@ -166,19 +178,12 @@ public class Main {
    * <p>This method is also responsible for the exception handling/logging.
    */
   private CommandResult runInternal(String[] args, Console console, FileSystem fs) {
-    CommandEnv commandEnv = null;
-    CopybaraCmd subcommand = null;
-
-    try {
+    return execute(args, console, execution -> {
       ModuleSet moduleSet = newModuleSet(environment, fs, console);
 
       final MainArguments mainArgs = new MainArguments();
       Options options = moduleSet.getOptions();
-      jCommander = new JCommander(ImmutableList.builder()
-          .addAll(options.getAll())
-          .add(mainArgs)
-          .build());
-      jCommander.setProgramName("copybara");
+      jCommander = newJCommander(options, mainArgs);
 
       String version = getVersion();
       logger.atInfo().log("Copybara version: %s", version);
@@ -187,57 +192,92 @@ public class Main {
 
       ConfigLoaderProvider configLoaderProvider = newConfigLoaderProvider(moduleSet);
 
-      ImmutableMap<String, CopybaraCmd> commands =
-          Maps.uniqueIndex(getCommands(moduleSet, configLoaderProvider, jCommander),
-              CopybaraCmd::name);
+      ImmutableMap<String, CopybaraCmd> commands = ImmutableMap.<String, CopybaraCmd>builder()
+          .putAll(Maps.uniqueIndex(getCommands(moduleSet, configLoaderProvider, jCommander),
+              CopybaraCmd::name))
+          .put("server", new ServerCmd(mainArgs.getServerWorkers(), fs))
+          .build();
 
       CommandWithArgs cmdToRun = mainArgs.parseCommand(commands, commands.get("migrate"));
-      subcommand = cmdToRun.getSubcommand();
+      execution.subcommand = cmdToRun.getSubcommand();
 
       initEnvironment(options, cmdToRun.getSubcommand(), ImmutableList.copyOf(args));
 
       GeneralOptions generalOptions = options.get(GeneralOptions.class);
       Path baseWorkdir = mainArgs.getBaseWorkdir(generalOptions, generalOptions.getFileSystem());
 
-      commandEnv = new CommandEnv(baseWorkdir, options, cmdToRun.getArgs());
-      generalOptions.console().progressFmt("Running %s",subcommand.name());
-      ExitCode exitCode = subcommand.run(commandEnv);
-      return new CommandResult(exitCode, subcommand, commandEnv);
+      execution.commandEnv = new CommandEnv(baseWorkdir, options, cmdToRun.getArgs());
+      generalOptions.console().progressFmt("Running %s", execution.subcommand.name());
+      return execution.subcommand.run(execution.commandEnv);
+    });
+  }
+
+  private static JCommander newJCommander(Options options, MainArguments mainArgs) {
+    JCommander jCommander = new JCommander(ImmutableList.builder()
+        .addAll(options.getAll())
+        .add(mainArgs)
+        .build());
+    jCommander.setProgramName("copybara");
+    return jCommander;
+  }
+
+  /** The command and environment of an execution, known once the arguments are parsed. */
+  private static class Execution {
 
+    @Nullable private CopybaraCmd subcommand;
+    @Nullable private CommandEnv commandEnv;
+  }
+
+  private interface ExecutionBody {
+
+    ExitCode run(Execution execution) throws ValidationException, RepoException, IOException;
+  }
+
+  /** Runs {@code body}, translating the exceptions to {@link ExitCode}s. */
+  private CommandResult execute(String[] args, Console console, ExecutionBody body) {
+    Execution execution = new Execution();
+    try {
+      ExitCode exitCode = body.run(execution);
+      return new CommandResult(exitCode, execution.subcommand, execution.commandEnv);
     } catch (CommandLineException | ParameterException e) {
       printCauseChain(Level.WARNING, console, args, e);
       console.error("Try 'copybara help'.");
-      return new CommandResult(ExitCode.COMMAND_LINE_ERROR, subcommand, commandEnv);
+      return new CommandResult(ExitCode.COMMAND_LINE_ERROR, execution.subcommand,
+          execution.commandEnv);
     } catch (RepoException e) {
       printCauseChain(Level.SEVERE, console, args, e);
       // TODO(malcon): Expose interrupted exception from WorkflowMode to Main so that we don't
       // have to do this hack.
       if (e.getCause() instanceof InterruptedException) {
-        return new CommandResult(ExitCode.INTERRUPTED, subcommand, commandEnv);
+        return new CommandResult(ExitCode.INTERRUPTED, execution.subcommand,
+            execution.commandEnv);
       }
-      return new CommandResult(ExitCode.REPOSITORY_ERROR, subcommand, commandEnv);
+      return new CommandResult(ExitCode.REPOSITORY_ERROR, execution.subcommand,
+          execution.commandEnv);
     } catch (EmptyChangeException e) {
       // This is not necessarily an error. Maybe the tool was run previously and there are no new
       // changes to import.
       console.warn(e.getMessage());
-      return new CommandResult(ExitCode.NO_OP, subcommand, commandEnv);
+      return new CommandResult(ExitCode.NO_OP, execution.subcommand, execution.commandEnv);
     } catch (ValidationException e) {
       printCauseChain(Level.WARNING, console, args, e);
       // TODO(malcon): Think of a better way of doing this
       return new CommandResult(e.isRetryable()
           ? ExitCode.REPOSITORY_ERROR
           : ExitCode.CONFIGURATION_ERROR,
-          subcommand, commandEnv);
+          execution.subcommand, execution.commandEnv);
     } catch (IOException e) {
       handleUnexpectedError(console, e.getMessage(), args, e);
-      return new CommandResult(ExitCode.ENVIRONMENT_ERROR, subcommand, commandEnv);
+      return new CommandResult(ExitCode.ENVIRONMENT_ERROR, execution.subcommand,
+          execution.commandEnv);
     } catch (RuntimeException e) {
       // This usually indicates a serious programming error that will require Copybara team
       // intervention. Print stack trace without concern for presentation.
       e.printStackTrace();
       handleUnexpectedError(console, "Unexpected error (please file a bug): " + e.getMessage(),
           args, e);
-      return new CommandResult(ExitCode.INTERNAL_ERROR, subcommand, commandEnv);
+      return new CommandResult(ExitCode.INTERNAL_ERROR, execution.subcommand,
+          execution.commandEnv);
     }
   }
 
@@ -502,4 +542,144 @@ public class Main {
       return "help";
     }
   }
+
+  /**
+   * Runs the requests read from the standard input in a long-running process, so that the JVM,
+   * the loaded configs and the repositories are reused between them.
+   *
+   * <p>Each request is a line with an id and the command line arguments, separated by tabs, for
+   * example {@code "1\tmigrate\tpath/to/copy.bara.sky\tdefault"}. When a request finishes, a
+   * line with the id, the exit code and its name, also separated by tabs, is written to the
+   * standard output. The server finishes when the standard input is closed and all the requests
+   * are done.
+   *
+   * <p>Up to {@code --server-workers} requests run in parallel. Requests with the same arguments
+   * share the options, and therefore the config, that is only loaded again if any of the config
+   * files changes, and the git repositories. They run one after the other, since running the
+   * same command concurrently would only race on the same destination. {@link #initEnvironment}
+   * and {@link #shutdown} are only called for the server, each request is profiled on its own, and
+   * the requests cannot prompt the user.
+   */
+  private class ServerCmd implements CopybaraCmd {
+
+    private final int workers;
+    private final FileSystem fs;
+    private final Cache<ImmutableList<String>, Invocation> invocations =
+        CacheBuilder.newBuilder().maximumSize(MAX_WARM_INVOCATIONS).build();
+
+    ServerCmd(int workers, FileSystem fs) {
+      this.workers = workers;
+      this.fs = Preconditions.checkNotNull(fs);
+    }
+
+    @Override
+    public ExitCode run(CommandEnv commandEnv)
+        throws ValidationException, IOException, RepoException {
+      if (!commandEnv.getArgs().isEmpty()) {
+        throw new CommandLineException("Too many arguments for subcommand 'server'");
+      }
+      GeneralOptions generalOptions = commandEnv.getOptions().get(GeneralOptions.class);
+      // The standard input is used for the requests
+      Console console = LogConsole.writeOnlyConsole(System.err, generalOptions.isVerbose());
+      BufferedReader input =
+          new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+      PrintStream output = System.out;
+      ExecutorService executor = Executors.newFixedThreadPool(workers);
+      try {
+        String line;
+        while ((line = input.readLine()) != null) {
+          if (line.trim().isEmpty()) {
+            continue;
+          }
+          List<String> fields = Splitter.on('\t').splitToList(line);
+          String id = fields.get(0);
+          String[] args = fields.subList(1, fields.size()).toArray(new String[0]);
+          executor.execute(() -> {
+            ExitCode exitCode = runRequest(id, args, console);
+            synchronized (output) {
+              output.println(id + "\t" + exitCode.getCode() + "\t" + exitCode);
+              output.flush();
+            }
+          });
+        }
+      } finally {
+        executor.shutdown();
+      }
+      try {
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+          logger.atInfo().log("Waiting for the running requests");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        executor.shutdownNow();
+        return ExitCode.INTERRUPTED;
+      }
+      return ExitCode.SUCCESS;
+    }
+
+    private ExitCode runRequest(String id, String[] args, Console console) {
+      logger.atInfo().log("Running request %s: %s", id, Joiner.on(' ').join(args));
+      return execute(args, console, execution -> {
+        Invocation invocation = getInvocation(args, console);
+        synchronized (invocation) {
+          CommandWithArgs cmdToRun = invocation.mainArgs.parseCommand(invocation.commands,
+              invocation.commands.get("migrate"));
+          execution.subcommand = cmdToRun.getSubcommand();
+
+          Options options = invocation.moduleSet.getOptions();
+          GeneralOptions generalOptions = options.get(GeneralOptions.class);
+          Path baseWorkdir = invocation.mainArgs.getBaseWorkdir(generalOptions,
+              generalOptions.getFileSystem());
+          execution.commandEnv = new CommandEnv(baseWorkdir, options, cmdToRun.getArgs());
+          // Like one-shot runs, each request is profiled from start to end.
+          Profiler requestProfiler = generalOptions.profiler();
+          requestProfiler.init(ImmutableList.of(new LogProfilerListener()));
+          try {
+            return execution.subcommand.run(execution.commandEnv);
+          } finally {
+            // Otherwise temporary workdirs would accumulate until the server is restarted
+            if (invocation.mainArgs.baseWorkdir == null && !generalOptions.isNoCleanup()) {
+              FileUtil.deleteRecursively(baseWorkdir);
+            }
+            requestProfiler.stop();
+          }
+        }
+      }).getExitCode();
+    }
+
+    private Invocation getInvocation(String[] args, Console console)
+        throws ValidationException {
+      ImmutableList<String> key = ImmutableList.copyOf(args);
+      Invocation invocation = invocations.getIfPresent(key);
+      if (invocation != null) {
+        return invocation;
+      }
+      invocation = new Invocation(args, console, fs);
+      Invocation previous = invocations.asMap().putIfAbsent(key, invocation);
+      return previous != null ? previous : invocation;
+    }
+
+    @Override
+    public String name() {
+      return "server";
+    }
+  }
+
+  /** The options and commands for the arguments of a server request. */
+  private class Invocation {
+
+    private final ModuleSet moduleSet;
+    private final MainArguments mainArgs = new MainArguments();
+    private final ImmutableMap<String, CopybaraCmd> commands;
+
+    private Invocation(String[] args, Console console, FileSystem fs)
+        throws ValidationException {
+      moduleSet = newModuleSet(environment, fs, console);
+      JCommander jCommander = newJCommander(moduleSet.getOptions(), mainArgs);
+      jCommander.parse(args);
+      commands = Maps.uniqueIndex(
+          getCommands(moduleSet, newConfigLoaderProvider(moduleSet), jCommander),
+          CopybaraCmd::name);
+    }
+  }
 }
@@ -22,6 +22,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.copybara.exception.CommandLineException;
+import com.google.copybara.jcommander.GreaterThanZeroValidator;
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystem;
@@ -56,6 +57,7 @@ public final class MainArguments {
           + "  - help: Shows the help.\n"
           + "  - info: Reads the last migrated revision in the origin and destination.\n"
           + "  - migrate: Executes the migration for the given config.\n"
+          + "  - server: Runs the commands read from the standard input, one per line.\n"
           + "  - validate: Validates that the configuration is correct.\n"
           + "  - version: Shows the version of Copybara.\n"
           + "")
@@ -76,6 +78,14 @@ public final class MainArguments {
       + " will be performed. By default a temporary directory.")
   String baseWorkdir;
 
+  @Parameter(names = "--server-workers", description = "Number of requests that the 'server'"
+      + " subcommand runs in parallel.", validateWith = GreaterThanZeroValidator.class)
+  int serverWorkers = 4;
+
+  int getServerWorkers() {
+    return serverWorkers;
+  }
+
   /**
    * Returns the base working directory. This method should not be accessed directly by any other
    * class but Main.
@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.copybara.config.ConfigValidator;
 import com.google.copybara.config.Migration;
+import com.google.copybara.exception.CommandLineException;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.util.ExitCode;
@@ -49,6 +50,18 @@ public class MigrateCmd implements CopybaraCmd {
     ConfigFileArgs configFileArgs = commandEnv.parseConfigFileArgs(this,
         /*useSourceRef*/true);
     Copybara copybara = new Copybara(configValidator, migrationRanConsumer);
+    if (commandEnv.getOptions().get(WorkflowOptions.class).isAllMigrations()) {
+      if (commandEnv.getArgs().size() > 1) {
+        throw new CommandLineException(String.format(
+            "%s runs all the migrations, migration names or source refs cannot be passed",
+            WorkflowOptions.ALL_MIGRATIONS_FLAG));
+      }
+      copybara.runAll(
+          commandEnv.getOptions(),
+          configLoaderProvider.newLoader(configFileArgs.getConfigPath(), /*sourceRef=*/null),
+          commandEnv.getWorkdir());
+      return ExitCode.SUCCESS;
+    }
     ImmutableList<String> sourceRefs = configFileArgs.getSourceRefs();
     copybara.run(
         commandEnv.getOptions(),
@@ -19,6 +19,7 @@ package com.google.copybara;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.copybara.config.ConfigCache;
 
 /**
  * A set of modules and options for evaluating a Skylark config file.
@@ -29,6 +30,7 @@ public class ModuleSet {
   // TODO(malcon): Remove this once all modules are @SkylarkCallable
   private final ImmutableSet<Class<?>> staticModules;
   private final ImmutableMap<String, Object> modules;
+  private final ConfigCache configCache = new ConfigCache();
 
   ModuleSet(Options options,
       ImmutableSet<Class<?>> staticModules,
@@ -60,5 +62,10 @@ public class ModuleSet {
     return modules;
   }
 
-  
+  /**
+   * Configs loaded with this module set, that can be reused while their files don't change.
+   */
+  public ConfigCache getConfigCache() {
+    return configCache;
+  }
 }
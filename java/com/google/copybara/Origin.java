@@ -68,6 +68,26 @@ public interface Origin<R extends Revision> extends ConfigItemDescription {
      */
     void checkout(R ref, Path workdir) throws RepoException, ValidationException;
 
+    /**
+     * Checks out the revision {@code ref} into {@code workdir}, reusing the files of a previous
+     * checkout done with this method when possible. Only the files that differ from {@code ref}
+     * are rewritten and files that are not part of {@code ref} are removed.
+     *
+     * <p>{@code workdir} is either empty or the result of a previous call to this method, maybe
+     * modified afterwards (for example by transformations). {@code stateDir} is a directory
+     * preserved by the caller between calls for the same {@code workdir} that implementations can
+     * use for storing their own bookkeeping.
+     *
+     * <p>Returns false if the reader doesn't support incremental checkouts. In that case nothing is
+     * modified and callers should clean {@code workdir} and use {@link #checkout}.
+     *
+     * @throws RepoException if any error happens during the checkout or workdir preparation.
+     */
+    default boolean checkoutIncremental(R ref, Path workdir, Path stateDir)
+        throws RepoException, ValidationException {
+      return false;
+    }
+
     /**
      * Returns the changes that happen in the interval (fromRef, toRef].
      *
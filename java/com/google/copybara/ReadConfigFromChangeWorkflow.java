@@ -59,6 +59,12 @@ public class ReadConfigFromChangeWorkflow<O extends Revision, D extends Revision
    */
   @Nullable
   private Writer<D> lastWriter;
+  /**
+   * Last configuration that passed the validation. The config loader returns the same instance
+   * while the config files don't change between changes, so it doesn't need to be validated again.
+   */
+  @Nullable
+  private Config lastValidConfig;
 
   public ReadConfigFromChangeWorkflow(Workflow<O, D> workflow, Options options,
       ConfigLoader configLoader, ConfigValidator configValidator) {
@@ -149,16 +155,19 @@ public class ReadConfigFromChangeWorkflow<O extends Revision, D extends Revision
 
       Config config = ReadConfigFromChangeWorkflow.this.configLoader.
           loadForRevision(getConsole(), lastChange.getRevision());
-      // The service config validator already checks that the configuration matches the registry,
-      // checking that the origin and destination haven't changed.
-      List<String> errors =
-          configValidator
-              .validate(config, workflowName)
-              .getErrors();
-      if (!errors.isEmpty()) {
-        throw new ValidationException(
-            "Invalid configuration [ref '%s': %s ]: '%s': \n%s",
-            lastChange.getRef(), configLoader.location(), workflowName, on('\n').join(errors));
+      if (config != lastValidConfig) {
+        // The service config validator already checks that the configuration matches the
+        // registry, checking that the origin and destination haven't changed.
+        List<String> errors =
+            configValidator
+                .validate(config, workflowName)
+                .getErrors();
+        if (!errors.isEmpty()) {
+          throw new ValidationException(
+              "Invalid configuration [ref '%s': %s ]: '%s': \n%s",
+              lastChange.getRef(), configLoader.location(), workflowName, on('\n').join(errors));
+        }
+        lastValidConfig = config;
       }
 
       Migration migration = config.getMigration(workflowName);
@@ -176,6 +185,7 @@ public class ReadConfigFromChangeWorkflow<O extends Revision, D extends Revision
           workflowForChange.getOrigin()
               .newReader(workflowForChange.getOriginFiles(), workflowForChange.getAuthoring()),
           getGroupId(), rawSourceRef);
+      helper.sharePendingMigrations(this);
       lastWriter = helper.writer;
       return helper;
     }
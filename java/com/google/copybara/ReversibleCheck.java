@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.HashCode;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.treestate.FileSystemTreeState;
+import com.google.copybara.treestate.TreeState.FileState;
+import com.google.copybara.util.Glob;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Checks that the reverse transformation of a workflow restores the origin files.
+ *
+ * <p>Instead of keeping a copy of the origin files, it records the type (regular file or symlink),
+ * executable bit, size and content hash of each of them before transforming, and compares them
+ * with the files produced by the reverse transformation. Like 'git diff', a change of type or
+ * executable bit is a difference. Only the files with the same type, executable bit and size
+ * need to be hashed again.
+ */
+final class ReversibleCheck {
+
+  private final LocalParallelizer parallelizer;
+  /** Type, executable bit, size and content hash of the origin files, keyed by relative path. */
+  private final ImmutableMap<String, FileSummary> originFiles;
+
+  private ReversibleCheck(LocalParallelizer parallelizer,
+      ImmutableMap<String, FileSummary> originFiles) {
+    this.parallelizer = parallelizer;
+    this.originFiles = originFiles;
+  }
+
+  /** Records the origin files in {@code checkoutDir}. Needs to be called before transforming. */
+  static ReversibleCheck recordOrigin(Path checkoutDir, LocalParallelizer parallelizer)
+      throws IOException, ValidationException {
+    List<FileState> files = findFiles(checkoutDir);
+    List<List<FileSummary>> summaries = parallelizer.run(files,
+        LocalParallelizer.BY_FILE_SIZE,
+        batch -> {
+          List<FileSummary> result = new ArrayList<>();
+          for (FileState file : batch) {
+            Path path = file.getPath();
+            result.add(new FileSummary(checkoutDir.relativize(path).toString(),
+                Files.isSymbolicLink(path), isExecutable(path), file.getSize(),
+                file.getContentHash()));
+          }
+          return result;
+        });
+    ImmutableMap.Builder<String, FileSummary> originFiles = ImmutableMap.builder();
+    for (FileSummary summary : Iterables.concat(summaries)) {
+      originFiles.put(summary.path, summary);
+    }
+    return new ReversibleCheck(parallelizer, originFiles.build());
+  }
+
+  /**
+   * Returns the paths, relative to {@code reverseDir}, of the files that are different from the
+   * origin ones: Files with different type, executable bit or content and files that only exist in
+   * one of them.
+   */
+  ImmutableSortedSet<String> findDifferences(Path reverseDir)
+      throws IOException, ValidationException {
+    ImmutableSortedSet.Builder<String> differences = ImmutableSortedSet.naturalOrder();
+    Map<FileState, FileSummary> toHash = new HashMap<>();
+    Set<String> missing = new HashSet<>(originFiles.keySet());
+    for (FileState file : findFiles(reverseDir)) {
+      String path = reverseDir.relativize(file.getPath()).toString();
+      missing.remove(path);
+      FileSummary origin = originFiles.get(path);
+      if (origin == null
+          || origin.symlink != Files.isSymbolicLink(file.getPath())
+          || origin.executable != isExecutable(file.getPath())
+          || origin.size != file.getSize()) {
+        differences.add(path);
+      } else {
+        toHash.put(file, origin);
+      }
+    }
+    differences.addAll(missing);
+
+    List<List<String>> different = parallelizer.run(toHash.entrySet(),
+        e -> LocalParallelizer.BY_FILE_SIZE.applyAsLong(e.getKey()),
+        batch -> {
+          List<String> result = new ArrayList<>();
+          for (Entry<FileState, FileSummary> entry : batch) {
+            if (!entry.getKey().getContentHash().equals(entry.getValue().contentHash)) {
+              result.add(entry.getValue().path);
+            }
+          }
+          return result;
+        });
+    differences.addAll(Iterables.concat(different));
+    return differences.build();
+  }
+
+  private static List<FileState> findFiles(Path dir) throws IOException {
+    return ImmutableList.copyOf(new FileSystemTreeState(dir).find(Glob.ALL_FILES));
+  }
+
+  /**
+   * Whether the owner execute bit is set, which is what git records. Symlinks are never
+   * executable.
+   */
+  private static boolean isExecutable(Path path) throws IOException {
+    if (Files.isSymbolicLink(path)) {
+      return false;
+    }
+    if (path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+      return Files.getPosixFilePermissions(path).contains(PosixFilePermission.OWNER_EXECUTE);
+    }
+    return Files.isExecutable(path);
+  }
+
+  private static final class FileSummary {
+
+    private final String path;
+    private final boolean symlink;
+    private final boolean executable;
+    private final long size;
+    private final HashCode contentHash;
+
+    private FileSummary(String path, boolean symlink, boolean executable, long size,
+        HashCode contentHash) {
+      this.path = path;
+      this.symlink = symlink;
+      this.executable = executable;
+      this.size = size;
+      this.contentHash = contentHash;
+    }
+  }
+}
@@ -31,6 +31,7 @@ import com.google.copybara.doc.annotations.DocSignaturePrefix;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.treestate.FileSystemTreeState;
 import com.google.copybara.treestate.TreeState;
+import com.google.copybara.util.FileUtil;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.console.Console;
 import com.google.devtools.build.lib.skylarkinterface.Param;
@@ -189,6 +190,9 @@ public final class TransformWork implements SkylarkContext<TransformWork> {
       // Works like Sequence. We keep always the latest transform work to allow
       // catching for two sequential replaces.
       skylarkTransformWork = skylarkTransformWork.withUpdatedTreeState();
+      // The transform is notified in a copy of the TreeState, so this one doesn't know what
+      // changed.
+      treeState.notifyUnknownChanges();
       ((Transformation) runnable).transform(skylarkTransformWork);
       this.updateFrom(skylarkTransformWork);
       return Runtime.NONE;
@@ -218,7 +222,10 @@ public final class TransformWork implements SkylarkContext<TransformWork> {
       })
   public void writePath(CheckoutPath path, String content)
       throws FuncallException, IOException {
-      Files.write(asCheckoutPath(path), content.getBytes(StandardCharsets.UTF_8));
+    Path file = asCheckoutPath(path);
+    if (FileUtil.writeIfChanged(file, content.getBytes(StandardCharsets.UTF_8))) {
+      treeState.notifyAdd(ImmutableList.of(file));
+    }
   }
 
   @SkylarkCallable(
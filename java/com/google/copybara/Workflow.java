@@ -243,7 +243,16 @@ public class Workflow<O extends Revision, D extends Revision> implements Migrati
       WorkflowRunHelper<O, D> helper = newRunHelper(workdir, resolvedRef, sourceRef);
       try (ProfilerTask ignored = profiler().start(mode.toString().toLowerCase())) {
         mode.run(helper);
+      } catch (RepoException | IOException | ValidationException | RuntimeException e) {
+        // Changes migrated before the failure are still pushed, like when they are not batched.
+        try {
+          helper.flushPendingWrites(console);
+        } catch (RepoException | IOException | ValidationException | RuntimeException flushError) {
+          e.addSuppressed(flushError);
+        }
+        throw e;
       }
+      helper.flushPendingWrites(console);
     }
   }
 
@@ -27,7 +27,6 @@ import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
-import com.google.copybara.ChangeVisitable.VisitResult;
 import com.google.copybara.DestinationEffect.Type;
 import com.google.copybara.Origin.Baseline;
 import com.google.copybara.Origin.Reader.ChangesResponse;
@@ -302,22 +301,10 @@ public enum WorkflowMode {
       private <O extends Revision, D extends Revision> String getDestinationBaselineOneAttempt(
           WorkflowRunHelper<O, D> runHelper, String originRevision)
           throws RepoException, ValidationException {
-        String destinationBaseline[] = new String[] {null};
-        runHelper
+        return runHelper
             .getDestinationWriter()
-            .visitChangesWithAnyLabel(
-                /*start=*/ null,
-                ImmutableList.of(runHelper.getOriginLabelName()),
-                (change, matchedLabels) -> {
-                  for (String value : matchedLabels.values()) {
-                    if (originRevision.equals(WorkflowMode.revisionWithoutReviewInfo(value))) {
-                      destinationBaseline[0] = change.getRevision().asString();
-                      return VisitResult.TERMINATE;
-                    }
-                  }
-                  return VisitResult.CONTINUE;
-                });
-        return destinationBaseline[0];
+            .findRevisionWithLabel(runHelper.getOriginLabelName(),
+                value -> originRevision.equals(WorkflowMode.revisionWithoutReviewInfo(value)));
       }
     };
 
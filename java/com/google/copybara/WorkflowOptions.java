@@ -24,6 +24,8 @@ import com.google.common.collect.Lists;
 import com.google.copybara.authoring.Author;
 import com.google.copybara.exception.VoidOperationException;
 import com.google.copybara.jcommander.GreaterThanZeroListValidator;
+import com.google.copybara.jcommander.GreaterThanZeroValidator;
+import com.google.copybara.regex.RegexEngine;
 import com.google.copybara.util.console.Console;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.syntax.EvalException;
@@ -40,6 +42,7 @@ public class WorkflowOptions implements Option {
 
   static final String CHANGE_REQUEST_PARENT_FLAG = "--change_request_parent";
   static final String READ_CONFIG_FROM_CHANGE = "--read-config-from-change";
+  static final String ALL_MIGRATIONS_FLAG = "--all";
   protected static final String CHANGE_REQUEST_FROM_SOT_LIMIT_FLAG = "--change-request-from-sot-limit";
 
   @Parameter(names = CHANGE_REQUEST_PARENT_FLAG,
@@ -128,11 +131,60 @@ public class WorkflowOptions implements Option {
           + " is more efficient. This disables the feature.")
   public boolean noTransformationJoin = false;
 
+  @Parameter(names = "--incremental-checkout",
+      description = "For ITERATIVE workflows, reuse the checkout of the previous change and only"
+          + " update the files that are different, instead of doing a full checkout for each"
+          + " change. Only supported by some origins.")
+  public boolean incrementalCheckout = false;
+
+  @Parameter(names = "--transformation-cache",
+      description = "Cache the output of content transformations like core.replace in the output"
+          + " root, keyed by the file content and the transformation. Files that were already"
+          + " transformed in a previous run are not transformed again.")
+  public boolean transformationCache = false;
+
+  @Parameter(names = "--replace-streaming-threshold",
+      description = "Files bigger than this number of bytes are transformed line by line by"
+          + " core.replace (unless multiline = True), writing the result to a temporary file"
+          + " instead of loading the whole file in memory. Zero or negative disables it.")
+  public long replaceStreamingThreshold = 64 * 1024 * 1024;
+
+  @Parameter(names = "--regex-engine",
+      description = "Regex engine used by content transformations like core.replace,"
+          + " core.verify_match and core.todo_replace. RE2J always matches in linear time. JDK"
+          + " uses java.util.regex for the regexes that match the same in both engines and have at"
+          + " most one repetition of variable length (so they backtrack at most quadratically),"
+          + " and RE2J for the rest. The syntax is always the RE2J one.")
+  RegexEngine regexEngine = RegexEngine.RE2J;
+
+  public RegexEngine getRegexEngine() {
+    return regexEngine;
+  }
+
   @Parameter(
       names = READ_CONFIG_FROM_CHANGE,
       description = "For each imported origin change, load the configuration from that change.")
   boolean readConfigFromChange = false;
 
+  @Parameter(names = ALL_MIGRATIONS_FLAG,
+      description = "Run all the migrations of the config instead of a single one. Origin and"
+          + " destination refs are fetched only once for all of them. Migrations that write to"
+          + " different destinations run in parallel.")
+  boolean allMigrations = false;
+
+  @Parameter(names = "--all-parallelism",
+      description = "Maximum number of migrations that " + ALL_MIGRATIONS_FLAG + " runs in"
+          + " parallel", validateWith = GreaterThanZeroValidator.class)
+  int allParallelism = 4;
+
+  public boolean isAllMigrations() {
+    return allMigrations;
+  }
+
+  public int getAllParallelism() {
+    return allParallelism;
+  }
+
   @Parameter(names = "--nosmart-prune",
       description = "Disable smart prunning")
   boolean noSmartPrune = false;
@@ -16,13 +16,14 @@
 
 package com.google.copybara;
 
-import static com.google.copybara.GeneralOptions.OUTPUT_ROOT_FLAG;
 import static com.google.copybara.util.FileUtil.CopySymlinkStrategy.FAIL_OUTSIDE_SYMLINKS;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Verify;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.copybara.Destination.DestinationStatus;
 import com.google.copybara.Destination.Writer;
 import com.google.copybara.DestinationEffect.Type;
@@ -51,10 +52,14 @@ import com.google.copybara.util.console.Console;
 import com.google.copybara.util.console.ProgressPrefixConsole;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nullable;
@@ -64,6 +69,9 @@ import javax.annotation.Nullable;
  */
 public class WorkflowRunHelper<O extends Revision, D extends Revision> {
 
+  private static final String CHECKOUT_DIR = "checkout";
+  private static final String CHECKOUT_STATE_DIR = "checkout_state";
+
   private final Logger logger = Logger.getLogger(this.getClass().getName());
 
   private final Workflow<O, D> workflow;
@@ -74,6 +82,11 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
   @Nullable
   private final String groupId;
   @Nullable final String rawSourceRef;
+  /**
+   * Migrations whose changes the writer left pending. Shared by the helpers of a run, since
+   * writers can share their state.
+   */
+  private List<PendingMigration> pendingMigrations = new ArrayList<>();
 
   WorkflowRunHelper(Workflow<O, D> workflow, Path workdir, O resolvedRef,
       Reader<O> originReader, Writer<D> destinationWriter, @Nullable String groupId,
@@ -88,6 +101,14 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
     this.rawSourceRef = rawSourceRef;
   }
 
+  /**
+   * Shares the pending migrations with {@code other}, that has a writer that shares the state with
+   * the writer of this helper.
+   */
+  protected void sharePendingMigrations(WorkflowRunHelper<O, D> other) {
+    this.pendingMigrations = other.pendingMigrations;
+  }
+
   /**
    * origin_files used for this workflow
    */
@@ -260,12 +281,14 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
       throws IOException, RepoException, ValidationException {
     ImmutableList<DestinationEffect> effects = ImmutableList.of();
     boolean callPerMigrationHook = true;
+    boolean pending = false;
     try {
       eventMonitor().onChangeMigrationStarted(new ChangeMigrationStartedEvent());
       effects =
           doMigrate(
               rev, lastRev, processConsole, metadata, changes, destinationBaseline,
               changeIdentityRevision);
+      pending = writer.hasPendingWrites();
       return effects;
     } catch (EmptyChangeException empty) {
       effects =
@@ -278,35 +301,102 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
                   ImmutableList.of()));
       throw empty;
     } catch (ValidationException | IOException | RepoException | RuntimeException e) {
-      effects =
-          ImmutableList.of(
-              new DestinationEffect(
-                  Type.ERROR,
-                  "Errors happened during the migration",
-                  changes.getCurrent(),
-                  /*destinationRef=*/ null,
-                  ImmutableList.of(e.getMessage() != null ? e.getMessage() : e.toString())));
+      effects = errorEffects(changes, e);
       callPerMigrationHook = e instanceof ValidationException;
       throw e;
     } finally {
-      eventMonitor().onChangeMigrationFinished(new ChangeMigrationFinishedEvent(effects));
-      if (callPerMigrationHook) {
-        SkylarkConsole console = new SkylarkConsole(getConsole());
-        try (ProfilerTask ignored = profiler().start("finish_hooks")) {
-
-          for (Action action : workflow.getAfterMigrationActions()) {
-            try (ProfilerTask ignored2 = profiler().start(action.getName())) {
-              logger.log(Level.INFO, "Running after migration hook: " + action.getName());
-              action.run(
-                  new FinishHookContext(
-                      action,
-                      getOriginReader().getFeedbackEndPoint(),
-                      getDestinationWriter().getFeedbackEndPoint(),
-                      effects,
-                      resolvedRef,
-                      console));
-            }
-          }
+      if (pending) {
+        // The effects only happen once the writer flushes the change.
+        pendingMigrations.add(new PendingMigration(this, changes, effects));
+      } else {
+        if (!writer.hasPendingWrites()) {
+          // This write made the previous pending writes visible too.
+          finishPendingMigrations(/*error=*/ null);
+        }
+        finishMigration(effects, callPerMigrationHook);
+      }
+    }
+  }
+
+  /**
+   * Flushes the writes that the destination writer left pending, and finishes their migrations.
+   * If the flush fails, the pending migrations finish with an error effect.
+   */
+  void flushPendingWrites(Console console) throws RepoException, ValidationException, IOException {
+    if (pendingMigrations.isEmpty()) {
+      return;
+    }
+    // Flush with the writer of the last migration, that might have a newer configuration.
+    Writer<?> lastWriter = pendingMigrations.get(pendingMigrations.size() - 1).helper.writer;
+    try (ProfilerTask ignored = profiler().start(
+        "destination.flush", profiler().taskType(workflow.getDestination().getType()))) {
+      lastWriter.flush(console);
+    } catch (ValidationException | IOException | RepoException | RuntimeException e) {
+      finishPendingMigrations(e);
+      throw e;
+    }
+    finishPendingMigrations(/*error=*/ null);
+  }
+
+  private void finishPendingMigrations(@Nullable Exception error)
+      throws ValidationException, RepoException {
+    List<PendingMigration> toFinish = new ArrayList<>(pendingMigrations);
+    pendingMigrations.clear();
+    for (PendingMigration migration : toFinish) {
+      if (error == null) {
+        migration.helper.finishMigration(migration.effects, /*callPerMigrationHook=*/ true);
+      } else {
+        migration.helper.finishMigration(errorEffects(migration.changes, error),
+            error instanceof ValidationException);
+      }
+    }
+  }
+
+  /** A successful migration that is not visible in the destination yet. */
+  private static class PendingMigration {
+
+    private final WorkflowRunHelper<?, ?> helper;
+    private final Changes changes;
+    private final ImmutableList<DestinationEffect> effects;
+
+    private PendingMigration(WorkflowRunHelper<?, ?> helper, Changes changes,
+        ImmutableList<DestinationEffect> effects) {
+      this.helper = helper;
+      this.changes = changes;
+      this.effects = effects;
+    }
+  }
+
+  private static ImmutableList<DestinationEffect> errorEffects(Changes changes, Exception e) {
+    return ImmutableList.of(
+        new DestinationEffect(
+            Type.ERROR,
+            "Errors happened during the migration",
+            changes.getCurrent(),
+            /*destinationRef=*/ null,
+            ImmutableList.of(e.getMessage() != null ? e.getMessage() : e.toString())));
+  }
+
+  /** Notifies the end of a change migration and runs the after migration hooks. */
+  private void finishMigration(ImmutableList<DestinationEffect> effects,
+      boolean callPerMigrationHook) throws ValidationException, RepoException {
+    eventMonitor().onChangeMigrationFinished(new ChangeMigrationFinishedEvent(effects));
+    if (!callPerMigrationHook) {
+      return;
+    }
+    SkylarkConsole console = new SkylarkConsole(getConsole());
+    try (ProfilerTask ignored = profiler().start("finish_hooks")) {
+      for (Action action : workflow.getAfterMigrationActions()) {
+        try (ProfilerTask ignored2 = profiler().start(action.getName())) {
+          logger.log(Level.INFO, "Running after migration hook: " + action.getName());
+          action.run(
+              new FinishHookContext(
+                  action,
+                  getOriginReader().getFeedbackEndPoint(),
+                  getDestinationWriter().getFeedbackEndPoint(),
+                  effects,
+                  resolvedRef,
+                  console));
         }
       }
     }
@@ -321,10 +411,13 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
       @Nullable Baseline<O> destinationBaseline,
       @Nullable O changeIdentityRevision)
       throws IOException, RepoException, ValidationException {
-    Path checkoutDir = workdir.resolve("checkout");
+    Path checkoutDir = workdir.resolve(CHECKOUT_DIR);
+    boolean incrementalCheckout = canUseIncrementalCheckout(changes);
     try (ProfilerTask ignored = profiler().start("prepare_workdir")) {
       processConsole.progress("Cleaning working directory");
-      if (Files.exists(workdir)) {
+      if (incrementalCheckout) {
+        cleanWorkdirExceptCheckout();
+      } else if (Files.exists(workdir)) {
         FileUtil.deleteRecursively(workdir);
       }
       Files.createDirectories(checkoutDir);
@@ -333,7 +426,16 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
 
     try (ProfilerTask ignored = profiler().start(
         "origin.checkout", profiler().taskType(workflow.getOrigin().getType()))) {
-      originReader.checkout(rev, checkoutDir);
+      if (!incrementalCheckout
+          || !originReader.checkoutIncremental(
+              rev, checkoutDir, workdir.resolve(CHECKOUT_STATE_DIR))) {
+        if (incrementalCheckout) {
+          // The origin doesn't support it. Remove the files of the previous change.
+          FileUtil.deleteRecursively(checkoutDir);
+          Files.createDirectories(checkoutDir);
+        }
+        originReader.checkout(rev, checkoutDir);
+      }
     }
 
     // Remove excluded origin files.
@@ -347,12 +449,12 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
           "Removed %d files from workdir that do not match origin_files", deleted);
     }
 
-    Path originCopy = null;
+    ReversibleCheck reversibleCheck = null;
     if (workflow.getReverseTransformForCheck() != null) {
-      try (ProfilerTask ignored = profiler().start("reverse_copy")) {
-        workflow.getConsole().progress("Making a copy or the workdir for reverse checking");
-        originCopy = Files.createDirectories(workdir.resolve("origin"));
-        FileUtil.copyFilesRecursively(checkoutDir, originCopy, FAIL_OUTSIDE_SYMLINKS);
+      try (ProfilerTask ignored = profiler().start("reverse_record_origin")) {
+        workflow.getConsole().progress("Hashing the workdir files for reverse checking");
+        reversibleCheck =
+            ReversibleCheck.recordOrigin(checkoutDir, workflowOptions().parallelizer());
       }
     }
 
@@ -371,7 +473,7 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
       workflow.getTransformation().transform(transformWork);
     }
 
-    if (workflow.getReverseTransformForCheck() != null) {
+    if (reversibleCheck != null) {
       workflow.getConsole().progress("Checking that the transformations can be reverted");
       Path reverse;
       try (ProfilerTask ignored = profiler().start("reverse_copy")) {
@@ -391,20 +493,12 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
                     resolvedRef,
                     /*ignoreNoop=*/ false));
       }
-      String diff;
-      try {
-        diff = new String(DiffUtil.diff(originCopy, reverse, workflow.isVerbose(),
-            workflow.getGeneralOptions().getEnvironment()),
-            StandardCharsets.UTF_8);
-      } catch (InsideGitDirException e) {
-        throw new ValidationException(
-            "Cannot use 'reversible_check = True' because Copybara temporary directory (%s) is"
-                + " inside a git directory (%s). Please remove the git repository or use %s flag.",
-            e.getPath(), e.getGitDirPath(), OUTPUT_ROOT_FLAG);
+      ImmutableSortedSet<String> differences;
+      try (ProfilerTask ignored = profiler().start("reverse_check")) {
+        differences = reversibleCheck.findDifferences(reverse);
       }
-      if (!diff.trim().isEmpty()) {
-        workflow.getConsole().error("Non reversible transformations:\n"
-            + DiffUtil.colorize(workflow.getConsole(), diff));
+      if (!differences.isEmpty()) {
+        reportNonReversible(rev, differences, reverse);
         throw new ValidationException("Workflow '%s' is not reversible", workflow.getName());
       }
     }
@@ -481,6 +575,73 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
     return result;
   }
 
+  /**
+   * Returns true if the checkout of the previous change can be reused for migrating
+   * {@code changes}.
+   *
+   * <p>We only do it for ITERATIVE workflows, where consecutive changes are usually small, and
+   * only if we know the files affected by the changes. Otherwise we fall back to a full checkout.
+   */
+  private boolean canUseIncrementalCheckout(Changes changes) {
+    if (!workflowOptions().incrementalCheckout || workflow.getMode() != WorkflowMode.ITERATIVE) {
+      return false;
+    }
+    for (Change<?> change : changes.getCurrent()) {
+      if (change.getChangeFiles() == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Shows the diff of the files that the reverse transformation didn't restore. The origin files
+   * are not kept during the check, so they are checked out again, and only the differences are
+   * diffed.
+   */
+  private void reportNonReversible(O rev, Set<String> differences, Path reverse)
+      throws IOException, RepoException, ValidationException {
+    Path originCopy = Files.createDirectories(workdir.resolve("origin"));
+    originReader.checkout(rev, originCopy);
+    PathMatcher originFiles = workflow.getOriginFiles().relativeTo(originCopy);
+    FileUtil.deleteFilesRecursively(originCopy,
+        path -> !originFiles.matches(path)
+            || !differences.contains(originCopy.relativize(path).toString()));
+    FileUtil.deleteFilesRecursively(reverse,
+        path -> !differences.contains(reverse.relativize(path).toString()));
+
+    String diff;
+    try {
+      diff = new String(DiffUtil.diff(originCopy, reverse, workflow.isVerbose(),
+          workflow.getGeneralOptions().getEnvironment()),
+          StandardCharsets.UTF_8);
+    } catch (InsideGitDirException e) {
+      // git diff cannot be used, but the files that differ are already known.
+      logger.log(Level.WARNING, "Cannot diff non reversible files", e);
+      diff = "Files that differ after reversing the transformations:\n  "
+          + Joiner.on("\n  ").join(differences);
+    }
+    workflow.getConsole().error("Non reversible transformations:\n"
+        + DiffUtil.colorize(workflow.getConsole(), diff));
+  }
+
+  /**
+   * Deletes everything in the workdir except the checkout directory and the origin state needed
+   * for updating it incrementally.
+   */
+  private void cleanWorkdirExceptCheckout() throws IOException {
+    if (!Files.exists(workdir)) {
+      return;
+    }
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(workdir)) {
+      for (Path entry : entries) {
+        String name = entry.getFileName().toString();
+        if (!name.equals(CHECKOUT_DIR) && !name.equals(CHECKOUT_STATE_DIR)) {
+          FileUtil.deleteRecursively(entry);
+        }
+      }
+    }
+  }
 
   ChangesResponse<O> getChanges(@Nullable O from, O to) throws RepoException {
     try (ProfilerTask ignore = profiler().start("get_changes")) {
@@ -19,6 +19,7 @@ package com.google.copybara.config;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.copybara.exception.CannotResolveLabel;
 import java.io.IOException;
 import java.util.HashMap;
@@ -32,6 +33,7 @@ import java.util.Set;
  */
 class CapturingConfigFile<T> extends ConfigFile<T> {
   private final Set<CapturingConfigFile<T>> children = new LinkedHashSet<>();
+  private final Set<String> labels = new LinkedHashSet<>();
   private final ConfigFile<T> wrapped;
 
   CapturingConfigFile(ConfigFile<T> config) {
@@ -77,11 +79,30 @@ class CapturingConfigFile<T> extends ConfigFile<T> {
     }
   }
 
+  /**
+   * Retrieve the labels resolved while loading.
+   * @return A Multimap from the path of each ConfigFile created by this or one of its descendants
+   *     (including this) to the labels that were resolved relative to it.
+   */
+  ImmutableSetMultimap<String, String> getAllLoadedLabels() {
+    ImmutableSetMultimap.Builder<String, String> builder = ImmutableSetMultimap.builder();
+    getAllLoadedLabels(builder);
+    return builder.build();
+  }
+
+  private void getAllLoadedLabels(ImmutableSetMultimap.Builder<String, String> builder) {
+    builder.putAll(path(), labels);
+    for (CapturingConfigFile<T> child : children) {
+      child.getAllLoadedLabels(builder);
+    }
+  }
+
   @Override
   protected ConfigFile<T> createConfigFile(String label, T resolved) throws CannotResolveLabel {
     CapturingConfigFile<T> child =
         new CapturingConfigFile<>(wrapped.createConfigFile(label, resolved));
     children.add(child);
+    labels.add(label);
     return child;
   }
 
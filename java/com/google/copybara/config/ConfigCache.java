@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.config;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.copybara.exception.CannotResolveLabel;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * Remembers the configs loaded for a main config file, so that they are not evaluated again while
+ * the contents of the config file and all the files that it loads don't change.
+ *
+ * <p>The files loaded are resolved again from the config file passed to {@link #get}, using the
+ * same labels, so a config loaded from one revision of a repository is reused for another
+ * revision if none of its files changed between them.
+ *
+ * <p>A {@link Config} is bound to the options of the module set used to load it, so a cache
+ * should only be used with a single module set.
+ *
+ * <p>Thread-safe.
+ */
+public final class ConfigCache {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final Map<String, CachedConfig> configs = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the config loaded for {@code configFile} if none of the files read when loading it
+   * changed, or null otherwise.
+   */
+  @Nullable
+  public Config get(ConfigFile<?> configFile) {
+    CachedConfig cached = configs.get(configFile.path());
+    if (cached == null) {
+      return null;
+    }
+    try {
+      Map<String, ConfigFile<?>> files = new HashMap<>();
+      resolve(configFile, cached.labels, files);
+      if (cached.hash.equals(hash(files))) {
+        return cached.config;
+      }
+    } catch (IOException | CannotResolveLabel e) {
+      // For example a file that was deleted. Loading the config will report the error.
+      logger.atInfo().withCause(e).log("Cannot reuse config for %s", configFile.path());
+    }
+    configs.remove(configFile.path(), cached);
+    return null;
+  }
+
+  /**
+   * Remembers the config loaded for {@code configFile}.
+   *
+   * @param files all the config files read when loading the config, including {@code configFile}
+   * @param labels the labels resolved relative to each of the {@code files}, keyed by its path
+   */
+  public void put(ConfigFile<?> configFile, ImmutableMap<String, ? extends ConfigFile<?>> files,
+      ImmutableSetMultimap<String, String> labels, Config config) throws IOException {
+    configs.put(configFile.path(), new CachedConfig(labels, hash(files), config));
+  }
+
+  private static void resolve(ConfigFile<?> file, ImmutableSetMultimap<String, String> labels,
+      Map<String, ConfigFile<?>> files) throws CannotResolveLabel {
+    if (files.put(file.path(), file) != null) {
+      return;
+    }
+    for (String label : labels.get(file.path())) {
+      resolve(file.resolve(label), labels, files);
+    }
+  }
+
+  /**
+   * Returns a hash of the paths and contents of {@code files}, that changes when any of the files
+   * changes.
+   */
+  public static HashCode hash(Map<String, ? extends ConfigFile<?>> files) throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    for (Map.Entry<String, ? extends ConfigFile<?>> file : new TreeMap<>(files).entrySet()) {
+      byte[] content = file.getValue().content();
+      hasher.putString(file.getKey(), UTF_8)
+          .putInt(content.length)
+          .putBytes(content);
+    }
+    return hasher.hash();
+  }
+
+  private static class CachedConfig {
+
+    private final ImmutableSetMultimap<String, String> labels;
+    private final HashCode hash;
+    private final Config config;
+
+    private CachedConfig(ImmutableSetMultimap<String, String> labels, HashCode hash,
+        Config config) {
+      this.labels = labels;
+      this.hash = hash;
+      this.config = config;
+    }
+  }
+}
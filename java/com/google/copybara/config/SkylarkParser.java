@@ -23,6 +23,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.flogger.FluentLogger;
 import com.google.copybara.ModuleSet;
 import com.google.copybara.exception.ValidationException;
@@ -153,7 +154,8 @@ public class SkylarkParser {
 
     configFilesSupplier.setConfigFiles(allLoadedFiles);
 
-    return new ConfigWithDependencies<>(allLoadedFiles, parsedConfig);
+    return new ConfigWithDependencies<>(allLoadedFiles, capturingConfigFile.getAllLoadedLabels(),
+        parsedConfig);
   }
 
   private static class ConfigFilesSupplier<T>
@@ -181,11 +183,15 @@ public class SkylarkParser {
    */
   public static class ConfigWithDependencies <T> {
     public final ImmutableMap<String, ConfigFile<T>> files;
+    /** The labels resolved relative to each of the {@code files}, keyed by its path. */
+    public final ImmutableSetMultimap<String, String> labels;
     public final Config config;
 
-    private ConfigWithDependencies(ImmutableMap<String, ConfigFile<T>> files, Config config) {
+    private ConfigWithDependencies(ImmutableMap<String, ConfigFile<T>> files,
+        ImmutableSetMultimap<String, String> labels, Config config) {
       this.config = config;
       this.files = files;
+      this.labels = labels;
     }
   }
 
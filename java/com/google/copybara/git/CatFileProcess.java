@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.git.GitRepository.GitObjectType;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * A long-lived {@code git cat-file --batch-check} or {@code git cat-file --batch} process that
+ * looks up the objects of a git directory without forking git for each lookup.
+ *
+ * <p>Processes are shared by all the {@link GitRepository} instances with the same git directory
+ * and environment. At most {@link #MAX_PROCESSES} are kept alive: the least recently used ones
+ * and the ones not used for a while are closed. A process that fails is restarted once for the
+ * same lookup. All of them are closed when the JVM exits.
+ */
+final class CatFileProcess {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final int MAX_PROCESSES = 16;
+
+  private static final Cache<Key, CatFileProcess> PROCESSES = CacheBuilder.newBuilder()
+      .maximumSize(MAX_PROCESSES)
+      .expireAfterAccess(5, TimeUnit.MINUTES)
+      .<Key, CatFileProcess>removalListener(notification -> notification.getValue().close())
+      .build();
+
+  static {
+    Runtime.getRuntime().addShutdownHook(
+        new Thread(CatFileProcess::closeAll, "git-cat-file-shutdown"));
+  }
+
+  private final Key key;
+  private boolean closed;
+  @Nullable private Process process;
+  @Nullable private Path stderr;
+  @Nullable private OutputStream stdin;
+  @Nullable private InputStream stdout;
+
+  private CatFileProcess(Key key) {
+    this.key = checkNotNull(key);
+  }
+
+  /**
+   * Looks up {@code object}, that can be any revision expression that {@code git cat-file}
+   * accepts, and returns null if it doesn't exist or is ambiguous. The content is only read if
+   * {@code withContent} is true.
+   */
+  @Nullable
+  static GitObject lookup(String gitBinary, Path gitDir, Map<String, String> environment,
+      String object, boolean withContent) throws RepoException {
+    if (object.isEmpty() || object.indexOf('\n') != -1 || object.indexOf('\r') != -1) {
+      // Cannot be sent through the line based protocol, and cannot be a valid object either.
+      return null;
+    }
+    Key key = new Key(gitBinary, gitDir.toAbsolutePath(), environment, withContent);
+    while (true) {
+      CatFileProcess catFile = PROCESSES.asMap().computeIfAbsent(key, CatFileProcess::new);
+      Result result = catFile.lookup(object);
+      if (result.closed) {
+        // Evicted from the pool while we were using it. Use the new one instead.
+        PROCESSES.asMap().remove(key, catFile);
+        continue;
+      }
+      return result.object;
+    }
+  }
+
+  /** Closes all the processes. They are started again if needed. */
+  @VisibleForTesting
+  static void closeAll() {
+    PROCESSES.invalidateAll();
+  }
+
+  private synchronized Result lookup(String object) throws RepoException {
+    if (closed) {
+      return Result.CLOSED;
+    }
+    try {
+      return new Result(lookupOnce(object));
+    } catch (IOException first) {
+      logger.atWarning().withCause(first).log(
+          "git cat-file failed for %s. Restarting it", key.gitDir);
+      stopProcess();
+      try {
+        return new Result(lookupOnce(object));
+      } catch (IOException e) {
+        String error = readStderr();
+        stopProcess();
+        throw new RepoException(String.format(
+            "Error executing 'git cat-file %s' for '%s': %s%s", key.mode(), object,
+            e.getMessage(), error.isEmpty() ? "" : ". Stderr: " + error), e);
+      }
+    }
+  }
+
+  @Nullable
+  private GitObject lookupOnce(String object) throws IOException {
+    if (process == null) {
+      startProcess();
+    }
+    stdin.write((object + "\n").getBytes(StandardCharsets.UTF_8));
+    stdin.flush();
+    String header = readLine();
+    // "<sha1> <type> <size>", or "<object> missing" and "<object> ambiguous". The object could
+    // contain spaces, but the last field is enough to tell the cases apart.
+    if (header.endsWith(" missing") || header.endsWith(" ambiguous")) {
+      return null;
+    }
+    List<String> fields = Splitter.on(' ').splitToList(header);
+    if (fields.size() != 3) {
+      throw new IOException("Unexpected format for cat-file output: " + header);
+    }
+    GitObjectType type;
+    long size;
+    try {
+      type = GitObjectType.valueOf(fields.get(1).toUpperCase(Locale.ROOT));
+      size = Long.parseLong(fields.get(2));
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Unexpected format for cat-file output: " + header, e);
+    }
+    byte[] content = null;
+    if (key.withContent) {
+      if (size > Integer.MAX_VALUE - 1) {
+        // We would need to read it anyway to keep the protocol in sync.
+        throw new IOException("Object too big to be read: " + header);
+      }
+      content = new byte[(int) size];
+      readFully(content);
+      if (stdout.read() != '\n') {
+        throw new IOException("Missing new line after the content of " + fields.get(0));
+      }
+    }
+    return new GitObject(fields.get(0), type, size, content);
+  }
+
+  private void startProcess() throws IOException {
+    List<String> cmd = new ArrayList<>();
+    cmd.add(key.gitBinary);
+    cmd.add("--git-dir=" + key.gitDir);
+    cmd.add("cat-file");
+    cmd.add(key.mode());
+    logger.atInfo().log("Starting %s", cmd);
+    stderr = Files.createTempFile("git_cat_file", ".stderr");
+    ProcessBuilder builder = new ProcessBuilder(cmd)
+        .directory(key.gitDir.toFile())
+        .redirectError(stderr.toFile());
+    builder.environment().clear();
+    builder.environment().putAll(key.environment);
+    process = builder.start();
+    stdin = process.getOutputStream();
+    stdout = new BufferedInputStream(process.getInputStream());
+  }
+
+  private String readLine() throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int c;
+    while ((c = stdout.read()) != '\n') {
+      if (c == -1) {
+        throw new EOFException("git cat-file exited");
+      }
+      line.write(c);
+    }
+    return new String(line.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private void readFully(byte[] content) throws IOException {
+    int read = 0;
+    while (read < content.length) {
+      int n = stdout.read(content, read, content.length - read);
+      if (n == -1) {
+        throw new EOFException("git cat-file exited");
+      }
+      read += n;
+    }
+  }
+
+  private String readStderr() {
+    if (stderr == null) {
+      return "";
+    }
+    try {
+      if (process != null) {
+        // Give it a chance to write the error before exiting.
+        process.waitFor(1, TimeUnit.SECONDS);
+      }
+      return new String(Files.readAllBytes(stderr), StandardCharsets.UTF_8).trim();
+    } catch (IOException e) {
+      return "";
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return "";
+    }
+  }
+
+  private synchronized void close() {
+    closed = true;
+    stopProcess();
+  }
+
+  private void stopProcess() {
+    if (process != null) {
+      try {
+        // cat-file exits when its input is closed.
+        stdin.close();
+        if (!process.waitFor(1, TimeUnit.SECONDS)) {
+          process.destroy();
+        }
+      } catch (IOException e) {
+        process.destroy();
+      } catch (InterruptedException e) {
+        process.destroy();
+        Thread.currentThread().interrupt();
+      }
+      process = null;
+      stdin = null;
+      stdout = null;
+    }
+    if (stderr != null) {
+      try {
+        Files.deleteIfExists(stderr);
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot delete %s", stderr);
+      }
+      stderr = null;
+    }
+  }
+
+  /** An object as printed by {@code git cat-file}. */
+  static final class GitObject {
+
+    private final String sha1;
+    private final GitObjectType type;
+    private final long size;
+    @Nullable private final byte[] content;
+
+    private GitObject(String sha1, GitObjectType type, long size, @Nullable byte[] content) {
+      this.sha1 = checkNotNull(sha1);
+      this.type = checkNotNull(type);
+      this.size = size;
+      this.content = content;
+    }
+
+    String getSha1() {
+      return sha1;
+    }
+
+    GitObjectType getType() {
+      return type;
+    }
+
+    long getSize() {
+      return size;
+    }
+
+    /** The content of the object, or null if it was not requested. */
+    @Nullable
+    byte[] getContent() {
+      return content;
+    }
+  }
+
+  private static final class Result {
+
+    private static final Result CLOSED = new Result(null, /*closed=*/ true);
+
+    @Nullable private final GitObject object;
+    private final boolean closed;
+
+    private Result(@Nullable GitObject object) {
+      this(object, /*closed=*/ false);
+    }
+
+    private Result(@Nullable GitObject object, boolean closed) {
+      this.object = object;
+      this.closed = closed;
+    }
+  }
+
+  private static final class Key {
+
+    private final String gitBinary;
+    private final Path gitDir;
+    private final ImmutableMap<String, String> environment;
+    private final boolean withContent;
+
+    private Key(String gitBinary, Path gitDir, Map<String, String> environment,
+        boolean withContent) {
+      this.gitBinary = checkNotNull(gitBinary);
+      this.gitDir = checkNotNull(gitDir);
+      this.environment = ImmutableMap.copyOf(environment);
+      this.withContent = withContent;
+    }
+
+    private String mode() {
+      return withContent ? "--batch" : "--batch-check";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key that = (Key) o;
+      return withContent == that.withContent
+          && gitBinary.equals(that.gitBinary)
+          && gitDir.equals(that.gitDir)
+          && environment.equals(that.environment);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(gitBinary, gitDir, environment, withContent);
+    }
+  }
+}
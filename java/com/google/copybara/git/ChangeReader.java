@@ -23,6 +23,8 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.copybara.Change;
 import com.google.copybara.ChangeMessage;
+import com.google.copybara.ChangeVisitable.ChangesVisitor;
+import com.google.copybara.ChangeVisitable.VisitResult;
 import com.google.copybara.authoring.Author;
 import com.google.copybara.authoring.Authoring;
 import com.google.copybara.exception.RepoException;
@@ -46,12 +48,11 @@ class ChangeReader {
   private final boolean includeBranchCommitLogs;
   private String url;
   private boolean firstParent;
-  private int skip;
   @Nullable private final String grepString;
 
   private ChangeReader(@Nullable Authoring authoring, GitRepository repository, int limit,
       Iterable<String> roots, boolean includeBranchCommitLogs, @Nullable String url,
-      boolean firstParent, int skip, @Nullable String grepString) {
+      boolean firstParent, @Nullable String grepString) {
     this.authoring = authoring;
     this.repository = checkNotNull(repository, "repository");
     this.limit = limit;
@@ -59,11 +60,34 @@ class ChangeReader {
     this.includeBranchCommitLogs = includeBranchCommitLogs;
     this.url = url;
     this.firstParent = firstParent;
-    this.skip = skip;
     this.grepString = grepString;
   }
 
   ImmutableList<GitChange> run(String refExpression) throws RepoException {
+    return parseChanges(logCmd(refExpression).run());
+  }
+
+  /**
+   * Visits the changes of {@code refExpression} from the newest to the oldest, reading them from a
+   * single 'git log' process while visiting them. The process is stopped as soon as the visitor
+   * returns {@link VisitResult#TERMINATE}.
+   *
+   * @return true if at least one change was visited
+   */
+  boolean visit(String refExpression, ChangesVisitor visitor) throws RepoException {
+    GitRevision[] last = new GitRevision[1];
+    logCmd(refExpression).visit(e -> {
+      // Keep the first commit if repeated (merge commits).
+      if (last[0] != null && last[0].equals(e.getCommit())) {
+        return true;
+      }
+      last[0] = e.getCommit();
+      return visitor.visit(toGitChange(e).getChange()) != VisitResult.TERMINATE;
+    });
+    return last[0] != null;
+  }
+
+  private LogCmd logCmd(String refExpression) {
     LogCmd logCmd = repository
         .log(refExpression)
         .firstParent(firstParent)
@@ -71,13 +95,10 @@ class ChangeReader {
     if (limit != -1) {
       logCmd = logCmd.withLimit(limit);
     }
-    if (skip > 0) {
-      logCmd = logCmd.withSkip(skip);
-    }
     if (grepString != null) {
       logCmd = logCmd.grep(grepString);
     }
-    return parseChanges(logCmd.includeFiles(true).includeMergeDiff(true).run());
+    return logCmd.includeFiles(true).includeMergeDiff(true);
   }
 
   static final String BRANCH_COMMIT_LOG_HEADING = "-- Branch commit log --";
@@ -125,18 +146,22 @@ class ChangeReader {
         continue;
       }
       last = e.getCommit();
-      result.add(new GitChange(new Change<>(
-          e.getCommit().withUrl(url),
-          filterAuthor(e.getAuthor())
-          , e.getBody() + branchCommitLog(e.getCommit(), e.getParents()),
-          e.getAuthorDate(),
-          ChangeMessage.parseAllAsLabels(e.getBody()).labelsAsMultimap(),
-          e.getFiles(), e.getParents().size() > 1),
-          e.getParents()));
+      result.add(toGitChange(e));
     }
     return result.build().reverse();
   }
 
+  private GitChange toGitChange(GitLogEntry e) throws RepoException {
+    return new GitChange(new Change<>(
+        e.getCommit().withUrl(url),
+        filterAuthor(e.getAuthor())
+        , e.getBody() + branchCommitLog(e.getCommit(), e.getParents()),
+        e.getAuthorDate(),
+        ChangeMessage.parseAllAsLabels(e.getBody()).labelsAsMultimap(),
+        e.getFiles(), e.getParents().size() > 1),
+        e.getParents());
+  }
+
   private Author filterAuthor(Author author) {
     return authoring == null || authoring.useAuthor(author.getEmail())
         ? author
@@ -177,7 +202,6 @@ class ChangeReader {
     private boolean includeBranchCommitLogs = false;
     private String url;
     private boolean firstParent;
-    private int skip;
     private String grepString;
 
     // TODO(matvore): Consider adding destinationFiles.
@@ -205,12 +229,6 @@ class ChangeReader {
       return this;
     }
 
-    Builder setSkip(int skip) {
-      Preconditions.checkArgument(skip >= 0);
-      this.skip = skip;
-      return this;
-    }
-
     private Builder setAuthoring(Authoring authoring) {
       this.authoring = checkNotNull(authoring, "authoring");
       return this;
@@ -254,7 +272,7 @@ class ChangeReader {
     ChangeReader build() {
       return new ChangeReader(
           authoring, repository, limit, roots, includeBranchCommitLogs, url,
-          firstParent, skip, grepString);
+          firstParent, grepString);
     }
   }
 
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import com.google.common.base.Preconditions;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.git.GitCredential.UserPassword;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * Remembers the credentials returned by {@link GitRepository#credentialFill(String)} for each URL,
+ * so that API transports, that do lots of requests, only run 'git credential fill' once per URL.
+ * URLs without credentials are remembered too. The options share one instance between all the API
+ * instances of the process, so that the credentials are read only once.
+ *
+ * <p>Callers should {@link #invalidate()} the cache when the server rejects the credentials, so
+ * that they are read again from the credential helper in the next request, in case they changed.
+ *
+ * <p>Thread-safe.
+ */
+public final class CredentialCache {
+
+  private final GitRepository repo;
+  private final Map<String, Credentials> cache = new ConcurrentHashMap<>();
+
+  public CredentialCache(GitRepository repo) {
+    this.repo = Preconditions.checkNotNull(repo);
+  }
+
+  /**
+   * Returns the credentials for {@code url}.
+   *
+   * @throws ValidationException if the credential helper doesn't have credentials for the URL
+   */
+  public UserPassword fill(String url) throws RepoException, ValidationException {
+    Credentials credentials = cache.get(url);
+    if (credentials == null) {
+      try {
+        credentials = new Credentials(repo.credentialFill(url), /*notFound=*/null);
+      } catch (ValidationException e) {
+        credentials = new Credentials(/*userPassword=*/null, e);
+      }
+      cache.put(url, credentials);
+    }
+    if (credentials.notFound != null) {
+      throw new ValidationException(credentials.notFound, credentials.notFound.getMessage());
+    }
+    return credentials.userPassword;
+  }
+
+  /** Forgets all the credentials, for example because they were rejected by the server. */
+  public void invalidate() {
+    cache.clear();
+  }
+
+  private static class Credentials {
+
+    @Nullable
+    private final UserPassword userPassword;
+    @Nullable
+    private final ValidationException notFound;
+
+    private Credentials(@Nullable UserPassword userPassword,
+        @Nullable ValidationException notFound) {
+      this.userPassword = userPassword;
+      this.notFound = notFound;
+    }
+  }
+}
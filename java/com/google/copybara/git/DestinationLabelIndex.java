@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.copybara.ChangeMessage;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.git.GitRepository.GitLogEntry;
+import com.google.copybara.util.Glob;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+
+/**
+ * A persistent index of the commits in the history of a destination branch that have a label,
+ * like the origin label that {@link GitDestination} uses for finding the last migrated revision.
+ *
+ * <p>The index covers the newest part of the history, as far as the queries needed to read, and
+ * it is stored in the git directory of the repository together with the tip it was computed for.
+ * If the tip didn't move, the query doesn't need to run git at all. With --first-parent, when the
+ * branch moves forward only the new commits are read and prepended to the stored ones, so that in
+ * the usual case of a single new commit a query only needs one short 'git log'. Without it, 'git
+ * log' sorts the commits by date, so the new ones could go after some of the stored ones and the
+ * history is read again from the new tip. Reading the whole history only visits the commits that
+ * have the label, using 'git log --grep'.
+ *
+ * <p>Not thread-safe.
+ */
+final class DestinationLabelIndex {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final GitRepository repo;
+  private final String labelName;
+  private final boolean firstParent;
+  private final PathMatcher pathMatcher;
+  private final Path file;
+
+  DestinationLabelIndex(GitRepository repo, String labelName, Glob destinationFiles,
+      boolean firstParent) {
+    this.repo = Preconditions.checkNotNull(repo);
+    this.labelName = Preconditions.checkNotNull(labelName);
+    this.firstParent = firstParent;
+    this.pathMatcher = destinationFiles.relativeTo(Paths.get(""));
+    // Changes match or not depending on the label, destination files and the walk used.
+    String key = Hashing.sha256()
+        .hashString(labelName + '\0' + destinationFiles + '\0' + firstParent, UTF_8)
+        .toString();
+    this.file = repo.getGitDir().resolve("copybara").resolve("label_index").resolve(key);
+  }
+
+  /**
+   * Returns the newest change reachable from {@code tip} that has the label and modifies any of
+   * the destination files.
+   */
+  @Nullable
+  Entry findLastMigrated(GitRevision tip) throws RepoException {
+    return find(tip, Entry::modifiesDestinationFiles);
+  }
+
+  /**
+   * Returns the newest change reachable from {@code tip} that has the label with a value accepted
+   * by {@code valueMatcher}.
+   */
+  @Nullable
+  Entry findWithValue(GitRevision tip, Predicate<String> valueMatcher) throws RepoException {
+    return find(tip, e -> valueMatcher.test(e.getValue()));
+  }
+
+  @Nullable
+  private Entry find(GitRevision tip, Predicate<Entry> query) throws RepoException {
+    String sha1 = tip.getSha1();
+    Window stored = load();
+    if (stored != null && stored.tip.equals(sha1)) {
+      Entry result = stored.find(query);
+      if (result != null || stored.complete) {
+        return result;
+      }
+    } else if (stored != null && firstParent && isAncestor(stored.tip, sha1)) {
+      Scan scan = scan(stored.tip + ".." + sha1, /*grep=*/ null, query);
+      if (!scan.finished) {
+        // Found before reading all the new commits, so the stored ones cannot be reused.
+        save(new Window(sha1, ImmutableList.copyOf(scan.entries), /*complete=*/false));
+        return scan.match;
+      }
+      // The stored commits follow the new ones only if the old tip is in the first parent chain
+      // of the new one.
+      if (stored.tip.equals(scan.lastFirstParent)) {
+        Window merged = new Window(sha1,
+            ImmutableList.copyOf(Iterables.concat(scan.entries, stored.entries)),
+            stored.complete);
+        Entry result = merged.find(query);
+        if (result != null || merged.complete) {
+          save(merged);
+          return result;
+        }
+      }
+    }
+    // Read the history from the tip as far as needed. The grep accepts every separator that the
+    // label parser accepts ('name: value', 'name=value', 'name : value'), since the stored entries
+    // are shared by all the queries.
+    Scan scan = scan(sha1, "^" + labelName + " *[:=]", query);
+    save(new Window(sha1, ImmutableList.copyOf(scan.entries), scan.finished));
+    return scan.match;
+  }
+
+  private boolean isAncestor(String ancestor, String commit) {
+    try {
+      return repo.isAncestor(ancestor, commit);
+    } catch (RepoException e) {
+      // For example if the stored tip doesn't exist anymore in the repository.
+      logger.atWarning().withCause(e).log("Cannot use label index %s", file);
+      return false;
+    }
+  }
+
+  /**
+   * Reads the commits of {@code refExpression} until one matches {@code query}. If {@code grep} is
+   * not null, only the commits with a matching message are read, and {@link Scan#lastFirstParent}
+   * cannot be used.
+   */
+  private Scan scan(String refExpression, @Nullable String grep, Predicate<Entry> query)
+      throws RepoException {
+    Scan scan = new Scan();
+    GitRevision[] last = new GitRevision[1];
+    repo.log(refExpression)
+        .grep(grep)
+        .firstParent(firstParent)
+        .includeFiles(true)
+        .includeMergeDiff(true)
+        .visit(e -> {
+          // Keep the first commit if repeated (merge commits).
+          if (last[0] != null && last[0].equals(e.getCommit())) {
+            return true;
+          }
+          last[0] = e.getCommit();
+          scan.lastFirstParent = e.getParents().isEmpty() ? null : e.getParents().get(0).getSha1();
+          Entry entry = toEntry(e);
+          if (entry == null) {
+            return true;
+          }
+          scan.entries.add(entry);
+          if (query.test(entry)) {
+            scan.match = entry;
+            return false;
+          }
+          return true;
+        });
+    scan.finished = scan.match == null;
+    return scan;
+  }
+
+  @Nullable
+  private Entry toEntry(GitLogEntry logEntry) {
+    List<String> values =
+        ChangeMessage.parseAllAsLabels(logEntry.getBody()).labelsAsMultimap().get(labelName);
+    if (values.isEmpty()) {
+      return null;
+    }
+    boolean modifiesDestinationFiles = false;
+    if (logEntry.getFiles() != null) {
+      for (String changeFile : logEntry.getFiles()) {
+        if (pathMatcher.matches(Paths.get('/' + changeFile))) {
+          modifiesDestinationFiles = true;
+          break;
+        }
+      }
+    }
+    return new Entry(logEntry.getCommit().getSha1(), Iterables.getLast(values),
+        modifiesDestinationFiles);
+  }
+
+  @Nullable
+  private Window load() {
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try {
+      List<String> lines = Files.readAllLines(file, UTF_8);
+      List<String> header = Splitter.on(' ').splitToList(lines.get(0));
+      ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+      for (String line : lines.subList(1, lines.size())) {
+        List<String> fields = Splitter.on(' ').limit(3).splitToList(line);
+        entries.add(new Entry(fields.get(0), fields.get(2), fields.get(1).equals("1")));
+      }
+      return new Window(header.get(0), entries.build(), header.get(1).equals("1"));
+    } catch (IOException | RuntimeException e) {
+      logger.atWarning().withCause(e).log("Ignoring invalid label index %s", file);
+      return null;
+    }
+  }
+
+  /**
+   * Stores the index. Failing to store it is not an error since it can be computed again.
+   */
+  private void save(Window window) {
+    try {
+      Files.createDirectories(file.getParent());
+      Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+      try {
+        try (Writer writer = Files.newBufferedWriter(tmp, UTF_8)) {
+          writer.write(window.tip + " " + (window.complete ? "1" : "0") + "\n");
+          for (Entry entry : window.entries) {
+            writer.write(entry.commit + " " + (entry.modifiesDestinationFiles ? "1" : "0") + " "
+                + entry.value + "\n");
+          }
+        }
+        // Other processes might be reading the index.
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot store label index %s", file);
+    }
+  }
+
+  @VisibleForTesting
+  Path getFile() {
+    return file;
+  }
+
+  /** A change with the label. */
+  static class Entry {
+
+    private final String commit;
+    private final String value;
+    private final boolean modifiesDestinationFiles;
+
+    private Entry(String commit, String value, boolean modifiesDestinationFiles) {
+      this.commit = commit;
+      this.value = value;
+      this.modifiesDestinationFiles = modifiesDestinationFiles;
+    }
+
+    /** SHA-1 of the destination commit. */
+    String getCommit() {
+      return commit;
+    }
+
+    /** The last value of the label in the change. */
+    String getValue() {
+      return value;
+    }
+
+    boolean modifiesDestinationFiles() {
+      return modifiesDestinationFiles;
+    }
+  }
+
+  /** The changes with the label in the newest part of the history of {@link #tip}. */
+  private static class Window {
+
+    private final String tip;
+    private final ImmutableList<Entry> entries;
+    /** Whether the entries cover the whole history. */
+    private final boolean complete;
+
+    private Window(String tip, ImmutableList<Entry> entries, boolean complete) {
+      this.tip = tip;
+      this.entries = entries;
+      this.complete = complete;
+    }
+
+    @Nullable
+    private Entry find(Predicate<Entry> query) {
+      for (Entry entry : entries) {
+        if (query.test(entry)) {
+          return entry;
+        }
+      }
+      return null;
+    }
+  }
+
+  private static class Scan {
+
+    private final List<Entry> entries = new ArrayList<>();
+    @Nullable
+    private Entry match;
+    /** Whether all the commits were read. */
+    private boolean finished;
+    /** First parent of the last commit read. */
+    @Nullable
+    private String lastFirstParent;
+  }
+}
@@ -244,7 +244,9 @@ public final class GerritDestination implements Destination<GitRevision> {
                 generalOptions.console(),
                 changeIdPolicy),
             new GerritProcessPushOutput(generalOptions.console()),
-            DEFAULT_GIT_INTEGRATES),
+            DEFAULT_GIT_INTEGRATES,
+            // Each push creates or updates reviews, that are reported from its output.
+            /*pushEvery=*/ 1),
         submit);
   }
 
@@ -49,6 +49,8 @@ public class GerritOptions implements Option {
   private static final Pattern CHANGE_ID_PATTERN = Pattern.compile("I[0-9a-f]{40}");
   protected final GeneralOptions generalOptions;
   protected GitOptions gitOptions;
+  @Nullable
+  private CredentialCache credentials;
 
   public GerritOptions(GeneralOptions generalOptions, GitOptions gitOptions) {
     this.generalOptions = generalOptions;
@@ -159,7 +161,15 @@ public class GerritOptions implements Option {
    */
   protected GerritApiTransport newGerritApiTransport(URI uri)
       throws RepoException, ValidationException {
-    return new GerritApiTransportImpl(getCredentialsRepo(), uri, getHttpTransport());
+    return new GerritApiTransportImpl(getCredentials(), uri, getHttpTransport());
+  }
+
+  /** See {@link CredentialCache}. */
+  private synchronized CredentialCache getCredentials() throws RepoException {
+    if (credentials == null) {
+      credentials = new CredentialCache(getCredentialsRepo());
+    }
+    return credentials;
   }
 
   /**
@@ -26,9 +26,7 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
-import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
 import com.google.copybara.Change;
 import com.google.copybara.ChangeMessage;
@@ -48,10 +46,12 @@ import com.google.copybara.util.DiffUtil;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.console.Console;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.PathMatcher;
-import java.nio.file.Paths;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Predicate;
 import javax.annotation.Nullable;
 
 /**
@@ -108,6 +108,7 @@ public final class GitDestination implements Destination<GitRevision> {
   private final CommitGenerator commitGenerator;
   private final ProcessPushOutput processPushOutput;
   private final LazyResourceLoader<GitRepository> localRepo;
+  private final int pushEvery;
 
   GitDestination(
       String repoUrl,
@@ -119,7 +120,8 @@ public final class GitDestination implements Destination<GitRevision> {
       boolean skipPush,
       CommitGenerator commitGenerator,
       ProcessPushOutput processPushOutput,
-      Iterable<GitIntegrateChanges> integrates) {
+      Iterable<GitIntegrateChanges> integrates,
+      int pushEvery) {
     this.repoUrl = checkNotNull(repoUrl);
     this.fetch = checkNotNull(fetch);
     this.push = checkNotNull(push);
@@ -132,6 +134,8 @@ public final class GitDestination implements Destination<GitRevision> {
     this.commitGenerator = checkNotNull(commitGenerator);
     this.processPushOutput = checkNotNull(processPushOutput);
     this.localRepo = memoized(ignored -> destinationOptions.localGitRepo(repoUrl));
+    Preconditions.checkArgument(pushEvery > 0, "pushEvery needs to be positive: %s", pushEvery);
+    this.pushEvery = pushEvery;
   }
 
   /**
@@ -170,12 +174,12 @@ public final class GitDestination implements Destination<GitRevision> {
     }
 
     return new WriterImpl<>(destinationFiles, effectiveSkipPush, repoUrl, fetch, push,
-                            generalOptions, commitGenerator, processPushOutput,
+                            generalOptions, gitOptions, commitGenerator, processPushOutput,
                             state, destinationOptions.nonFastForwardPush, integrates,
                             destinationOptions.lastRevFirstParent, destinationOptions.ignoreIntegrationErrors,
                             destinationOptions.localRepoPath, destinationOptions.committerName,
                             destinationOptions.committerEmail, destinationOptions.rebaseWhenBaseline(),
-                            gitOptions.visitChangePageSize);
+                            pushEvery);
   }
 
   /**
@@ -185,6 +189,9 @@ public final class GitDestination implements Destination<GitRevision> {
 
     boolean alreadyFetched;
     boolean firstWrite = true;
+    // The last commit written but not pushed yet, when pushes are batched.
+    @Nullable String pendingPush;
+    int pendingPushes;
     final LazyResourceLoader<GitRepository> localRepo;
     final String localBranch;
 
@@ -209,6 +216,7 @@ public final class GitDestination implements Destination<GitRevision> {
     // Only use this console when you don't receive one as a parameter.
     private final Console baseConsole;
     private final GeneralOptions generalOptions;
+    private final GitOptions gitOptions;
     private final CommitGenerator commitGenerator;
     private final ProcessPushOutput processPushOutput;
     final S state;
@@ -221,17 +229,17 @@ public final class GitDestination implements Destination<GitRevision> {
     private final String committerName;
     private final String committerEmail;
     private final boolean rebase;
-    private final int visitChangePageSize;
+    private final int pushEvery;
 
     /**
      * Create a new git.destination writer
      */
     WriterImpl(Glob destinationFiles, boolean skipPush, String repoUrl, String remoteFetch,
-        String remotePush, GeneralOptions generalOptions, CommitGenerator commitGenerator,
-        ProcessPushOutput processPushOutput, S state, boolean nonFastForwardPush,
-        Iterable<GitIntegrateChanges> integrates, boolean lastRevFirstParent,
-        boolean ignoreIntegrationErrors, String localRepoPath, String committerName,
-        String committerEmail, boolean rebase, int visitChangePageSize) {
+        String remotePush, GeneralOptions generalOptions, GitOptions gitOptions,
+        CommitGenerator commitGenerator, ProcessPushOutput processPushOutput, S state,
+        boolean nonFastForwardPush, Iterable<GitIntegrateChanges> integrates,
+        boolean lastRevFirstParent, boolean ignoreIntegrationErrors, String localRepoPath,
+        String committerName, String committerEmail, boolean rebase, int pushEvery) {
       this.destinationFiles = checkNotNull(destinationFiles);
       this.skipPush = skipPush;
       this.repoUrl = checkNotNull(repoUrl);
@@ -240,6 +248,7 @@ public final class GitDestination implements Destination<GitRevision> {
       this.force = generalOptions.isForced();
       this.baseConsole = checkNotNull(generalOptions.console());
       this.generalOptions = generalOptions;
+      this.gitOptions = checkNotNull(gitOptions);
       this.commitGenerator = checkNotNull(commitGenerator);
       this.processPushOutput = checkNotNull(processPushOutput);
       this.state = checkNotNull(state);
@@ -251,7 +260,7 @@ public final class GitDestination implements Destination<GitRevision> {
       this.committerName = committerName;
       this.committerEmail = committerEmail;
       this.rebase = rebase;
-      this.visitChangePageSize = visitChangePageSize;
+      this.pushEvery = pushEvery;
     }
 
     @Override
@@ -277,8 +286,7 @@ public final class GitDestination implements Destination<GitRevision> {
           visitor,
           queryChanges,
           generalOptions,
-          "destination",
-          visitChangePageSize);
+          "destination");
     }
 
     /**
@@ -310,66 +318,42 @@ public final class GitDestination implements Destination<GitRevision> {
         return null;
       }
 
-      PathMatcher pathMatcher = destinationFiles.relativeTo(Paths.get(""));
-      DestinationStatusVisitor visitor = new DestinationStatusVisitor(pathMatcher, labelName);
-      ChangeReader.Builder changeReader =
-          ChangeReader.Builder.forDestination(repo, baseConsole)
-              .setVerbose(generalOptions.isVerbose())
-              .setFirstParent(lastRevFirstParent)
-              .grep("^" + labelName + ORIGIN_LABEL_SEPARATOR);
-      try {
-        // Using same visitChangePageSize for now
-        GitVisitorUtil.visitChanges(
-            startRef,
-            visitor,
-            changeReader,
-            generalOptions,
-            "get_destination_status",
-            visitChangePageSize);
-      } catch (CannotResolveRevisionException e) {
-        // TODO: handle
-        return null;
+      DestinationLabelIndex.Entry lastMigrated;
+      try (ProfilerTask ignore = generalOptions.profiler().start("get_destination_status")) {
+        lastMigrated = new DestinationLabelIndex(repo, labelName, destinationFiles,
+            lastRevFirstParent).findLastMigrated(startRef);
       }
-      return visitor.getDestinationStatus();
+      return lastMigrated == null
+          ? null
+          : new DestinationStatus(lastMigrated.getValue(), ImmutableList.of());
     }
 
     /**
-     * A visitor that computes the {@link DestinationStatus} matching the actual files affected by
-     * the changes with the destination files glob.
+     * Looks up the label in the same index used by {@link #getDestinationStatus(String)} instead
+     * of visiting the whole history.
      */
-    private static class DestinationStatusVisitor implements ChangesVisitor {
-
-      private final PathMatcher pathMatcher;
-      private final String labelName;
-
-      private DestinationStatus destinationStatus = null;
-
-      DestinationStatusVisitor(PathMatcher pathMatcher, String labelName) {
-        this.pathMatcher = pathMatcher;
-        this.labelName = labelName;
+    @Nullable
+    @Override
+    public String findRevisionWithLabel(String labelName, Predicate<String> valueMatcher)
+        throws RepoException, ValidationException {
+      GitRepository repo = getRepository(baseConsole);
+      try {
+        fetchIfNeeded(repo, baseConsole);
+      } catch (ValidationException e) {
+        throw new CannotResolveRevisionException(
+            "Cannot visit changes because fetch failed. Does the destination branch exist?", e);
       }
-
-      @Override
-      public VisitResult visit(Change<? extends Revision> change) {
-        ImmutableSet<String> changeFiles = change.getChangeFiles();
-        if (changeFiles != null) {
-          if (change.getLabels().containsKey(labelName)) {
-            for (String file : changeFiles) {
-              if (pathMatcher.matches(Paths.get('/' + file))) {
-                String lastRev = Iterables.getLast(change.getLabels().get(labelName));
-                destinationStatus = new DestinationStatus(lastRev, ImmutableList.of());
-                return VisitResult.TERMINATE;
-              }
-            }
-          }
-        }
-        return VisitResult.CONTINUE;
+      GitRevision startRef = getLocalBranchRevision(repo);
+      if (startRef == null) {
+        return null;
       }
-
-      @Nullable
-      DestinationStatus getDestinationStatus() {
-        return destinationStatus;
+      DestinationLabelIndex.Entry entry;
+      try (ProfilerTask ignore = generalOptions.profiler().start("find_revision_with_label")) {
+        // visitChanges doesn't use --first-parent.
+        entry = new DestinationLabelIndex(repo, labelName, destinationFiles,
+            /*firstParent=*/false).findWithValue(startRef, valueMatcher);
       }
+      return entry == null ? null : entry.getCommit();
     }
 
     @Nullable
@@ -423,26 +407,19 @@ public final class GitDestination implements Destination<GitRevision> {
           scratchClone.simpleCommand("symbolic-ref", "HEAD", getCompleteRef(state.localBranch));
         }
         state.firstWrite = false;
-      } else if (!skipPush) {
+      } else if (!skipPush && state.pendingPush == null) {
         // Should be a no-op, but an iterative migration could take several minutes between
-        // migrations so lets fetch the latest first.
+        // migrations so lets fetch the latest first. Not needed between batched writes.
         fetchFromRemote(console, scratchClone, repoUrl, remoteFetch);
       }
 
       PathMatcher pathMatcher = destinationFiles.relativeTo(scratchClone.getWorkTree());
-      // Get the submodules before we stage them for deletion with
-      // repo.simpleCommand(add --all)
-      AddExcludedFilesToIndex excludedAdder =
-          new AddExcludedFilesToIndex(scratchClone, pathMatcher);
-      excludedAdder.findSubmodules(console);
-
       GitRepository alternate = scratchClone.withWorkTree(transformResult.getPath());
 
-      console.progress("Git Destination: Adding all files");
-      alternate.add().force().all().run();
-
-      console.progress("Git Destination: Excluding files");
-      excludedAdder.add();
+      console.progress("Git Destination: Staging changed files");
+      int staged = new StageChangedFiles(alternate,
+          path -> pathMatcher.matches(scratchClone.getWorkTree().resolve(path))).stage();
+      logger.atInfo().log("Staged %d changed paths", staged);
 
       console.progress("Git Destination: Creating a local commit");
       MessageInfo messageInfo = commitGenerator.message(transformResult);
@@ -453,10 +430,19 @@ public final class GitDestination implements Destination<GitRevision> {
       }
 
       String commitMessage = msg.toString();
-      alternate.commit(
-          transformResult.getAuthor().toString(),
-          transformResult.getTimestamp(),
-          commitMessage);
+      // 'git commit' refreshes the stat information of the index against the work tree, hashing
+      // every file whose entry wasn't staged from that work tree. Commit from an empty work tree
+      // so that the index is committed as is.
+      Path emptyWorkTree = generalOptions.getDirFactory().newTempDir("git_dest_commit");
+      try {
+        scratchClone.withWorkTree(emptyWorkTree)
+            .commit(
+                transformResult.getAuthor().toString(),
+                transformResult.getTimestamp(),
+                commitMessage);
+      } finally {
+        Files.deleteIfExists(emptyWorkTree);
+      }
 
       for (GitIntegrateChanges integrate : integrates) {
         integrate.run(alternate, generalOptions, messageInfo,
@@ -508,6 +494,43 @@ public final class GitDestination implements Destination<GitRevision> {
                 ImmutableList.of()));
       }
 
+      if (pushEvery > 1 && baseline == null && state.pendingPushes + 1 < pushEvery) {
+        state.pendingPush = head.getSha1();
+        state.pendingPushes++;
+        console.progress(String.format(
+            "Git Destination: Delaying push of %s (%d pending)", head, state.pendingPushes));
+        // The effects are the same as if it was pushed. They only happen after the push, that
+        // the workflow waits for before reporting them.
+        return processPushOutput.process(
+            /*output=*/ "",
+            messageInfo.newPush,
+            alternate,
+            transformResult.getChanges().getCurrent());
+      }
+
+      String serverResponse = push(scratchClone, "HEAD", console);
+      return processPushOutput.process(
+          serverResponse,
+          messageInfo.newPush,
+          alternate,
+          transformResult.getChanges().getCurrent());
+    }
+
+    @Override
+    public boolean hasPendingWrites() {
+      return state.pendingPush != null;
+    }
+
+    @Override
+    public void flush(Console console) throws RepoException, ValidationException {
+      if (state.pendingPush != null) {
+        push(getRepository(console), state.pendingPush, console);
+      }
+    }
+
+    /** Pushes {@code ref}, including the pending commits, to the push reference. */
+    private String push(GitRepository repo, String ref, Console console)
+        throws RepoException, ValidationException {
       console.progress(String.format("Git Destination: Pushing to %s %s", repoUrl, remotePush));
       checkCondition(!nonFastForwardPush
           || !Objects.equals(remoteFetch, remotePush), "non fast-forward push is only"
@@ -515,16 +538,16 @@ public final class GitDestination implements Destination<GitRevision> {
 
       String serverResponse = generalOptions.repoTask(
           "push",
-          () -> scratchClone.push()
-              .withRefspecs(repoUrl, ImmutableList.of(scratchClone.createRefSpec(
-                  (nonFastForwardPush ? "+" : "") + "HEAD:" + getCompleteRef(remotePush))))
+          () -> repo.push()
+              .withRefspecs(repoUrl, ImmutableList.of(repo.createRefSpec(
+                  (nonFastForwardPush ? "+" : "") + ref + ":" + getCompleteRef(remotePush))))
               .run()
       );
-      return processPushOutput.process(
-          serverResponse,
-          messageInfo.newPush,
-          alternate,
-          transformResult.getChanges().getCurrent());
+      state.pendingPush = null;
+      state.pendingPushes = 0;
+      // Other migrations need to fetch the new state
+      gitOptions.forgetSharedFetches(repoUrl);
+      return serverResponse;
     }
 
     /**
@@ -556,7 +579,8 @@ public final class GitDestination implements Destination<GitRevision> {
       String completeFetchRef = getCompleteRef(fetch);
       try (ProfilerTask ignore = generalOptions.profiler().start("destination_fetch")){
         console.progress("Git Destination: Fetching: " + repoUrl + " " + completeFetchRef);
-        return repo.fetchSingleRef(repoUrl, completeFetchRef);
+        return gitOptions.sharedFetch(repo, repoUrl, completeFetchRef,
+            () -> repo.fetchSingleRef(repoUrl, completeFetchRef));
       } catch (CannotResolveRevisionException e) {
         String warning = String.format("Git Destination: '%s' doesn't exist in '%s'",
             completeFetchRef, repoUrl);
@@ -25,6 +25,7 @@ import com.google.copybara.GeneralOptions;
 import com.google.copybara.Option;
 import com.google.copybara.authoring.Author;
 import com.google.copybara.exception.RepoException;
+import com.google.copybara.jcommander.GreaterThanZeroValidator;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -89,6 +90,13 @@ public final class GitDestinationOptions implements Option {
       description = "If set, the tool will not push to the remote destination")
   public boolean skipPush = false;
 
+  @Parameter(names = "--git-destination-push-every",
+      description = "Push the commits created by git.destination every N changes instead of"
+          + " after each one. For example for ITERATIVE workflows with many pending changes."
+          + " Commits not pushed yet are pushed at the end of the migration, and their effects are"
+          + " reported after the push.", validateWith = GreaterThanZeroValidator.class)
+  int pushEvery = 1;
+
   @Parameter(names = "--git-destination-last-rev-first-parent",
       description = "Use git --first-parent flag when looking for last-rev in previous commits")
   boolean lastRevFirstParent = false;
@@ -16,6 +16,8 @@
 
 package com.google.copybara.git;
 
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.common.base.Preconditions;
@@ -26,20 +28,59 @@ import com.google.copybara.checks.Checker;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.github.api.GitHubApi;
+import com.google.copybara.git.github.api.GitHubApiRateLimiter;
+import com.google.copybara.git.github.api.GitHubApiResponseCache;
 import com.google.copybara.git.github.api.GitHubApiTransport;
 import com.google.copybara.git.github.api.GitHubApiTransportImpl;
 import com.google.copybara.git.github.api.GitHubApiTransportWithChecker;
 import com.google.copybara.git.github.util.GitHubUtil;
+import com.google.copybara.jcommander.GreaterThanZeroDoubleValidator;
+import com.google.copybara.jcommander.GreaterThanZeroValidator;
+import com.google.copybara.jcommander.NonNegativeValidator;
 import com.google.copybara.util.console.Console;
+import java.io.IOException;
 import javax.annotation.Nullable;
 
 /**
  * Options related to GitHub
  */
+@Parameters(separators = "=")
 public class GitHubOptions implements Option {
 
   protected final GeneralOptions generalOptions;
   private final GitOptions gitOptions;
+  @Nullable
+  private CredentialCache credentials;
+
+  @Parameter(names = "--github-api-cache",
+      description = "Store the GitHub API responses in the cache directory, for doing conditional"
+          + " requests, that don't count against the GitHub rate limit. The responses are only"
+          + " readable by the current user, and at most "
+          + GitHubApiResponseCache.DEFAULT_MAX_ENTRIES + " are kept.")
+  boolean apiCache = false;
+
+  @Parameter(names = "--github-api-max-concurrent-pages",
+      description = "Maximum number of pages of a GitHub API list that are fetched at the same"
+          + " time. Lower it if GitHub reports that the abuse rate limit was exceeded.",
+      validateWith = GreaterThanZeroValidator.class)
+  int maxConcurrentPages = GitHubApi.DEFAULT_MAX_CONCURRENT_PAGES;
+
+  @Parameter(names = "--github-api-requests-per-second",
+      description = "Maximum sustained number of GitHub API requests per second, shared by all"
+          + " the GitHub API clients of the process.",
+      validateWith = GreaterThanZeroDoubleValidator.class)
+  double requestsPerSecond = GitHubApiTransportImpl.DEFAULT_REQUESTS_PER_SECOND;
+
+  @Parameter(names = "--github-api-max-retries",
+      description = "Number of times that a GitHub API GET request is retried when it fails"
+          + " because of the rate limits or a transient server error.",
+      validateWith = NonNegativeValidator.class)
+  int maxRetries = GitHubApiTransportImpl.DEFAULT_MAX_RETRIES;
+
+  @Nullable
+  private GitHubApiRateLimiter rateLimiter;
+  @Nullable
+  private GitHubApiResponseCache responseCache;
 
   public GitHubOptions(GeneralOptions generalOptions, GitOptions gitOptions) {
     this.generalOptions = Preconditions.checkNotNull(generalOptions);
@@ -80,11 +121,12 @@ public class GitHubOptions implements Option {
     if (storePath == null) {
       storePath = "~/.git-credentials";
     }
-    GitHubApiTransport transport = newTransport(repo, storePath, console);
+    GitHubApiResponseCache cache = apiCache ? responseCache() : null;
+    GitHubApiTransport transport = newTransport(credentials(repo), storePath, console, cache);
     if (checker != null) {
       transport = new GitHubApiTransportWithChecker(transport, checker, console);
     }
-    return new GitHubApi(transport, generalOptions.profiler());
+    return new GitHubApi(transport, generalOptions.profiler(), maxConcurrentPages);
   }
 
   /** Validate if a {@link Checker} is valid to use with GitHub endpoints. */
@@ -92,9 +134,44 @@ public class GitHubOptions implements Option {
     // Accept any by default
   }
 
-  private GitHubApiTransport newTransport(
-      GitRepository repo, String storePath, Console console) {
-    return new GitHubApiTransportImpl(repo, newHttpTransport(), storePath, console);
+  private GitHubApiTransport newTransport(CredentialCache credentials, String storePath,
+      Console console, @Nullable GitHubApiResponseCache cache) {
+    return new GitHubApiTransportImpl(credentials, newHttpTransport(), storePath, console, cache,
+        rateLimiter());
+  }
+
+  /**
+   * All the GitHub API instances share the rate limiter, since GitHub rate limits the requests
+   * per user.
+   */
+  private synchronized GitHubApiRateLimiter rateLimiter() {
+    if (rateLimiter == null) {
+      rateLimiter = new GitHubApiRateLimiter(generalOptions.profiler(), requestsPerSecond,
+          maxRetries, GitHubApiTransportImpl.DEFAULT_MAX_RATE_LIMIT_WAIT);
+    }
+    return rateLimiter;
+  }
+
+  /** The least recently used responses are evicted once, when the cache is first used. */
+  private synchronized GitHubApiResponseCache responseCache() throws RepoException {
+    if (responseCache == null) {
+      try {
+        responseCache = new GitHubApiResponseCache(
+            generalOptions.getDirFactory().getCacheDir("github_api"));
+      } catch (IOException e) {
+        throw new RepoException("Cannot create the GitHub API cache directory", e);
+      }
+      responseCache.evictLeastRecentlyUsed();
+    }
+    return responseCache;
+  }
+
+  /** See {@link CredentialCache}. */
+  private synchronized CredentialCache credentials(GitRepository repo) {
+    if (credentials == null) {
+      credentials = new CredentialCache(repo);
+    }
+    return credentials;
   }
 
   protected HttpTransport newHttpTransport() {
@@ -126,7 +126,7 @@ public class GitHubPrDestination implements Destination<GitRevision> {
 
     return new WriterImpl<GitHubWriterState>(destinationFiles, effectiveSkipPush, url,
         destinationRef, pushBranchName,
-        generalOptions, commitGenerator, processPushOutput,
+        generalOptions, gitOptions, commitGenerator, processPushOutput,
         state, /*nonFastForwardPush=*/true, integrates,
         destinationOptions.lastRevFirstParent,
         destinationOptions.ignoreIntegrationErrors,
@@ -134,7 +134,7 @@ public class GitHubPrDestination implements Destination<GitRevision> {
         destinationOptions.committerName,
         destinationOptions.committerEmail,
         destinationOptions.rebaseWhenBaseline(),
-        gitOptions.visitChangePageSize) {
+        /*pushEvery=*/ 1) {
       @Override
       public ImmutableList<DestinationEffect> write(TransformResult transformResult,
           Console console) throws ValidationException, RepoException, IOException {
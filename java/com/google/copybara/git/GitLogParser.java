@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.copybara.authoring.Author;
+import com.google.copybara.authoring.AuthorParser;
+import com.google.copybara.authoring.InvalidAuthorException;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.git.GitRepository.EntryVisitor;
+import com.google.copybara.git.GitRepository.GitLogEntry;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
+/**
+ * Parses the output of 'git log' with the format of {@link #createFormat(boolean)} directly from
+ * the bytes of the process output, one line at a time, without buffering the whole output.
+ *
+ * <p>Authors, dates, revisions and file paths repeat a lot in the history of a repository, so
+ * they are decoded once and reused while they are in a small cache. A line is only copied when
+ * it is decoded, so the repeated ones don't allocate at all.
+ *
+ * <p>Not thread-safe.
+ */
+final class GitLogParser {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String COMMIT_FIELD = "commit";
+  private static final String PARENTS_FIELD = "parents";
+  private static final String TREE_FIELD = "tree";
+  private static final String AUTHOR_FIELD = "author";
+  private static final String AUTHOR_DATE_FIELD = "author_date";
+  private static final String COMMITTER_FIELD = "committer";
+  private static final String COMMITTER_DATE = "committer_date";
+  private static final String BEGIN_BODY = "begin_body";
+  private static final String END_BODY = "end_body";
+  private static final String COMMIT_SEPARATOR = "\u0001copybara\u0001";
+  private static final String GROUP = "--";
+  private static final int INDENT = 4;
+
+  private static final byte[] COMMIT_SEPARATOR_BYTES = COMMIT_SEPARATOR.getBytes(UTF_8);
+  private static final byte[] GROUP_BYTES = GROUP.getBytes(UTF_8);
+  private static final byte[] BEGIN_BODY_BYTES = BEGIN_BODY.getBytes(UTF_8);
+  private static final byte[] END_BODY_BYTES = END_BODY.getBytes(UTF_8);
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Creates the format for 'git log'. We use a custom format that allows us easy parsing and be
+   * tolerant to random text in the body (That is the reason why we indent the body).
+   *
+   * <p>We also use \u0001 as commit separator to prevent a file being confused as the separator.
+   */
+  static String createFormat(boolean includeBody) {
+    return ("--format=" + COMMIT_SEPARATOR
+        + COMMIT_FIELD + "=%H\n"
+        + PARENTS_FIELD + "=%P\n"
+        + TREE_FIELD + "=%T\n"
+        + AUTHOR_FIELD + "=%an <%ae>\n"
+        + AUTHOR_DATE_FIELD + "=%aI\n"
+        + COMMITTER_FIELD + "=%cn <%ce>\n"
+        + COMMITTER_DATE + "=%cI\n"
+        + GROUP + "\n"
+        // Body is padded by 4 spaces.
+        + (includeBody ? BEGIN_BODY + "\n" + "%w(0,4,4)%B%w(0,0,0)\n" + END_BODY + "\n" : "\n")
+        + GROUP + "\n")
+        .replace("\n", "%n").replace("\u0001", "%x01");
+  }
+
+  private enum State {
+    START, HEADER, BODY_GROUP, BODY, FILES
+  }
+
+  private final GitRepository repo;
+  private final boolean includeBody;
+  private final boolean includeFiles;
+
+  private final Cache<GitRevision> revisions = new Cache<>(1024);
+  private final Cache<Author> authors = new Cache<>(1024);
+  private final Cache<ZonedDateTime> dates = new Cache<>(256);
+  private final Cache<String> files = new Cache<>(16 * 1024);
+
+  private byte[] buffer = new byte[BUFFER_SIZE];
+  /** Valid bytes of {@link #buffer} are [{@code position}, {@code limit}). */
+  private int position;
+  private int limit;
+  private boolean eof;
+  /** The current line is [{@code lineStart}, {@code lineEnd}) in {@link #buffer}. */
+  private int lineStart;
+  private int lineEnd;
+
+  // State of the entry being parsed.
+  private GitRevision commit;
+  private ImmutableList.Builder<GitRevision> parents;
+  private String tree;
+  private Author author;
+  private Author committer;
+  private ZonedDateTime authorDate;
+  private ZonedDateTime committerDate;
+  private byte[] body = new byte[1024];
+  private int bodyLength;
+  private ImmutableSet.Builder<String> entryFiles;
+
+  GitLogParser(GitRepository repo, boolean includeBody, boolean includeFiles) {
+    this.repo = Preconditions.checkNotNull(repo);
+    this.includeBody = includeBody;
+    this.includeFiles = includeFiles;
+  }
+
+  /**
+   * Parses the entries from {@code in}, passing each of them to {@code visitor} as soon as it is
+   * complete.
+   *
+   * @return false if the visitor stopped the parsing
+   */
+  boolean parse(InputStream in, EntryVisitor visitor) throws IOException, RepoException {
+    State state = State.START;
+    while (readLine(in)) {
+      switch (state) {
+        case START:
+        case FILES:
+          if (startsWith(COMMIT_SEPARATOR_BYTES)) {
+            if (state == State.FILES && !visitor.visit(buildEntry())) {
+              return false;
+            }
+            startEntry();
+            lineStart += COMMIT_SEPARATOR_BYTES.length;
+            parseField();
+            state = State.HEADER;
+          } else if (state == State.START) {
+            throw new RepoException("Unexpected 'git log' output: " + decodeLine());
+          } else if (includeFiles && lineEnd > lineStart) {
+            entryFiles.add(decodeFile());
+          }
+          break;
+        case HEADER:
+          if (lineEquals(GROUP_BYTES)) {
+            state = State.BODY_GROUP;
+          } else {
+            parseField();
+          }
+          break;
+        case BODY_GROUP:
+          if (lineEquals(GROUP_BYTES)) {
+            state = State.FILES;
+          } else if (includeBody && lineEquals(BEGIN_BODY_BYTES)) {
+            state = State.BODY;
+          }
+          break;
+        case BODY:
+          if (lineEquals(END_BODY_BYTES)) {
+            state = State.BODY_GROUP;
+          } else {
+            appendBodyLine();
+          }
+          break;
+        default:
+          throw new IllegalStateException(state.toString());
+      }
+    }
+    if (state == State.START) {
+      // No changes. We cannot know until we run git log since fromRef can be null (HEAD)
+      return true;
+    }
+    if (state != State.FILES) {
+      throw new RepoException("Unexpected end of 'git log' output in commit " + commit);
+    }
+    return visitor.visit(buildEntry());
+  }
+
+  private void startEntry() {
+    commit = null;
+    parents = null;
+    tree = null;
+    author = null;
+    committer = null;
+    authorDate = null;
+    committerDate = null;
+    bodyLength = 0;
+    entryFiles = includeFiles ? ImmutableSet.builder() : null;
+  }
+
+  private GitLogEntry buildEntry() {
+    String body = null;
+    if (includeBody) {
+      // The body ends with the line break of the last line, that is not part of it.
+      body = new String(this.body, 0, Math.max(0, bodyLength - 1), UTF_8);
+      // Copybara assumes \n as a separator in many places.
+      if (body.indexOf('\r') != -1) {
+        body = body.replace("\r\n", "\n");
+      }
+    }
+    return new GitLogEntry(
+        checkField(commit, COMMIT_FIELD), checkField(parents, PARENTS_FIELD).build(),
+        checkField(tree, TREE_FIELD),
+        checkField(author, AUTHOR_FIELD), checkField(committer, COMMITTER_FIELD),
+        checkField(authorDate, AUTHOR_DATE_FIELD), checkField(committerDate, COMMITTER_DATE),
+        body, includeFiles ? entryFiles.build() : null);
+  }
+
+  private static <T> T checkField(@Nullable T value, String field) {
+    return Preconditions.checkNotNull(value, "%s not present", field);
+  }
+
+  /** Parses a 'key=value' line of the header. */
+  private void parseField() throws RepoException {
+    int separator = indexOf((byte) '=', lineStart, lineEnd);
+    if (separator == -1) {
+      throw new RepoException("Unexpected 'git log' output: " + decodeLine());
+    }
+    String key = new String(buffer, lineStart, separator - lineStart, UTF_8);
+    int start = separator + 1;
+    switch (key) {
+      case COMMIT_FIELD:
+        commit = revision(start, lineEnd);
+        break;
+      case PARENTS_FIELD:
+        parents = ImmutableList.builder();
+        while (start < lineEnd) {
+          int end = indexOf((byte) ' ', start, lineEnd);
+          if (end == -1) {
+            end = lineEnd;
+          }
+          if (end > start) {
+            parents.add(revision(start, end));
+          }
+          start = end + 1;
+        }
+        break;
+      case TREE_FIELD:
+        tree = new String(buffer, start, lineEnd - start, UTF_8);
+        break;
+      case AUTHOR_FIELD:
+        author = author(start);
+        break;
+      case COMMITTER_FIELD:
+        committer = author(start);
+        break;
+      case AUTHOR_DATE_FIELD:
+        authorDate = date(start);
+        break;
+      case COMMITTER_DATE:
+        committerDate = date(start);
+        break;
+      default:
+        // Unknown fields are ignored.
+    }
+  }
+
+  private GitRevision revision(int start, int end) {
+    GitRevision revision = revisions.get(buffer, start, end);
+    if (revision == null) {
+      revision = revisions.put(buffer, start, end,
+          repo.createReferenceFromCompleteSha1(new String(buffer, start, end - start, UTF_8)));
+    }
+    return revision;
+  }
+
+  private Author author(int start) throws RepoException {
+    Author result = authors.get(buffer, start, lineEnd);
+    if (result == null) {
+      String value = new String(buffer, start, lineEnd - start, UTF_8);
+      try {
+        result = authors.put(buffer, start, lineEnd, AuthorParser.parse(value));
+      } catch (InvalidAuthorException e) {
+        throw new RepoException("Error in commit '" + commit + "'. Invalid author.", e);
+      }
+    }
+    return result;
+  }
+
+  private ZonedDateTime date(int start) {
+    ZonedDateTime result = dates.get(buffer, start, lineEnd);
+    if (result == null) {
+      String value = new String(buffer, start, lineEnd - start, UTF_8);
+      try {
+        result = ZonedDateTime.parse(value);
+      } catch (DateTimeParseException e) {
+        logger.atSevere().log("Cannot parse date '%s' for commit %s. Using epoch time instead",
+            value, commit);
+        result = ZonedDateTime.ofInstant(Instant.EPOCH, ZoneOffset.UTC);
+      }
+      dates.put(buffer, start, lineEnd, result);
+    }
+    return result;
+  }
+
+  private String decodeFile() {
+    String file = files.get(buffer, lineStart, lineEnd);
+    if (file == null) {
+      file = files.put(buffer, lineStart, lineEnd, decodeLine());
+    }
+    return file;
+  }
+
+  /** Appends the current line to the body, removing the indentation added by the format. */
+  private void appendBodyLine() {
+    int start = lineStart;
+    if (lineEnd - start >= INDENT) {
+      boolean indented = true;
+      for (int i = start; i < start + INDENT; i++) {
+        indented &= buffer[i] == ' ';
+      }
+      if (indented) {
+        start += INDENT;
+      }
+    }
+    int length = lineEnd - start;
+    if (bodyLength + length + 1 > body.length) {
+      body = Arrays.copyOf(body, Math.max(body.length * 2, bodyLength + length + 1));
+    }
+    System.arraycopy(buffer, start, body, bodyLength, length);
+    bodyLength += length;
+    body[bodyLength++] = '\n';
+  }
+
+  private String decodeLine() {
+    return new String(buffer, lineStart, lineEnd - lineStart, UTF_8);
+  }
+
+  private boolean startsWith(byte[] prefix) {
+    if (lineEnd - lineStart < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (buffer[lineStart + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean lineEquals(byte[] bytes) {
+    return lineEnd - lineStart == bytes.length && startsWith(bytes);
+  }
+
+  private int indexOf(byte b, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (buffer[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Reads the next line, without the line break, into [{@link #lineStart}, {@link #lineEnd}).
+   * Returns false if there are no more lines.
+   */
+  private boolean readLine(InputStream in) throws IOException {
+    int scanned = position;
+    while (true) {
+      int end = indexOf((byte) '\n', scanned, limit);
+      if (end != -1) {
+        lineStart = position;
+        lineEnd = end;
+        position = end + 1;
+        return true;
+      }
+      if (eof) {
+        if (position == limit) {
+          return false;
+        }
+        // Last line without line break.
+        lineStart = position;
+        lineEnd = limit;
+        position = limit;
+        return true;
+      }
+      scanned = limit - position;
+      // Make room for more bytes: Move the partial line to the beginning of the buffer, growing it
+      // if the line doesn't fit.
+      if (position > 0) {
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+      } else if (limit == buffer.length) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+      int read = in.read(buffer, limit, buffer.length - limit);
+      if (read == -1) {
+        eof = true;
+      } else {
+        limit += read;
+      }
+    }
+  }
+
+  /**
+   * A direct-mapped cache of values decoded from byte ranges. Each range can only be in one slot,
+   * so a lookup is a single comparison, and a new value replaces the old one in the slot. This
+   * keeps the memory bounded for any size of history.
+   */
+  private static final class Cache<T> {
+
+    private final byte[][] keys;
+    private final Object[] values;
+
+    private Cache(int size) {
+      Preconditions.checkArgument(Integer.bitCount(size) == 1, "Size must be a power of two");
+      keys = new byte[size][];
+      values = new Object[size];
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    T get(byte[] buffer, int start, int end) {
+      int slot = slot(buffer, start, end);
+      byte[] key = keys[slot];
+      if (key == null || key.length != end - start) {
+        return null;
+      }
+      for (int i = 0; i < key.length; i++) {
+        if (key[i] != buffer[start + i]) {
+          return null;
+        }
+      }
+      return (T) values[slot];
+    }
+
+    T put(byte[] buffer, int start, int end, T value) {
+      int slot = slot(buffer, start, end);
+      keys[slot] = Arrays.copyOfRange(buffer, start, end);
+      values[slot] = value;
+      return value;
+    }
+
+    private int slot(byte[] buffer, int start, int end) {
+      int hash = 1;
+      for (int i = start; i < end; i++) {
+        hash = 31 * hash + buffer[i];
+      }
+      return (hash ^ (hash >>> 16)) & (keys.length - 1);
+    }
+  }
+}
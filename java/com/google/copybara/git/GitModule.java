@@ -504,7 +504,8 @@ public class GitModule implements LabelsAwareModule {
         new DefaultCommitGenerator(),
         new ProcessPushStructuredOutput(),
         SkylarkList.castList(SkylarkUtil.convertFromNoneable(integrates, DEFAULT_GIT_INTEGRATES),
-            GitIntegrateChanges.class, "integrates"));
+            GitIntegrateChanges.class, "integrates"),
+        destinationOptions.pushEvery);
   }
 
   @SuppressWarnings("unused")
@@ -23,9 +23,13 @@ import com.google.common.base.Preconditions;
 import com.google.copybara.GeneralOptions;
 import com.google.copybara.Option;
 import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
 import com.google.copybara.jcommander.GreaterThanZeroValidator;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.annotation.Nullable;
 
 /**
@@ -35,6 +39,13 @@ import javax.annotation.Nullable;
 public class GitOptions implements Option {
 
   private final GeneralOptions generalOptions;
+  // Initializing a repository runs several git commands. Repeated in server mode.
+  private final Map<String, GitRepository> cachedRepos = new ConcurrentHashMap<>();
+  // Shared by all the options, since server requests with different options use the same
+  // cached repositories.
+  private static final Map<Path, Object> REPO_LOCKS = new ConcurrentHashMap<>();
+  @Nullable
+  private volatile Map<SharedFetchKey, GitRevision> sharedFetches;
 
   @Nullable
   public String getCredentialHelperStorePath() {
@@ -51,9 +62,10 @@ public class GitOptions implements Option {
           + "https://git-scm.com/docs/git-credential-store")
   boolean noCredentialHelperStore = false;
 
-
+  // Not used anymore, since changes are visited with a single 'git log'. Kept so that the
+  // invocations that pass it don't fail.
   @Parameter(names = "--git-visit-changes-page-size",
-      description = "Size of the git log page used for visiting changes.", hidden = true,
+      description = "Deprecated. Has no effect.", hidden = true,
       validateWith = GreaterThanZeroValidator.class)
   int visitChangePageSize = 200;
 
@@ -66,14 +78,25 @@ public class GitOptions implements Option {
     return generalOptions.getDirFactory().getCacheDir("git_repos");
   }
 
+  /**
+   * Returns the repository in the cache for {@code url}, initializing it the first time that it is
+   * requested with these options.
+   */
   public final GitRepository cachedBareRepoForUrl(String url) throws RepoException {
     Preconditions.checkNotNull(url);
+    GitRepository repo = cachedRepos.get(url);
+    if (repo != null) {
+      return repo;
+    }
     try {
-      return createBareRepo(generalOptions,
+      repo = createBareRepo(generalOptions,
                             GitRepository.createGitDirInCache(url, getRepoStorage()));
     } catch (IOException e) {
       throw new RepoException("Cannot create a cached repo for " + url, e);
     }
+    // Initializing twice is harmless, keep the first one.
+    GitRepository previous = cachedRepos.putIfAbsent(url, repo);
+    return previous != null ? previous : repo;
   }
 
   /**
@@ -98,4 +121,104 @@ public class GitOptions implements Option {
     repo.withCredentialHelper("store" + path);
     return repo;
   }
+
+  /**
+   * Starts sharing the revisions fetched with {@link #sharedFetch}, so that a ref is only fetched
+   * once in a repository, for example when running several migrations that read the same origin.
+   * Must be followed by {@link #stopSharingFetches()}.
+   */
+  public void startSharingFetches() {
+    sharedFetches = new ConcurrentHashMap<>();
+  }
+
+  public void stopSharingFetches() {
+    sharedFetches = null;
+  }
+
+  /** A fetch that resolves to a revision, like {@link GitRepository#fetchSingleRef}. */
+  public interface Fetch {
+    GitRevision run() throws RepoException, ValidationException;
+  }
+
+  /**
+   * Runs {@code fetch} in {@code repo}, or reuses its result while sharing fetches.
+   *
+   * <p>Fetches in the same git directory are serialized, since they resolve the fetched ref using
+   * FETCH_HEAD.
+   *
+   * @param url the url fetched, used for forgetting the fetches when it is pushed to
+   * @param ref the ref or refspec fetched
+   */
+  public GitRevision sharedFetch(GitRepository repo, String url, String ref, Fetch fetch)
+      throws RepoException, ValidationException {
+    return withRepoLock(repo, () -> {
+      Map<SharedFetchKey, GitRevision> shared = sharedFetches;
+      if (shared == null) {
+        return fetch.run();
+      }
+      SharedFetchKey key = new SharedFetchKey(repo.getGitDir(), url, ref);
+      GitRevision revision = shared.get(key);
+      if (revision == null) {
+        revision = fetch.run();
+        shared.put(key, revision);
+      }
+      return revision;
+    });
+  }
+
+  /** Work in a git directory that cannot run concurrently with other work in it. */
+  public interface RepoWork<T> {
+    T run() throws RepoException, ValidationException;
+  }
+
+  /**
+   * Runs {@code work} holding the lock of the git directory of {@code repo}.
+   *
+   * <p>Migrations running concurrently share the cached repositories. Anything that writes the
+   * state of the git directory that is not keyed by work tree, like HEAD, the default index or
+   * FETCH_HEAD, needs to hold the lock.
+   */
+  public <T> T withRepoLock(GitRepository repo, RepoWork<T> work)
+      throws RepoException, ValidationException {
+    Object lock = REPO_LOCKS.computeIfAbsent(
+        repo.getGitDir().toAbsolutePath().normalize(), k -> new Object());
+    synchronized (lock) {
+      return work.run();
+    }
+  }
+
+  /** Forgets the shared fetches of {@code url}, since it was modified. */
+  public void forgetSharedFetches(String url) {
+    Map<SharedFetchKey, GitRevision> shared = sharedFetches;
+    if (shared != null) {
+      shared.keySet().removeIf(k -> k.url.equals(url));
+    }
+  }
+
+  private static final class SharedFetchKey {
+
+    private final Path gitDir;
+    private final String url;
+    private final String ref;
+
+    private SharedFetchKey(Path gitDir, String url, String ref) {
+      this.gitDir = gitDir;
+      this.url = url;
+      this.ref = ref;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof SharedFetchKey)) {
+        return false;
+      }
+      SharedFetchKey that = (SharedFetchKey) o;
+      return gitDir.equals(that.gitDir) && url.equals(that.url) && ref.equals(that.ref);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(gitDir, url, ref);
+    }
+  }
 }
@@ -51,6 +51,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
 /**
@@ -138,7 +139,9 @@ public class GitOrigin implements Origin<GitRevision> {
     } else {
       ref = reference;
     }
-    return repoType.resolveRef(getRepository(), repoUrl, ref, generalOptions);
+    GitRepository repo = getRepository();
+    return gitOptions.sharedFetch(repo, repoUrl, repoType + " " + ref,
+        () -> repoType.resolveRef(repo, repoUrl, ref, generalOptions));
   }
 
   static class ReaderImpl implements Reader<GitRevision> {
@@ -197,6 +200,48 @@ public class GitOrigin implements Origin<GitRevision> {
       }
     }
 
+    /**
+     * Updates the worktree using a private index stored in {@code stateDir}. Git uses the stat
+     * information in the index to only rewrite the files that changed, either between revisions
+     * or because they were modified after the previous checkout. Untracked files are removed.
+     */
+    @Override
+    public boolean checkoutIncremental(GitRevision ref, Path workdir, Path stateDir)
+        throws RepoException, ValidationException {
+      // Submodules are checked out as separate repositories and rebasing creates new commits in
+      // the worktree. Both are easier to handle with a full checkout.
+      if (submoduleStrategy != SubmoduleStrategy.NO || gitOriginOptions.originRebaseRef != null) {
+        return false;
+      }
+      Path indexFile = stateDir.resolve("index");
+      try {
+        Files.createDirectories(stateDir);
+        if (isEmptyDir(workdir)) {
+          // A stale index would make git think that the files are already in the worktree.
+          Files.deleteIfExists(indexFile);
+        }
+      } catch (IOException e) {
+        throw new RepoException("Cannot prepare incremental checkout in " + workdir, e);
+      }
+      GitRepository repo = getRepository().withWorkTree(workdir).withIndexFile(indexFile);
+      // Checking out updates HEAD, that is shared with other migrations of the same origin.
+      gitOptions.withRepoLock(repo, () -> repo.forceCheckout(ref.getSha1()));
+      repo.forceClean();
+      if (!Strings.isNullOrEmpty(gitOriginOptions.originCheckoutHook)) {
+        runCheckoutHook(workdir);
+      }
+      return true;
+    }
+
+    private static boolean isEmptyDir(Path dir) throws IOException {
+      if (!Files.exists(dir)) {
+        return true;
+      }
+      try (Stream<Path> files = Files.list(dir)) {
+        return !files.findFirst().isPresent();
+      }
+    }
+
     void runCheckoutHook(Path workdir) throws RepoException {
       try {
         Command cmd = new Command(new String[]{gitOriginOptions.originCheckoutHook},
@@ -235,10 +280,15 @@ public class GitOrigin implements Origin<GitRevision> {
             + " first_parent = False instead. metadata.squash_notes and metadata.use_last_change"
             + " don't include merge commits by default");
       }
-      GitRepository repo = checkout(repository, workdir, ref);
-      if(topLevelCheckout) {
-        maybeRebase(repo, ref, workdir);
-      }
+      // The checkout and the rebase use HEAD and the index of the cached repository, that are
+      // shared with other migrations of the same origin.
+      GitRepository repo = gitOptions.withRepoLock(repository, () -> {
+        GitRepository checkedOut = checkout(repository, workdir, ref);
+        if (topLevelCheckout) {
+          maybeRebase(checkedOut, ref, workdir);
+        }
+        return checkedOut;
+      });
 
       if (submoduleStrategy == SubmoduleStrategy.NO) {
         return;
@@ -254,9 +304,11 @@ public class GitOrigin implements Origin<GitRevision> {
         Preconditions.checkArgument(element.getPath().equals(submodule.getPath()));
 
         GitRepository subRepo = gitOptions.cachedBareRepoForUrl(submodule.getUrl());
-        subRepo.fetchSingleRef(submodule.getUrl(), submodule.getBranch());
-        GitRevision submoduleRef = subRepo.resolveReferenceWithContext(element.getRef(),
-            submodule.getName(), submodule.getUrl());
+        GitRevision submoduleRef = gitOptions.withRepoLock(subRepo, () -> {
+          subRepo.fetchSingleRef(submodule.getUrl(), submodule.getBranch());
+          return subRepo.resolveReferenceWithContext(element.getRef(),
+              submodule.getName(), submodule.getUrl());
+        });
 
         Path subdir = workdir.resolve(submodule.getPath());
         try {
@@ -346,14 +398,14 @@ public class GitOrigin implements Origin<GitRevision> {
     }
 
     /**
-     * Visit changes using git --skip and -n for pagination.
+     * Visit changes streaming the output of a single 'git log', that is killed as soon as the
+     * visitor terminates.
      */
     @Override
     public void visitChanges(GitRevision start, ChangesVisitor visitor)
         throws RepoException, CannotResolveRevisionException {
       ChangeReader.Builder queryChanges = changeReaderBuilder(repoUrl).setFirstParent(firstParent);
-      GitVisitorUtil.visitChanges(
-          start, visitor, queryChanges, generalOptions, "origin", gitOptions.visitChangePageSize);
+      GitVisitorUtil.visitChanges(start, visitor, queryChanges, generalOptions, "origin");
     }
   }
 
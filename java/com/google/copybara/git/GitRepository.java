@@ -25,6 +25,7 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.base.StandardSystemProperty;
+import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
 import com.google.common.base.Verify;
 import com.google.common.collect.ImmutableCollection;
@@ -40,15 +41,15 @@ import com.google.common.flogger.FluentLogger;
 import com.google.common.hash.Hashing;
 import com.google.common.net.PercentEscaper;
 import com.google.copybara.authoring.Author;
-import com.google.copybara.authoring.AuthorParser;
-import com.google.copybara.authoring.InvalidAuthorException;
 import com.google.copybara.exception.CannotResolveRevisionException;
 import com.google.copybara.exception.EmptyChangeException;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
+import com.google.copybara.git.CatFileProcess.GitObject;
 import com.google.copybara.git.GitCredential.UserPassword;
 import com.google.copybara.shell.Command;
 import com.google.copybara.shell.CommandException;
+import com.google.copybara.shell.ShellUtils;
 import com.google.copybara.util.BadExitStatusWithOutputException;
 import com.google.copybara.util.CommandOutput;
 import com.google.copybara.util.CommandOutputWithStatus;
@@ -56,21 +57,22 @@ import com.google.copybara.util.CommandRunner;
 import com.google.copybara.util.FileUtil;
 import com.google.re2j.Matcher;
 import com.google.re2j.Pattern;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
-import java.time.Instant;
-import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -459,6 +461,17 @@ public class GitRepository {
     return new GitRepository(this.gitDir, newWorkTree, this.verbose, this.environment);
   }
 
+  /**
+   * Returns an instance equivalent to this one but that uses {@code indexFile} as the index
+   * instead of the default one in the git directory. The file is created by git if it doesn't
+   * exist.
+   */
+  public GitRepository withIndexFile(Path indexFile) {
+    Map<String, String> env = new HashMap<>(this.environment);
+    env.put("GIT_INDEX_FILE", indexFile.toAbsolutePath().toString());
+    return new GitRepository(this.gitDir, this.workTree, this.verbose, env);
+  }
+
   /**
    * The Git work tree - in a typical Git repo, this is the directory containing the {@code .git}
    * directory. Returns {@code null} for bare repos.
@@ -533,7 +546,10 @@ public class GitRepository {
       return files(ImmutableList.copyOf(files));
     }
 
-    /** Run the git command */
+    /**
+     * Run the git command. Many files are added in several executions, so that the command line
+     * doesn't exceed the argument limit of the system.
+     */
     public void run() throws RepoException {
       List<String> params = Lists.newArrayList("add");
       if (force) {
@@ -543,8 +559,26 @@ public class GitRepository {
         params.add("--all");
       }
       params.add("--");
-      Iterables.addAll(params, files);
-      git(getCwd(), addGitDirAndWorkTreeParams(params));
+      if (Iterables.isEmpty(files)) {
+        git(getCwd(), addGitDirAndWorkTreeParams(params));
+        return;
+      }
+      List<String> chunk = new ArrayList<>();
+      int size = 0;
+      for (String file : files) {
+        chunk.add(file);
+        size += file.length();
+        // Split the executions in chunks of 6K. 8K triggers arg max in some systems, so
+        // this is a reasonable number to get some batching benefit.
+        if (size > 6 * 1024) {
+          git(getCwd(), addGitDirAndWorkTreeParams(Iterables.concat(params, chunk)));
+          chunk.clear();
+          size = 0;
+        }
+      }
+      if (!chunk.isEmpty()) {
+        git(getCwd(), addGitDirAndWorkTreeParams(Iterables.concat(params, chunk)));
+      }
     }
   }
 
@@ -589,13 +623,12 @@ public class GitRepository {
    * Resolves a git reference to the SHA-1 reference
    */
   public String parseRef(String ref) throws RepoException, CannotResolveRevisionException {
-    // Runs rev-list on the reference and remove the extra newline from the output.
-    CommandOutputWithStatus result = gitAllowNonZeroExit(
-        CommandRunner.NO_INPUT, ImmutableList.of("rev-list", "-1", ref, "--"));
-    if (!result.getTerminationStatus().success()) {
+    // Peels the reference to a commit, like 'git rev-list -1 <ref>' does.
+    GitObject commit = getObject(ref + "^{commit}");
+    if (commit == null) {
       throw new CannotResolveRevisionException("Cannot find reference '" + ref + "'");
     }
-    String sha1 = result.getStdout().trim();
+    String sha1 = commit.getSha1();
     Verify.verify(SHA1_PATTERN.matcher(sha1).matches(), "Should be resolved to a SHA-1: %s", sha1);
     return sha1;
   }
@@ -632,6 +665,14 @@ public class GitRepository {
     return simpleCommand("checkout", "-q", "-f", checkNotNull(ref));
   }
 
+  /**
+   * Removes all the files in the work tree that are not tracked by the index, including ignored
+   * files and directories.
+   */
+  public CommandOutput forceClean() throws RepoException {
+    return simpleCommand("clean", "-q", "-f", "-f", "-d", "-x");
+  }
+
   // DateTimeFormatter.ISO_OFFSET_DATE_TIME might include subseconds, but Git's ISO8601 format does
   // not deal with subseconds (see https://git-scm.com/docs/git-commit#git-commit-ISO8601).
   // We still want to stick to the default ISO format in Git, but don't add the subseconds.
@@ -798,6 +839,103 @@ public class GitRepository {
     return result.build();
   }
 
+  /**
+   * Returns the SHA-1, type and size of {@code object}, that can be any revision expression like
+   * {@code HEAD:path/to/file}, or null if it doesn't exist or is ambiguous.
+   *
+   * <p>Lookups are answered by a long-lived {@code git cat-file --batch-check} process shared by
+   * the instances of this git directory, so they don't fork git.
+   */
+  @Nullable
+  GitObject getObject(String object) throws RepoException {
+    return catFile(object, /*withContent=*/ false);
+  }
+
+  /**
+   * Returns the content of the blob {@code object}, that can be any revision expression like
+   * {@code HEAD:path/to/file}. Like {@link #getObject(String)}, it doesn't fork git.
+   */
+  byte[] readBlob(String object) throws RepoException, CannotResolveRevisionException {
+    GitObject blob = catFile(object, /*withContent=*/ true);
+    if (blob == null) {
+      throw new CannotResolveRevisionException("Cannot find object '" + object + "'");
+    }
+    if (blob.getType() != GitObjectType.BLOB) {
+      throw new RepoException(
+          String.format("'%s' is a %s, not a blob", object, blob.getType().name().toLowerCase()));
+    }
+    return blob.getContent();
+  }
+
+  @Nullable
+  private GitObject catFile(String object, boolean withContent) throws RepoException {
+    Preconditions.checkState(Files.isDirectory(gitDir),
+        "git repository dir '%s' doesn't exist or is not a directory", gitDir);
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    GitObject result = CatFileProcess.lookup(
+        resolveGitBinary(environment), gitDir, environment, object, withContent);
+    if (verbose) {
+      // Lookups don't run a git command each, so they are not printed by CommandRunner.
+      System.err.println(String.format("git cat-file %s '%s' finished in %s. %s",
+          withContent ? "--batch" : "--batch-check", object, stopwatch,
+          result == null ? "Not found" : result.getSha1() + " " + result.getType()));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the merged (stage 0) entries of the index by path, as {@code "<mode> <sha1>"}. That
+   * is the format used by {@link #updateIndex(byte[])}.
+   */
+  ImmutableMap<String, String> readIndexEntries() throws RepoException {
+    ImmutableMap.Builder<String, String> result = ImmutableMap.builder();
+    String stdout = simpleCommand("ls-files", "--stage", "-z").getStdout();
+    for (String entry : Splitter.on('\0').omitEmptyStrings().split(stdout)) {
+      // <mode> SP <sha1> SP <stage> TAB <path>
+      int tab = entry.indexOf('\t');
+      int stage = entry.lastIndexOf(' ', tab);
+      if (tab == -1 || stage == -1) {
+        throw new RepoException("Unexpected format for ls-files output: " + entry);
+      }
+      if (entry.substring(stage + 1, tab).equals("0")) {
+        result.put(entry.substring(tab + 1), entry.substring(0, stage));
+      }
+    }
+    return result.build();
+  }
+
+  /**
+   * Writes the content of the work tree {@code files} as blobs, like {@code git add} does, and
+   * returns their sha1s in the same order. Paths are relative to the work tree and cannot contain
+   * new lines.
+   */
+  ImmutableList<String> hashObjects(List<String> files) throws RepoException {
+    if (files.isEmpty()) {
+      return ImmutableList.of();
+    }
+    StringBuilder paths = new StringBuilder();
+    for (String file : files) {
+      Preconditions.checkArgument(file.indexOf('\n') == -1, "Path with new line: %s", file);
+      paths.append(file).append('\n');
+    }
+    ImmutableList<String> hashes = ImmutableList.copyOf(Splitter.on('\n').omitEmptyStrings()
+        .split(gitWithInput(paths.toString().getBytes(StandardCharsets.UTF_8),
+            ImmutableList.of("hash-object", "-w", "--stdin-paths")).getStdout()));
+    if (hashes.size() != files.size()) {
+      throw new RepoException(String.format(
+          "Expected %d hashes from 'git hash-object' but got %d", files.size(), hashes.size()));
+    }
+    return hashes;
+  }
+
+  /**
+   * Updates the index with the NUL-terminated {@code "<mode> <sha1>\t<path>"} entries of
+   * {@code indexInfo}, without looking at the work tree. A mode of {@code 0} removes the path.
+   */
+  void updateIndex(byte[] indexInfo) throws RepoException {
+    gitWithInput(indexInfo, ImmutableList.of("update-index", "-z", "--index-info"));
+  }
+
   private String siblingUrl(String currentRemoteUrl, String submoduleName, String relativeUrl)
       throws RepoException {
     int idx = currentRemoteUrl.lastIndexOf('/');
@@ -927,21 +1065,29 @@ public class GitRepository {
       return executeGit(cwd, params, environment, verbose);
     } catch (BadExitStatusWithOutputException e) {
       CommandOutputWithStatus output = e.getOutput();
-
-      for (Pattern error : REF_NOT_FOUND_ERRORS) {
-        Matcher matcher = error.matcher(output.getStderr());
-        if (matcher.find()) {
-          throw new RepoException(
-              "Cannot find reference '" + matcher.group(1) + "'");
-        }
-      }
-
-      throw throwUnknownGitError(output, params);
+      throw gitError(params, output.getTerminationStatus().getExitCode(), output.getStderr());
     } catch (CommandException e) {
       throw new RepoException("Error executing 'git': " + e.getMessage(), e);
     }
   }
 
+  /**
+   * Returns the exception for a git command that exited with {@code exitCode}, detecting the
+   * references that could not be found.
+   */
+  private static RepoException gitError(Iterable<String> params, int exitCode, String stderr) {
+    for (Pattern error : REF_NOT_FOUND_ERRORS) {
+      Matcher matcher = error.matcher(stderr);
+      if (matcher.find()) {
+        return new RepoException("Cannot find reference '" + matcher.group(1) + "'");
+      }
+    }
+    return new RepoException(
+        String.format(
+            "Error executing 'git %s'(exit code %d). Stderr: %s\n",
+            Joiner.on(' ').join(params), exitCode, stderr));
+  }
+
   private RepoException throwUnknownGitError(
       CommandOutputWithStatus output, Iterable<String> params) throws RepoException {
     throw new RepoException(
@@ -981,6 +1127,18 @@ public class GitRepository {
     }
   }
 
+  /**
+   * Like {@link #simpleCommand(String...)} but writing {@code stdin} to the standard input of the
+   * command.
+   */
+  private CommandOutput gitWithInput(byte[] stdin, Iterable<String> params) throws RepoException {
+    CommandOutputWithStatus output = gitAllowNonZeroExit(stdin, params);
+    if (!output.getTerminationStatus().success()) {
+      throw throwUnknownGitError(output, params);
+    }
+    return output;
+  }
+
   private static CommandOutputWithStatus executeGit(Path cwd, Iterable<String> params,
       Map<String, String> env, boolean verbose) throws CommandException {
     return executeGit(cwd, params, env, verbose, /*maxLogLines*/-1);
@@ -1051,15 +1209,7 @@ public class GitRepository {
    * Checks if a SHA-1 object exist in the repository
    */
   private boolean checkSha1Exists(String reference) throws RepoException {
-    ImmutableList<String> params = ImmutableList.of("cat-file", "-e", reference);
-    CommandOutputWithStatus output = gitAllowNonZeroExit(CommandRunner.NO_INPUT, params);
-    if (output.getTerminationStatus().success()) {
-      return true;
-    }
-    if (output.getStderr().isEmpty()) {
-      return false;
-    }
-    throw throwUnknownGitError(output, params);
+    return getObject(reference) != null;
   }
 
   public GitRevision commitTree(String message, String tree, List<GitRevision> parents)
@@ -1331,18 +1481,6 @@ public class GitRepository {
    */
   public static class LogCmd {
 
-    private static final String COMMIT_FIELD = "commit";
-    private static final String PARENTS_FIELD = "parents";
-    private static final String TREE_FIELD = "tree";
-    private static final String AUTHOR_FIELD = "author";
-    private static final String AUTHOR_DATE_FIELD = "author_date";
-    private static final String COMMITTER_FIELD = "committer";
-    private static final String COMMITTER_DATE = "committer_date";
-    private static final String BEGIN_BODY = "begin_body";
-    private static final String END_BODY = "end_body";
-    private static final String COMMIT_SEPARATOR = "\u0001copybara\u0001";
-    private static final Pattern UNINDENT = Pattern.compile("\n    ");
-    private static final String GROUP = "--\n";
     private final int limit;
     private final ImmutableCollection<String> paths;
     private final String refExpr;
@@ -1466,7 +1604,93 @@ public class GitRepository {
      * Run 'git log' and returns zero or more {@link GitLogEntry}.
      */
     public ImmutableList<GitLogEntry> run() throws RepoException {
-      List<String> cmd = Lists.newArrayList("log", "--no-color", createFormat(includeBody));
+      ImmutableList.Builder<GitLogEntry> entries = ImmutableList.builder();
+      visit(e -> {
+        entries.add(e);
+        return true;
+      });
+      return entries.build();
+    }
+
+    /**
+     * Runs 'git log' and passes each {@link GitLogEntry} to {@code visitor} as soon as git prints
+     * it, instead of waiting for the whole log. The whole history is read by a single process,
+     * that is killed as soon as the visitor returns false, so git doesn't walk the rest of it.
+     * Memory usage doesn't depend on the size of the history.
+     */
+    public void visit(EntryVisitor visitor) throws RepoException {
+      List<String> params = repo.addGitDirAndWorkTreeParams(createArgs());
+      List<String> cmd = new ArrayList<>();
+      cmd.add(resolveGitBinary(repo.environment));
+      cmd.addAll(params);
+      // Logs like CommandRunner, that cannot be used since it buffers the whole output.
+      String startMsg = "Executing [" + ShellUtils.prettyPrintArgv(cmd) + "]";
+      logger.atInfo().log(startMsg);
+      if (repo.verbose) {
+        System.err.println(startMsg);
+      }
+
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      Path stderr = null;
+      Process process = null;
+      String exitStatus = "(No exit status)";
+      try {
+        stderr = Files.createTempFile("git_log", ".stderr");
+        ProcessBuilder builder = new ProcessBuilder(cmd)
+            .directory(repo.getCwd().toFile())
+            .redirectError(stderr.toFile());
+        builder.environment().clear();
+        builder.environment().putAll(repo.environment);
+        process = builder.start();
+
+        boolean stopped;
+        try (InputStream stdout = repo.verbose
+            ? new TeeInputStream(process.getInputStream(), System.err)
+            : process.getInputStream()) {
+          stopped = !new GitLogParser(repo, includeBody, includeStat).parse(stdout, visitor);
+        }
+        if (stopped) {
+          exitStatus = "Stopped by the visitor.";
+          return;
+        }
+        int exitCode = process.waitFor();
+        exitStatus = "Exit code " + exitCode;
+        String errors = new String(Files.readAllBytes(stderr), StandardCharsets.UTF_8);
+        if (repo.verbose && !errors.isEmpty()) {
+          System.err.print(errors);
+        }
+        if (exitCode != 0) {
+          throw gitError(params, exitCode, errors);
+        }
+      } catch (IOException e) {
+        throw new RepoException("Error executing 'git': " + e.getMessage(), e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RepoException("Interrupted while executing 'git log'", e);
+      } finally {
+        if (process != null && process.isAlive()) {
+          // The visitor stopped or failed. Don't let git walk the rest of the history.
+          process.destroy();
+        }
+        if (stderr != null) {
+          try {
+            Files.deleteIfExists(stderr);
+          } catch (IOException e) {
+            logger.atWarning().withCause(e).log("Cannot delete %s", stderr);
+          }
+        }
+        String finishMsg = String.format(
+            "Command '%s' finished in %s. %s", cmd.get(0), stopwatch, exitStatus);
+        logger.atInfo().log(finishMsg);
+        if (repo.verbose) {
+          System.err.println(finishMsg);
+        }
+      }
+    }
+
+    private List<String> createArgs() {
+      List<String> cmd =
+          Lists.newArrayList("log", "--no-color", GitLogParser.createFormat(includeBody));
 
       if (limit > 0) {
         cmd.add("-" + limit);
@@ -1501,101 +1725,51 @@ public class GitRepository {
         cmd.add("--");
         cmd.addAll(paths);
       }
-
-      CommandOutput output = repo.simpleCommand(cmd.toArray(new String[0]));
-      return parseLog(output.getStdout(), includeBody);
+      return cmd;
     }
+  }
 
-    private ImmutableList<GitLogEntry> parseLog(String log, boolean includeBody)
-        throws RepoException {
-      // No changes. We cannot know until we run git log since fromRef can be null (HEAD)
-      if (log.isEmpty()) {
-        return ImmutableList.of();
-      }
-
-      ImmutableList.Builder<GitLogEntry> commits = ImmutableList.builder();
-      for (String msg : Splitter.on("\n" + COMMIT_SEPARATOR).
-          split(log.substring(COMMIT_SEPARATOR.length()))) {
-
-        List<String> groups = Splitter.on("\n" + GROUP).splitToList(msg);
-
-        Map<String, String> fields = Splitter.on("\n")
-            .withKeyValueSeparator(Splitter.on("=").limit(2))
-            .split(groups.get(0));
-
-        String body = null;
-        if (includeBody) {
-          body = UNINDENT.matcher(groups.get(1)).replaceAll("\n");
-          body = body.substring(BEGIN_BODY.length() + 1, body.length() - END_BODY.length() - 1);
-          // Copybara assumes \n as a separator in many places.
-          body = body.replace("\r\n", "\n");
-        }
+  /**
+   * An {@link InputStream} that also writes what is read to an {@code OutputStream}
+   */
+  private static class TeeInputStream extends FilterInputStream {
 
-        ImmutableSet<String> files = includeStat
-            ? ImmutableSet.copyOf(Splitter.on("\n").omitEmptyStrings().split(groups.get(2)))
-            : null;
+    private final OutputStream copy;
 
-        ImmutableList.Builder<GitRevision> parents = ImmutableList.builder();
-        for (String parent : Splitter.on(" ").omitEmptyStrings()
-            .split(getField(fields, PARENTS_FIELD))) {
-          parents.add(repo.createReferenceFromCompleteSha1(parent));
-        }
+    private TeeInputStream(InputStream in, OutputStream copy) {
+      super(in);
+      this.copy = copy;
+    }
 
-        String tree = getField(fields, TREE_FIELD);
-        String commit = getField(fields, COMMIT_FIELD);
-        try {
-          commits.add(new GitLogEntry(
-              repo.createReferenceFromCompleteSha1(commit), parents.build(),
-              tree,
-              AuthorParser.parse(getField(fields, AUTHOR_FIELD)),
-              AuthorParser.parse(getField(fields, COMMITTER_FIELD)),
-              tryParseDate(fields, AUTHOR_DATE_FIELD, commit),
-              tryParseDate(fields, COMMITTER_DATE, commit),
-              body, files));
-        } catch (InvalidAuthorException e) {
-          throw new RepoException("Error in commit '" + commit + "'. Invalid author.", e);
-        }
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        copy.write(b);
       }
-      return commits.build();
+      return b;
     }
 
-    private ZonedDateTime tryParseDate(Map<String, String> fields, String dateField,
-        String commit) {
-      String value = getField(fields, dateField);
-      try {
-        return ZonedDateTime.parse(value);
-      } catch (DateTimeParseException e) {
-        logger.atSevere().log("Cannot parse date '%s' for commit %s. Using epoch time instead",
-            value, commit);
-        return ZonedDateTime.ofInstant(Instant.EPOCH, ZoneOffset.UTC);
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        copy.write(b, off, n);
       }
+      return n;
     }
+  }
 
-    private String getField(Map<String, String> fields, String field) {
-      return Preconditions.checkNotNull(fields.get(field), "%s not present", field);
-    }
+  /**
+   * Receives the entries of {@link LogCmd#visit(EntryVisitor)}.
+   */
+  public interface EntryVisitor {
 
     /**
-     * We use a custom format that allows us easy parsing and be tolerant to random text in the
-     * body (That is the reason why we indent the body).
-     *
-     * <p>We also use \u0001 as commit separator to prevent a file being confused as the separator.
+     * Invoked for each entry, in the order printed by 'git log'. Returns false to stop the
+     * visitation.
      */
-    private String createFormat(boolean includeBody) {
-      return ("--format=" + COMMIT_SEPARATOR
-          + COMMIT_FIELD + "=%H\n"
-          + PARENTS_FIELD + "=%P\n"
-          + TREE_FIELD + "=%T\n"
-          + AUTHOR_FIELD + "=%an <%ae>\n"
-          + AUTHOR_DATE_FIELD + "=%aI\n"
-          + COMMITTER_FIELD + "=%cn <%ce>\n"
-          + COMMITTER_DATE + "=%cI\n"
-          + GROUP
-          // Body is padded by 4 spaces.
-          + (includeBody ? BEGIN_BODY + "\n" + "%w(0,4,4)%B%w(0,0,0)\n" + END_BODY + "\n" : "\n")
-          + GROUP)
-          .replace("\n", "%n").replace("\u0001", "%x01");
-    }
+    boolean visit(GitLogEntry entry) throws RepoException;
   }
 
   /**
@@ -17,13 +17,10 @@
 package com.google.copybara.git;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
 import com.google.copybara.exception.CannotResolveRevisionException;
 import com.google.copybara.ChangeVisitable.ChangesVisitor;
-import com.google.copybara.ChangeVisitable.VisitResult;
 import com.google.copybara.GeneralOptions;
 import com.google.copybara.exception.RepoException;
-import com.google.copybara.git.ChangeReader.GitChange;
 import com.google.copybara.profiler.Profiler.ProfilerTask;
 
 /** Utility methods for visiting Git repos. */
@@ -31,44 +28,23 @@ public class GitVisitorUtil {
 
   private GitVisitorUtil() {}
 
-  /** Visits */
+  /**
+   * Visits the changes of {@code start} from the newest to the oldest until the visitor returns
+   * {@link com.google.copybara.ChangeVisitable.VisitResult#TERMINATE}.
+   */
   static void visitChanges(
       GitRevision start,
       ChangesVisitor visitor,
       ChangeReader.Builder queryChanges,
       GeneralOptions generalOptions,
-      String type,
-      int visitChangePageSize)
+      String type)
       throws RepoException, CannotResolveRevisionException {
     Preconditions.checkNotNull(start);
-    int skip = 0;
-    boolean finished = false;
+    boolean found;
     try (ProfilerTask ignore = generalOptions.profiler().start(type + "/visit_changes")) {
-      while (!finished) {
-        ImmutableList<GitChange> result;
-        try (ProfilerTask ignore2 =
-            generalOptions.profiler().start("git_log_" + skip + "_" + visitChangePageSize)) {
-          result =
-              queryChanges
-                  .setSkip(skip)
-                  .setLimit(visitChangePageSize)
-                  .build()
-                  .run(start.getSha1())
-                  .reverse();
-        }
-        if (result.isEmpty()) {
-          break;
-        }
-        skip += result.size();
-        for (GitChange current : result) {
-          if (visitor.visit(current.getChange()) == VisitResult.TERMINATE) {
-            finished = true;
-            break;
-          }
-        }
-      }
+      found = queryChanges.build().visit(start.getSha1(), visitor);
     }
-    if (skip == 0) {
+    if (!found) {
       throw new CannotResolveRevisionException("Cannot resolve reference " + start.getSha1());
     }
   }
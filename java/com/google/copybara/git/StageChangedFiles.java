@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.copybara.exception.RepoException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Stages the work tree of a Git repo, that contains the destination files to write, in its index,
+ * that contains the destination tree.
+ *
+ * <p>Instead of {@code git add --all}, that also stages the deletion of the files that are not
+ * destination files and makes {@code git commit} hash every file again, only the entries that
+ * change are written to the index, with {@code git update-index --index-info}. The entries of the
+ * files that are not destination files, including submodules, are not touched.
+ */
+final class StageChangedFiles {
+
+  private static final String REMOVED_ENTRY = "0 " + Strings.repeat("0", 40);
+
+  private final GitRepository repo;
+  private final Predicate<String> isDestinationFile;
+
+  /**
+   * @param repo a repo with the files to write as work tree
+   * @param isDestinationFile whether a path relative to the work tree is a destination file
+   */
+  StageChangedFiles(GitRepository repo, Predicate<String> isDestinationFile) {
+    this.repo = Preconditions.checkNotNull(repo);
+    this.isDestinationFile = Preconditions.checkNotNull(isDestinationFile);
+  }
+
+  /**
+   * Stages the files of the work tree and the deletion of the destination files that are not in
+   * the work tree. Returns the number of paths staged.
+   */
+  int stage() throws RepoException, IOException {
+    Map<String, String> index = repo.readIndexEntries();
+    FilesFinder finder = new FilesFinder(repo.getWorkTree());
+    Files.walkFileTree(repo.getWorkTree(), finder);
+
+    StringBuilder indexInfo = new StringBuilder();
+    int staged = 0;
+    Set<String> present = new HashSet<>(finder.files);
+    present.addAll(finder.others);
+    // Deletions go first so that a file can replace a directory.
+    for (Entry<String, String> entry : index.entrySet()) {
+      if (!present.contains(entry.getKey()) && isDestinationFile.test(entry.getKey())) {
+        appendEntry(indexInfo, REMOVED_ENTRY, entry.getKey());
+        staged++;
+      }
+    }
+    ImmutableList<String> hashes = repo.hashObjects(finder.files);
+    for (int i = 0; i < hashes.size(); i++) {
+      String path = finder.files.get(i);
+      String current = index.get(path);
+      // Files that are not destination files keep the destination version.
+      if (current != null && !isDestinationFile.test(path)) {
+        continue;
+      }
+      String entry = (finder.executable.contains(path) ? "100755 " : "100644 ") + hashes.get(i);
+      if (!entry.equals(current)) {
+        appendEntry(indexInfo, entry, path);
+        staged++;
+      }
+    }
+    if (indexInfo.length() > 0) {
+      repo.updateIndex(indexInfo.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    List<String> others = new ArrayList<>();
+    for (String path : finder.others) {
+      if (!index.containsKey(path) || isDestinationFile.test(path)) {
+        others.add(path);
+      }
+    }
+    // Symlinks, nested repositories and paths that cannot be passed to hashObjects.
+    if (!others.isEmpty()) {
+      repo.add().force().files(others).run();
+    }
+    return staged + others.size();
+  }
+
+  private static void appendEntry(StringBuilder indexInfo, String modeAndSha1, String path) {
+    indexInfo.append(modeAndSha1).append('\t').append(path).append('\0');
+  }
+
+  private static final class FilesFinder extends SimpleFileVisitor<Path> {
+
+    private final Path workTree;
+    /** Regular files, that can be hashed in bulk. */
+    private final List<String> files = new ArrayList<>();
+    private final Set<String> executable = new HashSet<>();
+    private final List<String> others = new ArrayList<>();
+
+    private FilesFinder(Path workTree) {
+      this.workTree = workTree;
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+        throws IOException {
+      if (dir.getFileName().toString().equals(".git")) {
+        return FileVisitResult.SKIP_SUBTREE;
+      }
+      if (!dir.equals(workTree) && Files.exists(dir.resolve(".git"))) {
+        others.add(workTree.relativize(dir).toString());
+        return FileVisitResult.SKIP_SUBTREE;
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+      if (file.getFileName().toString().equals(".git")) {
+        return FileVisitResult.CONTINUE;
+      }
+      String path = workTree.relativize(file).toString();
+      if (!attrs.isRegularFile() || path.indexOf('\n') != -1) {
+        others.add(path);
+        return FileVisitResult.CONTINUE;
+      }
+      files.add(path);
+      if (isExecutable(file)) {
+        executable.add(path);
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    /**
+     * Whether the owner execute bit is set, which is what git records. Not whether the current
+     * user can execute the file.
+     */
+    private static boolean isExecutable(Path file) throws IOException {
+      if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+        return Files.getPosixFilePermissions(file).contains(PosixFilePermission.OWNER_EXECUTE);
+      }
+      return Files.isExecutable(file);
+    }
+  }
+}
@@ -22,6 +22,7 @@ import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.json.JsonHttpContent;
 import com.google.api.client.json.JsonFactory;
@@ -30,6 +31,7 @@ import com.google.api.client.json.gson.GsonFactory;
 import com.google.common.base.Preconditions;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
+import com.google.copybara.git.CredentialCache;
 import com.google.copybara.git.GitCredential.UserPassword;
 import com.google.copybara.git.GitRepository;
 import java.io.IOException;
@@ -46,24 +48,34 @@ public class GerritApiTransportImpl implements GerritApiTransport {
 
   private static final JsonFactory JSON_FACTORY = new GsonFactory();
 
-  private final GitRepository repo;
+  private final CredentialCache credentials;
   private final URI uri;
-  private final HttpTransport httpTransport;
+  private final HttpRequestFactory requestFactory;
 
   public GerritApiTransportImpl(GitRepository repo, URI uri, HttpTransport httpTransport) {
-    this.repo = repo;
+    this(new CredentialCache(repo), uri, httpTransport);
+  }
+
+  /**
+   * Creates a transport that reads the credentials from {@code credentials}, that can be shared
+   * with other transports.
+   */
+  public GerritApiTransportImpl(CredentialCache credentials, URI uri,
+      HttpTransport httpTransport) {
+    this.credentials = Preconditions.checkNotNull(credentials);
     this.uri = Preconditions.checkNotNull(uri);
-    this.httpTransport = Preconditions.checkNotNull(httpTransport);
+    this.requestFactory = createHttpRequestFactory(Preconditions.checkNotNull(httpTransport));
   }
 
   @Override
   public <T> T get(String path, Type responseType)
       throws RepoException, ValidationException {
-    HttpRequestFactory requestFactory = getHttpRequestFactory(
-        getCredentialsIfPresent(uri.toString()));
+    UserPassword userPassword = getCredentialsIfPresent(uri.toString());
     GenericUrl url = getUrl(path);
     try {
-      return execute(responseType, requestFactory.buildGetRequest(url));
+      HttpRequest httpRequest = requestFactory.buildGetRequest(url);
+      authenticate(httpRequest, userPassword);
+      return executeAndInvalidateIfRejected(responseType, httpRequest);
     } catch (IOException e) {
       throw new RepoException("Error running Gerrit API operation " + url, e);
     }
@@ -72,16 +84,31 @@ public class GerritApiTransportImpl implements GerritApiTransport {
   @Override
   public <T> T post(String path, Object request, Type responseType)
       throws RepoException, ValidationException {
-    HttpRequestFactory requestFactory = getHttpRequestFactory(getCredentials(uri.toString()));
+    UserPassword userPassword = getCredentials(uri.toString());
     GenericUrl url = getUrl(path);
     try {
-      return execute(responseType, requestFactory.buildPostRequest(
-          url, new JsonHttpContent(JSON_FACTORY, request)));
+      HttpRequest httpRequest = requestFactory.buildPostRequest(
+          url, new JsonHttpContent(JSON_FACTORY, request));
+      authenticate(httpRequest, userPassword);
+      return executeAndInvalidateIfRejected(responseType, httpRequest);
     } catch (IOException e) {
       throw new RepoException("Error running Gerrit API operation " + url, e);
     }
   }
 
+  /** Invalidates the {@link CredentialCache} if the server rejects the credentials. */
+  private <T> T executeAndInvalidateIfRejected(Type responseType, HttpRequest httpRequest)
+      throws IOException, GerritApiException {
+    try {
+      return execute(responseType, httpRequest);
+    } catch (GerritApiException e) {
+      if (e.getExitCode() == HttpStatusCodes.STATUS_CODE_UNAUTHORIZED) {
+        credentials.invalidate();
+      }
+      throw e;
+    }
+  }
+
   public GenericUrl getUrl(String path) {
     Preconditions.checkArgument(path.startsWith("/"), path);
     return new GenericUrl(uri.resolve(uri.getPath() + path));
@@ -102,22 +129,23 @@ public class GerritApiTransportImpl implements GerritApiTransport {
   /**
    * TODO(malcon): Consolidate GitHub and this one in one class
    */
-  private HttpRequestFactory getHttpRequestFactory(@Nullable UserPassword userPassword)
-      throws RepoException, ValidationException {
+  private static HttpRequestFactory createHttpRequestFactory(HttpTransport httpTransport) {
     return httpTransport.createRequestFactory(
         request -> {
           request.setConnectTimeout((int) Duration.ofMinutes(1).toMillis());
           request.setReadTimeout((int) Duration.ofMinutes(1).toMillis());
-          HttpHeaders httpHeaders = new HttpHeaders();
-          if (userPassword != null) {
-            httpHeaders.setBasicAuthentication(userPassword.getUsername(),
-                                               userPassword.getPassword_BeCareful());
-          }
-          request.setHeaders(httpHeaders);
+          request.setHeaders(new HttpHeaders());
           request.setParser(new JsonObjectParser(JSON_FACTORY));
         });
   }
 
+  private static void authenticate(HttpRequest request, @Nullable UserPassword userPassword) {
+    if (userPassword != null) {
+      request.getHeaders().setBasicAuthentication(userPassword.getUsername(),
+                                                  userPassword.getPassword_BeCareful());
+    }
+  }
+
   /**
    * Credentials for API should be optional for any read operation (GET).
    *
@@ -141,7 +169,7 @@ public class GerritApiTransportImpl implements GerritApiTransport {
    */
   private UserPassword getCredentials(String url) throws ValidationException, RepoException {
     try {
-      return repo.credentialFill(url);
+      return credentials.fill(url);
     } catch (ValidationException e) {
       throw new ValidationException(e,
           "Cannot get credentials for host %s, from credentials helper", url);
@@ -17,6 +17,7 @@
 package com.google.copybara.git.github.api;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.reflect.TypeToken;
 import com.google.copybara.exception.RepoException;
@@ -24,8 +25,16 @@ import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.github.api.GitHubApiException.ResponseCode;
 import com.google.copybara.profiler.Profiler;
 import com.google.copybara.profiler.Profiler.ProfilerTask;
+import com.google.re2j.Matcher;
+import com.google.re2j.Pattern;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.annotation.Nullable;
 
 /**
  * A mini API for getting and updating GitHub projects through the GitHub REST API.
@@ -34,13 +43,31 @@ public class GitHubApi {
 
   private final GitHubApiTransport transport;
   private final Profiler profiler;
+  private final int maxConcurrentPages;
 
   public static final int MAX_PER_PAGE = 100;
   private static final int MAX_PAGES = 5;
+  public static final int DEFAULT_MAX_CONCURRENT_PAGES = 4;
+
+  private static final Pattern PAGE_PARAM = Pattern.compile("([?&]page=)([0-9]+)");
 
   public GitHubApi(GitHubApiTransport transport, Profiler profiler) {
+    this(transport, profiler, DEFAULT_MAX_CONCURRENT_PAGES);
+  }
+
+  /**
+   * Creates a new API instance.
+   *
+   * @param maxConcurrentPages maximum number of pages of a paginated list that are fetched at the
+   *     same time. Higher values reduce the latency but increase the chances of hitting the GitHub
+   *     abuse rate limits.
+   */
+  public GitHubApi(GitHubApiTransport transport, Profiler profiler, int maxConcurrentPages) {
     this.transport = Preconditions.checkNotNull(transport);
     this.profiler = Preconditions.checkNotNull(profiler);
+    Preconditions.checkArgument(maxConcurrentPages > 0, "Invalid max concurrent pages: %s",
+        maxConcurrentPages);
+    this.maxConcurrentPages = maxConcurrentPages;
   }
 
   /**
@@ -90,21 +117,112 @@ public class GitHubApi {
         new TypeToken<PaginatedList<Review>>() {}.getType());
   }
 
+  /**
+   * Gets up to {@link #MAX_PAGES} pages of a paginated list.
+   *
+   * <p>If the first page links to the last one, the rest of the pages are fetched concurrently,
+   * since their URLs are known. Otherwise they are fetched one after the other, following the
+   * 'next' links.
+   */
   private <T> ImmutableList<T> paginatedGet(String path, String profilerName, Type type)
       throws RepoException, ValidationException {
     ImmutableList.Builder<T> builder = ImmutableList.builder();
-    int pages = 0;
-    while (path != null && pages < MAX_PAGES) {
-      try (ProfilerTask ignore = profiler.start(String.format("%s_page_%d", profilerName, pages))) {
-        PaginatedList<T> page = transport.get(path, type);
+    PaginatedList<T> first = getPage(path, profilerName, 0, type);
+    builder.addAll(first);
+    List<String> pageUrls = remainingPageUrls(first);
+    if (pageUrls == null) {
+      path = first.getNextUrl();
+      int pages = 1;
+      while (path != null && pages < MAX_PAGES) {
+        PaginatedList<T> page = getPage(path, profilerName, pages, type);
         builder.addAll(page);
         path = page.getNextUrl();
         pages++;
       }
+    } else if (maxConcurrentPages == 1 || pageUrls.size() == 1) {
+      for (int i = 0; i < pageUrls.size(); i++) {
+        builder.addAll(getPage(pageUrls.get(i), profilerName, i + 1, type));
+      }
+    } else {
+      ExecutorService executor =
+          Executors.newFixedThreadPool(Math.min(maxConcurrentPages, pageUrls.size()));
+      try {
+        List<Future<PaginatedList<T>>> pages = new ArrayList<>();
+        for (int i = 0; i < pageUrls.size(); i++) {
+          String url = pageUrls.get(i);
+          int pageNumber = i + 1;
+          pages.add(executor.submit(() -> getPage(url, profilerName, pageNumber, type)));
+        }
+        // Pages are added in order, no matter the order in which they were fetched.
+        for (Future<PaginatedList<T>> page : pages) {
+          builder.addAll(getFuture(page, path));
+        }
+      } finally {
+        executor.shutdownNow();
+      }
     }
     return builder.build();
   }
 
+  private <T> PaginatedList<T> getPage(String path, String profilerName, int page, Type type)
+      throws RepoException, ValidationException {
+    try (ProfilerTask ignore = profiler.start(String.format("%s_page_%d", profilerName, page))) {
+      return transport.get(path, type);
+    }
+  }
+
+  private static <T> T getFuture(Future<T> future, String path)
+      throws RepoException, ValidationException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RepoException("Interrupted while fetching " + path, e);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), RepoException.class, ValidationException.class);
+      throw new RepoException("Error fetching " + path, e.getCause());
+    }
+  }
+
+  /**
+   * Returns the URLs of the pages after {@code first}, up to {@link #MAX_PAGES} in total, or null
+   * if they cannot be computed from the 'next' and 'last' links.
+   */
+  @Nullable
+  private static List<String> remainingPageUrls(PaginatedList<?> first) {
+    String next = first.getNextUrl();
+    String last = first.getLastUrl();
+    if (next == null || last == null) {
+      return null;
+    }
+    Matcher nextMatcher = PAGE_PARAM.matcher(next);
+    Matcher lastMatcher = PAGE_PARAM.matcher(last);
+    if (!nextMatcher.find() || !lastMatcher.find()) {
+      return null;
+    }
+    int nextPage;
+    int lastPage;
+    try {
+      nextPage = Integer.parseInt(nextMatcher.group(2));
+      lastPage = Integer.parseInt(lastMatcher.group(2));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    // Only trust the 'last' link as a template if it generates the 'next' link.
+    if (!pageUrl(last, lastMatcher, nextPage).equals(next) || lastPage < nextPage) {
+      return null;
+    }
+    List<String> urls = new ArrayList<>();
+    for (int page = nextPage; page <= lastPage && urls.size() < MAX_PAGES - 1; page++) {
+      urls.add(pageUrl(last, lastMatcher, page));
+    }
+    return urls;
+  }
+
+  private static String pageUrl(String template, Matcher pageParam, int page) {
+    return template.substring(0, pageParam.end(1)) + page + template.substring(pageParam.end(2));
+  }
+
   /**
    * Create a pull request
    */
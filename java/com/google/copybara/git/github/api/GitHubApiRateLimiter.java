@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github.api;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.profiler.Profiler;
+import com.google.copybara.profiler.Profiler.ProfilerTask;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Random;
+import javax.annotation.Nullable;
+
+/**
+ * Paces the requests to the GitHub API and decides when failed requests should be retried.
+ *
+ * <p>Requests are paced with a token bucket shared by all the threads. In addition, the budget
+ * reported by GitHub in the {@code X-RateLimit-Remaining} and {@code X-RateLimit-Reset} headers
+ * is tracked: when it is exhausted, requests wait until the budget is reset. Requests that fail
+ * because of the rate limits (403 with no budget left, or a {@code Retry-After} header, or 429)
+ * or because of a transient server error can be retried after the time suggested by GitHub or
+ * an exponential backoff with jitter. Waits longer than {@code maxWait} are never done, the
+ * request just fails.
+ *
+ * <p>Every change of the budget reported by GitHub is recorded as a 'github_api_rate_limit'
+ * profiler task, so that it can be observed before the requests are throttled. The waits are
+ * recorded as 'github_api_rate_limit_wait' profiler tasks, with the last budget as fields.
+ *
+ * <p>Thread-safe.
+ */
+public final class GitHubApiRateLimiter {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String REMAINING_HEADER = "X-RateLimit-Remaining";
+  private static final String LIMIT_HEADER = "X-RateLimit-Limit";
+  private static final String RESET_HEADER = "X-RateLimit-Reset";
+  private static final String RETRY_AFTER_HEADER = "Retry-After";
+  private static final Duration INITIAL_BACKOFF = Duration.ofSeconds(1);
+
+  /** Sleeps the current thread. Can be replaced in tests. */
+  @VisibleForTesting
+  interface Sleeper {
+    void sleep(Duration duration) throws InterruptedException;
+  }
+
+  private final Profiler profiler;
+  private final int maxRetries;
+  private final Duration maxWait;
+  private final Ticker ticker;
+  private final Clock clock;
+  private final Sleeper sleeper;
+  private final Random random;
+
+  private final double capacity;
+  private final double nanosPerToken;
+  private double tokens;
+  private long lastRefillNanos;
+  /** No request can be done before this time, because the GitHub budget is exhausted. */
+  private long blockedUntilNanos;
+  private long limit = -1;
+  private long remaining = -1;
+
+  /**
+   * Creates a new rate limiter.
+   *
+   * @param requestsPerSecond sustained number of requests per second. Up to this number of
+   *     requests can be done in a burst.
+   * @param maxRetries maximum number of retries of a failed request
+   * @param maxWait maximum time that a request waits for the rate limits
+   */
+  public GitHubApiRateLimiter(Profiler profiler, double requestsPerSecond, int maxRetries,
+      Duration maxWait) {
+    this(profiler, requestsPerSecond, maxRetries, maxWait, Ticker.systemTicker(),
+        Clock.systemUTC(), d -> Thread.sleep(d.toMillis()), new Random());
+  }
+
+  @VisibleForTesting
+  GitHubApiRateLimiter(Profiler profiler, double requestsPerSecond, int maxRetries,
+      Duration maxWait, Ticker ticker, Clock clock, Sleeper sleeper, Random random) {
+    Preconditions.checkArgument(requestsPerSecond > 0, "Invalid requests per second: %s",
+        requestsPerSecond);
+    Preconditions.checkArgument(maxRetries >= 0, "Invalid max retries: %s", maxRetries);
+    this.profiler = Preconditions.checkNotNull(profiler);
+    this.maxRetries = maxRetries;
+    this.maxWait = Preconditions.checkNotNull(maxWait);
+    this.ticker = Preconditions.checkNotNull(ticker);
+    this.clock = Preconditions.checkNotNull(clock);
+    this.sleeper = Preconditions.checkNotNull(sleeper);
+    this.random = Preconditions.checkNotNull(random);
+    this.capacity = Math.max(1, requestsPerSecond);
+    this.nanosPerToken = Duration.ofSeconds(1).toNanos() / requestsPerSecond;
+    this.tokens = capacity;
+    this.lastRefillNanos = ticker.read();
+    this.blockedUntilNanos = lastRefillNanos;
+  }
+
+  /** Waits until a request can be done. */
+  void acquire() throws RepoException {
+    long waitNanos = reserve();
+    if (waitNanos > 0) {
+      sleep(Duration.ofNanos(waitNanos));
+    }
+  }
+
+  private synchronized long reserve() {
+    long now = ticker.read();
+    tokens = Math.min(capacity, tokens + (now - lastRefillNanos) / nanosPerToken);
+    lastRefillNanos = now;
+    // Tokens can go negative: the requests waiting reserve the next tokens.
+    tokens--;
+    long tokenWait = tokens >= 0 ? 0 : (long) (-tokens * nanosPerToken);
+    return Math.max(tokenWait, blockedUntilNanos - now);
+  }
+
+  /** Updates the GitHub budget from the headers of a response. */
+  void update(HttpHeaders headers) {
+    Long newRemaining = longHeader(headers, REMAINING_HEADER);
+    if (newRemaining == null) {
+      return;
+    }
+    Long newLimit = longHeader(headers, LIMIT_HEADER);
+    Duration untilReset = untilReset(headers);
+    ImmutableMap<String, String> budget = null;
+    synchronized (this) {
+      if (newRemaining != remaining || (newLimit != null && newLimit != limit)) {
+        remaining = newRemaining;
+        if (newLimit != null) {
+          limit = newLimit;
+        }
+        budget = ImmutableMap.of("limit", String.valueOf(limit),
+            "remaining", String.valueOf(remaining));
+      }
+      if (remaining == 0 && untilReset != null && untilReset.compareTo(maxWait) <= 0) {
+        blockedUntilNanos = Math.max(blockedUntilNanos, ticker.read() + untilReset.toNanos());
+      }
+    }
+    if (budget != null) {
+      long now = ticker.read();
+      profiler.simpleTask("github_api_rate_limit", budget, now, now);
+    }
+    if (newRemaining == 0) {
+      logger.atWarning().log("GitHub API rate limit exhausted. It will be reset in %s",
+          untilReset);
+    }
+  }
+
+  /**
+   * Returns how long to wait before retrying a request that failed with {@code statusCode}, or
+   * null if it shouldn't be retried.
+   *
+   * @param attempt number of the failed attempt, starting at 0
+   */
+  @Nullable
+  Duration retryDelay(int attempt, int statusCode, HttpHeaders headers) {
+    if (attempt >= maxRetries) {
+      return null;
+    }
+    Long retryAfter = longHeader(headers, RETRY_AFTER_HEADER);
+    Duration delay;
+    if (retryAfter != null && (statusCode == 403 || statusCode == 429 || statusCode == 503)) {
+      // Secondary (abuse) rate limit or server overloaded.
+      delay = Duration.ofSeconds(retryAfter);
+    } else if (statusCode == 403 && Long.valueOf(0).equals(longHeader(headers,
+        REMAINING_HEADER))) {
+      delay = untilReset(headers);
+      if (delay == null) {
+        return null;
+      }
+    } else if (statusCode == 429 || statusCode == 502 || statusCode == 503
+        || statusCode == 504) {
+      // Exponential backoff with jitter, so that concurrent requests don't retry at once.
+      long backoff = INITIAL_BACKOFF.toMillis() << Math.min(attempt, 10);
+      delay = Duration.ofMillis(backoff / 2 + (long) (random.nextDouble() * backoff));
+    } else {
+      return null;
+    }
+    return delay.compareTo(maxWait) <= 0 ? delay : null;
+  }
+
+  /** Waits {@code duration}, recording the wait in the profiler. */
+  void sleep(Duration duration) throws RepoException {
+    ImmutableMap<String, String> fields;
+    synchronized (this) {
+      fields = ImmutableMap.of("limit", String.valueOf(limit),
+          "remaining", String.valueOf(remaining));
+    }
+    try (ProfilerTask ignore = profiler.start("github_api_rate_limit_wait", fields)) {
+      sleeper.sleep(duration);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RepoException("Interrupted while waiting for the GitHub API rate limit", e);
+    }
+  }
+
+  /**
+   * Returns the number of requests left in the current rate limit window, as reported by the
+   * last GitHub response, or -1 if unknown.
+   */
+  @VisibleForTesting
+  synchronized long getRemaining() {
+    return remaining;
+  }
+
+  /** Returns the number of requests allowed per rate limit window, or -1 if unknown. */
+  @VisibleForTesting
+  synchronized long getLimit() {
+    return limit;
+  }
+
+  @Nullable
+  private Duration untilReset(HttpHeaders headers) {
+    Long reset = longHeader(headers, RESET_HEADER);
+    if (reset == null) {
+      return null;
+    }
+    long seconds = reset - clock.instant().getEpochSecond();
+    // Be a bit conservative since the clocks might not be in sync.
+    return Duration.ofSeconds(Math.max(0, seconds) + 1);
+  }
+
+  @Nullable
+  private static Long longHeader(HttpHeaders headers, String name) {
+    String value = headers.getFirstHeaderStringValue(name);
+    if (value == null) {
+      return null;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      // For example Retry-After as an HTTP date, not used by GitHub.
+      return null;
+    }
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github.api;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk cache of GitHub API GET responses, that is used for doing conditional requests.
+ *
+ * <p>Responses are stored together with their {@code ETag} and {@code Last-Modified} headers. The
+ * next request for the same URL sends them back as {@code If-None-Match} and
+ * {@code If-Modified-Since}, and if GitHub answers 304 (Not Modified) the stored body is used.
+ * Requests answered with 304 don't count against the GitHub rate limit. Since every request is
+ * still sent to GitHub, the results are never stale.
+ *
+ * <p>Responses are stored per user, since the same URL can return different content for different
+ * users. The cache can be shared by several processes: entries are replaced atomically and
+ * unreadable entries are ignored. Responses can contain private data, so the cache is only
+ * readable by its owner, and the least recently used entries are evicted once there are more than
+ * {@code maxEntries}.
+ */
+public final class GitHubApiResponseCache {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Increase when the format of the entries changes, so that old entries are ignored. */
+  private static final int VERSION = 1;
+
+  public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+  private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY =
+      PosixFilePermissions.fromString("rwx------");
+  private static final Set<PosixFilePermission> OWNER_ONLY_FILE =
+      PosixFilePermissions.fromString("rw-------");
+
+  private final Path directory;
+  private final int maxEntries;
+
+  public GitHubApiResponseCache(Path directory) {
+    this(directory, DEFAULT_MAX_ENTRIES);
+  }
+
+  public GitHubApiResponseCache(Path directory, int maxEntries) {
+    this.directory = Preconditions.checkNotNull(directory);
+    Preconditions.checkArgument(maxEntries > 0, "maxEntries needs to be positive: %s", maxEntries);
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Deletes the least recently used entries until there are at most {@code maxEntries}. Entries
+   * are only evicted here, so that storing a response doesn't need to list the whole cache.
+   */
+  public void evictLeastRecentlyUsed() {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    List<Path> entries;
+    try (Stream<Path> files = Files.list(directory)) {
+      entries = files
+          .filter(file -> !file.getFileName().toString().endsWith(".tmp"))
+          .collect(Collectors.toList());
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot list the GitHub API cache %s", directory);
+      return;
+    }
+    if (entries.size() <= maxEntries) {
+      return;
+    }
+    Map<Path, FileTime> lastUsed = new HashMap<>();
+    for (Path entry : entries) {
+      try {
+        lastUsed.put(entry, Files.getLastModifiedTime(entry));
+      } catch (IOException e) {
+        // Deleted by another process
+        lastUsed.put(entry, FileTime.fromMillis(0));
+      }
+    }
+    entries.sort(Comparator.comparing(lastUsed::get));
+    for (Path entry : entries.subList(0, entries.size() - maxEntries)) {
+      try {
+        Files.deleteIfExists(entry);
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot evict GitHub API cache entry %s", entry);
+      }
+    }
+  }
+
+  /** Returns the stored response for {@code url} or null if there isn't one. */
+  @Nullable
+  CachedResponse get(String url, @Nullable String user) {
+    Path file = getFile(url, user);
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != VERSION || !in.readUTF().equals(url)) {
+        return null;
+      }
+      String etag = in.readUTF();
+      String lastModified = in.readUTF();
+      String link = in.readUTF();
+      byte[] body = new byte[in.readInt()];
+      in.readFully(body);
+      markUsed(file);
+      return new CachedResponse(Strings.emptyToNull(etag), Strings.emptyToNull(lastModified),
+          Strings.emptyToNull(link), body);
+    } catch (IOException | RuntimeException e) {
+      logger.atWarning().withCause(e).log("Ignoring invalid GitHub API cache entry %s", file);
+      return null;
+    }
+  }
+
+  /**
+   * Stores the response for {@code url} if it can be used for conditional requests. Failing to
+   * store it is not an error, since the next request will get the full response again.
+   */
+  void put(String url, @Nullable String user, CachedResponse response) {
+    if (response.etag == null && response.lastModified == null) {
+      return;
+    }
+    Path file = getFile(url, user);
+    try {
+      Files.createDirectories(directory);
+      boolean posix = directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+      if (posix) {
+        Files.setPosixFilePermissions(directory, OWNER_ONLY_DIRECTORY);
+      }
+      Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+      try {
+        if (posix) {
+          // The move keeps the permissions
+          Files.setPosixFilePermissions(tmp, OWNER_ONLY_FILE);
+        }
+        try (DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+          out.writeInt(VERSION);
+          out.writeUTF(url);
+          out.writeUTF(Strings.nullToEmpty(response.etag));
+          out.writeUTF(Strings.nullToEmpty(response.lastModified));
+          out.writeUTF(Strings.nullToEmpty(response.link));
+          out.writeInt(response.body.length);
+          out.write(response.body);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot store GitHub API cache entry %s", file);
+    }
+  }
+
+  /** Used for evicting the least recently used entries. */
+  private void markUsed(Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+    } catch (IOException e) {
+      logger.atFine().withCause(e).log("Cannot update the last use of %s", file);
+    }
+  }
+
+  private Path getFile(String url, @Nullable String user) {
+    return directory.resolve(
+        Hashing.sha256().hashString(Strings.nullToEmpty(user) + '\0' + url, UTF_8).toString());
+  }
+
+  /** A GET response stored in the cache. */
+  static class CachedResponse {
+
+    @Nullable
+    private final String etag;
+    @Nullable
+    private final String lastModified;
+    @Nullable
+    private final String link;
+    private final byte[] body;
+
+    CachedResponse(@Nullable String etag, @Nullable String lastModified, @Nullable String link,
+        byte[] body) {
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.link = link;
+      this.body = Preconditions.checkNotNull(body);
+    }
+
+    /** Makes {@code headers} a conditional request for this response. */
+    void addConditionalHeaders(HttpHeaders headers) {
+      if (etag != null) {
+        headers.setIfNoneMatch(etag);
+      }
+      if (lastModified != null) {
+        headers.setIfModifiedSince(lastModified);
+      }
+    }
+
+    /** The 'Link' header of the response, used for pagination. */
+    @Nullable
+    String getLink() {
+      return link;
+    }
+
+    byte[] getBody() {
+      return body;
+    }
+  }
+}
@@ -16,26 +16,36 @@
 
 package com.google.copybara.git.github.api;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.json.JsonHttpContent;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.JsonObjectParser;
 import com.google.api.client.json.gson.GsonFactory;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
 import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.io.ByteStreams;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
+import com.google.copybara.git.CredentialCache;
 import com.google.copybara.git.GitCredential.UserPassword;
 import com.google.copybara.git.GitRepository;
+import com.google.copybara.git.github.api.GitHubApiResponseCache.CachedResponse;
+import com.google.copybara.profiler.Profiler;
 import com.google.copybara.util.console.Console;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Type;
 import java.net.URI;
 import java.time.Duration;
@@ -55,41 +65,124 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
   private static final String API_PREFIX = API_URL + "/";
   private static final String GITHUB_WEB_URL = "https://github.com";
 
-  private final GitRepository repo;
-  private final HttpTransport httpTransport;
+  public static final double DEFAULT_REQUESTS_PER_SECOND = 10;
+  public static final int DEFAULT_MAX_RETRIES = 3;
+  public static final Duration DEFAULT_MAX_RATE_LIMIT_WAIT = Duration.ofMinutes(2);
+
+  private final CredentialCache credentials;
+  private final HttpRequestFactory requestFactory;
   private final String storePath;
   private final Console console;
+  @Nullable
+  private final GitHubApiResponseCache cache;
+  private final GitHubApiRateLimiter rateLimiter;
+  private volatile boolean anonymousAccessReported;
 
   public GitHubApiTransportImpl(GitRepository repo, HttpTransport httpTransport,
       String storePath, Console console) {
-    this.repo = Preconditions.checkNotNull(repo);
-    this.httpTransport = Preconditions.checkNotNull(httpTransport);
+    this(new CredentialCache(repo), httpTransport, storePath, console, /*cache=*/null,
+        new GitHubApiRateLimiter(new Profiler(Ticker.systemTicker()),
+            DEFAULT_REQUESTS_PER_SECOND, DEFAULT_MAX_RETRIES, DEFAULT_MAX_RATE_LIMIT_WAIT));
+  }
+
+  /**
+   * Creates a transport that reads the credentials from {@code credentials}, that can be shared
+   * with other transports.
+   *
+   * <p>If {@code cache} is not null, GET requests are sent as conditional requests for the
+   * responses stored in the cache.
+   *
+   * <p>All the requests are paced by {@code rateLimiter}, that can be shared with other
+   * transports.
+   */
+  public GitHubApiTransportImpl(CredentialCache credentials, HttpTransport httpTransport,
+      String storePath, Console console, @Nullable GitHubApiResponseCache cache,
+      GitHubApiRateLimiter rateLimiter) {
+    this.credentials = Preconditions.checkNotNull(credentials);
+    this.requestFactory = createHttpRequestFactory(Preconditions.checkNotNull(httpTransport));
     this.storePath = storePath;
     this.console = Preconditions.checkNotNull(console);
+    this.cache = cache;
+    this.rateLimiter = Preconditions.checkNotNull(rateLimiter);
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public <T> T get(String path, Type responseType) throws RepoException, ValidationException {
-    HttpRequestFactory requestFactory = getHttpRequestFactory(getCredentialsIfPresent());
+    UserPassword userPassword = getCredentialsIfPresent();
 
     GenericUrl url = new GenericUrl(URI.create(API_PREFIX + path));
-    try {
-      HttpRequest httpRequest = requestFactory.buildGetRequest(url);
-      HttpResponse response = httpRequest.execute();
+    for (int attempt = 0; ; attempt++) {
+      rateLimiter.acquire();
+      try {
+        return executeGet(url, userPassword, responseType);
+      } catch (HttpResponseException e) {
+        rateLimiter.update(e.getHeaders());
+        // GETs are idempotent, so they can be retried.
+        Duration delay = rateLimiter.retryDelay(attempt, e.getStatusCode(), e.getHeaders());
+        if (delay != null) {
+          logger.atInfo().log("GitHub API GET %s failed with code %d. Retrying in %s", path,
+              e.getStatusCode(), delay);
+          rateLimiter.sleep(delay);
+          continue;
+        }
+        invalidateCredentialsIfRejected(e);
+        throw new GitHubApiException(e.getStatusCode(), parseErrorOrIgnore(e),
+                                     "GET", path, null, e.getContent());
+      } catch (IOException e) {
+        throw new RepoException("Error running GitHub API operation " + path, e);
+      }
+    }
+  }
 
-      Object responseObj = response.parseAs(responseType);
-      if (responseObj instanceof PaginatedList) {
-        return (T) ((PaginatedList) responseObj).withPaginationInfo(API_PREFIX,
-            maybeGetLinkHeader(response));
+  private <T> T executeGet(GenericUrl url, @Nullable UserPassword userPassword,
+      Type responseType) throws IOException {
+    String user = userPassword == null ? null : userPassword.getUsername();
+    CachedResponse cached = cache == null ? null : cache.get(url.build(), user);
+    HttpRequest httpRequest = requestFactory.buildGetRequest(url);
+    authenticate(httpRequest, userPassword);
+    if (cached != null) {
+      cached.addConditionalHeaders(httpRequest.getHeaders());
+      // 304 is not a success code, so we check errors ourselves.
+      httpRequest.setThrowExceptionOnExecuteError(false);
+    }
+    HttpResponse response = httpRequest.execute();
+    if (cached != null) {
+      if (response.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_MODIFIED) {
+        rateLimiter.update(response.getHeaders());
+        response.disconnect();
+        return parseCachedResponse(cached, responseType);
+      }
+      if (!response.isSuccessStatusCode()) {
+        throw new HttpResponseException(response);
       }
-      return (T) responseObj;
-    } catch (HttpResponseException e) {
-      throw new GitHubApiException(e.getStatusCode(), parseErrorOrIgnore(e),
-                                   "GET", path, null, e.getContent());
-    } catch (IOException e) {
-      throw new RepoException("Error running GitHub API operation " + path, e);
     }
+    rateLimiter.update(response.getHeaders());
+    if (cache == null) {
+      return withPaginationInfo(response.parseAs(responseType), maybeGetLinkHeader(response));
+    }
+    byte[] body;
+    try (InputStream content = response.getContent()) {
+      body = content == null ? new byte[0] : ByteStreams.toByteArray(content);
+    }
+    CachedResponse newResponse = new CachedResponse(response.getHeaders().getETag(),
+        response.getHeaders().getLastModified(), maybeGetLinkHeader(response), body);
+    cache.put(url.build(), user, newResponse);
+    return parseCachedResponse(newResponse, responseType);
+  }
+
+  private <T> T parseCachedResponse(CachedResponse response, Type responseType)
+      throws IOException {
+    Object responseObj = new JsonObjectParser(JSON_FACTORY)
+        .parseAndClose(new ByteArrayInputStream(response.getBody()), UTF_8, responseType);
+    return withPaginationInfo(responseObj, response.getLink());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T withPaginationInfo(Object responseObj, @Nullable String link) {
+    if (responseObj instanceof PaginatedList) {
+      return (T) ((PaginatedList) responseObj).withPaginationInfo(API_PREFIX, link);
+    }
+    return (T) responseObj;
   }
 
   @SuppressWarnings("unchecked")
@@ -120,34 +213,35 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
     try {
       return getCredentials();
     } catch (ValidationException e) {
-      String msg = String
-          .format("GitHub credentials not found in %s. Assuming the repository is public.",
-              storePath);
-      logger.atInfo().log(msg);
-      console.info(msg);
+      if (!anonymousAccessReported) {
+        anonymousAccessReported = true;
+        String msg = String
+            .format("GitHub credentials not found in %s. Assuming the repository is public.",
+                storePath);
+        logger.atInfo().log(msg);
+        console.info(msg);
+      }
       return null;
     }
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public <T> T post(String path, Object request, Type responseType)
       throws RepoException, ValidationException {
-    HttpRequestFactory requestFactory = getHttpRequestFactory(getCredentials());
+    UserPassword userPassword = getCredentials();
 
     GenericUrl url = new GenericUrl(URI.create(API_PREFIX + path));
     try {
       HttpRequest httpRequest = requestFactory.buildPostRequest(url,
           new JsonHttpContent(JSON_FACTORY, request));
+      authenticate(httpRequest, userPassword);
+      rateLimiter.acquire();
       HttpResponse response = httpRequest.execute();
-      Object responseObj = response.parseAs(responseType);
-      if (responseObj instanceof PaginatedList) {
-        return (T) ((PaginatedList) responseObj).withPaginationInfo(API_PREFIX,
-            maybeGetLinkHeader(response));
-      }
-      return (T) responseObj;
-
+      rateLimiter.update(response.getHeaders());
+      return withPaginationInfo(response.parseAs(responseType), maybeGetLinkHeader(response));
     } catch (HttpResponseException e) {
+      rateLimiter.update(e.getHeaders());
+      invalidateCredentialsIfRejected(e);
       try {
         throw new GitHubApiException(e.getStatusCode(), parseErrorOrIgnore(e),
             "POST", path, JSON_FACTORY.toPrettyString(request), e.getContent());
@@ -161,22 +255,30 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
     }
   }
 
-  private HttpRequestFactory getHttpRequestFactory(@Nullable UserPassword userPassword)
-      throws RepoException, ValidationException {
+  private static HttpRequestFactory createHttpRequestFactory(HttpTransport httpTransport) {
     return httpTransport.createRequestFactory(
         request -> {
           request.setConnectTimeout((int) Duration.ofMinutes(1).toMillis());
           request.setReadTimeout((int) Duration.ofMinutes(1).toMillis());
-          HttpHeaders httpHeaders = new HttpHeaders();
-          if (userPassword != null) {
-            httpHeaders.setBasicAuthentication(userPassword.getUsername(),
-                userPassword.getPassword_BeCareful());
-          }
-          request.setHeaders(httpHeaders);
+          request.setHeaders(new HttpHeaders());
           request.setParser(new JsonObjectParser(JSON_FACTORY));
         });
   }
 
+  private static void authenticate(HttpRequest request, @Nullable UserPassword userPassword) {
+    if (userPassword != null) {
+      request.getHeaders().setBasicAuthentication(userPassword.getUsername(),
+          userPassword.getPassword_BeCareful());
+    }
+  }
+
+  /** Invalidates the {@link CredentialCache} if the server rejects the credentials. */
+  private void invalidateCredentialsIfRejected(HttpResponseException e) {
+    if (e.getStatusCode() == HttpStatusCodes.STATUS_CODE_UNAUTHORIZED) {
+      credentials.invalidate();
+    }
+  }
+
   /**
    * Gets the credentials from git credential helper. First we try
    * to get it for the api.github.com host, just in case the user has an specific token for that
@@ -184,10 +286,10 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
    */
   private UserPassword getCredentials() throws RepoException, ValidationException {
     try {
-      return repo.credentialFill(API_URL);
+      return credentials.fill(API_URL);
     } catch (ValidationException e) {
       try {
-        return repo.credentialFill(GITHUB_WEB_URL);
+        return credentials.fill(GITHUB_WEB_URL);
       } catch (ValidationException e1) {
         // Ugly, but helpful...
         throw new ValidationException(
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.jcommander;
+
+import com.beust.jcommander.IParameterValidator;
+import com.beust.jcommander.ParameterException;
+
+/**
+ * Check if a parameter is equal or greater than zero.
+ */
+public class NonNegativeValidator implements IParameterValidator {
+
+  public void validate(String name, String value) throws ParameterException {
+    if (Integer.parseInt(value) < 0) {
+      throw new ParameterException(
+          String.format("Parameter %s should not be negative (found %s)", name, value));
+    }
+  }
+}
@@ -93,11 +93,13 @@ public final class Profiler {
   }
 
   /**
-   * Call this method once at the beginning of Copybara binary run.
+   * Call this method once at the beginning of Copybara binary run. It can be called again after
+   * {@link #stop()} to profile another run, like the server does for each request.
    * @param listeners the listeners to be notified o the task events
    */
   public void init(List<Listener> listeners){
     this.listeners = listeners;
+    stopped = false;
     if (listeners.isEmpty()){
       return;
     }
@@ -172,13 +174,22 @@ public final class Profiler {
    * Record a simple task metric. The user is in charge of providing its own time.
    */
   public void simpleTask(String description, long startNanos, long endNanos) {
+    simpleTask(description, ImmutableMap.of(), startNanos, endNanos);
+  }
+
+  /**
+   * Overloaded method for {@link #simpleTask(String, long, long)}, that allows adding
+   * {@code fields} to the context of this task.
+   */
+  public void simpleTask(String description, ImmutableMap<String, String> fields,
+      long startNanos, long endNanos) {
     if (stopped || listeners.isEmpty()) {
       return;
     }
     Deque<Task> tasks = taskQueue.get();
     Preconditions.checkState(!tasks.isEmpty());
     Task parent = tasks.element();
-    Task child  = new Task(parent.getDescription() + "/" + description, startNanos);
+    Task child  = new Task(parent.getDescription() + "/" + description, fields, startNanos);
     Task finishedChild = child.finish(endNanos);
     for (Listener listener : listeners) {
       listener.taskStarted(child);
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.regex;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.re2j.Matcher;
+import com.google.re2j.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * A compiled regex, using the RE2J syntax, that can be matched concurrently from several threads
+ * without contention.
+ *
+ * <p>A RE2J {@link Pattern} synchronizes on every match to reuse its matching machines, so
+ * threads matching the same pattern block each other. {@link RegexEngine#RE2J} regexes keep a
+ * copy of the pattern per thread instead. {@link RegexEngine#JDK} regexes use a single
+ * {@code java.util.regex} pattern, that doesn't synchronize, when the regex is safe to match with
+ * it.
+ */
+public final class Regex {
+
+  /** Escaped letters that mean the same in RE2J and {@code java.util.regex}. */
+  private static final String SAFE_ESCAPED_LETTERS = "dDwWnrtfaxzA";
+  private static final int SAFE_RE2J_FLAGS = Pattern.MULTILINE | Pattern.DISABLE_UNICODE_GROUPS;
+
+  private final Pattern pattern;
+  private final ThreadLocal<Pattern> threadPattern;
+  @Nullable
+  private final java.util.regex.Pattern jdkPattern;
+
+  private Regex(Pattern pattern, RegexEngine engine) {
+    this.pattern = Preconditions.checkNotNull(pattern);
+    this.threadPattern = ThreadLocal.withInitial(
+        () -> Pattern.compile(pattern.pattern(), pattern.flags()));
+    this.jdkPattern = engine == RegexEngine.JDK ? compileJdk(pattern) : null;
+  }
+
+  /**
+   * Compiles {@code regex} with the RE2J {@code flags}.
+   *
+   * @throws com.google.re2j.PatternSyntaxException if the regex is not valid
+   */
+  public static Regex compile(String regex, int flags, RegexEngine engine) {
+    return new Regex(Pattern.compile(regex, flags), engine);
+  }
+
+  /** Returns a regex for an already compiled RE2J pattern. */
+  public static Regex of(Pattern pattern, RegexEngine engine) {
+    return new Regex(pattern, engine);
+  }
+
+  /** Returns a matcher for {@code input}, to be used only from the current thread. */
+  public RegexMatcher matcher(CharSequence input) {
+    return jdkPattern != null
+        ? new JdkMatcher(jdkPattern.matcher(input))
+        : new Re2jMatcher(threadPattern.get().matcher(input));
+  }
+
+  /** Whether the whole {@code input} matches. */
+  public boolean matches(CharSequence input) {
+    return matcher(input).matches();
+  }
+
+  /** The RE2J pattern of the regex. Matching it directly synchronizes. */
+  public Pattern getPattern() {
+    return pattern;
+  }
+
+  /** Whether the regex is matched with {@code java.util.regex}. */
+  public boolean usesJdk() {
+    return jdkPattern != null;
+  }
+
+  @Override
+  public String toString() {
+    return pattern.toString();
+  }
+
+  @Nullable
+  private static java.util.regex.Pattern compileJdk(Pattern pattern) {
+    boolean multiline = (pattern.flags() & Pattern.MULTILINE) != 0;
+    if ((pattern.flags() & ~SAFE_RE2J_FLAGS) != 0 || !isSafeForJdk(pattern.pattern(), multiline)) {
+      return null;
+    }
+    int flags = java.util.regex.Pattern.UNIX_LINES;
+    if (multiline) {
+      flags |= java.util.regex.Pattern.MULTILINE;
+    }
+    try {
+      return java.util.regex.Pattern.compile(pattern.pattern(), flags);
+    } catch (java.util.regex.PatternSyntaxException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Whether {@code regex} matches the same with RE2J and with {@code java.util.regex} in
+   * {@code UNIX_LINES} mode, and cannot backtrack more than quadratically in the length of the
+   * input.
+   *
+   * <p>This is conservative: regexes that use constructs with different semantics (Like
+   * {@code \b}, {@code \s}, Unicode classes, flags, nested character classes, or the line
+   * anchors that differ for {@code multiline}), quantified groups or more than one repetition of
+   * variable length ({@code *}, {@code +}, {@code ?}, {@code {m,n}} or {@code {m,}}) are not
+   * safe. With a single one, each match attempt tries at most as many lengths as the input has
+   * characters.
+   */
+  @VisibleForTesting
+  static boolean isSafeForJdk(String regex, boolean multiline) {
+    boolean inClass = false;
+    int variableRepetitions = 0;
+    for (int i = 0; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      char next = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+      if (c == '\\') {
+        if (Character.isLetterOrDigit(next) && SAFE_ESCAPED_LETTERS.indexOf(next) == -1) {
+          return false;
+        }
+        i++;
+      } else if (inClass) {
+        if (c == '[' || (c == '&' && next == '&')) {
+          return false;
+        }
+        inClass = c != ']';
+      } else if (c == '[') {
+        if (next == '^') {
+          i++;
+          next = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+        }
+        // A ']' as the first character of a class is a literal in RE2J but not in Java.
+        if (next == ']') {
+          return false;
+        }
+        inClass = true;
+      } else if (c == '(') {
+        if (next == '?') {
+          if (i + 2 >= regex.length() || regex.charAt(i + 2) != ':') {
+            return false;
+          }
+          // Non-capturing group. Skip the '?', that is not a repetition.
+          i += 2;
+        }
+      } else if (c == ')') {
+        if (next == '*' || next == '+' || next == '?' || next == '{') {
+          return false;
+        }
+      } else if (c == '$' && !multiline) {
+        // Without MULTILINE, Java also matches '$' before a final line terminator.
+        return false;
+      } else if (c == '^' && multiline) {
+        // With MULTILINE, Java doesn't match '^' after a final line terminator.
+        return false;
+      } else if (c == '*' || c == '+' || c == '?') {
+        variableRepetitions++;
+        if (next == '?') {
+          // Non-greedy
+          i++;
+        }
+      } else if (c == '{') {
+        int close = regex.indexOf('}', i);
+        String bounds = close == -1 ? "" : regex.substring(i + 1, close);
+        // Otherwise it is a literal '{' in RE2J
+        if (bounds.matches("[0-9]+(,[0-9]*)?")) {
+          if (bounds.indexOf(',') != -1) {
+            variableRepetitions++;
+          }
+          i = close;
+          if (i + 1 < regex.length() && regex.charAt(i + 1) == '?') {
+            i++;
+          }
+        }
+      }
+    }
+    return variableRepetitions <= 1;
+  }
+
+  private static final class Re2jMatcher implements RegexMatcher {
+
+    private final Matcher matcher;
+
+    private Re2jMatcher(Matcher matcher) {
+      this.matcher = matcher;
+    }
+
+    @Override
+    public boolean find() {
+      return matcher.find();
+    }
+
+    @Override
+    public boolean find(int start) {
+      return matcher.find(start);
+    }
+
+    @Override
+    public boolean matches() {
+      return matcher.matches();
+    }
+
+    @Override
+    public int start() {
+      return matcher.start();
+    }
+
+    @Override
+    public int end() {
+      return matcher.end();
+    }
+
+    @Override
+    public String group(int group) {
+      return matcher.group(group);
+    }
+
+    @Override
+    public int groupCount() {
+      return matcher.groupCount();
+    }
+
+    @Override
+    public RegexMatcher appendReplacement(StringBuffer sb, String replacement) {
+      matcher.appendReplacement(sb, replacement);
+      return this;
+    }
+
+    @Override
+    public StringBuffer appendTail(StringBuffer sb) {
+      return matcher.appendTail(sb);
+    }
+
+    @Override
+    public String replaceAll(String replacement) {
+      return matcher.replaceAll(replacement);
+    }
+  }
+
+  private static final class JdkMatcher implements RegexMatcher {
+
+    private final java.util.regex.Matcher matcher;
+
+    private JdkMatcher(java.util.regex.Matcher matcher) {
+      this.matcher = matcher;
+    }
+
+    @Override
+    public boolean find() {
+      return matcher.find();
+    }
+
+    @Override
+    public boolean find(int start) {
+      return matcher.find(start);
+    }
+
+    @Override
+    public boolean matches() {
+      return matcher.matches();
+    }
+
+    @Override
+    public int start() {
+      return matcher.start();
+    }
+
+    @Override
+    public int end() {
+      return matcher.end();
+    }
+
+    @Override
+    public String group(int group) {
+      return matcher.group(group);
+    }
+
+    @Override
+    public int groupCount() {
+      return matcher.groupCount();
+    }
+
+    @Override
+    public RegexMatcher appendReplacement(StringBuffer sb, String replacement) {
+      matcher.appendReplacement(sb, replacement);
+      return this;
+    }
+
+    @Override
+    public StringBuffer appendTail(StringBuffer sb) {
+      return matcher.appendTail(sb);
+    }
+
+    @Override
+    public String replaceAll(String replacement) {
+      return matcher.replaceAll(replacement);
+    }
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.regex;
+
+/**
+ * The implementation used to match a {@link Regex}. The syntax of the regexes is always the RE2J
+ * one, independently of the engine used.
+ */
+public enum RegexEngine {
+  /** RE2J, that matches in linear time. */
+  RE2J,
+  /**
+   * {@code java.util.regex}, that is faster for simple patterns. Only used for the patterns that
+   * match the same in both engines and have at most one repetition of variable length, so they
+   * backtrack at most quadratically. The rest of the patterns use RE2J.
+   */
+  JDK
+}
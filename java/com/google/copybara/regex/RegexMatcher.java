@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.regex;
+
+import javax.annotation.Nullable;
+
+/**
+ * Matches a {@link Regex} against an input, with the same semantics as the RE2J and
+ * {@code java.util.regex} matchers. Not thread-safe, like them.
+ */
+public interface RegexMatcher {
+
+  /** Finds the next match. */
+  boolean find();
+
+  /** Resets the matcher and finds the next match starting at {@code start}. */
+  boolean find(int start);
+
+  /** Whether the whole input matches. */
+  boolean matches();
+
+  /** Start index of the current match. */
+  int start();
+
+  /** End index (exclusive) of the current match. */
+  int end();
+
+  /** Value of the group {@code group} of the current match, or null if it didn't match. */
+  @Nullable
+  String group(int group);
+
+  /** Number of groups of the regex, not including the whole match. */
+  int groupCount();
+
+  /**
+   * Appends the input since the previous match and {@code replacement}, where {@code $n} is
+   * replaced with the group {@code n} and {@code \} escapes the next character.
+   */
+  RegexMatcher appendReplacement(StringBuffer sb, String replacement);
+
+  /** Appends the input since the last match. */
+  StringBuffer appendTail(StringBuffer sb);
+
+  /** Replaces all the matches with {@code replacement}, as in {@link #appendReplacement}. */
+  String replaceAll(String replacement);
+}
@@ -51,6 +51,14 @@ public class RecordingListener implements Listener {
       this.task = task;
     }
 
+    public EventType getType() {
+      return type;
+    }
+
+    public Task getTask() {
+      return task;
+    }
+
     @Override
     public String toString() {
       return MoreObjects.toStringHelper(this).add("type", type).add("task", task).toString();
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.copybara.LocalParallelizer;
+import com.google.copybara.TransformWork;
+import com.google.copybara.Transformation;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.util.Glob;
+import java.io.IOException;
+
+/**
+ * A {@link Transformation} that transforms each file matching a glob independently of the rest
+ * of the files, only looking at its content.
+ *
+ * <p>Consecutive content transformations are joined in a {@link JoinedContentTransformation} so
+ * that each file is read and written once for all of them.
+ */
+public interface ContentTransformation extends Transformation {
+
+  /** The files this transformation applies to. */
+  Glob getPaths();
+
+  LocalParallelizer getParallelizer();
+
+  /**
+   * Literals that the transformation checks with {@link FileContent#contains(String)}. The
+   * literals of all the joined transformations are searched in a single pass over each file.
+   */
+  default ImmutableSet<String> getLiterals() {
+    return ImmutableSet.of();
+  }
+
+  /**
+   * Starts a run of the transformation over the files of {@code work}.
+   *
+   * @throws ValidationException if the transformation cannot be run in this context
+   */
+  Run newRun(TransformWork work) throws ValidationException;
+
+  @Override
+  default void transform(TransformWork work) throws IOException, ValidationException {
+    new JoinedContentTransformation(ImmutableList.of(this)).transform(work);
+  }
+
+  @Override
+  default boolean canJoin(Transformation next) {
+    return next instanceof ContentTransformation;
+  }
+
+  @Override
+  default Transformation join(Transformation next) {
+    return new JoinedContentTransformation(ImmutableList.of(this, (ContentTransformation) next));
+  }
+
+  /** The state of one run of the transformation. */
+  interface Run {
+
+    /**
+     * Returns a {@link FileTransformer} for a batch of files. Each batch is processed by a single
+     * thread but different batches can run concurrently, so this object needs to be thread-safe.
+     */
+    FileTransformer newBatch();
+
+    /**
+     * Called once all the files have been transformed and the tree state notified. Used for
+     * logging and for failing if the run was a no-op or found errors.
+     */
+    void finish(TransformWork work) throws ValidationException;
+  }
+
+  /** Transforms files one at a time. */
+  interface FileTransformer {
+
+    void transform(FileContent file) throws IOException, ValidationException;
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.google.copybara.transform;
 
+import com.google.copybara.util.FileUtil;
 import java.io.IOException;
 import java.nio.file.CopyOption;
 import java.nio.file.FileVisitResult;
@@ -26,6 +27,8 @@ import java.nio.file.PathMatcher;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javax.annotation.Nullable;
 
 /**
@@ -37,13 +40,16 @@ final class CopyMoveVisitor extends SimpleFileVisitor<Path> {
   @Nullable
   private final PathMatcher pathMatcher;
   private final boolean isCopy;
+  private final boolean overwrite;
   private final CopyOption[] moveMode;
+  private final Map<Path, Path> copiedOrMoved = new LinkedHashMap<>();
 
   CopyMoveVisitor(Path before, Path after, @Nullable PathMatcher pathMatcher, boolean overwrite, boolean isCopy) {
     this.before = before;
     this.after = after;
     this.pathMatcher = pathMatcher;
     this.isCopy = isCopy;
+    this.overwrite = overwrite;
     if (overwrite) {
       moveMode = new CopyOption[]{LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING};
     } else {
@@ -65,11 +71,34 @@ final class CopyMoveVisitor extends SimpleFileVisitor<Path> {
       Path dest = after.resolve(relative);
       Files.createDirectories(dest.getParent());
       if (isCopy) {
+        // Don't touch destination files that already have the content and permissions, so that
+        // they keep their modification time.
+        if (overwrite && FileUtil.haveSameContent(source, dest)
+            && haveSamePermissions(source, dest)) {
+          return FileVisitResult.CONTINUE;
+        }
         Files.copy(source, dest, moveMode);
       } else {
         Files.move(source, dest, moveMode);
       }
+      copiedOrMoved.put(source, dest);
     }
     return FileVisitResult.CONTINUE;
   }
+
+  private static boolean haveSamePermissions(Path source, Path dest) throws IOException {
+    if (source.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+      return Files.getPosixFilePermissions(source, LinkOption.NOFOLLOW_LINKS)
+          .equals(Files.getPosixFilePermissions(dest, LinkOption.NOFOLLOW_LINKS));
+    }
+    return Files.isExecutable(source) == Files.isExecutable(dest);
+  }
+
+  /**
+   * Files copied or moved by the visitor. Keys are the original paths and values the new ones.
+   * Copies that overwrote a file with the same content are not included.
+   */
+  Map<Path, Path> getCopiedOrMoved() {
+    return copiedOrMoved;
+  }
 }
@@ -106,6 +106,7 @@ public class CopyOrMove implements Transformation {
           work.getConsole(),
           String.format("Error moving '%s'. It doesn't exist in the workdir", this.before),
           work.getIgnoreNoop());
+      work.getTreeState().notifyNoChange();
         return;
       }
     Path after = work.getCheckoutDir().resolve(this.after).normalize();
@@ -126,9 +127,18 @@ public class CopyOrMove implements Transformation {
               "Cannot use user defined 'paths' filter when the 'before' is not a directory: "
                   + paths);
         }
-        Files.walkFileTree(before,
-            new CopyMoveVisitor(before, after, beforeIsDir ? paths.relativeTo(before) : null,
-                overwrite, isCopy));
+        CopyMoveVisitor visitor = new CopyMoveVisitor(
+            before, after, beforeIsDir ? paths.relativeTo(before) : null, overwrite, isCopy);
+        try {
+          Files.walkFileTree(before, visitor);
+        } finally {
+          // Also notify on failure, so that the files processed before the error are tracked.
+          if (isCopy) {
+            work.getTreeState().notifyAdd(visitor.getCopiedOrMoved().values());
+          } else {
+            work.getTreeState().notifyMove(visitor.getCopiedOrMoved());
+          }
+        }
       } catch (FileAlreadyExistsException e) {
       throw new ValidationException(
           "Cannot move file to '%s' because it already exists", e.getFile());
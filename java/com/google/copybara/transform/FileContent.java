@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.copybara.treestate.TreeState.FileState;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import javax.annotation.Nullable;
+
+/**
+ * A file that is being transformed by a chain of {@link ContentTransformation}s. The content is
+ * read the first time it is needed and kept in memory until all the transformations are done,
+ * unless a transformation replaces the file directly with {@link #replaceWith(Path)}.
+ *
+ * <p>Not thread-safe.
+ */
+public final class FileContent {
+
+  private final FileState fileState;
+  @Nullable
+  private final MultiLiteralMatcher literalMatcher;
+  @Nullable
+  private Boolean symlink;
+  @Nullable
+  private byte[] content;
+  /** The content as read from disk, before {@link #setContent(byte[])} was called. */
+  @Nullable
+  private byte[] original;
+  /** Whether {@link #content} has changes that need to be written. */
+  private boolean dirty;
+  /** Whether the file in disk was replaced with {@link #replaceWith(Path)}. */
+  private boolean replaced;
+  private boolean deleted;
+  /** Literals of {@link #literalMatcher} present in the current content. Computed lazily. */
+  @Nullable
+  private BitSet presentLiterals;
+
+  FileContent(FileState fileState, @Nullable MultiLiteralMatcher literalMatcher) {
+    this.fileState = Preconditions.checkNotNull(fileState);
+    this.literalMatcher = literalMatcher;
+  }
+
+  public FileState getFileState() {
+    return fileState;
+  }
+
+  public Path getPath() {
+    return fileState.getPath();
+  }
+
+  public boolean isSymlink() {
+    if (symlink == null) {
+      symlink = Files.isSymbolicLink(getPath());
+    }
+    return symlink;
+  }
+
+  /** The current content of the file, including the changes of previous transformations. */
+  public byte[] getContent() throws IOException {
+    Preconditions.checkState(!deleted, "%s was deleted", getPath());
+    if (content == null) {
+      content = Files.readAllBytes(getPath());
+    }
+    return content;
+  }
+
+  /**
+   * Whether the content is already in memory, because it was read or changed by a previous
+   * transformation.
+   */
+  public boolean isLoaded() {
+    return content != null;
+  }
+
+  /** Size in bytes of the current content. */
+  public long size() throws IOException {
+    Preconditions.checkState(!deleted, "%s was deleted", getPath());
+    if (content != null) {
+      return content.length;
+    }
+    // The file in disk was replaced by a previous transformation, so the state is stale.
+    return replaced ? Files.size(getPath()) : fileState.getSize();
+  }
+
+  /**
+   * Returns true if the current content contains {@code literal}. The literals declared by the
+   * transformations in {@link ContentTransformation#getLiterals()} are searched all at once the
+   * first time that any of them is queried.
+   */
+  public boolean contains(String literal) throws IOException {
+    Integer index = literalMatcher == null ? null : literalMatcher.indexOf(literal);
+    if (index == null) {
+      return new String(getContent(), UTF_8).contains(literal);
+    }
+    if (presentLiterals == null) {
+      presentLiterals = literalMatcher.find(getContent());
+    }
+    return presentLiterals.get(index);
+  }
+
+  /**
+   * Replaces the content of the file. It is written once all the transformations are done, and
+   * only if it ends up being different from the content in disk.
+   */
+  public void setContent(byte[] content) {
+    Preconditions.checkState(!deleted, "%s was deleted", getPath());
+    if (!dirty) {
+      original = this.content;
+    }
+    this.content = Preconditions.checkNotNull(content);
+    presentLiterals = null;
+    dirty = true;
+  }
+
+  /**
+   * Replaces the file with {@code newFile}, that should be in the same directory, keeping the
+   * permissions of the file. Used by transformations that write the new content in streaming
+   * instead of keeping it in memory. The move is atomic, so the file is never partially written.
+   */
+  public void replaceWith(Path newFile) throws IOException {
+    Preconditions.checkState(!deleted, "%s was deleted", getPath());
+    Preconditions.checkState(!dirty, "%s has changes that were not written", getPath());
+    if (getPath().getFileSystem().supportedFileAttributeViews().contains("posix")) {
+      Files.setPosixFilePermissions(newFile, Files.getPosixFilePermissions(getPath()));
+    }
+    Files.move(newFile, getPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    content = null;
+    presentLiterals = null;
+    replaced = true;
+  }
+
+  /** Deletes the file. Later transformations are not applied to it. */
+  public void delete() throws IOException {
+    Files.delete(getPath());
+    deleted = true;
+  }
+
+  boolean isDeleted() {
+    return deleted;
+  }
+
+  /**
+   * Writes the content if it is different from the content in disk. Files that end up with the
+   * same content, for example because a transformation reverted the change of a previous one, are
+   * not written so that they keep their modification time.
+   *
+   * @return true if the file in disk was changed by the transformations
+   */
+  boolean write() throws IOException {
+    Preconditions.checkState(!deleted, "%s was deleted", getPath());
+    if (dirty && (original == null || !Arrays.equals(original, content))) {
+      Files.write(getPath(), content);
+      return true;
+    }
+    return replaced;
+  }
+}
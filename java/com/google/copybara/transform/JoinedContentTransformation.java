@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.copybara.LocalParallelizer;
+import com.google.copybara.LocalParallelizer.TransformFunc;
+import com.google.copybara.NonReversibleValidationException;
+import com.google.copybara.TransformWork;
+import com.google.copybara.Transformation;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.transform.ContentTransformation.FileTransformer;
+import com.google.copybara.transform.ContentTransformation.Run;
+import com.google.copybara.treestate.TreeState;
+import com.google.copybara.treestate.TreeState.FileState;
+import com.google.devtools.build.lib.events.Location;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Runs a list of {@link ContentTransformation}s in a single pass over the files: Each file is read
+ * once, passed through all the transformations whose paths match it, in order, and written once.
+ *
+ * <p>The tree state ends up with the same notifications as if the transformations were run one
+ * after the other.
+ */
+public final class JoinedContentTransformation implements Transformation {
+
+  private final ImmutableList<ContentTransformation> transformations;
+
+  JoinedContentTransformation(ImmutableList<ContentTransformation> transformations) {
+    Preconditions.checkArgument(!transformations.isEmpty());
+    this.transformations = transformations;
+  }
+
+  @Override
+  public void transform(TransformWork work) throws IOException, ValidationException {
+    List<Run> runs = new ArrayList<>(transformations.size());
+    for (ContentTransformation transformation : transformations) {
+      runs.add(transformation.newRun(work));
+    }
+
+    // For each file, the indexes of the transformations that apply to it. Transformations can
+    // only delete files, so the files found before the first one runs are all the candidates.
+    TreeState treeState = work.getTreeState();
+    Map<FileState, BitSet> files = new LinkedHashMap<>();
+    for (int i = 0; i < transformations.size(); i++) {
+      for (FileState file : treeState.find(transformations.get(i).getPaths())) {
+        files.computeIfAbsent(file, k -> new BitSet()).set(i);
+      }
+    }
+
+    // A single pass finds which of the literals that the transformations look for are present in
+    // each file, so that most transformations can skip the files without matches quickly.
+    Set<String> literals = new LinkedHashSet<>();
+    for (ContentTransformation transformation : transformations) {
+      literals.addAll(transformation.getLiterals());
+    }
+    MultiLiteralMatcher literalMatcher =
+        literals.isEmpty() ? null : MultiLiteralMatcher.create(literals);
+
+    List<List<FileContent>> results;
+    try {
+      results = transformations.get(0).getParallelizer().run(
+          files.entrySet(),
+          e -> LocalParallelizer.BY_FILE_SIZE.applyAsLong(e.getKey()),
+          new BatchRun(runs, literalMatcher));
+    } catch (IOException | ValidationException | RuntimeException e) {
+      // Some files might have been written or deleted already.
+      treeState.notifyUnknownChanges();
+      throw e;
+    }
+
+    List<FileState> modified = new ArrayList<>();
+    List<Path> deleted = new ArrayList<>();
+    for (FileContent file : Iterables.concat(results)) {
+      if (file.isDeleted()) {
+        deleted.add(file.getPath());
+      } else {
+        modified.add(file.getFileState());
+      }
+    }
+    treeState.notifyModify(modified);
+    treeState.notifyDelete(deleted);
+
+    for (Run run : runs) {
+      run.finish(work);
+    }
+  }
+
+  private static class BatchRun
+      implements TransformFunc<Entry<FileState, BitSet>, List<FileContent>> {
+
+    private final List<Run> runs;
+    @Nullable
+    private final MultiLiteralMatcher literalMatcher;
+
+    private BatchRun(List<Run> runs, @Nullable MultiLiteralMatcher literalMatcher) {
+      this.runs = runs;
+      this.literalMatcher = literalMatcher;
+    }
+
+    @Override
+    public List<FileContent> run(Iterable<Entry<FileState, BitSet>> elements)
+        throws IOException, ValidationException {
+      FileTransformer[] transformers = new FileTransformer[runs.size()];
+      List<FileContent> changed = new ArrayList<>();
+      for (Entry<FileState, BitSet> entry : elements) {
+        FileContent file = new FileContent(entry.getKey(), literalMatcher);
+        BitSet applicable = entry.getValue();
+        for (int i = applicable.nextSetBit(0); i >= 0 && !file.isDeleted();
+            i = applicable.nextSetBit(i + 1)) {
+          if (transformers[i] == null) {
+            transformers[i] = runs.get(i).newBatch();
+          }
+          transformers[i].transform(file);
+        }
+        if (file.isDeleted() || file.write()) {
+          changed.add(file);
+        }
+      }
+      return changed;
+    }
+  }
+
+  @VisibleForTesting
+  public ImmutableList<ContentTransformation> getTransformations() {
+    return transformations;
+  }
+
+  @Override
+  public boolean canJoin(Transformation next) {
+    return next instanceof ContentTransformation;
+  }
+
+  @Override
+  public Transformation join(Transformation next) {
+    return new JoinedContentTransformation(ImmutableList.<ContentTransformation>builder()
+        .addAll(transformations)
+        .add((ContentTransformation) next)
+        .build());
+  }
+
+  /**
+   * Joined transformations are only created by {@link Sequence} when running, that reverses the
+   * original transformations instead. This is only supported when all the reversals are also
+   * content transformations.
+   */
+  @Override
+  public Transformation reverse() throws NonReversibleValidationException {
+    ImmutableList.Builder<ContentTransformation> reversed = ImmutableList.builder();
+    for (ContentTransformation transformation : transformations.reverse()) {
+      Transformation reverse = transformation.reverse();
+      if (!(reverse instanceof ContentTransformation)) {
+        throw new NonReversibleValidationException(Location.BUILTIN, String.format(
+            "Cannot reverse the joined transformations: The reverse of '%s' is not a content"
+                + " transformation", transformation.describe()));
+      }
+      reversed.add((ContentTransformation) reverse);
+    }
+    return new JoinedContentTransformation(reversed.build());
+  }
+
+  @Override
+  public String describe() {
+    if (transformations.size() == 1) {
+      return transformations.get(0).describe();
+    }
+    return String.format("%s and %d more", transformations.get(0).describe(),
+        transformations.size() - 1);
+  }
+
+  @Override
+  public String toString() {
+    return "Joined" + transformations;
+  }
+}
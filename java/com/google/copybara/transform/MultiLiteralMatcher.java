@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import javax.annotation.Nullable;
+
+/**
+ * Finds which of a set of literals are present in a UTF-8 content in a single pass, using an
+ * Aho-Corasick automaton over the bytes of the literals.
+ *
+ * <p>Used as a prefilter: most files don't contain any of the literals that the regexes of the
+ * transformations require, so the regexes don't need to run (or the content to be decoded).
+ */
+final class MultiLiteralMatcher {
+
+  /**
+   * Maximum number of states of the automaton. Each state uses 1KB for its transition table, so
+   * literals that don't fit are not indexed.
+   */
+  private static final int MAX_STATES = 4 * 1024;
+
+  private final ImmutableMap<String, Integer> indexes;
+  /** Transitions of the automaton: {@code next[state * 256 + byte]}. */
+  private final int[] next;
+  /** The literal indexes that are found when reaching each state. */
+  private final int[][] outputs;
+
+  private MultiLiteralMatcher(ImmutableMap<String, Integer> indexes, int[] next,
+      int[][] outputs) {
+    this.indexes = indexes;
+    this.next = next;
+    this.outputs = outputs;
+  }
+
+  /**
+   * Creates a matcher for {@code literals}. Literals that cannot be searched byte by byte, or that
+   * don't fit in the automaton, are ignored. Use {@link #indexOf(String)} to know which ones are
+   * indexed.
+   */
+  static MultiLiteralMatcher create(Iterable<String> literals) {
+    List<int[]> goTo = new ArrayList<>();
+    List<List<Integer>> out = new ArrayList<>();
+    goTo.add(newState());
+    out.add(new ArrayList<>());
+    Map<String, Integer> indexes = new LinkedHashMap<>();
+    for (String literal : literals) {
+      if (indexes.containsKey(literal) || !isSearchable(literal)) {
+        continue;
+      }
+      byte[] bytes = literal.getBytes(UTF_8);
+      if (goTo.size() + bytes.length > MAX_STATES) {
+        continue;
+      }
+      int state = 0;
+      for (byte b : bytes) {
+        int c = b & 0xff;
+        if (goTo.get(state)[c] == -1) {
+          goTo.get(state)[c] = goTo.size();
+          goTo.add(newState());
+          out.add(new ArrayList<>());
+        }
+        state = goTo.get(state)[c];
+      }
+      int index = indexes.size();
+      indexes.put(literal, index);
+      out.get(state).add(index);
+    }
+
+    // Compute the failure links in BFS order and turn the trie into a DFA.
+    int states = goTo.size();
+    int[] next = new int[states * 256];
+    int[] fail = new int[states];
+    Queue<Integer> queue = new ArrayDeque<>();
+    for (int c = 0; c < 256; c++) {
+      int child = goTo.get(0)[c];
+      if (child == -1) {
+        next[c] = 0;
+      } else {
+        next[c] = child;
+        fail[child] = 0;
+        queue.add(child);
+      }
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.remove();
+      out.get(state).addAll(out.get(fail[state]));
+      for (int c = 0; c < 256; c++) {
+        int child = goTo.get(state)[c];
+        if (child == -1) {
+          next[state * 256 + c] = next[fail[state] * 256 + c];
+        } else {
+          next[state * 256 + c] = child;
+          fail[child] = next[fail[state] * 256 + c];
+          queue.add(child);
+        }
+      }
+    }
+    int[][] outputs = new int[states][];
+    for (int i = 0; i < states; i++) {
+      outputs[i] = out.get(i).stream().mapToInt(Integer::intValue).distinct().toArray();
+    }
+    return new MultiLiteralMatcher(ImmutableMap.copyOf(indexes), next, outputs);
+  }
+
+  /**
+   * Returns the index of {@code literal} in the result of {@link #find(byte[])} or null if the
+   * literal is not indexed by this matcher.
+   */
+  @Nullable
+  Integer indexOf(String literal) {
+    return indexes.get(literal);
+  }
+
+  /** Returns the indexes of the literals present in {@code content}. */
+  BitSet find(byte[] content) {
+    BitSet found = new BitSet(indexes.size());
+    int remaining = indexes.size();
+    int state = 0;
+    for (int i = 0; i < content.length && remaining > 0; i++) {
+      state = next[(state << 8) | (content[i] & 0xff)];
+      for (int index : outputs[state]) {
+        if (!found.get(index)) {
+          found.set(index);
+          remaining--;
+        }
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Whether finding the UTF-8 bytes of {@code literal} in a content is the same as finding the
+   * literal in the decoded content. It is not for empty literals or literals with characters that
+   * are not preserved by an encode/decode round trip (Like lone surrogates or U+FFFD, that is
+   * used for malformed input).
+   */
+  private static boolean isSearchable(String literal) {
+    return !literal.isEmpty()
+        && literal.indexOf('\uFFFD') == -1
+        && new String(literal.getBytes(UTF_8), UTF_8).equals(literal);
+  }
+
+  private static int[] newState() {
+    int[] state = new int[256];
+    Arrays.fill(state, -1);
+    return state;
+  }
+}
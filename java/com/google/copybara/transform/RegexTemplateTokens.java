@@ -16,22 +16,24 @@
 
 package com.google.copybara.transform;
 
-import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Splitter;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.google.copybara.regex.Regex;
+import com.google.copybara.regex.RegexEngine;
+import com.google.copybara.regex.RegexMatcher;
 import com.google.copybara.templatetoken.Parser;
 import com.google.copybara.templatetoken.Token;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.syntax.EvalException;
-import com.google.re2j.Matcher;
 import com.google.re2j.Pattern;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -46,20 +48,25 @@ import javax.annotation.Nullable;
  */
 public final class RegexTemplateTokens {
 
+  /** Matches the anchors for the beginning and end of text, and inline flags that unset some. */
+  private static final Pattern TEXT_ANCHORS = Pattern.compile("\\\\[Az]|\\(\\?[a-zA-Z]*-");
+
   private final Location location;
   private final String template;
   private final Pattern before;
+  private final Regex beforeRegex;
   private final ArrayListMultimap<String, Integer> groupIndexes = ArrayListMultimap.create();
   private final ImmutableList<Token> tokens;
   private final Set<String> unusedGroups;
 
   public RegexTemplateTokens(Location location, String template, Map<String, Pattern> regexGroups,
-      boolean repeatedGroups) throws EvalException {
+      boolean repeatedGroups, RegexEngine regexEngine) throws EvalException {
     this.location = location;
     this.template = Preconditions.checkNotNull(template);
 
     this.tokens = ImmutableList.copyOf(new Parser(location).parse(template));
     this.before = buildBefore(regexGroups, repeatedGroups);
+    this.beforeRegex = Regex.of(before, regexEngine);
 
     this.unusedGroups = Sets.difference(regexGroups.keySet(), groupIndexes.keySet());
   }
@@ -72,25 +79,47 @@ public final class RegexTemplateTokens {
     return before;
   }
 
+  /**
+   * A literal that is part of every match of {@link #getBefore()}: the longest literal token of
+   * the template. Null if the template only has interpolations.
+   */
+  @Nullable
+  String getRequiredLiteral() {
+    String result = null;
+    for (Token token : tokens) {
+      if (token.getType() == Token.TokenType.LITERAL
+          && (result == null || token.getValue().length() > result.length())) {
+        result = token.getValue();
+      }
+    }
+    return result;
+  }
+
+  /** The template as written in the config, without escaping or interpolating. */
+  String getTemplate() {
+    return template;
+  }
+
   public Replacer replacer(
       RegexTemplateTokens after, boolean firstOnly, boolean multiline,
-      List<Pattern> patternsToIgnore) {
-    // TODO(malcon): Remove reconstructing pattern once RE2J doesn't synchronize on matching.
-    return new Replacer(Pattern.compile(before.pattern(), before.flags()), after, null, firstOnly,
-                        multiline, patternsToIgnore);
+      List<Regex> patternsToIgnore) {
+    return new Replacer(beforeRegex, after, null, firstOnly, multiline, patternsToIgnore);
   }
 
   public Replacer callbackReplacer(
       RegexTemplateTokens after, AlterAfterTemplate callback, boolean firstOnly,
       boolean multiline,
-      @Nullable List<Pattern> patternsToIgnore) {
-    return new Replacer(Pattern.compile(before.pattern()), after, callback, firstOnly, multiline,
-                        patternsToIgnore);
+      @Nullable List<Regex> patternsToIgnore) {
+    return new Replacer(beforeRegex, after, callback, firstOnly, multiline, patternsToIgnore);
   }
 
+  /**
+   * Replaces the matches of a template with another. Thread-safe, the same replacer can be used
+   * concurrently.
+   */
   public class Replacer {
 
-    private final Pattern before;
+    private final Regex before;
     private final RegexTemplateTokens after;
     private final boolean firstOnly;
     private final boolean multiline;
@@ -98,15 +127,22 @@ public final class RegexTemplateTokens {
     private final Multimap<String, Integer> repeatedGroups = ArrayListMultimap.create();
 
     @Nullable
-    private final List<Pattern> patternsToIgnore;
+    private final List<Regex> patternsToIgnore;
 
     @Nullable
     private final AlterAfterTemplate callback;
 
+    /**
+     * Whether every match in a line is also found when searching the whole content, so that the
+     * lines without matches can be skipped. Only true if '^' and '$' match at line boundaries,
+     * and the pattern doesn't match the beginning or end of the text or change the multiline
+     * flag.
+     */
+    private final boolean wholeContentFind;
 
-    private Replacer(Pattern before, RegexTemplateTokens after,
+    private Replacer(Regex before, RegexTemplateTokens after,
         @Nullable AlterAfterTemplate callback,
-        boolean firstOnly, boolean multiline, @Nullable List<Pattern> patternsToIgnore) {
+        boolean firstOnly, boolean multiline, @Nullable List<Regex> patternsToIgnore) {
       this.before = before;
       this.after = after;
       afterReplaceTemplate = this.after.after(RegexTemplateTokens.this);
@@ -121,31 +157,118 @@ public final class RegexTemplateTokens {
       this.multiline = multiline;
       this.callback = callback;
       this.patternsToIgnore = patternsToIgnore;
+      this.wholeContentFind = (before.getPattern().flags() & Pattern.MULTILINE) != 0
+          && !TEXT_ANCHORS.matcher(before.getPattern().pattern()).find();
+    }
+
+    /**
+     * Returns false if {@link #replace(String)} certainly doesn't change {@code content}, using a
+     * single search. Returns true if it might change it.
+     */
+    public boolean mightMatch(String content) {
+      return !(multiline || wholeContentFind) || before.matcher(content).find();
     }
 
     public String replace(String content) {
-      List<String> originalRanges = multiline
-          ? ImmutableList.of(content)
-          : Splitter.on('\n').splitToList(content);
+      // Most of the files don't contain the pattern, so check it first with a single search
+      // instead of splitting the content and matching every line.
+      RegexMatcher matcher = multiline || wholeContentFind ? before.matcher(content) : null;
+      if (matcher != null && !matcher.find()) {
+        return content;
+      }
+      StringBuffer sb = null;
+      boolean changed = false;
+      // The content before this index is already copied to sb.
+      int copied = 0;
+      int lineStart = 0;
+      while (lineStart <= content.length()) {
+        if (!multiline && matcher != null) {
+          // Skip to the line of the next match, if any. A match can start in a previous line if
+          // it spans several lines, and then the line is just copied.
+          if (lineStart > 0 && !matcher.find(lineStart)) {
+            break;
+          }
+          lineStart = content.lastIndexOf('\n', matcher.start() - 1) + 1;
+        }
+        int lineEnd = multiline ? -1 : content.indexOf('\n', lineStart);
+        if (lineEnd == -1) {
+          lineEnd = content.length();
+        }
+        if (sb == null) {
+          sb = new StringBuffer(content.length() + 16);
+        }
+        sb.append(content, copied, lineStart);
+        changed |= replaceLine(content.substring(lineStart, lineEnd), sb);
+        copied = lineEnd;
+        lineStart = lineEnd + 1;
+      }
+      if (!changed) {
+        return content;
+      }
+      sb.append(content, copied, content.length());
+      return sb.toString();
+    }
 
-      List<String> newRanges = new ArrayList<>(originalRanges.size());
-      for (String line : originalRanges) {
-        newRanges.add(replaceLine(line));
+    /**
+     * Like {@link #replace(String)} but reads the content from {@code in} and writes the result to
+     * {@code out} one line at a time, so that only the current line is kept in memory. Only
+     * supported for non-multiline replacers.
+     *
+     * @return true if the content was changed
+     */
+    public boolean replace(Reader in, Writer out) throws IOException {
+      Preconditions.checkState(!multiline, "Multiline replaces cannot be streamed");
+      boolean changed = false;
+      StringBuilder line = new StringBuilder();
+      StringBuffer replaced = new StringBuffer();
+      char[] buffer = new char[8192];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        int start = 0;
+        for (int i = 0; i < read; i++) {
+          if (buffer[i] == '\n') {
+            line.append(buffer, start, i - start);
+            changed |= writeLine(line.toString(), replaced, out);
+            out.write('\n');
+            line.setLength(0);
+            start = i + 1;
+          }
+        }
+        line.append(buffer, start, read - start);
       }
-      return Joiner.on('\n').join(newRanges);
+      // Same as replace(String): The content after the last '\n' is a line, even if empty.
+      changed |= writeLine(line.toString(), replaced, out);
+      return changed;
     }
 
-    private String replaceLine(String line) {
+    private boolean writeLine(String line, StringBuffer replaced, Writer out) throws IOException {
+      replaced.setLength(0);
+      if (!replaceLine(line, replaced)) {
+        out.write(line);
+        return false;
+      }
+      out.append(replaced);
+      return !line.contentEquals(replaced);
+    }
+
+    /**
+     * Appends {@code line} to {@code sb} with the matches of the pattern replaced.
+     *
+     * @return true if any match was replaced
+     */
+    private boolean replaceLine(String line, StringBuffer sb) {
       if (patternsToIgnore != null) {
-        for (Pattern patternToIgnore : patternsToIgnore) {
+        for (Regex patternToIgnore : patternsToIgnore) {
           if (patternToIgnore.matches(line)) {
-            return line;
+            sb.append(line);
+            return false;
           }
         }
       }
 
-      Matcher matcher = before.matcher(line);
-      StringBuffer sb = new StringBuffer();
+      int lineStart = sb.length();
+      boolean replaced = false;
+      RegexMatcher matcher = before.matcher(line);
       while (matcher.find()) {
         for (Collection<Integer> groupIndexes : repeatedGroups.asMap().values()) {
           // Check that all the references of the repeated group match the same string
@@ -153,7 +276,9 @@ public final class RegexTemplateTokens {
           String value = matcher.group(iterator.next());
           while (iterator.hasNext()) {
             if (!value.equals(matcher.group(iterator.next()))) {
-              return line;
+              sb.setLength(lineStart);
+              sb.append(line);
+              return false;
             }
           }
         }
@@ -170,12 +295,13 @@ public final class RegexTemplateTokens {
         }
 
         matcher.appendReplacement(sb, replaceTemplate);
+        replaced = true;
         if (firstOnly) {
           break;
         }
       }
       matcher.appendTail(sb);
-      return sb.toString();
+      return replaced;
     }
 
     @Override
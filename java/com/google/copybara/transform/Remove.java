@@ -20,22 +20,22 @@ import static com.google.copybara.exception.ValidationException.checkCondition;
 
 import com.google.common.base.Preconditions;
 import com.google.common.flogger.FluentLogger;
+import com.google.copybara.LocalParallelizer;
 import com.google.copybara.NonReversibleValidationException;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
 import com.google.copybara.WorkflowOptions;
 import com.google.copybara.exception.ValidationException;
-import com.google.copybara.util.FileUtil;
 import com.google.copybara.util.Glob;
 import com.google.devtools.build.lib.events.Location;
-import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * We might promote this to a Skylark transform. But because we already have origin_files,
  * that works better with reversible workflows, this is a bad idea except for explicit reversals
  * of core.copy.
  */
-public class Remove implements Transformation {
+public class Remove implements ContentTransformation {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private final Glob glob;
@@ -49,20 +49,41 @@ public class Remove implements Transformation {
   }
 
   @Override
-  public void transform(TransformWork work) throws IOException, ValidationException {
+  public Glob getPaths() {
+    return glob;
+  }
+
+  @Override
+  public LocalParallelizer getParallelizer() {
+    return workflowOptions.parallelizer();
+  }
+
+  @Override
+  public Run newRun(TransformWork work) throws ValidationException {
     // TODO(malcon): Fix ConfigValidator and move this logic there.
     checkCondition(work.isInsideExplicitTransform(),
         "core.remove() is only mean to be used inside core.transform for reversing"
             + " transformations like core.copy(). Please use origin_files exclude for"
             + " filtering out files.");
+    AtomicInteger numDeletes = new AtomicInteger();
+    return new Run() {
+      @Override
+      public FileTransformer newBatch() {
+        return file -> {
+          file.delete();
+          numDeletes.incrementAndGet();
+        };
+      }
 
-    int numDeletes = FileUtil.deleteFilesRecursively(work.getCheckoutDir(),
-        glob.relativeTo(work.getCheckoutDir()));
-    logger.atInfo().log("Deleted %d files for glob: %s", numDeletes, glob);
-    if (numDeletes  == 0) {
-      workflowOptions.reportNoop(
-          work.getConsole(), glob + " didn't delete any file", work.getIgnoreNoop());
-    }
+      @Override
+      public void finish(TransformWork work) throws ValidationException {
+        logger.atInfo().log("Deleted %d files for glob: %s", numDeletes.get(), glob);
+        if (numDeletes.get() == 0) {
+          workflowOptions.reportNoop(
+              work.getConsole(), glob + " didn't delete any file", work.getIgnoreNoop());
+        }
+      }
+    };
   }
 
   @Override
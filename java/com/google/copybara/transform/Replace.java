@@ -22,28 +22,35 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.flogger.FluentLogger;
 import com.google.copybara.LocalParallelizer;
 import com.google.copybara.NonReversibleValidationException;
 import com.google.copybara.TransformWork;
-import com.google.copybara.Transformation;
 import com.google.copybara.WorkflowOptions;
 import com.google.copybara.exception.ValidationException;
+import com.google.copybara.regex.Regex;
+import com.google.copybara.regex.RegexEngine;
 import com.google.copybara.transform.RegexTemplateTokens.Replacer;
-import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.Glob;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.syntax.EvalException;
 import com.google.re2j.Pattern;
 import com.google.re2j.PatternSyntaxException;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
 
 /**
  * A source code transformation which replaces a regular expression with some other string.
@@ -65,7 +72,7 @@ import java.util.Map;
  *
  * TODO(copybara-team): Consider making this configurable to replace multiple matches.
  */
-public final class Replace implements Transformation {
+public final class Replace implements ContentTransformation {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
@@ -76,15 +83,18 @@ public final class Replace implements Transformation {
   private final boolean multiline;
   private final boolean repeatedGroups;
   private final Glob fileMatcherBuilder;
-  private final ImmutableList<Pattern> patternsToIgnore;
+  private final ImmutableList<Regex> patternsToIgnore;
   private final WorkflowOptions workflowOptions;
+  @Nullable
+  private final TransformationCache cache;
 
   private Replace(RegexTemplateTokens before, RegexTemplateTokens after,
       Map<String, Pattern> regexGroups, boolean firstOnly, boolean multiline,
       boolean repeatedGroups,
       Glob fileMatcherBuilder,
-      List<Pattern> patternsToIgnore,
-      WorkflowOptions workflowOptions) {
+      List<Regex> patternsToIgnore,
+      WorkflowOptions workflowOptions,
+      @Nullable TransformationCache cache) {
     this.before = Preconditions.checkNotNull(before);
     this.after = Preconditions.checkNotNull(after);
     this.regexGroups = ImmutableMap.copyOf(regexGroups);
@@ -94,6 +104,7 @@ public final class Replace implements Transformation {
     this.fileMatcherBuilder = Preconditions.checkNotNull(fileMatcherBuilder);
     this.patternsToIgnore = ImmutableList.copyOf(patternsToIgnore);
     this.workflowOptions = Preconditions.checkNotNull(workflowOptions);
+    this.cache = cache;
   }
 
   @Override
@@ -110,28 +121,46 @@ public final class Replace implements Transformation {
   }
 
   @Override
-  public void transform(TransformWork work)
-      throws IOException, ValidationException {
-    Path checkoutDir = work.getCheckoutDir();
-
-    Iterable<FileState> files = work.getTreeState().find(
-        fileMatcherBuilder.relativeTo(checkoutDir));
-    BatchReplace batchReplace = new BatchReplace(
-        before, after, firstOnly, multiline, patternsToIgnore);
-    workflowOptions.parallelizer().run(files, batchReplace);
-    List<FileState> changed = batchReplace.getChanged();
-    boolean matchedFile = batchReplace.isMatchedFile();
-    logger.atInfo().log( "Applied %s to %d files. %d changed.",
-        this, Iterables.size(files), changed.size());
-
-    work.getTreeState().notifyModify(changed);
-    if (changed.isEmpty()) {
-      workflowOptions.reportNoop(
-          work.getConsole(),
-          "Transformation '" + toString() + "' was a no-op because it didn't "
-              + (matchedFile ? "change any of the matching files." : "match any file."),
-          work.getIgnoreNoop());
+  public Glob getPaths() {
+    return fileMatcherBuilder;
+  }
+
+  @Override
+  public LocalParallelizer getParallelizer() {
+    return workflowOptions.parallelizer();
+  }
+
+  @Override
+  public ImmutableSet<String> getLiterals() {
+    String literal = before.getRequiredLiteral();
+    return literal == null ? ImmutableSet.of() : ImmutableSet.of(literal);
+  }
+
+  @Override
+  public Run newRun(TransformWork work) {
+    return new ReplaceRun(cache == null ? null : fingerprint());
+  }
+
+  /**
+   * Identifies the behavior of this replace for the {@link TransformationCache}. Paths are not
+   * included since they don't affect how the content of a file is transformed.
+   */
+  private String fingerprint() {
+    List<String> values = new ArrayList<>();
+    values.add("core.replace");
+    values.add(before.getBefore().pattern());
+    values.add(after.getTemplate());
+    for (Map.Entry<String, Pattern> group : ImmutableSortedMap.copyOf(regexGroups).entrySet()) {
+      values.add(group.getKey());
+      values.add(group.getValue().pattern());
+    }
+    values.add(String.valueOf(firstOnly));
+    values.add(String.valueOf(multiline));
+    values.add(String.valueOf(repeatedGroups));
+    for (Regex pattern : patternsToIgnore) {
+      values.add(pattern.getPattern().pattern());
     }
+    return TransformationCache.fingerprint(values.toArray(new String[0]));
   }
 
   @Override
@@ -150,13 +179,13 @@ public final class Replace implements Transformation {
     }
     //TODO remove repeatedGroups boolean?
     return new Replace(after, before, regexGroups, firstOnly, multiline, repeatedGroups,
-        fileMatcherBuilder, patternsToIgnore, workflowOptions);
+        fileMatcherBuilder, patternsToIgnore, workflowOptions, cache);
   }
 
   public static Replace create(Location location, String before, String after,
       Map<String, String> regexGroups, Glob paths, boolean firstOnly, boolean multiline,
       boolean repeatedGroups, List<String> patternsToIgnore,
-      WorkflowOptions workflowOptions)
+      WorkflowOptions workflowOptions, @Nullable TransformationCache cache)
       throws EvalException {
     Map<String, Pattern> parsedGroups = new HashMap<>();
     for (Map.Entry<String, String> group : regexGroups.entrySet()) {
@@ -168,17 +197,18 @@ public final class Replace implements Transformation {
       }
     }
 
+    RegexEngine regexEngine = workflowOptions.getRegexEngine();
     RegexTemplateTokens beforeTokens =
-        new RegexTemplateTokens(location, before, parsedGroups, repeatedGroups);
+        new RegexTemplateTokens(location, before, parsedGroups, repeatedGroups, regexEngine);
     RegexTemplateTokens afterTokens =
-        new RegexTemplateTokens(location, after, parsedGroups, repeatedGroups);
+        new RegexTemplateTokens(location, after, parsedGroups, repeatedGroups, regexEngine);
 
     beforeTokens.validateUnused();
 
-    List<Pattern> parsedIgnorePatterns = new ArrayList<>();
+    List<Regex> parsedIgnorePatterns = new ArrayList<>();
     for (String toIgnore : patternsToIgnore) {
       try {
-        parsedIgnorePatterns.add(Pattern.compile(toIgnore));
+        parsedIgnorePatterns.add(Regex.compile(toIgnore, /*flags=*/0, regexEngine));
       } catch (PatternSyntaxException e) {
         throw new EvalException(
             location, "'patterns_to_ignore' includes invalid regex: " + toIgnore, e);
@@ -192,64 +222,124 @@ public final class Replace implements Transformation {
 
     return new Replace(
         beforeTokens, afterTokens, parsedGroups, firstOnly, multiline, repeatedGroups, paths,
-        parsedIgnorePatterns, workflowOptions);
+        parsedIgnorePatterns, workflowOptions, cache);
   }
 
-  private final static class BatchReplace
-      implements LocalParallelizer.TransformFunc<FileState, Boolean> {
-
-
-    private final RegexTemplateTokens before;
-    private final RegexTemplateTokens after;
-    private final boolean firstOnly;
-    private final boolean multiline;
-    private final ImmutableList<Pattern> patternsToIgnore;
-
-    private final List<FileState> changed = new ArrayList<>();
-    private boolean matchedFile = false;
+  private final class ReplaceRun implements Run {
 
-    BatchReplace(RegexTemplateTokens before, RegexTemplateTokens after, boolean firstOnly,
-        boolean multiline, ImmutableList<Pattern> patternsToIgnore) {
-      this.before = before;
-      this.after = after;
-      this.firstOnly = firstOnly;
-      this.multiline = multiline;
-      this.patternsToIgnore = patternsToIgnore;
-    }
-
-    public List<FileState> getChanged() {
-      return changed;
-    }
+    @Nullable
+    private final String fingerprint;
+    @Nullable
+    private final String requiredLiteral = before.getRequiredLiteral();
+    private final AtomicInteger files = new AtomicInteger();
+    private final AtomicInteger changed = new AtomicInteger();
+    private volatile boolean matchedFile = false;
 
-    boolean isMatchedFile() {
-      return matchedFile;
+    private ReplaceRun(@Nullable String fingerprint) {
+      this.fingerprint = fingerprint;
     }
 
     @Override
-    public Boolean run(Iterable<FileState> elements) throws IOException, ValidationException {
+    public FileTransformer newBatch() {
       Replacer replacer = before.replacer(after, firstOnly, multiline, patternsToIgnore);
-      List<FileState> changed = new ArrayList<>();
-      boolean matchedFile = false;
-      for (FileState file : elements) {
-        if (Files.isSymbolicLink(file.getPath())) {
-          continue;
+      return file -> {
+        files.incrementAndGet();
+        if (file.isSymlink()) {
+          return;
         }
         matchedFile = true;
-        String originalFileContent = new String(Files.readAllBytes(file.getPath()), UTF_8);
-        String transformed = replacer.replace(originalFileContent);
-        if (!originalFileContent.equals(transformed)) {
-          synchronized (this) {
-            changed.add(file);
+        if (shouldStream(file)) {
+          if (replaceStreaming(replacer, file)) {
+            changed.incrementAndGet();
           }
-          Files.write(file.getPath(), transformed.getBytes(UTF_8));
+          return;
         }
+        // The regex cannot match if the content doesn't have all the literals of the template.
+        if (requiredLiteral != null && !file.contains(requiredLiteral)) {
+          return;
+        }
+        byte[] originalBytes = file.getContent();
+        byte[] transformed = cache == null
+            ? replace(replacer, originalBytes)
+            : replaceWithCache(replacer, originalBytes);
+        if (transformed != originalBytes && !Arrays.equals(originalBytes, transformed)) {
+          changed.incrementAndGet();
+          file.setContent(transformed);
+        }
+      };
+    }
+
+    /**
+     * Files without matches are not looked up in the cache, since hashing their content costs as
+     * much as searching it.
+     */
+    private byte[] replaceWithCache(Replacer replacer, byte[] content) {
+      String originalFileContent = new String(content, UTF_8);
+      if (!replacer.mightMatch(originalFileContent)) {
+        return content;
+      }
+      byte[] transformed = cache.get(fingerprint, content);
+      if (transformed == null) {
+        String result = replacer.replace(originalFileContent);
+        transformed = originalFileContent.equals(result) ? content : result.getBytes(UTF_8);
+        cache.put(fingerprint, content, transformed);
       }
-      synchronized (this) {
-        this.matchedFile |= matchedFile;
-        this.changed.addAll(changed);
+      return transformed;
+    }
+
+    @Override
+    public void finish(TransformWork work) throws ValidationException {
+      logger.atInfo().log("Applied %s to %d files. %d changed.",
+          Replace.this, files.get(), changed.get());
+      if (changed.get() == 0) {
+        workflowOptions.reportNoop(
+            work.getConsole(),
+            "Transformation '" + Replace.this + "' was a no-op because it didn't "
+                + (matchedFile ? "change any of the matching files." : "match any file."),
+            work.getIgnoreNoop());
       }
-      // We cannot return null here.
-      return true;
     }
   }
+
+  /**
+   * Whether {@code file} is big enough to be replaced line by line instead of in memory. Files
+   * already in memory because of a previous transformation are not streamed.
+   */
+  private boolean shouldStream(FileContent file) throws IOException {
+    long threshold = workflowOptions.replaceStreamingThreshold;
+    return !multiline && threshold > 0 && !file.isLoaded() && file.size() > threshold;
+  }
+
+  /**
+   * Replaces {@code file} line by line into a temporary file in the same directory, that replaces
+   * the original one if there are changes. The transformation cache is not used, as it would need
+   * the whole content.
+   *
+   * @return true if the file was changed
+   */
+  private static boolean replaceStreaming(Replacer replacer, FileContent file) throws IOException {
+    Path path = file.getPath();
+    Path tmp = Files.createTempFile(path.getParent(), "." + path.getFileName(), ".tmp");
+    try {
+      boolean changed;
+      // Malformed input is replaced with U+FFFD, like in replace(Replacer, byte[])
+      try (Reader reader = new InputStreamReader(Files.newInputStream(path), UTF_8);
+          Writer writer = Files.newBufferedWriter(tmp, UTF_8)) {
+        changed = replacer.replace(reader, writer);
+      }
+      if (changed) {
+        file.replaceWith(tmp);
+      }
+      return changed;
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /** Returns {@code content} itself if the replacer doesn't modify it. */
+  private static byte[] replace(Replacer replacer, byte[] content) {
+    String originalFileContent = new String(content, UTF_8);
+    String transformed = replacer.replace(originalFileContent);
+    return originalFileContent.equals(transformed) ? content : transformed.getBytes(UTF_8);
+  }
 }
@@ -59,6 +59,9 @@ public class SkylarkTransformation implements Transformation {
         throw new ValidationException("Message transformer functions should not return"
             + " anything, but '" + function.getName() + "' returned:" + result);
       }
+      // Skylark transformations can only modify files using ctx.write_path or ctx.run, that
+      // notify the TreeState.
+      work.getTreeState().notifyNoChange();
     } catch (EvalException e) {
       throw new ValidationException(
           e,
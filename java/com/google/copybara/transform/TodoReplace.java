@@ -26,20 +26,19 @@ import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Iterables;
 import com.google.copybara.LocalParallelizer;
 import com.google.copybara.NonReversibleValidationException;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
 import com.google.copybara.exception.ValidationException;
-import com.google.copybara.treestate.TreeState.FileState;
+import com.google.copybara.regex.Regex;
+import com.google.copybara.regex.RegexEngine;
+import com.google.copybara.regex.RegexMatcher;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.console.Console;
 import com.google.devtools.build.lib.events.Location;
-import com.google.re2j.Matcher;
 import com.google.re2j.Pattern;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -52,15 +51,17 @@ import javax.annotation.Nullable;
 /**
  * Map Google style TODOs
  */
-public class TodoReplace implements Transformation {
+public class TodoReplace implements ContentTransformation {
 
-  private static final Pattern SINGLE_USER_PATTERN = Pattern.compile("([ \t]*)([^ \t]*)([ \t]*)");
+  private static final Regex SINGLE_USER_PATTERN =
+      Regex.compile("([ \t]*)([^ \t]*)([ \t]*)", /*flags=*/0, RegexEngine.RE2J);
 
-  private final Pattern pattern;
+  private final Regex pattern;
   private Location location;
   private Glob glob;
   private ImmutableList<String> todoTags;
   private final LocalParallelizer parallelizer;
+  private final RegexEngine regexEngine;
   private Mode mode;
   private ImmutableMap<String, String> mapping;
   @Nullable
@@ -68,11 +69,13 @@ public class TodoReplace implements Transformation {
 
   public TodoReplace(Location location, Glob glob, ImmutableList<String> todoTags,
       Mode mode,
-      Map<String, String> mapping, @Nullable String defaultString, LocalParallelizer parallelizer) {
+      Map<String, String> mapping, @Nullable String defaultString, LocalParallelizer parallelizer,
+      RegexEngine regexEngine) {
     this.location = Preconditions.checkNotNull(location);
     this.glob = Preconditions.checkNotNull(glob);
     this.todoTags = Preconditions.checkNotNull(todoTags);
     this.parallelizer = parallelizer;
+    this.regexEngine = Preconditions.checkNotNull(regexEngine);
     Preconditions.checkArgument(!todoTags.isEmpty());
     this.mode = Preconditions.checkNotNull(mode);
     this.mapping = Preconditions.checkNotNull(ImmutableMap.copyOf(mapping));
@@ -83,51 +86,61 @@ public class TodoReplace implements Transformation {
     pattern = createPattern(todoTags);
   }
 
-  private Pattern createPattern(ImmutableList<String> todoTags) {
-    return Pattern.compile("((?:"
+  private Regex createPattern(ImmutableList<String> todoTags) {
+    return Regex.compile("((?:"
         + Joiner.on("|").join(todoTags.stream().map(Pattern::quote).collect(Collectors.toList()))
-        + ") ?)\\((.*?)\\)");
+        + ") ?)\\((.*?)\\)", /*flags=*/0, regexEngine);
   }
 
   @Override
-  public void transform(TransformWork work) throws IOException, ValidationException {
-    work.getTreeState().notifyModify(
-        Iterables.concat(
-            parallelizer.run(
-                work.getTreeState().find(glob.relativeTo(work.getCheckoutDir())),
-                files -> run(files, work.getConsole()))));
+  public Glob getPaths() {
+    return glob;
   }
 
-  private Set<FileState> run(Iterable<FileState> files, Console console) throws IOException, ValidationException {
-    Set<FileState> modifiedFiles = new HashSet<>();
-    // TODO(malcon): Remove reconstructing pattern once RE2J doesn't synchronize on matching.
-    Pattern batchPattern = Pattern.compile(pattern.pattern(), pattern.flags());
-    for (FileState file : files) {
-      if (Files.isSymbolicLink(file.getPath())) {
-        continue;
+  @Override
+  public LocalParallelizer getParallelizer() {
+    return parallelizer;
+  }
+
+  @Override
+  public Run newRun(TransformWork work) {
+    Console console = work.getConsole();
+    return new Run() {
+      @Override
+      public FileTransformer newBatch() {
+        return file -> replaceTodos(file, console);
       }
-      String content = new String(Files.readAllBytes(file.getPath()), UTF_8);
-      Matcher matcher = batchPattern.matcher(content);
-      StringBuffer sb = new StringBuffer();
-      boolean modified = false;
-      while (matcher.find()) {
-        List<String> users = Splitter.on(",").splitToList(matcher.group(2));
-        List<String> mappedUsers = mapUsers(users, matcher.group(0), file.getPath(), console);
-        modified |= !users.equals(mappedUsers);
-        String result = matcher.group(1);
-        if (!mappedUsers.isEmpty()) {
-          result += "(" + Joiner.on(",").join(mappedUsers) + ")";
-        }
-        matcher.appendReplacement(sb, result);
+
+      @Override
+      public void finish(TransformWork work) {
       }
-      matcher.appendTail(sb);
+    };
+  }
 
-      if (modified) {
-        modifiedFiles.add(file);
-        Files.write(file.getPath(), sb.toString().getBytes(UTF_8));
+  private void replaceTodos(FileContent file, Console console)
+      throws IOException, ValidationException {
+    if (file.isSymlink()) {
+      return;
+    }
+    String content = new String(file.getContent(), UTF_8);
+    RegexMatcher matcher = pattern.matcher(content);
+    StringBuffer sb = new StringBuffer();
+    boolean modified = false;
+    while (matcher.find()) {
+      List<String> users = Splitter.on(",").splitToList(matcher.group(2));
+      List<String> mappedUsers = mapUsers(users, matcher.group(0), file.getPath(), console);
+      modified |= !users.equals(mappedUsers);
+      String result = matcher.group(1);
+      if (!mappedUsers.isEmpty()) {
+        result += "(" + Joiner.on(",").join(mappedUsers) + ")";
       }
+      matcher.appendReplacement(sb, result);
+    }
+    matcher.appendTail(sb);
+
+    if (modified) {
+      file.setContent(sb.toString().getBytes(UTF_8));
     }
-    return modifiedFiles;
   }
 
   private List<String> mapUsers(List<String> users, String rawText, Path path, Console console)
@@ -135,7 +148,7 @@ public class TodoReplace implements Transformation {
     Set<String> alreadyAdded = new HashSet<>();
     List<String> result = new ArrayList<>();
     for (String rawUser : users) {
-      Matcher matcher = SINGLE_USER_PATTERN.matcher(rawUser);
+      RegexMatcher matcher = SINGLE_USER_PATTERN.matcher(rawUser);
       // Throw VE if the pattern doesn't match and mode is MAP_OR_FAIL
       if (!matcher.matches()) {
         if (mode == Mode.MAP_OR_FAIL) {
@@ -192,7 +205,7 @@ public class TodoReplace implements Transformation {
     }
 
     return new TodoReplace(location, glob, todoTags, mode, mapping.inverse(), defaultString,
-                           parallelizer);
+                           parallelizer, regexEngine);
   }
 
   @Override
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.copybara.util.DirFactory;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * A persistent cache for the output of content transformations.
+ *
+ * <p>Entries are keyed by the git blob SHA-1 of the input content and a fingerprint that
+ * identifies the transformation (See {@link #fingerprint(String...)}). Transformations that use
+ * the cache need to be a pure function of the file content and their configuration.
+ *
+ * <p>The cache lives under the Copybara output root so that it can be reused between runs. Errors
+ * reading or writing the cache are logged and treated as a cache miss. Only results that differ
+ * from the input are stored. Once the entries take more than {@code maxBytes}, the least
+ * recently used ones are evicted, checking it at most once an hour per process.
+ */
+public class TransformationCache {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Increase if the output of the cached transformations change for the same configuration. */
+  private static final int VERSION = 1;
+
+  public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+  private static final Duration EVICTION_INTERVAL = Duration.ofHours(1);
+
+  /** Last eviction of each cache directory, shared by all the caches of the process. */
+  private static final Map<Path, Instant> LAST_EVICTION = new ConcurrentHashMap<>();
+
+  private final DirFactory dirFactory;
+  private final long maxBytes;
+
+  @Nullable
+  private volatile Path cacheDir;
+
+  public TransformationCache(DirFactory dirFactory) {
+    this(dirFactory, DEFAULT_MAX_BYTES);
+  }
+
+  public TransformationCache(DirFactory dirFactory, long maxBytes) {
+    this.dirFactory = Preconditions.checkNotNull(dirFactory);
+    Preconditions.checkArgument(maxBytes > 0, "maxBytes needs to be positive: %s", maxBytes);
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Computes a stable fingerprint for a transformation given the values that define its
+   * behavior.
+   */
+  public static String fingerprint(String... values) {
+    Hasher hasher = Hashing.sha256().newHasher().putInt(VERSION);
+    for (String value : values) {
+      hasher.putInt(value.length()).putString(value, UTF_8);
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Returns the cached result of applying the transformation identified by {@code fingerprint} to
+   * {@code content} or null if it is not in the cache.
+   */
+  @Nullable
+  public byte[] get(String fingerprint, byte[] content) {
+    try {
+      Path entry = entryPath(fingerprint, content);
+      if (Files.exists(entry)) {
+        byte[] result = Files.readAllBytes(entry);
+        // Used for evicting the least recently used entries
+        Files.setLastModifiedTime(entry, FileTime.from(Instant.now()));
+        return result;
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot read transformation cache entry");
+    }
+    return null;
+  }
+
+  /**
+   * Stores the result of applying the transformation identified by {@code fingerprint} to
+   * {@code content}. Nothing is stored if the transformation didn't modify the content.
+   */
+  public void put(String fingerprint, byte[] content, byte[] transformed) {
+    if (transformed == content || Arrays.equals(content, transformed)) {
+      return;
+    }
+    try {
+      Path entry = entryPath(fingerprint, content);
+      Files.createDirectories(entry.getParent());
+      atomicWrite(entry, transformed);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot write transformation cache entry");
+    }
+  }
+
+  private Path entryPath(String fingerprint, byte[] content) throws IOException {
+    String sha1 = blobSha1(content);
+    return getCacheDir()
+        .resolve(fingerprint)
+        .resolve(sha1.substring(0, 2))
+        .resolve(sha1.substring(2));
+  }
+
+  /**
+   * Writes the entry to a temporary file first so that concurrent readers never see partial
+   * entries.
+   */
+  private static void atomicWrite(Path entry, byte[] bytes) throws IOException {
+    Path tmp = Files.createTempFile(entry.getParent(), "tmp", null);
+    try {
+      Files.write(tmp, bytes);
+      try {
+        Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /** Same SHA-1 that git would use for a blob with this content. */
+  private static String blobSha1(byte[] content) {
+    return Hashing.sha1().newHasher()
+        .putString("blob " + content.length + "\0", UTF_8)
+        .putBytes(content)
+        .hash()
+        .toString();
+  }
+
+  private Path getCacheDir() throws IOException {
+    Path result = cacheDir;
+    if (result == null) {
+      result = dirFactory.getCacheDir("transformations");
+      cacheDir = result;
+    }
+    if (shouldEvict(result)) {
+      evictLeastRecentlyUsed(result);
+    }
+    return result;
+  }
+
+  private static boolean shouldEvict(Path dir) {
+    Instant now = Instant.now();
+    Instant last = LAST_EVICTION.get(dir);
+    if (last != null && now.isBefore(last.plus(EVICTION_INTERVAL))) {
+      return false;
+    }
+    // Only one of the concurrent callers evicts
+    return last == null
+        ? LAST_EVICTION.putIfAbsent(dir, now) == null
+        : LAST_EVICTION.replace(dir, last, now);
+  }
+
+  /** Deletes the least recently used entries until they take at most {@code maxBytes}. */
+  @VisibleForTesting
+  void evictLeastRecentlyUsed(Path dir) {
+    List<CacheFile> files = new ArrayList<>();
+    long totalBytes = 0;
+    try (Stream<Path> paths = Files.walk(dir)) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        BasicFileAttributes attributes;
+        try {
+          attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+          // Deleted concurrently
+          continue;
+        }
+        if (attributes.isRegularFile()) {
+          files.add(new CacheFile(path, attributes.size(), attributes.lastModifiedTime()));
+          totalBytes += attributes.size();
+        }
+      }
+    } catch (IOException | UncheckedIOException e) {
+      logger.atWarning().withCause(e).log("Cannot list the transformation cache");
+      return;
+    }
+    if (totalBytes <= maxBytes) {
+      return;
+    }
+    files.sort(Comparator.comparing(file -> file.lastUsed));
+    for (CacheFile file : files) {
+      if (totalBytes <= maxBytes) {
+        break;
+      }
+      try {
+        Files.deleteIfExists(file.path);
+        totalBytes -= file.size;
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot evict transformation cache entry");
+      }
+    }
+  }
+
+  private static class CacheFile {
+
+    private final Path path;
+    private final long size;
+    private final FileTime lastUsed;
+
+    private CacheFile(Path path, long size, FileTime lastUsed) {
+      this.path = path;
+      this.size = size;
+      this.lastUsed = lastUsed;
+    }
+  }
+}
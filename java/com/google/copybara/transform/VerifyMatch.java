@@ -20,36 +20,34 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Iterables;
 import com.google.copybara.LocalParallelizer;
-import com.google.copybara.LocalParallelizer.TransformFunc;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
 import com.google.copybara.exception.ValidationException;
-import com.google.copybara.treestate.TreeState.FileState;
+import com.google.copybara.regex.Regex;
+import com.google.copybara.regex.RegexEngine;
 import com.google.copybara.util.Glob;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.syntax.EvalException;
 import com.google.re2j.Pattern;
 import com.google.re2j.PatternSyntaxException;
-import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * A source code pseudo-transformation which verifies that all specified files satisfy a RegEx.
  * Does not actually transform any code, but will throw errors on failure. Not applied in reversals.
  */
-public final class VerifyMatch implements Transformation {
+public final class VerifyMatch implements ContentTransformation {
 
-  private final Pattern pattern;
+  private final Regex pattern;
   private final boolean verifyNoMatch;
   private final Glob fileMatcherBuilder;
   private final LocalParallelizer parallelizer;
 
-  private VerifyMatch(Pattern pattern, boolean verifyNoMatch, Glob fileMatcherBuilder,
+  private VerifyMatch(Regex pattern, boolean verifyNoMatch, Glob fileMatcherBuilder,
       LocalParallelizer parallelizer) {
     this.pattern = Preconditions.checkNotNull(pattern);
     this.verifyNoMatch = verifyNoMatch;
@@ -67,49 +65,52 @@ public final class VerifyMatch implements Transformation {
   }
 
   @Override
-  public void transform(TransformWork work)
-      throws IOException, ValidationException {
-    Path checkoutDir = work.getCheckoutDir();
-    Iterable<FileState> files = work.getTreeState().find(
-        fileMatcherBuilder.relativeTo(checkoutDir));
-
-    Iterable<String> errors = Iterables.concat(
-        parallelizer.run(files, new BatchRun(work.getCheckoutDir())));
-
-    int size = 0;
-    for (String error : errors) {
-      size++;
-      work.getConsole().error(String.format("File '%s' failed validation '%s'.", error,
-                                            describe()));
-    }
-    work.getTreeState().notifyNoChange();
+  public Glob getPaths() {
+    return fileMatcherBuilder;
+  }
 
-    ValidationException.checkCondition(
-        size == 0,
-        "%d file(s) failed the validation of %s.", size, describe());
+  @Override
+  public LocalParallelizer getParallelizer() {
+    return parallelizer;
   }
 
-  private class BatchRun implements TransformFunc<FileState, List<String>> {
+  @Override
+  public Run newRun(TransformWork work) {
+    return new VerifyRun(work.getCheckoutDir());
+  }
 
-    private Path checkoutDir;
+  private class VerifyRun implements Run {
 
-    private BatchRun(Path checkoutDir) {
+    private final Path checkoutDir;
+    private final List<String> errors = new ArrayList<>();
+
+    private VerifyRun(Path checkoutDir) {
       this.checkoutDir = Preconditions.checkNotNull(checkoutDir);
     }
 
     @Override
-    public List<String> run(Iterable<FileState> files)
-        throws IOException, ValidationException {
-      List<String> errors = new ArrayList<>();
-      // TODO(malcon): Remove reconstructing pattern once RE2J doesn't synchronize on matching.
-      Pattern batchPattern = Pattern.compile(pattern.pattern(), pattern.flags());
-      for (FileState file : files) {
-        String originalFileContent = new String(Files.readAllBytes(file.getPath()), UTF_8);
-        if (verifyNoMatch == batchPattern.matcher(originalFileContent).find()) {
-          errors.add(checkoutDir.relativize(file.getPath()).toString());
+    public FileTransformer newBatch() {
+      return file -> {
+        String originalFileContent = new String(file.getContent(), UTF_8);
+        if (verifyNoMatch == pattern.matcher(originalFileContent).find()) {
+          synchronized (errors) {
+            errors.add(checkoutDir.relativize(file.getPath()).toString());
+          }
         }
+      };
+    }
+
+    @Override
+    public void finish(TransformWork work) throws ValidationException {
+      // Files are verified concurrently, so sort them for a stable output.
+      Collections.sort(errors);
+      for (String error : errors) {
+        work.getConsole().error(String.format("File '%s' failed validation '%s'.", error,
+                                              describe()));
       }
-      return errors;
+      ValidationException.checkCondition(
+          errors.isEmpty(),
+          "%d file(s) failed the validation of %s.", errors.size(), describe());
     }
   }
 
@@ -124,10 +125,11 @@ public final class VerifyMatch implements Transformation {
   }
 
   public static VerifyMatch create(Location location, String regEx, Glob paths,
-      boolean verifyNoMatch, LocalParallelizer parallelizer) throws EvalException {
-    Pattern parsed;
+      boolean verifyNoMatch, LocalParallelizer parallelizer, RegexEngine regexEngine)
+      throws EvalException {
+    Regex parsed;
     try {
-      parsed = Pattern.compile(regEx, Pattern.MULTILINE);
+      parsed = Regex.compile(regEx, Pattern.MULTILINE, regexEngine);
     } catch (PatternSyntaxException e) {
       throw new EvalException(location, String.format("Regex '%s' is invalid.", regEx), e);
     }
@@ -28,6 +28,8 @@ import com.google.copybara.exception.RepoException;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
 import com.google.copybara.exception.ValidationException;
+import com.google.copybara.regex.Regex;
+import com.google.copybara.regex.RegexEngine;
 import com.google.copybara.transform.ExplicitReversal;
 import com.google.copybara.transform.IntentionalNoop;
 import com.google.copybara.transform.RegexTemplateTokens;
@@ -49,6 +51,8 @@ public class ReferenceMigrator implements Transformation {
 
 
   static final int MAX_CHANGES_TO_VISIT = 5000;
+  private static final Regex REFERENCE_TOKEN = Regex.compile("[$]1", /*flags=*/0,
+      RegexEngine.RE2J);
 
   private final RegexTemplateTokens before;
   private final RegexTemplateTokens after;
@@ -74,10 +78,12 @@ public class ReferenceMigrator implements Transformation {
       ImmutableList<String> additionalLabels, Location location) throws EvalException {
     Map<String, Pattern> patterns = ImmutableMap.of("reference", forward);
     RegexTemplateTokens beforeTokens =
-        new RegexTemplateTokens(location, before, patterns, /* repeatedGroups= */ false);
+        new RegexTemplateTokens(location, before, patterns, /* repeatedGroups= */ false,
+            RegexEngine.RE2J);
     beforeTokens.validateUnused();
     RegexTemplateTokens afterTokens =
-        new RegexTemplateTokens(location, after, patterns, /* repeatedGroups= */ false);
+        new RegexTemplateTokens(location, after, patterns, /* repeatedGroups= */ false,
+            RegexEngine.RE2J);
     afterTokens.validateUnused();
     if (after.lastIndexOf("$1") != -1) {
       // TODO: Handle escaping
@@ -99,7 +105,7 @@ public class ReferenceMigrator implements Transformation {
             if (destinationRef != null) {
               // This will not work for the case where the template was "foo\\$1", if this is an
               // issue, a non-naive implementation might be required.
-              return Pattern.compile("[$]1").matcher(template).replaceAll(destinationRef);
+              return REFERENCE_TOKEN.matcher(template).replaceAll(destinationRef);
             } else {
               return groupValues.get(0);
             }
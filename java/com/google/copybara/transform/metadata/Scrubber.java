@@ -21,6 +21,8 @@ import com.google.copybara.NonReversibleValidationException;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
 import com.google.copybara.exception.ValidationException;
+import com.google.copybara.regex.Regex;
+import com.google.copybara.regex.RegexEngine;
 import com.google.copybara.transform.ExplicitReversal;
 import com.google.copybara.transform.IntentionalNoop;
 import com.google.re2j.Pattern;
@@ -31,11 +33,13 @@ import java.io.IOException;
  */
 public class Scrubber implements Transformation {
 
-  private final Pattern pattern;
+  private final Regex pattern;
   private final String replacement;
 
   Scrubber(Pattern pattern, String replacement) {
-    this.pattern = Preconditions.checkNotNull(pattern);
+    // Metadata transformations are not configured by the workflow options, and change
+    // messages are small.
+    this.pattern = Regex.of(Preconditions.checkNotNull(pattern), RegexEngine.RE2J);
     this.replacement = Preconditions.checkNotNull(replacement);
   }
 
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.treestate;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.copybara.util.Glob;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Base class for the {@link TreeState}s that keep an in-memory view of the files in the checkout
+ * dir and keep it up to date with the notifications from the transformations.
+ */
+abstract class AbstractTreeState implements TreeState {
+
+  /**
+   * Maximum number of {@link FileState} references kept by the matches cache. Lookups are cheap
+   * with the trie index, so this only bounds the memory used by configs with lots of globs.
+   */
+  private static final long MAX_CACHED_MATCHES = 1_000_000;
+
+  final Path checkoutDir;
+  final FileStateTrie files;
+  private boolean notified = false;
+  private boolean unknownChanges = false;
+
+  /**
+   * Results of {@link #find(Glob)}. Keyed by {@link Glob}, since they have value equality and
+   * are shared between transformation runs, unlike the {@link java.nio.file.PathMatcher}s created
+   * from them.
+   */
+  final LoadingCache<Glob, List<FileState>> cachedMatches;
+
+  AbstractTreeState(Path checkoutDir, FileStateTrie files) {
+    this.checkoutDir = checkoutDir;
+    this.files = files;
+    this.cachedMatches = CacheBuilder.newBuilder()
+        .maximumWeight(MAX_CACHED_MATCHES)
+        .<Glob, List<FileState>>weigher((glob, matches) -> matches.size() + 1)
+        .build(new CacheLoader<Glob, List<FileState>>() {
+          @Override
+          public List<FileState> load(Glob glob) {
+            return AbstractTreeState.this.files.find(glob.roots(), glob.relativeTo(checkoutDir));
+          }
+        });
+  }
+
+  /**
+   * Returns true if {@link #files} contains the files of the checkout dir. Notifications received
+   * before that are ignored, since the files will be read later from the file system.
+   */
+  abstract boolean isLoaded();
+
+  @Override
+  public void notifyModify(Iterable<FileState> paths) {
+    notified = true;
+    for (FileState path : paths) {
+      path.invalidate();
+      if (isLoaded() && files.put(path) == null) {
+        invalidateMatches(ImmutableList.of(path.getPath()));
+      }
+    }
+  }
+
+  @Override
+  public void notifyAdd(Iterable<Path> paths) {
+    notified = true;
+    if (!isLoaded()) {
+      return;
+    }
+    List<Path> added = new ArrayList<>();
+    for (Path path : paths) {
+      FileState existing = files.get(path);
+      if (existing != null) {
+        existing.invalidate();
+      } else {
+        files.put(new FileState(path));
+        added.add(path);
+      }
+    }
+    invalidateMatches(added);
+  }
+
+  @Override
+  public void notifyDelete(Iterable<Path> paths) {
+    notified = true;
+    if (!isLoaded()) {
+      return;
+    }
+    List<Path> deleted = new ArrayList<>();
+    for (Path path : paths) {
+      if (files.remove(path) != null) {
+        deleted.add(path);
+      }
+    }
+    invalidateMatches(deleted);
+  }
+
+  @Override
+  public void notifyMove(Map<Path, Path> moves) {
+    notified = true;
+    if (!isLoaded() || moves.isEmpty()) {
+      return;
+    }
+    List<Path> changed = new ArrayList<>(moves.size() * 2);
+    for (Entry<Path, Path> move : moves.entrySet()) {
+      FileState moved = files.remove(move.getKey());
+      files.put(moved != null ? moved.movedTo(move.getValue()) : new FileState(move.getValue()));
+      changed.add(move.getKey());
+      changed.add(move.getValue());
+    }
+    invalidateMatches(changed);
+  }
+
+  /**
+   * Invalidates the cached matches of the globs that could contain any of {@code paths}. The rest
+   * of the entries are still valid, since the set of files under their roots didn't change.
+   */
+  private void invalidateMatches(Iterable<Path> paths) {
+    if (cachedMatches.size() == 0) {
+      return;
+    }
+    // The roots that could contain the paths: "" and every parent directory of each path (and
+    // the path itself, since a glob root can be a file).
+    Set<String> affectedRoots = new HashSet<>();
+    affectedRoots.add("");
+    for (Path path : paths) {
+      Path relative = checkoutDir.relativize(path);
+      StringBuilder root = new StringBuilder();
+      for (Path name : relative) {
+        if (root.length() > 0) {
+          root.append('/');
+        }
+        affectedRoots.add(root.append(name).toString());
+      }
+    }
+    if (affectedRoots.size() == 1) {
+      return;
+    }
+    List<Glob> toInvalidate = new ArrayList<>();
+    for (Glob glob : cachedMatches.asMap().keySet()) {
+      for (String root : glob.roots()) {
+        if (affectedRoots.contains(root)) {
+          toInvalidate.add(glob);
+          break;
+        }
+      }
+    }
+    cachedMatches.invalidateAll(toInvalidate);
+  }
+
+  @Override
+  public void notifyNoChange() {
+    notified = true;
+  }
+
+  @Override
+  public void notifyUnknownChanges() {
+    unknownChanges = true;
+  }
+
+  @Override
+  public TreeState newTreeState() {
+    if (isLoaded() && notified && !unknownChanges) {
+      return new MapBasedTreeState(checkoutDir, files.copy(), cachedMatches);
+    }
+    return new FileSystemTreeState(checkoutDir);
+  }
+}
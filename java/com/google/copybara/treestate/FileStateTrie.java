@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.treestate;
+
+import com.google.common.base.Splitter;
+import com.google.copybara.treestate.TreeState.FileState;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import javax.annotation.Nullable;
+
+/**
+ * The {@link FileState}s of a checkout dir indexed by directory, so that lookups only need to
+ * visit the subtrees that can contain matches (See {@link com.google.copybara.util.Glob#roots()}).
+ */
+final class FileStateTrie {
+
+  private static final Splitter PATH_SPLITTER = Splitter.on('/');
+
+  private final Path checkoutDir;
+  private final Directory root;
+  private int size;
+
+  FileStateTrie(Path checkoutDir) {
+    this(checkoutDir, new Directory(), 0);
+  }
+
+  private FileStateTrie(Path checkoutDir, Directory root, int size) {
+    this.checkoutDir = checkoutDir;
+    this.root = root;
+    this.size = size;
+  }
+
+  int size() {
+    return size;
+  }
+
+  @Nullable
+  FileState get(Path path) {
+    Path relative = checkoutDir.relativize(path);
+    Directory dir = root;
+    int last = relative.getNameCount() - 1;
+    for (int i = 0; i < last && dir != null; i++) {
+      dir = dir.getDir(relative.getName(i).toString());
+    }
+    return dir == null ? null : dir.getFile(relative.getName(last).toString());
+  }
+
+  /**
+   * Adds or replaces the {@link FileState} for {@code file.getPath()}. Returns the previous one
+   * if any.
+   */
+  @Nullable
+  FileState put(FileState file) {
+    Path relative = checkoutDir.relativize(file.getPath());
+    Directory dir = root;
+    int last = relative.getNameCount() - 1;
+    for (int i = 0; i < last; i++) {
+      dir = dir.getOrCreateDir(relative.getName(i).toString());
+    }
+    if (dir.files == null) {
+      dir.files = new HashMap<>();
+    }
+    FileState previous = dir.files.put(relative.getName(last).toString(), file);
+    if (previous == null) {
+      size++;
+    }
+    return previous;
+  }
+
+  /** Removes the {@link FileState} for {@code path}. Returns the removed one if any. */
+  @Nullable
+  FileState remove(Path path) {
+    Path relative = checkoutDir.relativize(path);
+    List<Directory> parents = new ArrayList<>(relative.getNameCount());
+    Directory dir = root;
+    int last = relative.getNameCount() - 1;
+    for (int i = 0; i < last && dir != null; i++) {
+      parents.add(dir);
+      dir = dir.getDir(relative.getName(i).toString());
+    }
+    if (dir == null || dir.files == null) {
+      return null;
+    }
+    FileState removed = dir.files.remove(relative.getName(last).toString());
+    if (removed == null) {
+      return null;
+    }
+    size--;
+    // Prune the directories that became empty so that they are not visited by lookups.
+    for (int i = parents.size() - 1; i >= 0 && dir.isEmpty(); i--) {
+      parents.get(i).dirs.remove(relative.getName(i).toString());
+      dir = parents.get(i);
+    }
+    return removed;
+  }
+
+  /**
+   * Returns the files that are under any of {@code roots} and match {@code pathMatcher}.
+   * {@code roots} are '/' separated paths relative to the checkout dir. An empty root means the
+   * whole tree.
+   */
+  List<FileState> find(Iterable<String> roots, PathMatcher pathMatcher) {
+    List<FileState> result = new ArrayList<>();
+    for (String rootPath : roots) {
+      if (rootPath.isEmpty()) {
+        root.collect(pathMatcher, result);
+        // Everything else is included in this one.
+        return result;
+      }
+      List<String> elements = PATH_SPLITTER.splitToList(rootPath);
+      Directory parent = root;
+      int last = elements.size() - 1;
+      for (int i = 0; i < last && parent != null; i++) {
+        parent = parent.getDir(elements.get(i));
+      }
+      if (parent == null) {
+        continue;
+      }
+      Directory dir = parent.getDir(elements.get(last));
+      if (dir != null) {
+        dir.collect(pathMatcher, result);
+      }
+      // The root itself might be a file.
+      FileState file = parent.getFile(elements.get(last));
+      if (file != null && pathMatcher.matches(file.getPath())) {
+        result.add(file);
+      }
+    }
+    return result;
+  }
+
+  /** All the {@link FileState}s in the trie. */
+  List<FileState> values() {
+    List<FileState> result = new ArrayList<>(size);
+    root.collect(/*pathMatcher=*/null, result);
+    return result;
+  }
+
+  /**
+   * Returns a copy of the trie. The {@link FileState} objects are shared between both of them.
+   */
+  FileStateTrie copy() {
+    return new FileStateTrie(checkoutDir, root.copy(), size);
+  }
+
+  private static final class Directory {
+
+    // Both maps are created lazily, since most directories only contain one kind of entry.
+    @Nullable
+    private Map<String, Directory> dirs;
+    @Nullable
+    private Map<String, FileState> files;
+
+    @Nullable
+    Directory getDir(String name) {
+      return dirs == null ? null : dirs.get(name);
+    }
+
+    @Nullable
+    FileState getFile(String name) {
+      return files == null ? null : files.get(name);
+    }
+
+    Directory getOrCreateDir(String name) {
+      if (dirs == null) {
+        dirs = new HashMap<>();
+      }
+      return dirs.computeIfAbsent(name, k -> new Directory());
+    }
+
+    boolean isEmpty() {
+      return (dirs == null || dirs.isEmpty()) && (files == null || files.isEmpty());
+    }
+
+    void collect(@Nullable PathMatcher pathMatcher, List<FileState> result) {
+      if (files != null) {
+        for (FileState file : files.values()) {
+          if (pathMatcher == null || pathMatcher.matches(file.getPath())) {
+            result.add(file);
+          }
+        }
+      }
+      if (dirs != null) {
+        for (Directory dir : dirs.values()) {
+          dir.collect(pathMatcher, result);
+        }
+      }
+    }
+
+    Directory copy() {
+      Directory copy = new Directory();
+      if (files != null) {
+        copy.files = new HashMap<>(files);
+      }
+      if (dirs != null) {
+        copy.dirs = new HashMap<>(dirs.size() * 4 / 3 + 1);
+        for (Entry<String, Directory> entry : dirs.entrySet()) {
+          copy.dirs.put(entry.getKey(), entry.getValue().copy());
+        }
+      }
+      return copy;
+    }
+  }
+}
@@ -16,96 +16,48 @@
 
 package com.google.copybara.treestate;
 
-import static com.google.copybara.treestate.TreeStateUtil.filter;
-
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.copybara.util.Glob;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 /**
  * A {@link TreeState} imlementation that uses the {@code checkoutDir} filesystem for
  * looking for files.
  */
-public class FileSystemTreeState implements TreeState {
+public class FileSystemTreeState extends AbstractTreeState {
 
-  private final Path checkoutDir;
   private boolean fsRead = false;
-  private boolean notified;
-  private Map<Path, FileState> files = new HashMap<>();
-
-  private final LoadingCache<PathMatcher, List<FileState>> cachedMatches =
-      CacheBuilder.newBuilder().maximumSize(5).build(
-          new CacheLoader<PathMatcher, List<FileState>>() {
-            @Override
-            public List<FileState> load(PathMatcher pathMatcher) throws Exception {
-              return filter(pathMatcher, FileSystemTreeState.this.files.values());
-            }
-          });
 
   public FileSystemTreeState(Path checkoutDir) {
-    this.checkoutDir = checkoutDir;
+    super(checkoutDir, new FileStateTrie(checkoutDir));
   }
 
   @Override
-  public Iterable<FileState> find(PathMatcher pathMatcher) throws IOException {
+  public Iterable<FileState> find(Glob glob) throws IOException {
     if (!fsRead) {
-      files = readFileSystem();
+      readFileSystem();
       fsRead = true;
     }
-    return cachedMatches.getUnchecked(pathMatcher);
+    return cachedMatches.getUnchecked(glob);
   }
 
-  private Map<Path, FileState> readFileSystem() throws IOException {
-    Map<Path, FileState> result = new HashMap<>();
+  private void readFileSystem() throws IOException {
     Files.walkFileTree(checkoutDir, new SimpleFileVisitor<Path>() {
       @Override
       public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
           throws IOException {
-        result.put(file, new FileState(file));
+        files.put(new FileState(file, attrs));
         return FileVisitResult.CONTINUE;
       }
     });
-    return result;
-  }
-
-  @Override
-  public void notifyModify(Iterable<FileState> paths) {
-    notified = true;
-    for (FileState path : paths) {
-      files.put(path.getPath(), path);
-    }
-  }
-
-  @Override
-  public void notifyAdd(Iterable<FileState> path) {
-    throw new UnsupportedOperationException("Not supported. Don't notify!");
-  }
-
-  @Override
-  public void notifyDelete(Iterable<FileState> path) {
-    throw new UnsupportedOperationException("Not supported. Don't notify!");
   }
 
   @Override
-  public void notifyNoChange() {
-    notified = true;
-  }
-
-  @Override
-  public TreeState newTreeState() {
-    if (fsRead && notified) {
-      return new MapBasedTreeState(checkoutDir, files, cachedMatches);
-    }
-    return new FileSystemTreeState(checkoutDir);
+  boolean isLoaded() {
+    return fsRead;
   }
 }
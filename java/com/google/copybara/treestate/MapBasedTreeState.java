@@ -16,77 +16,30 @@
 
 package com.google.copybara.treestate;
 
-import static com.google.copybara.treestate.TreeStateUtil.filter;
-
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import java.io.IOException;
+import com.google.copybara.util.Glob;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * A {@link TreeState} that uses a cached version of the filesystem for doing
  * lookups.
  */
-public class MapBasedTreeState implements TreeState {
-
-  private boolean notified = false;
-  private final Path checkoutDir;
-  private final Map<Path, FileState> files;
+public class MapBasedTreeState extends AbstractTreeState {
 
-  private final LoadingCache<PathMatcher, List<FileState>> cachedMatches =
-      CacheBuilder.newBuilder().maximumSize(10).build(
-          new CacheLoader<PathMatcher, List<FileState>>() {
-            @Override
-            public List<FileState> load(PathMatcher pathMatcher) throws Exception {
-              return filter(pathMatcher, files.values());
-            }
-          });
-
-  MapBasedTreeState(Path checkoutDir, Map<Path, FileState> files,
-      LoadingCache<PathMatcher, List<FileState>> cachedMatches) {
-    this.checkoutDir = checkoutDir;
-    this.files = new HashMap<>(files);
+  MapBasedTreeState(Path checkoutDir, FileStateTrie files,
+      LoadingCache<Glob, List<FileState>> cachedMatches) {
+    super(checkoutDir, files);
     this.cachedMatches.putAll(cachedMatches.asMap());
   }
 
   @Override
-  public Iterable<FileState> find(PathMatcher pathMatcher) throws IOException {
-    return cachedMatches.getUnchecked(pathMatcher);
-  }
-
-  @Override
-  public void notifyModify(Iterable<FileState> paths) {
-    notified = true;
-    for (FileState fileState : paths) {
-      files.put(fileState.getPath(), fileState);
-    }
-  }
-
-  @Override
-  public void notifyAdd(Iterable<FileState> path) {
-    throw new UnsupportedOperationException("Not supported. Don't notify!");
-  }
-
-  @Override
-  public void notifyDelete(Iterable<FileState> path) {
-    throw new UnsupportedOperationException("Not supported. Don't notify!");
-  }
-
-  @Override
-  public void notifyNoChange() {
-    notified = true;
+  public Iterable<FileState> find(Glob glob) {
+    return cachedMatches.getUnchecked(glob);
   }
 
   @Override
-  public TreeState newTreeState() {
-    if (notified) {
-      return new MapBasedTreeState(checkoutDir, files, cachedMatches);
-    }
-    return new FileSystemTreeState(checkoutDir);
+  boolean isLoaded() {
+    return true;
   }
 }
@@ -17,9 +17,19 @@
 package com.google.copybara.treestate;
 
 import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.copybara.util.Glob;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * An object that allows to do potentially cached filesystem lookups.
@@ -32,19 +42,76 @@ public interface TreeState {
   /**
    * An object that contains a path found in the {@link TreeState}.
    *
-   * <p>Wrapped so that we can include things like the hash of the file in the future.
+   * <p>Besides the path, it contains the size and last modified time of the file and a hash of
+   * its content. All of them are computed lazily and reset when the file is notified as modified.
    */
   class FileState {
     private final Path path;
+    @Nullable
+    private BasicFileAttributes attributes;
+    @Nullable
+    private HashCode contentHash;
 
     FileState(Path path) {
+      this(path, /*attributes=*/null);
+    }
+
+    FileState(Path path, @Nullable BasicFileAttributes attributes) {
       this.path = Preconditions.checkNotNull(path);
+      this.attributes = attributes;
     }
 
     public Path getPath() {
       return path;
     }
 
+    /** Size in bytes of the file. For symlinks, the size of the symlink itself. */
+    public long getSize() throws IOException {
+      return getAttributes().size();
+    }
+
+    public FileTime getLastModifiedTime() throws IOException {
+      return getAttributes().lastModifiedTime();
+    }
+
+    /**
+     * SHA-256 of the content of the file. For symlinks, the hash of the symlink target path, so
+     * that two symlinks with the same hash point to the same place.
+     */
+    public synchronized HashCode getContentHash() throws IOException {
+      if (contentHash == null) {
+        contentHash = Files.isSymbolicLink(path)
+            ? Hashing.sha256().hashString(
+                Files.readSymbolicLink(path).toString(), StandardCharsets.UTF_8)
+            : MoreFiles.asByteSource(path).hash(Hashing.sha256());
+      }
+      return contentHash;
+    }
+
+    private synchronized BasicFileAttributes getAttributes() throws IOException {
+      if (attributes == null) {
+        attributes = Files.readAttributes(path, BasicFileAttributes.class,
+            LinkOption.NOFOLLOW_LINKS);
+      }
+      return attributes;
+    }
+
+    /** Forget the cached information, since the file content has changed. */
+    synchronized void invalidate() {
+      attributes = null;
+      contentHash = null;
+    }
+
+    /**
+     * A {@link FileState} for the file after being moved to {@code newPath}. A move doesn't change
+     * the content or the attributes, so the cached ones are kept.
+     */
+    synchronized FileState movedTo(Path newPath) {
+      FileState result = new FileState(newPath, attributes);
+      result.contentHash = contentHash;
+      return result;
+    }
+
     @Override
     public boolean equals(Object o) {
       if (this == o) {
@@ -61,12 +128,18 @@ public interface TreeState {
     public int hashCode() {
       return path.hashCode();
     }
+
+    @Override
+    public String toString() {
+      return path.toString();
+    }
   }
 
   /**
-   * Find a a set of files in the checkout dir, using a {@link PathMatcher}.
+   * Find a a set of files in the checkout dir that match {@code glob}. Only the directories under
+   * {@link Glob#roots()} are visited.
    */
-  Iterable<FileState> find(PathMatcher pathMatcher) throws IOException;
+  Iterable<FileState> find(Glob glob) throws IOException;
 
   /**
    * Notify the {@link TreeState} that {@code paths} have been modified.
@@ -74,21 +147,35 @@ public interface TreeState {
   void notifyModify(Iterable<FileState> paths);
 
   /**
-   * Not implemented for now.
+   * Notify the {@link TreeState} that {@code paths} have been created. Paths that already existed
+   * are treated as modified.
    */
-  void notifyAdd(Iterable<FileState> path);
+  void notifyAdd(Iterable<Path> paths);
 
   /**
-   * Not implemented for now.
+   * Notify the {@link TreeState} that {@code paths} have been deleted.
    */
-  void notifyDelete(Iterable<FileState> path);
+  void notifyDelete(Iterable<Path> paths);
+
+  /**
+   * Notify the {@link TreeState} that files have been moved. Keys are the original paths and
+   * values the new ones. Existing files in the destination paths are considered overwritten.
+   */
+  void notifyMove(Map<Path, Path> moves);
 
   void notifyNoChange();
 
+  /**
+   * Notify the {@link TreeState} that files might have changed in ways that it cannot track.
+   * {@link #newTreeState()} will return a FileSystem based TreeState, even if other notify*
+   * methods were invoked.
+   */
+  void notifyUnknownChanges();
+
   /**
    * Returns a new {@link TreeState}. Iff find was invoked, and then any of the nofity* methods
-   * where invoked, it will return a cached version of the TreeState. Otherwise it returns a
-   * FileSystem based TreeState.
+   * where invoked (except {@link #notifyUnknownChanges()}), it will return a cached version of the
+   * TreeState. Otherwise it returns a FileSystem based TreeState.
    */
   TreeState newTreeState();
 }
@@ -17,11 +17,6 @@
 package com.google.copybara.treestate;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.copybara.treestate.TreeState.FileState;
-import java.nio.file.PathMatcher;
-import java.util.Collection;
-import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Utilities for dealing with {@link TreeState objects}.
@@ -31,15 +26,6 @@ public final class TreeStateUtil {
   private TreeStateUtil() {
   }
 
-  /**
-   * Filter a collection of {@link FileState}s using a {@link PathMatcher}
-   */
-  static List<FileState> filter(PathMatcher pathMatcher, Collection<FileState> files) {
-    return files.stream().filter(
-        fileState -> pathMatcher.matches(fileState.getPath()))
-        .collect(Collectors.toList());
-  }
-
   @VisibleForTesting
   public static boolean isCachedTreeState(TreeState treeState) {
     return treeState instanceof MapBasedTreeState;
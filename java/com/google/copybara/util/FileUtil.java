@@ -31,12 +31,14 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.Objects;
 import java.util.Set;
@@ -197,6 +199,34 @@ public final class FileUtil {
     }
   }
 
+  /**
+   * Writes {@code content} to {@code file} unless it is a regular file that already has that
+   * content. Unchanged files keep their modification time, so that tools that use it to detect
+   * changes, like the git index, don't need to read them again.
+   *
+   * @return true if the file was written
+   */
+  public static boolean writeIfChanged(Path file, byte[] content) throws IOException {
+    if (Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)
+        && Files.size(file) == content.length
+        && Arrays.equals(Files.readAllBytes(file), content)) {
+      return false;
+    }
+    Files.write(file, content);
+    return true;
+  }
+
+  /**
+   * Returns true if {@code file1} and {@code file2} are regular files with the same content.
+   * Symlinks are not followed.
+   */
+  public static boolean haveSameContent(Path file1, Path file2) throws IOException {
+    return Files.isRegularFile(file1, LinkOption.NOFOLLOW_LINKS)
+        && Files.isRegularFile(file2, LinkOption.NOFOLLOW_LINKS)
+        && Files.size(file1) == Files.size(file2)
+        && MoreFiles.asByteSource(file1).contentEquals(MoreFiles.asByteSource(file2));
+  }
+
   /**
    * A {@link PathMatcher} that returns true if any of the delegate {@code pathMatchers} returns
    * true.
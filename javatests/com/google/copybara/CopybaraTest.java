@@ -17,27 +17,39 @@
 package com.google.copybara;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.copybara.Info.MigrationReference;
 import com.google.copybara.authoring.Author;
 import com.google.copybara.config.Config;
 import com.google.copybara.config.ConfigValidator;
 import com.google.copybara.config.Migration;
+import com.google.copybara.exception.EmptyChangeException;
+import com.google.copybara.exception.RepoException;
 import com.google.copybara.testing.DummyRevision;
 import com.google.copybara.testing.OptionsBuilder;
 import com.google.copybara.testing.TestingEventMonitor;
 import com.google.copybara.util.console.Message.MessageType;
 import com.google.copybara.util.console.testing.TestingConsole;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 
 @RunWith(JUnit4.class)
@@ -98,6 +110,76 @@ public class CopybaraTest {
         .onceInLog(MessageType.INFO, ".*last_migrated 1111 - last_available 3333.*");
   }
 
+  @Test
+  public void testRunAll() throws Exception {
+    Migration first = migration("first", "https://example.com/foo");
+    Migration second = migration("second", "https://example.com/foo");
+    Migration other = migration("other", "https://example.com/bar");
+    doThrow(new EmptyChangeException("Nothing to migrate"))
+        .when(second).run(any(), any());
+    Path workdir = Files.createTempDirectory("workdir");
+
+    new Copybara(new ConfigValidator() {}, migration -> {})
+        .runAll(optionsBuilder.build(), loader(first, second, other), workdir);
+
+    InOrder sameDestination = inOrder(first, second);
+    sameDestination.verify(first).run(workdir.resolve("first"), ImmutableList.of());
+    sameDestination.verify(second).run(workdir.resolve("second"), ImmutableList.of());
+    verify(other).run(workdir.resolve("other"), ImmutableList.of());
+    console.assertThat().onceInLog(MessageType.WARNING, ".*'second': Nothing to migrate.*");
+  }
+
+  @Test
+  public void testRunAllFailure() throws Exception {
+    Migration first = migration("first", "https://example.com/foo");
+    Migration second = migration("second", "https://example.com/foo");
+    doThrow(new RepoException("Cannot push")).when(first).run(any(), any());
+
+    try {
+      new Copybara(new ConfigValidator() {}, migration -> {})
+          .runAll(optionsBuilder.build(), loader(first, second),
+              Files.createTempDirectory("workdir"));
+      fail();
+    } catch (RepoException e) {
+      assertThat(e).hasMessageThat().isEqualTo("Cannot push");
+    }
+    // Other migrations still run
+    verify(second).run(any(), any());
+    console.assertThat().onceInLog(MessageType.ERROR, ".*'first' failed: Cannot push.*");
+  }
+
+  @Test
+  public void testRunAllEmpty() throws Exception {
+    Migration first = migration("first", "https://example.com/foo");
+    doThrow(new EmptyChangeException("Nothing to migrate")).when(first).run(any(), any());
+
+    try {
+      new Copybara(new ConfigValidator() {}, migration -> {})
+          .runAll(optionsBuilder.build(), loader(first), Files.createTempDirectory("workdir"));
+      fail();
+    } catch (EmptyChangeException expected) {
+    }
+  }
+
+  private static Migration migration(String name, String destinationUrl) {
+    Migration migration = mock(Migration.class);
+    when(migration.getName()).thenReturn(name);
+    when(migration.getDestinationDescription())
+        .thenReturn(ImmutableSetMultimap.of("type", "git.destination", "url", destinationUrl));
+    return migration;
+  }
+
+  private ConfigLoader loader(Migration... migrations) throws Exception {
+    ImmutableMap.Builder<String, Migration> byName = ImmutableMap.builder();
+    for (Migration migration : migrations) {
+      byName.put(migration.getName(), migration);
+    }
+    ConfigLoader loader = mock(ConfigLoader.class);
+    when(loader.load(any())).thenReturn(
+        new Config(byName.build(), "foo/copy.bara.sky", ImmutableMap.of()));
+    return loader;
+  }
+
   private Change<DummyRevision> newChange(String revision) {
     return new Change<>(
         new DummyRevision(revision),
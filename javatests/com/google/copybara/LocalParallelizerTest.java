@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.copybara.exception.ValidationException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LocalParallelizerTest {
+
+  private static final List<Integer> ELEMENTS = range(1000);
+
+  @Test
+  public void testSingleThread() throws Exception {
+    List<List<Integer>> result =
+        new LocalParallelizer(1, 10).run(ELEMENTS, LocalParallelizerTest::copy);
+    assertThat(result).containsExactly(ELEMENTS);
+  }
+
+  @Test
+  public void testSmallListNotSplit() throws Exception {
+    List<List<Integer>> result =
+        new LocalParallelizer(4, 2000).run(ELEMENTS, LocalParallelizerTest::copy);
+    assertThat(result).containsExactly(ELEMENTS);
+  }
+
+  @Test
+  public void testOrderIsPreserved() throws Exception {
+    List<List<Integer>> result =
+        new LocalParallelizer(4, 10).run(ELEMENTS, LocalParallelizerTest::copy);
+    assertThat(result.size()).isGreaterThan(4);
+    assertThat(ImmutableList.copyOf(Iterables.concat(result)))
+        .containsExactlyElementsIn(ELEMENTS).inOrder();
+  }
+
+  @Test
+  public void testHeavyElementsGetTheirOwnBatch() throws Exception {
+    List<List<Integer>> result = new LocalParallelizer(4, 10)
+        .run(ELEMENTS, e -> e % 100 == 0 ? 1_000_000 : 1, LocalParallelizerTest::copy);
+    for (int i = 0; i < 1000; i += 100) {
+      assertThat(result).contains(ImmutableList.of(i));
+    }
+    assertThat(ImmutableList.copyOf(Iterables.concat(result)))
+        .containsExactlyElementsIn(ELEMENTS).inOrder();
+  }
+
+  @Test
+  public void testExceptionIsPropagated() throws Exception {
+    try {
+      new LocalParallelizer(4, 10).run(ELEMENTS, elements -> {
+        for (Integer element : elements) {
+          if (element == 500) {
+            throw new ValidationException("Failed at " + element);
+          }
+        }
+        return true;
+      });
+      fail();
+    } catch (ValidationException e) {
+      assertThat(e).hasMessageThat().isEqualTo("Failed at 500");
+    }
+  }
+
+  private static List<Integer> copy(Iterable<Integer> elements) {
+    return ImmutableList.copyOf(elements);
+  }
+
+  private static List<Integer> range(int size) {
+    List<Integer> result = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      result.add(i);
+    }
+    return result;
+  }
+}
@@ -17,11 +17,17 @@
 package com.google.copybara;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.copybara.util.ExitCode;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -109,4 +115,32 @@ public class MainTest {
     main.run(args);
     assertThat(called).isTrue();
   }
+
+  @Test
+  public void testServer() throws IOException {
+    InputStream in = System.in;
+    PrintStream out = System.out;
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    Main main =
+        new Main(ImmutableMap.of("HOME", Files.createTempDirectory("foo").toString())) {
+          @Override
+          protected void configureLog(FileSystem fs) {}
+        };
+    try {
+      System.setIn(new ByteArrayInputStream(
+          "1\tversion\n\n2\tfoo\n3\tversion\n4\tserver\n".getBytes(UTF_8)));
+      System.setOut(new PrintStream(output, /*autoFlush=*/true, UTF_8.name()));
+      assertThat(main.run(new String[]{"server", "--server-workers=2"}))
+          .isEqualTo(ExitCode.SUCCESS);
+    } finally {
+      System.setIn(in);
+      System.setOut(out);
+    }
+    assertThat(Splitter.on('\n').omitEmptyStrings().split(new String(output.toByteArray(), UTF_8)))
+        .containsExactly(
+            "1\t0\tSUCCESS",
+            "2\t1\tCOMMAND_LINE_ERROR",
+            "3\t0\tSUCCESS",
+            "4\t1\tCOMMAND_LINE_ERROR");
+  }
 }
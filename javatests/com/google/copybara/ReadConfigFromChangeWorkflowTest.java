@@ -30,6 +30,8 @@ import com.google.copybara.testing.SkylarkTestExecutor;
 import com.google.copybara.util.console.Console;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.stream.Collectors;
 import org.junit.Before;
 import org.junit.Test;
@@ -108,4 +110,54 @@ public class ReadConfigFromChangeWorkflowTest {
                          .collect(Collectors.toSet()))
         .containsExactly(0, 1, 2);
   }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testConfigReusedWhileUnchanged() throws Exception {
+    options.workflowOptions.lastRevision = "0";
+    String configCode = "core.workflow("
+        + "    name = 'default',"
+        + "    origin = testing.origin(),"
+        + "    mode = 'ITERATIVE',"
+        + "    destination = testing.destination(),"
+        + "    authoring = authoring.pass_thru('foo <foo@foo.com>')"
+        + ")";
+    Config cfg = skylark.loadConfig(configCode);
+    ConfigLoader constantConfigLoader =
+        new ConfigLoader(
+            skylark.createModuleSet(),
+            skylark.createConfigFile("copy.bara.sky", configCode)) {
+          @Override
+          public Config loadForRevision(Console console, Revision revision)
+              throws ValidationException {
+            try {
+              return loadForConfigFile(console,
+                  skylark.createConfigFile("copy.bara.sky", configCode));
+            } catch (IOException e) {
+              throw new AssertionError("Should not fail", e);
+            }
+          }
+        };
+    List<Config> validated = new ArrayList<>();
+    ReadConfigFromChangeWorkflow<?, ?> wf = new ReadConfigFromChangeWorkflow<>(
+        (Workflow) cfg.getMigration("default"),
+        options.build(),
+        constantConfigLoader, new ConfigValidator() {
+      @Override
+      public ValidationResult validate(Config config, String migrationName) {
+        validated.add(config);
+        return ValidationResult.EMPTY;
+      }
+    });
+
+    origin.addSimpleChange(0);
+    origin.addSimpleChange(1);
+    origin.addSimpleChange(2);
+    origin.addSimpleChange(3);
+
+    wf.run(Files.createTempDirectory("workdir"), ImmutableList.of("3"));
+
+    Truth.assertThat(destination.processed).hasSize(3);
+    Truth.assertThat(validated).hasSize(1);
+  }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.jimfs.Jimfs;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ReversibleCheckTest {
+
+  private Path checkoutDir;
+  private Path reverseDir;
+
+  @Before
+  public void setup() throws IOException {
+    FileSystem fs = Jimfs.newFileSystem();
+    checkoutDir = Files.createDirectories(fs.getPath("/checkout"));
+    reverseDir = Files.createDirectories(fs.getPath("/reverse"));
+  }
+
+  @Test
+  public void testNoDifferences() throws Exception {
+    write(checkoutDir, "foo.txt", "foo");
+    write(checkoutDir, "dir/bar.txt", "bar");
+    ReversibleCheck check = ReversibleCheck.recordOrigin(checkoutDir, parallelizer());
+    write(reverseDir, "foo.txt", "foo");
+    write(reverseDir, "dir/bar.txt", "bar");
+
+    assertThat(check.findDifferences(reverseDir)).isEmpty();
+  }
+
+  @Test
+  public void testDifferences() throws Exception {
+    write(checkoutDir, "same.txt", "same");
+    write(checkoutDir, "same_size.txt", "foo");
+    write(checkoutDir, "other_size.txt", "foo");
+    write(checkoutDir, "deleted.txt", "deleted");
+    ReversibleCheck check = ReversibleCheck.recordOrigin(checkoutDir, parallelizer());
+    // The check doesn't depend on the origin files after recording them.
+    write(checkoutDir, "same.txt", "modified after recording");
+    write(reverseDir, "same.txt", "same");
+    write(reverseDir, "same_size.txt", "bar");
+    write(reverseDir, "other_size.txt", "foobar");
+    write(reverseDir, "dir/added.txt", "added");
+
+    assertThat(check.findDifferences(reverseDir))
+        .containsExactly("deleted.txt", "dir/added.txt", "other_size.txt", "same_size.txt")
+        .inOrder();
+  }
+
+  private static LocalParallelizer parallelizer() {
+    return new LocalParallelizer(4, 1);
+  }
+
+  private static void write(Path root, String path, String content) throws IOException {
+    Path file = root.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(UTF_8));
+  }
+}
@@ -43,6 +43,7 @@ import com.google.common.jimfs.Jimfs;
 import com.google.copybara.authoring.Author;
 import com.google.copybara.authoring.AuthorParser;
 import com.google.copybara.config.Config;
+import com.google.copybara.config.ConfigValidator;
 import com.google.copybara.config.MapConfigFile;
 import com.google.copybara.config.Migration;
 import com.google.copybara.exception.CannotResolveRevisionException;
@@ -53,6 +54,7 @@ import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.exception.VoidOperationException;
 import com.google.copybara.git.GitRepository;
+import com.google.copybara.monitor.EventMonitor.ChangeMigrationFinishedEvent;
 import com.google.copybara.testing.DummyOrigin;
 import com.google.copybara.testing.DummyRevision;
 import com.google.copybara.testing.OptionsBuilder;
@@ -76,12 +78,15 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoField;
 import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 import javax.annotation.Nullable;
@@ -1847,7 +1852,8 @@ public class WorkflowTest {
       assertThat(e).hasMessage("Workflow 'default' is not reversible");
     }
     console().assertThat()
-        .onceInLog(MessageType.PROGRESS, "Checking that the transformations can be reverted");
+        .onceInLog(MessageType.PROGRESS, "Checking that the transformations can be reverted")
+        .onceInLog(MessageType.ERROR, "(?s)Non reversible transformations:.*test\\.txt.*");
   }
 
   @Test
@@ -1990,9 +1996,52 @@ public class WorkflowTest {
       workflow.run(subdir, ImmutableList.of());
       fail("Should fail because the workflow is not reversible");
     } catch (ValidationException e) {
-      assertThat(e).hasMessageThat()
-          .contains("Cannot use 'reversible_check = True' because Copybara temporary directory");
+      assertThat(e).hasMessage("Workflow 'default' is not reversible");
     }
+    // git diff cannot run inside a git directory, so only the files that differ are shown.
+    console().assertThat()
+        .onceInLog(MessageType.ERROR, "(?s)Non reversible transformations:.*foo\\.txt.*");
+  }
+
+  @Test
+  public void testNonReversiblePermissions() throws Exception {
+    Path originPath = Files.createTempDirectory("origin");
+    GitRepository originRepo = GitRepository.newRepo(true, originPath, getGitEnv()).init();
+    Path script = Files.write(originPath.resolve("script.sh"), "echo foo\n".getBytes(UTF_8));
+    Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwxr-xr-x"));
+    originRepo.add().files("script.sh").run();
+    originRepo.commit("Foo <foo@bara.com>", ZonedDateTime.now(ZoneId.systemDefault()), "first");
+
+    options.setWorkdirToRealTempDir();
+    options.setEnvironment(GitTestUtil.getGitEnv());
+    options.setHomeDir(Files.createTempDirectory("home").toString());
+    // The reversal writes the same content to a new file, that is not executable.
+    String config = ""
+        + "def _noop(ctx):\n"
+        + "  pass\n"
+        + "def _rewrite(ctx):\n"
+        + "  ctx.write_path(ctx.new_path('script.sh'), ctx.read_path(ctx.new_path('tmp.sh')))\n"
+        + "core.workflow(\n"
+        + "    name = 'default',\n"
+        + "    origin = git.origin(url = 'file://" + originPath + "', ref = 'master'),\n"
+        + "    destination = testing.destination(),\n"
+        + "    transformations = [core.transform([_noop], reversal = [\n"
+        + "        core.move('script.sh', 'tmp.sh'),\n"
+        + "        _rewrite,\n"
+        + "        core.remove(glob(['tmp.sh'])),\n"
+        + "    ])],\n"
+        + "    authoring = " + authoring + ",\n"
+        + "    reversible_check = True,\n"
+        + ")\n";
+    Migration workflow = loadConfig(config).getMigration("default");
+    try {
+      workflow.run(workdir, ImmutableList.of("master"));
+      fail("Should fail because the workflow is not reversible");
+    } catch (ValidationException e) {
+      assertThat(e).hasMessage("Workflow 'default' is not reversible");
+    }
+    console().assertThat()
+        .onceInLog(MessageType.ERROR, "(?s)Non reversible transformations:.*script\\.sh.*");
   }
 
   @Test
@@ -2222,6 +2271,202 @@ public class WorkflowTest {
     }
   }
 
+  @Test
+  public void iterativeIncrementalCheckout() throws Exception {
+    Path originPath = Files.createTempDirectory("origin");
+    GitRepository originRepo = GitRepository.newRepo(true, originPath, getGitEnv()).init();
+    String firstCommit = commitOriginFiles(originRepo, "first",
+        ImmutableMap.of("a.txt", "a1", "b.txt", "b", "dir/c.txt", "c"));
+    originRepo.simpleCommand("rm", "b.txt");
+    commitOriginFiles(originRepo, "change1", ImmutableMap.of("a.txt", "a2"));
+    originRepo.simpleCommand("rm", "dir/c.txt");
+    commitOriginFiles(originRepo, "change2", ImmutableMap.of("d.txt", "d"));
+    commitOriginFiles(originRepo, "change3", ImmutableMap.of("a.txt", "a3"));
+
+    options.setWorkdirToRealTempDir();
+    options.setEnvironment(GitTestUtil.getGitEnv());
+    options.setHomeDir(Files.createTempDirectory("home").toString());
+    options.workflowOptions.incrementalCheckout = true;
+    options.setLastRevision(firstCommit);
+    // The move leaves the checkout different from the origin files of the change.
+    loadConfig(""
+        + "core.workflow(\n"
+        + "    name = 'default',\n"
+        + "    origin = git.origin(url = 'file://" + originPath + "', ref = 'master'),\n"
+        + "    destination = testing.destination(),\n"
+        + "    transformations = [core.move('a.txt', 'moved/a.txt')],\n"
+        + "    authoring = " + authoring + ",\n"
+        + "    mode = 'ITERATIVE',\n"
+        + ")\n").getMigration("default").run(workdir, ImmutableList.of("master"));
+
+    assertThat(destination.processed).hasSize(3);
+    assertThat(destination.processed.get(0).getWorkdir())
+        .containsExactly("moved/a.txt", "a2", "dir/c.txt", "c");
+    assertThat(destination.processed.get(1).getWorkdir())
+        .containsExactly("moved/a.txt", "a2", "d.txt", "d");
+    assertThat(destination.processed.get(2).getWorkdir())
+        .containsExactly("moved/a.txt", "a3", "d.txt", "d");
+    // The checkout of the previous change was updated instead of checking out from scratch.
+    assertThat(Files.exists(workdir.resolve("checkout_state/index"))).isTrue();
+  }
+
+  private String commitOriginFiles(GitRepository originRepo, String message,
+      ImmutableMap<String, String> files) throws Exception {
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      Path path = originRepo.getWorkTree().resolve(file.getKey());
+      Files.createDirectories(path.getParent());
+      Files.write(path, file.getValue().getBytes(UTF_8));
+    }
+    originRepo.add().all().run();
+    originRepo.commit("Foo <foo@bara.com>", ZonedDateTime.now(ZoneId.systemDefault()), message);
+    return originRepo.parseRef("HEAD");
+  }
+
+  @Test
+  public void iterativePushEveryDelaysFinishedEvents() throws Exception {
+    GitRepository destinationBare = pushEveryDestination();
+    options.gitDestination.pushEvery = 2;
+    List<Integer> pushedCommitsOnFinish = new ArrayList<>();
+    options.general.withEventMonitor(new TestingEventMonitor() {
+      @Override
+      public void onChangeMigrationFinished(ChangeMigrationFinishedEvent event) {
+        super.onChangeMigrationFinished(event);
+        try {
+          pushedCommitsOnFinish.add(destinationBare.log("master").run().size());
+        } catch (RepoException e) {
+          throw new AssertionError(e);
+        }
+      }
+    });
+    addPushEveryChanges("a", "b", "c");
+
+    loadConfig(pushEveryConfig(destinationBare)).getMigration("default")
+        .run(workdir, ImmutableList.of("HEAD"));
+
+    assertThat(destinationBare.log("master").run()).hasSize(3);
+    // Changes are only reported as finished once they are pushed. The last one is pushed when the
+    // run finishes.
+    assertThat(pushedCommitsOnFinish).containsExactly(2, 2, 3).inOrder();
+    assertThat(origin.getEndpoint().getMessages())
+        .containsExactly("CREATED 1", "CREATED 2", "CREATED 3").inOrder();
+  }
+
+  @Test
+  public void iterativePushEveryFlushFails() throws Exception {
+    GitRepository destinationBare = pushEveryDestination();
+    Path hook = destinationBare.getGitDir().resolve("hooks/pre-receive");
+    Files.createDirectories(hook.getParent());
+    Files.write(hook, "#!/bin/sh\necho 'Rejected by test' >&2\nexit 1\n".getBytes(UTF_8));
+    assertThat(hook.toFile().setExecutable(true)).isTrue();
+    addPushEveryChanges("a", "b");
+
+    try {
+      loadConfig(pushEveryConfig(destinationBare)).getMigration("default")
+          .run(workdir, ImmutableList.of("HEAD"));
+      fail();
+    } catch (RepoException expected) {
+      assertThat(expected.getMessage()).contains("Rejected by test");
+    }
+    // The delayed changes were never visible in the destination, so they finish with an error
+    // and without running the after migration hooks.
+    assertThat(destinationBare.refExists("refs/heads/master")).isFalse();
+    assertThat(eventMonitor.changeMigrationFinishedEventCount()).isEqualTo(2);
+    for (ChangeMigrationFinishedEvent event : eventMonitor.changeMigrationFinishedEvents) {
+      assertThat(Iterables.getOnlyElement(event.getDestinationEffects()).getType())
+          .isEqualTo(DestinationEffect.Type.ERROR);
+    }
+    assertThat(origin.getEndpoint().getMessages()).isEmpty();
+  }
+
+  @Test
+  public void iterativePushEveryFlushesWhenTheRunFails() throws Exception {
+    GitRepository destinationBare = pushEveryDestination();
+    addPushEveryChanges("a", "b", "broken");
+
+    try {
+      loadConfig(pushEveryConfig(destinationBare)).getMigration("default")
+          .run(workdir, ImmutableList.of("HEAD"));
+      fail();
+    } catch (ValidationException expected) {
+      assertThat(expected.getMessage()).contains("failed the validation");
+    }
+    // The changes migrated before the failure are still pushed.
+    assertThat(destinationBare.log("master").run()).hasSize(2);
+    assertThat(eventMonitor.changeMigrationFinishedEventCount()).isEqualTo(3);
+    assertThat(origin.getEndpoint().getMessages())
+        .containsExactly("ERROR 3", "CREATED 1", "CREATED 2").inOrder();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void iterativePushEverySharesPendingMigrationsWithReloadedConfig() throws Exception {
+    GitRepository destinationBare = pushEveryDestination();
+    addPushEveryChanges("a", "b", "c");
+    String configCode = pushEveryConfig(destinationBare);
+    ConfigLoader configLoader =
+        new ConfigLoader(
+            skylark.createModuleSet(), skylark.createConfigFile("copy.bara.sky", configCode)) {
+          @Override
+          public Config loadForRevision(Console console, Revision revision)
+              throws ValidationException {
+            try {
+              return super.load(console);
+            } catch (IOException e) {
+              throw new AssertionError("Should not fail", e);
+            }
+          }
+        };
+    ReadConfigFromChangeWorkflow<?, ?> workflow = new ReadConfigFromChangeWorkflow<>(
+        (Workflow) loadConfig(configCode).getMigration("default"), options.build(), configLoader,
+        new ConfigValidator() {});
+
+    workflow.run(workdir, ImmutableList.of("HEAD"));
+
+    // Each change is migrated by a new helper, but the last flush finishes all of them.
+    assertThat(destinationBare.log("master").run()).hasSize(3);
+    assertThat(eventMonitor.changeMigrationFinishedEventCount()).isEqualTo(3);
+    assertThat(origin.getEndpoint().getMessages())
+        .containsExactly("CREATED 1", "CREATED 2", "CREATED 3").inOrder();
+  }
+
+  private GitRepository pushEveryDestination() throws IOException, RepoException {
+    GitRepository destinationBare = newBareRepo(Files.createTempDirectory("destination"),
+        getGitEnv(), /*verbose=*/true);
+    destinationBare.init();
+    options.setWorkdirToRealTempDir();
+    options.setEnvironment(GitTestUtil.getGitEnv());
+    options.setHomeDir(Files.createTempDirectory("home").toString());
+    options.gitDestination.committerName = "Foo";
+    options.gitDestination.committerEmail = "foo@foo.com";
+    options.gitDestination.pushEvery = 10;
+    options.setLastRevision("0");
+    return destinationBare;
+  }
+
+  private void addPushEveryChanges(String... contents) throws IOException {
+    origin.singleFileChange(0, "base", "file.txt", "base");
+    for (int i = 0; i < contents.length; i++) {
+      origin.singleFileChange(i + 1, "change " + (i + 1), "file.txt", contents[i]);
+    }
+  }
+
+  private String pushEveryConfig(GitRepository destinationBare) {
+    return ""
+        + "def _record(ctx):\n"
+        + "  for effect in ctx.effects:\n"
+        + "    ctx.origin.message(effect.type + ' ' + effect.origin_refs[0].ref)\n"
+        + "\n"
+        + "core.workflow(\n"
+        + "    name = 'default',\n"
+        + "    origin = testing.origin(),\n"
+        + "    destination = git.destination(url = 'file://" + destinationBare.getGitDir() + "'),\n"
+        + "    transformations = [core.verify_match(regex = 'broken', verify_no_match = True)],\n"
+        + "    authoring = " + authoring + ",\n"
+        + "    mode = 'ITERATIVE',\n"
+        + "    after_migration = [core.dynamic_feedback(impl = _record)],\n"
+        + ")\n";
+  }
+
   private void checkLastRevStatus(WorkflowMode mode)
       throws IOException, RepoException, ValidationException {
     Path originPath = Files.createTempDirectory("origin");
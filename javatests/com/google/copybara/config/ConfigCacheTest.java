@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.config;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.jimfs.Jimfs;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ConfigCacheTest {
+
+  private FileSystem fs;
+  private ConfigCache cache;
+  private Config config;
+
+  @Before
+  public void setup() {
+    fs = Jimfs.newFileSystem();
+    cache = new ConfigCache();
+    config = new Config(ImmutableMap.of(), "copy.bara.sky", ImmutableMap.of());
+  }
+
+  @Test
+  public void testReusedWhileFilesDontChange() throws Exception {
+    ConfigFile<Path> main = file("/copy.bara.sky", "load('lib', 'foo')");
+    ConfigFile<Path> lib = file("/lib.bara.sky", "foo = 42");
+    assertThat(cache.get(main)).isNull();
+
+    cache.put(main, ImmutableMap.of(main.path(), main, lib.path(), lib),
+        ImmutableSetMultimap.of(main.path(), "lib.bara.sky"), config);
+    assertThat(cache.get(main)).isSameAs(config);
+
+    file("/lib.bara.sky", "foo = 43");
+    assertThat(cache.get(main)).isNull();
+    // Not reused either after going back to the original content
+    file("/lib.bara.sky", "foo = 42");
+    assertThat(cache.get(main)).isNull();
+  }
+
+  @Test
+  public void testMainFileChanges() throws Exception {
+    ConfigFile<Path> main = file("/copy.bara.sky", "foo = 42");
+    cache.put(main, ImmutableMap.of(main.path(), main), ImmutableSetMultimap.of(), config);
+
+    assertThat(cache.get(file("/copy.bara.sky", "foo = 43"))).isNull();
+  }
+
+  @Test
+  public void testDeletedFile() throws Exception {
+    ConfigFile<Path> main = file("/copy.bara.sky", "load('lib', 'foo')");
+    ConfigFile<Path> lib = file("/lib.bara.sky", "foo = 42");
+    cache.put(main, ImmutableMap.of(main.path(), main, lib.path(), lib),
+        ImmutableSetMultimap.of(main.path(), "lib.bara.sky"), config);
+
+    Files.delete(fs.getPath("/lib.bara.sky"));
+    assertThat(cache.get(main)).isNull();
+  }
+
+  @Test
+  public void testReusedForOtherRevisions() throws Exception {
+    ImmutableSetMultimap<String, String> labels =
+        ImmutableSetMultimap.of("copy.bara.sky", "lib.bara.sky");
+    ConfigFile<String> main = revision("load('lib', 'foo')", "foo = 42", "bar = 1");
+    cache.put(main, ImmutableMap.of("copy.bara.sky", main,
+        "lib.bara.sky", main.resolve("lib.bara.sky")), labels, config);
+
+    // Files not loaded by the config can change
+    assertThat(cache.get(revision("load('lib', 'foo')", "foo = 42", "bar = 2")))
+        .isSameAs(config);
+    assertThat(cache.get(revision("load('lib', 'foo')", "foo = 43", "bar = 1"))).isNull();
+  }
+
+  private static ConfigFile<String> revision(String main, String lib, String other) {
+    return new MapConfigFile(ImmutableMap.of(
+        "copy.bara.sky", main.getBytes(UTF_8),
+        "lib.bara.sky", lib.getBytes(UTF_8),
+        "other.bara.sky", other.getBytes(UTF_8)), "copy.bara.sky");
+  }
+
+  private ConfigFile<Path> file(String path, String content) throws Exception {
+    Path file = Files.write(fs.getPath(path), content.getBytes(UTF_8));
+    return new PathBasedConfigFile(file, /*rootPath=*/null, /*identifierPrefix=*/null);
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.copybara.testing.git.GitTestUtil.getGitEnv;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.copybara.git.DestinationLabelIndex.Entry;
+import com.google.copybara.util.Glob;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DestinationLabelIndexTest {
+
+  private static final String LABEL = "GitOrigin-RevId";
+
+  private GitRepository repository;
+  private Path workdir;
+
+  @Before
+  public void setup() throws Exception {
+    workdir = Files.createTempDirectory("workdir");
+    repository = GitRepository
+        .newBareRepo(Files.createTempDirectory("gitdir"), getGitEnv(), /*verbose=*/true)
+        .withWorkTree(workdir);
+    repository.init();
+  }
+
+  @Test
+  public void testFindLastMigrated() throws Exception {
+    commit("dir/foo.txt", "first\n\n" + LABEL + ": aaa");
+    GitRevision second = commit("dir/foo.txt", "second\n\n" + LABEL + ": bbb");
+    commit("dir/foo.txt", "Not migrated");
+
+    DestinationLabelIndex index = index(Glob.ALL_FILES);
+    Entry entry = index.findLastMigrated(head());
+
+    assertThat(entry.getValue()).isEqualTo("bbb");
+    assertThat(entry.getCommit()).isEqualTo(second.getSha1());
+    assertThat(Files.exists(index.getFile())).isTrue();
+  }
+
+  @Test
+  public void testIgnoresChangesOutsideDestinationFiles() throws Exception {
+    commit("dir/foo.txt", "first\n\n" + LABEL + ": aaa");
+    commit("other/foo.txt", "second\n\n" + LABEL + ": bbb");
+
+    assertThat(index(Glob.createGlob(ImmutableList.of("dir/**"))).findLastMigrated(head())
+        .getValue()).isEqualTo("aaa");
+    assertThat(index(Glob.ALL_FILES).findLastMigrated(head()).getValue()).isEqualTo("bbb");
+  }
+
+  @Test
+  public void testIncrementalUpdate() throws Exception {
+    commit("foo.txt", "first\n\n" + LABEL + ": aaa");
+    assertThat(index(Glob.ALL_FILES).findLastMigrated(head()).getValue()).isEqualTo("aaa");
+
+    commit("foo.txt", "Not migrated");
+    assertThat(index(Glob.ALL_FILES).findLastMigrated(head()).getValue()).isEqualTo("aaa");
+
+    commit("foo.txt", "second\n\n" + LABEL + ": bbb");
+    assertThat(index(Glob.ALL_FILES).findLastMigrated(head()).getValue()).isEqualTo("bbb");
+  }
+
+  @Test
+  public void testIncrementalUpdateWithoutFirstParent() throws Exception {
+    GitRevision base = commit("foo.txt", "base");
+    repository.simpleCommand("checkout", "-b", "feature", base.getSha1());
+    commit("bar.txt", "feature\n\n" + LABEL + ": bbb");
+    repository.simpleCommand("checkout", "master");
+    commit("foo.txt", "first\n\n" + LABEL + ": aaa");
+    DestinationLabelIndex index =
+        new DestinationLabelIndex(repository, LABEL, Glob.ALL_FILES, /*firstParent=*/false);
+    assertThat(index.findLastMigrated(head()).getValue()).isEqualTo("aaa");
+
+    // The new commits are not the newest ones in 'git log' order.
+    repository.simpleCommand("merge", "--no-ff", "-m", "Merge feature", "feature");
+    assertThat(index.findLastMigrated(head()).getValue()).isEqualTo("aaa");
+  }
+
+  @Test
+  public void testRewrittenHistory() throws Exception {
+    GitRevision first = commit("foo.txt", "first\n\n" + LABEL + ": aaa");
+    commit("foo.txt", "second\n\n" + LABEL + ": bbb");
+    assertThat(index(Glob.ALL_FILES).findLastMigrated(head()).getValue()).isEqualTo("bbb");
+
+    // The stored tip is not an ancestor of the new one anymore.
+    repository.simpleCommand("reset", "--hard", first.getSha1());
+    commit("foo.txt", "Not migrated");
+    assertThat(index(Glob.ALL_FILES).findLastMigrated(head()).getValue()).isEqualTo("aaa");
+  }
+
+  @Test
+  public void testInvalidIndexIsIgnored() throws Exception {
+    commit("foo.txt", "first\n\n" + LABEL + ": aaa");
+    DestinationLabelIndex index = index(Glob.ALL_FILES);
+    index.findLastMigrated(head());
+    Files.write(index.getFile(), "garbage".getBytes(UTF_8));
+
+    assertThat(index.findLastMigrated(head()).getValue()).isEqualTo("aaa");
+  }
+
+  @Test
+  public void testFindWithValue() throws Exception {
+    GitRevision first = commit("foo.txt", "first\n\n" + LABEL + ": aaa");
+    commit("foo.txt", "second\n\n" + LABEL + ": bbb");
+    DestinationLabelIndex index = index(Glob.ALL_FILES);
+    // Only reads the history until the first match.
+    assertThat(index.findLastMigrated(head()).getValue()).isEqualTo("bbb");
+
+    assertThat(index.findWithValue(head(), "aaa"::equals).getCommit())
+        .isEqualTo(first.getSha1());
+    assertThat(index.findWithValue(head(), "ccc"::equals)).isNull();
+    commit("foo.txt", "Not migrated");
+    assertThat(index.findWithValue(head(), "aaa"::equals).getCommit())
+        .isEqualTo(first.getSha1());
+  }
+
+  @Test
+  public void testNoLabel() throws Exception {
+    commit("foo.txt", "Not migrated");
+    assertThat(index(Glob.ALL_FILES).findLastMigrated(head())).isNull();
+  }
+
+  private DestinationLabelIndex index(Glob destinationFiles) {
+    return new DestinationLabelIndex(repository, LABEL, destinationFiles, /*firstParent=*/true);
+  }
+
+  private GitRevision head() throws Exception {
+    return repository.resolveReference("HEAD");
+  }
+
+  private GitRevision commit(String file, String message) throws Exception {
+    Path path = workdir.resolve(file);
+    Files.createDirectories(path.getParent());
+    Files.write(path, message.getBytes(UTF_8));
+    repository.add().files(file).run();
+    repository.commit("Foo <bar@bara.com>",
+        ZonedDateTime.now(ZoneId.of("-07:00")).truncatedTo(ChronoUnit.SECONDS), message);
+    return head();
+  }
+}
@@ -53,6 +53,7 @@ import com.google.copybara.util.console.testing.TestingConsole;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
@@ -321,8 +322,7 @@ public class GitDestinationTest {
         .matchesNext(MessageType.WARNING,
             "Git Destination: 'refs/heads/master' doesn't exist in 'file://.*")
         .matchesNext(MessageType.PROGRESS, "Git Destination: Checking out master")
-        .matchesNext(MessageType.PROGRESS, "Git Destination: Adding all files")
-        .matchesNext(MessageType.PROGRESS, "Git Destination: Excluding files")
+        .matchesNext(MessageType.PROGRESS, "Git Destination: Staging changed files")
         .matchesNext(MessageType.PROGRESS, "Git Destination: Creating a local commit")
         // Validate that we showed the confirmation
         .matchesNext(MessageType.INFO, "(?m)(\n|.)*test summary(\n|.)+"
@@ -398,6 +398,31 @@ public class GitDestinationTest {
     assertThat(status.getBaseline()).isEqualTo("foo");
   }
 
+  @Test
+  public void findRevisionWithLabelAcceptsAllSeparators() throws Exception {
+    fetch = "master";
+    push = "master";
+    GitRepository repo = repo().withWorkTree(workdir);
+    Files.write(workdir.resolve("file"), "first".getBytes());
+    repo.add().files("file").run();
+    repo.simpleCommand("commit", "-m", "first\n\n" + DummyOrigin.LABEL_NAME + "=aaa");
+    String first = repo.parseRef("HEAD");
+    Files.write(workdir.resolve("file"), "second".getBytes());
+    repo.add().files("file").run();
+    repo.simpleCommand("commit", "-m", "second\n\n" + DummyOrigin.LABEL_NAME + " : bbb");
+    String second = repo.parseRef("HEAD");
+    Files.write(workdir.resolve("file"), "third".getBytes());
+    repo.add().files("file").run();
+    repo.simpleCommand("commit", "-m", "Not migrated");
+
+    Writer<GitRevision> writer = newWriter();
+    assertThat(writer.findRevisionWithLabel(DummyOrigin.LABEL_NAME, "aaa"::equals))
+        .isEqualTo(first);
+    assertThat(writer.findRevisionWithLabel(DummyOrigin.LABEL_NAME, "bbb"::equals))
+        .isEqualTo(second);
+    assertThat(writer.findRevisionWithLabel(DummyOrigin.LABEL_NAME, "ccc"::equals)).isNull();
+  }
+
   @Test
   public void processEmptyCommitWithExcludes() throws Exception {
     fetch = "master";
@@ -417,6 +442,43 @@ public class GitDestinationTest {
         new DummyRevision("origin_ref"));
   }
 
+  @Test
+  public void processStagesOnlyChangedFiles() throws Exception {
+    fetch = "master";
+    push = "master";
+    Path scratchTree = Files.createTempDirectory("GitDestinationTest-scratchTree");
+    Files.createDirectories(scratchTree.resolve("dir"));
+    Files.write(scratchTree.resolve("dir/deleted"), "deleted".getBytes(UTF_8));
+    Files.write(scratchTree.resolve("unchanged"), "unchanged".getBytes(UTF_8));
+    Files.write(scratchTree.resolve("script"), "echo foo".getBytes(UTF_8));
+    repo().withWorkTree(scratchTree).add().files("dir/deleted", "unchanged", "script").run();
+    repo().withWorkTree(scratchTree).simpleCommand("commit", "-m", "first commit");
+
+    Files.write(workdir.resolve("unchanged"), "unchanged".getBytes(UTF_8));
+    Files.write(workdir.resolve("script"), "echo foo".getBytes(UTF_8));
+    assertThat(workdir.resolve("script").toFile().setExecutable(true)).isTrue();
+    // Git only looks at the owner execute bit
+    Files.write(workdir.resolve("others_exec"), "echo bar".getBytes(UTF_8));
+    Files.setPosixFilePermissions(workdir.resolve("others_exec"),
+        PosixFilePermissions.fromString("rw-r-xr-x"));
+    Files.write(workdir.resolve("dir"), "now a file".getBytes(UTF_8));
+
+    process(newWriter(), new DummyRevision("origin_ref"));
+
+    GitTesting.assertThatCheckout(repo(), "master")
+        .containsFile("unchanged", "unchanged")
+        .containsFile("script", "echo foo")
+        .containsFile("dir", "now a file")
+        .containsFile("others_exec", "echo bar")
+        .containsNoMoreFiles();
+    assertThat(git("--git-dir", repoGitDir.toString(), "ls-tree", "master", "script"))
+        .startsWith("100755 blob");
+    assertThat(git("--git-dir", repoGitDir.toString(), "ls-tree", "master", "others_exec"))
+        .startsWith("100644 blob");
+    assertThat(git("--git-dir", repoGitDir.toString(), "show", "--name-status", "--format=",
+        "master")).isEqualTo("A\tdir\nD\tdir/deleted\nA\tothers_exec\nM\tscript\n");
+  }
+
   @Test
   public void processFetchRefDoesntExist() throws Exception {
     fetch = "testPullFromRef";
@@ -701,6 +763,40 @@ public class GitDestinationTest {
     assertThat(repo().log("master..feature").run()).hasSize(2);
   }
 
+  @Test
+  public void processBatchedPushes() throws Exception {
+    fetch = "master";
+    push = "master";
+    Path scratchTree = Files.createTempDirectory("GitDestinationTest-scratchTree");
+    Files.write(scratchTree.resolve("base.txt"), "base".getBytes(UTF_8));
+    repo().withWorkTree(scratchTree).add().files("base.txt").run();
+    repo().withWorkTree(scratchTree).simpleCommand("commit", "-m", "base");
+    options.gitDestination.pushEvery = 2;
+    Path file = workdir.resolve("test.txt");
+    Writer<GitRevision> writer = newWriter();
+
+    Files.write(file, "one".getBytes(UTF_8));
+    process(writer, new DummyRevision("first_commit"));
+    assertThat(writer.hasPendingWrites()).isTrue();
+    assertCommitCount(1, "master");
+
+    Files.write(file, "two".getBytes(UTF_8));
+    process(writer, new DummyRevision("second_commit"));
+    assertThat(writer.hasPendingWrites()).isFalse();
+    assertCommitCount(3, "master");
+    assertCommitHasOrigin("master", "second_commit");
+
+    Files.write(file, "three".getBytes(UTF_8));
+    process(writer, new DummyRevision("third_commit"));
+    assertThat(writer.hasPendingWrites()).isTrue();
+    assertCommitCount(3, "master");
+
+    writer.flush(console);
+    assertThat(writer.hasPendingWrites()).isFalse();
+    assertCommitCount(4, "master");
+    assertCommitHasOrigin("master", "third_commit");
+  }
+
   @Test
   public void previousImportReference_with_force() throws Exception {
     force = true;
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.jimfs.Jimfs;
+import com.google.copybara.authoring.AuthorParser;
+import com.google.copybara.git.GitRepository.GitLogEntry;
+import com.google.re2j.Pattern;
+import java.io.ByteArrayInputStream;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks parsing the output of 'git log --name-only' for a synthetic history, with few
+ * authors and files that are modified again and again, like in most repositories.
+ *
+ * <p>Compares the streaming {@link GitLogParser} with decoding the whole output to a String and
+ * splitting it, that is how the output was parsed before. Run with {@code -prof gc} to compare
+ * the allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class GitLogParserBenchmark {
+
+  private static final String SEPARATOR = "\u0001copybara\u0001";
+  private static final int AUTHORS = 50;
+  private static final int FILES = 2000;
+  private static final int FILES_PER_COMMIT = 5;
+  private static final Pattern UNINDENT = Pattern.compile("\n    ");
+
+  @Param({"100000"})
+  public int commits;
+
+  private GitRepository repo;
+  private byte[] log;
+
+  @Setup
+  public void setup() {
+    repo = GitRepository.newBareRepo(Jimfs.newFileSystem().getPath("/repo"), ImmutableMap.of(),
+        /*verbose=*/false);
+    StringBuilder sb = new StringBuilder();
+    for (int i = commits; i > 0; i--) {
+      String author = "Author " + (i % AUTHORS) + " <author" + (i % AUTHORS) + "@example.com>";
+      String date = String.format("2018-%02d-%02dT10:00:00+02:00", i % 12 + 1, i % 28 + 1);
+      sb.append(SEPARATOR)
+          .append("commit=").append(sha1(i)).append('\n')
+          .append("parents=").append(i > 1 ? sha1(i - 1) : "").append('\n')
+          .append("tree=").append(sha1(-i)).append('\n')
+          .append("author=").append(author).append('\n')
+          .append("author_date=").append(date).append('\n')
+          .append("committer=").append(author).append('\n')
+          .append("committer_date=").append(date).append('\n')
+          .append("--\n")
+          .append("begin_body\n")
+          .append("    Change number ").append(i).append("\n")
+          .append("    \n")
+          .append("    Some description of the change.\n")
+          .append("\n")
+          .append("end_body\n")
+          .append("--\n")
+          .append('\n');
+      for (int f = 0; f < FILES_PER_COMMIT; f++) {
+        sb.append("some/directory/").append((i * 7 + f) % FILES).append("/File.java\n");
+      }
+      if (i > 1) {
+        sb.append('\n');
+      }
+    }
+    log = sb.toString().getBytes(UTF_8);
+  }
+
+  private static String sha1(int i) {
+    return String.format("%040x", i & 0xFFFFFFFFL);
+  }
+
+  @Benchmark
+  public void streamingParser(Blackhole bh) throws Exception {
+    new GitLogParser(repo, /*includeBody=*/true, /*includeFiles=*/true)
+        .parse(new ByteArrayInputStream(log), e -> {
+          bh.consume(e);
+          return true;
+        });
+  }
+
+  @Benchmark
+  public void stringParser(Blackhole bh) throws Exception {
+    bh.consume(parseAsString(new String(log, UTF_8)));
+  }
+
+  /** The parser that was used before {@link GitLogParser}. */
+  private ImmutableList<GitLogEntry> parseAsString(String log) throws Exception {
+    ImmutableList.Builder<GitLogEntry> commits = ImmutableList.builder();
+    for (String msg : Splitter.on("\n" + SEPARATOR).split(log.substring(SEPARATOR.length()))) {
+      List<String> groups = Splitter.on("\n--\n").splitToList(msg);
+      Map<String, String> fields = Splitter.on("\n")
+          .withKeyValueSeparator(Splitter.on("=").limit(2))
+          .split(groups.get(0));
+      String body = UNINDENT.matcher(groups.get(1)).replaceAll("\n");
+      body = body.substring("begin_body".length() + 1, body.length() - "end_body".length() - 1);
+      body = body.replace("\r\n", "\n");
+      ImmutableSet<String> files =
+          ImmutableSet.copyOf(Splitter.on("\n").omitEmptyStrings().split(groups.get(2)));
+      ImmutableList.Builder<GitRevision> parents = ImmutableList.builder();
+      for (String parent : Splitter.on(" ").omitEmptyStrings().split(fields.get("parents"))) {
+        parents.add(repo.createReferenceFromCompleteSha1(parent));
+      }
+      commits.add(new GitLogEntry(
+          repo.createReferenceFromCompleteSha1(fields.get("commit")), parents.build(),
+          fields.get("tree"),
+          AuthorParser.parse(fields.get("author")),
+          AuthorParser.parse(fields.get("committer")),
+          ZonedDateTime.parse(fields.get("author_date")),
+          ZonedDateTime.parse(fields.get("committer_date")),
+          body, files));
+    }
+    return commits.build();
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.jimfs.Jimfs;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.git.GitRepository.GitLogEntry;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class GitLogParserTest {
+
+  private static final String SEPARATOR = "\u0001copybara\u0001";
+
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
+
+  private GitRepository repo;
+
+  @Before
+  public void setup() {
+    repo = GitRepository.newBareRepo(Jimfs.newFileSystem().getPath("/repo"), ImmutableMap.of(),
+        /*verbose=*/false);
+  }
+
+  @Test
+  public void testParse() throws Exception {
+    String log = ""
+        + entry(2, "    first line\r\n    \r\n        indented\r\n    --\r\n    end_body\n\n")
+        + "\n"
+        + "foo.txt\n"
+        + "dir/bar.txt\n"
+        + "\n"
+        + entry(1, "    initial\n\n")
+        + "\n"
+        + "foo.txt\n";
+
+    List<GitLogEntry> entries = parse(log, /*includeFiles=*/true);
+
+    assertThat(entries).hasSize(2);
+    GitLogEntry first = entries.get(0);
+    assertThat(first.getCommit().getSha1()).isEqualTo(sha1(2));
+    assertThat(first.getParents()).containsExactly(repo.createReferenceFromCompleteSha1(sha1(1)));
+    assertThat(first.getTree()).isEqualTo(sha1(20));
+    assertThat(first.getAuthor().toString()).isEqualTo("Foo Bar <foo@example.com>");
+    assertThat(first.getCommitter().toString()).isEqualTo("Commit Bara <commit@example.com>");
+    assertThat(first.getAuthorDate().toString()).isEqualTo("2018-06-01T10:00+02:00");
+    assertThat(first.getBody()).isEqualTo("first line\n\n    indented\n--\nend_body\n");
+    assertThat(first.getFiles()).containsExactly("foo.txt", "dir/bar.txt").inOrder();
+
+    GitLogEntry second = entries.get(1);
+    assertThat(second.getParents()).isEmpty();
+    assertThat(second.getBody()).isEqualTo("initial\n");
+    assertThat(second.getFiles()).containsExactly("foo.txt");
+    // Repeated values are decoded once.
+    assertThat(second.getAuthor()).isSameAs(first.getAuthor());
+    assertThat(second.getFiles().iterator().next())
+        .isSameAs(first.getFiles().iterator().next());
+    assertThat(second.getCommit()).isSameAs(first.getParents().get(0));
+  }
+
+  @Test
+  public void testLongLines() throws Exception {
+    String longLine = Strings.repeat("a", 200_000);
+    List<GitLogEntry> entries = parse(entry(1, "    " + longLine + "\n\n") + "\n", false);
+
+    assertThat(entries.get(0).getBody()).isEqualTo(longLine + "\n");
+    assertThat(entries.get(0).getFiles()).isNull();
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    assertThat(parse("", /*includeFiles=*/true)).isEmpty();
+  }
+
+  @Test
+  public void testStop() throws Exception {
+    String log = entry(3, "    three\n\n") + "\n" + entry(2, "    two\n\n") + "\n"
+        + entry(1, "    one\n\n") + "\n";
+    List<GitLogEntry> entries = new ArrayList<>();
+
+    boolean finished = new GitLogParser(repo, /*includeBody=*/true, /*includeFiles=*/false)
+        .parse(new ByteArrayInputStream(log.getBytes(UTF_8)), e -> {
+          entries.add(e);
+          return entries.size() < 2;
+        });
+
+    assertThat(finished).isFalse();
+    assertThat(entries).hasSize(2);
+  }
+
+  @Test
+  public void testTruncatedOutput() throws Exception {
+    String log = entry(1, "    one\n\n");
+    thrown.expect(RepoException.class);
+    thrown.expectMessage("Unexpected end of 'git log' output");
+    parse(log.substring(0, log.indexOf("begin_body")), /*includeFiles=*/false);
+  }
+
+  private List<GitLogEntry> parse(String log, boolean includeFiles)
+      throws IOException, RepoException {
+    List<GitLogEntry> entries = new ArrayList<>();
+    // Return a few bytes on each read so that lines are split between reads.
+    InputStream in = new FilterInputStream(new ByteArrayInputStream(log.getBytes(UTF_8))) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return super.read(b, off, Math.min(len, 7));
+      }
+    };
+    assertThat(new GitLogParser(repo, /*includeBody=*/true, includeFiles)
+        .parse(in, entries::add)).isTrue();
+    return entries;
+  }
+
+  private static String entry(int commit, String indentedBody) {
+    return SEPARATOR
+        + "commit=" + sha1(commit) + "\n"
+        + "parents=" + (commit > 1 ? sha1(commit - 1) : "") + "\n"
+        + "tree=" + sha1(commit * 10) + "\n"
+        + "author=Foo Bar <foo@example.com>\n"
+        + "author_date=2018-06-01T10:00:00+02:00\n"
+        + "committer=Commit Bara <commit@example.com>\n"
+        + "committer_date=2018-06-01T10:00:00+02:00\n"
+        + "--\n"
+        + "begin_body\n"
+        + indentedBody
+        + "end_body\n"
+        + "--\n";
+  }
+
+  private static String sha1(int i) {
+    return Strings.padStart(Integer.toHexString(i), 40, '0');
+  }
+}
@@ -451,6 +451,44 @@ public class GitOriginTest {
     assertThat(new String(Files.readAllBytes(testFile))).isEqualTo("some content");
   }
 
+  @Test
+  public void testCheckoutIncremental() throws Exception {
+    Path stateDir = Files.createTempDirectory("state");
+    Reader<GitRevision> reader = newReader();
+    singleFileCommit("John Name <john@name.com>", "second", "dir/other.txt", "other content");
+    assertThat(reader.checkoutIncremental(origin.resolve("master"), checkoutDir, stateDir))
+        .isTrue();
+    assertThatPath(checkoutDir)
+        .containsFile("test.txt", "some content")
+        .containsFile("dir/other.txt", "other content")
+        .containsNoMoreFiles();
+
+    // Simulate what transformations would do to the checkout
+    Files.write(checkoutDir.resolve("test.txt"), "modified".getBytes(UTF_8));
+    Files.delete(checkoutDir.resolve("dir/other.txt"));
+    Files.write(checkoutDir.resolve("untracked.txt"), "untracked".getBytes(UTF_8));
+
+    git("rm", "test.txt");
+    singleFileCommit("John Name <john@name.com>", "third", "new.txt", "new content");
+
+    assertThat(reader.checkoutIncremental(origin.resolve("master"), checkoutDir, stateDir))
+        .isTrue();
+    assertThatPath(checkoutDir)
+        .containsFile("new.txt", "new content")
+        .containsFile("dir/other.txt", "other content")
+        .containsNoMoreFiles();
+  }
+
+  @Test
+  public void testCheckoutIncrementalNotSupportedWithRebase() throws Exception {
+    options.gitOrigin.originRebaseRef = "master";
+    origin = origin();
+    Path stateDir = Files.createTempDirectory("state");
+    assertThat(newReader().checkoutIncremental(origin.resolve("master"), checkoutDir, stateDir))
+        .isFalse();
+    assertThatPath(checkoutDir).containsNoMoreFiles();
+  }
+
   @Test
   public void testCheckoutOfARef() throws Exception {
     GitRevision reference = origin.resolve(firstCommitRef);
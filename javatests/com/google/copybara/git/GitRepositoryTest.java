@@ -26,6 +26,7 @@ import static com.google.copybara.testing.git.GitTestUtil.getGitEnv;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.fail;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
@@ -35,12 +36,15 @@ import com.google.copybara.authoring.Author;
 import com.google.copybara.exception.CannotResolveRevisionException;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
+import com.google.copybara.git.CatFileProcess.GitObject;
 import com.google.copybara.git.GitRepository.GitLogEntry;
 import com.google.copybara.git.GitRepository.GitObjectType;
 import com.google.copybara.git.GitRepository.StatusFile;
 import com.google.copybara.git.GitRepository.TreeElement;
 import com.google.copybara.util.CommandOutput;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -381,6 +385,75 @@ public class GitRepositoryTest {
     assertThat(paged.toString()).isEqualTo(singlePage.toString());
   }
 
+  @Test
+  public void testLogVisit() throws Exception {
+    createGraphOfCommits();
+    ImmutableList<GitLogEntry> all = repository.log("master")
+        .includeFiles(true)
+        .includeMergeDiff(true)
+        .firstParent(false)
+        .run();
+    List<GitLogEntry> visited = new ArrayList<>();
+    repository.log("master")
+        .includeFiles(true)
+        .includeMergeDiff(true)
+        .firstParent(false)
+        .visit(visited::add);
+    assertThat(visited.toString()).isEqualTo(all.toString());
+
+    all = repository.log("master").firstParent(false).run();
+    visited.clear();
+    repository.log("master")
+        .firstParent(false)
+        .visit(e -> {
+          visited.add(e);
+          return visited.size() < 5;
+        });
+    assertThat(visited.toString()).isEqualTo(all.subList(0, 5).toString());
+  }
+
+  @Test
+  public void testLogVerbose() throws Exception {
+    singleFileCommit("first", "foo.txt", "foo");
+    PrintStream oldErr = System.err;
+    ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+    System.setErr(new PrintStream(errContent, /*autoFlush=*/true));
+    try {
+      assertThat(repository.log("master").run()).hasSize(1);
+    } finally {
+      System.setErr(oldErr);
+    }
+    String stderr = new String(errContent.toByteArray(), UTF_8);
+    assertThat(stderr).contains("Executing [");
+    assertThat(stderr).contains("first");
+    assertThat(stderr).contains("Exit code 0");
+  }
+
+  @Test
+  public void testCatFileVerbose() throws Exception {
+    singleFileCommit("first", "foo.txt", "foo");
+    PrintStream oldErr = System.err;
+    ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+    System.setErr(new PrintStream(errContent, /*autoFlush=*/true));
+    String sha1;
+    try {
+      sha1 = repository.parseRef("master");
+    } finally {
+      System.setErr(oldErr);
+    }
+    String stderr = new String(errContent.toByteArray(), UTF_8);
+    assertThat(stderr).contains("git cat-file --batch-check 'master^{commit}' finished in");
+    assertThat(stderr).contains(sha1 + " COMMIT");
+  }
+
+  @Test
+  public void testLogVisitWrongReference() throws Exception {
+    singleFileCommit("first", "foo.txt", "foo");
+    thrown.expect(RepoException.class);
+    thrown.expectMessage("Cannot find reference 'not_a_reference'");
+    repository.log("not_a_reference").visit(e -> true);
+  }
+
   private void createGraphOfCommits() throws Exception {
     for (int i = 0; i < 10; i++) {
       singleFileCommit("master_" + i, "foo.txt", "foo_" + i);
@@ -588,6 +661,70 @@ public class GitRepositoryTest {
     assertThat(result.get(0).getType()).isEqualTo(GitObjectType.BLOB);
   }
 
+  @Test
+  public void testUpdateIndex() throws Exception {
+    Files.write(Files.createDirectories(workdir.resolve("foo")).resolve("foo.txt"),
+        "foo".getBytes(UTF_8));
+    Files.write(workdir.resolve("bar.txt"), "bar".getBytes(UTF_8));
+    repository.add().files("foo/foo.txt", "bar.txt").run();
+    ImmutableMap<String, String> entries = repository.readIndexEntries();
+    assertThat(entries.keySet()).containsExactly("foo/foo.txt", "bar.txt");
+
+    Files.write(workdir.resolve("bar.txt"), "modified".getBytes(UTF_8));
+    ImmutableList<String> hashes = repository.hashObjects(ImmutableList.of("bar.txt"));
+    assertThat(hashes).containsExactly(
+        repository.simpleCommand("hash-object", "bar.txt").getStdout().trim());
+    repository.updateIndex(("0 " + Strings.repeat("0", 40) + "\tfoo/foo.txt\0"
+        + "100755 " + hashes.get(0) + "\tbar.txt\0"
+        + entries.get("foo/foo.txt") + "\tfoo\0").getBytes(UTF_8));
+
+    assertThat(repository.readIndexEntries()).containsExactly(
+        "bar.txt", "100755 " + hashes.get(0),
+        "foo", entries.get("foo/foo.txt"));
+  }
+
+  @Test
+  public void testGetObjectAndReadBlob() throws Exception {
+    Files.write(Files.createDirectories(workdir.resolve("foo")).resolve("foo.txt"),
+        "foo".getBytes(UTF_8));
+    repository.add().files("foo/foo.txt").run();
+    repository.simpleCommand("commit", "-m", "first");
+    String head = repository.simpleCommand("rev-parse", "HEAD").getStdout().trim();
+
+    assertThat(repository.parseRef("HEAD")).isEqualTo(head);
+    assertThat(repository.getObject(head).getType()).isEqualTo(GitObjectType.COMMIT);
+    assertThat(repository.getObject("HEAD:foo").getType()).isEqualTo(GitObjectType.TREE);
+    GitObject blob = repository.getObject("HEAD:foo/foo.txt");
+    assertThat(blob.getType()).isEqualTo(GitObjectType.BLOB);
+    assertThat(blob.getSize()).isEqualTo(3);
+    assertThat(blob.getContent()).isNull();
+    assertThat(repository.readBlob("HEAD:foo/foo.txt")).isEqualTo("foo".getBytes(UTF_8));
+    assertThat(repository.getObject("HEAD:bar.txt")).isNull();
+    assertThat(repository.getObject("foo\nHEAD")).isNull();
+    assertThat(repository.refExists("refs/heads/bar")).isFalse();
+
+    // Changes made by other git processes are visible.
+    repository.simpleCommand("branch", "bar");
+    assertThat(repository.refExists("refs/heads/bar")).isTrue();
+
+    // Processes are started again after being closed.
+    CatFileProcess.closeAll();
+    assertThat(repository.parseRef("refs/heads/bar")).isEqualTo(head);
+    assertThat(repository.readBlob(head + ":foo/foo.txt")).isEqualTo("foo".getBytes(UTF_8));
+  }
+
+  @Test
+  public void testReadBlobFailsForTrees() throws Exception {
+    Files.write(Files.createDirectories(workdir.resolve("foo")).resolve("foo.txt"),
+        "foo".getBytes(UTF_8));
+    repository.add().files("foo/foo.txt").run();
+    repository.simpleCommand("commit", "-m", "first");
+
+    thrown.expect(RepoException.class);
+    thrown.expectMessage("'HEAD:foo' is a tree, not a blob");
+    repository.readBlob("HEAD:foo");
+  }
+
   @Test
   public void commitWithLargeDescription() throws IOException, RepoException, ValidationException {
     String line = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789\n";
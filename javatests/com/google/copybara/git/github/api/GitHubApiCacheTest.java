@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github.api;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.copybara.git.CredentialCache;
+import com.google.copybara.git.GitRepository;
+import com.google.copybara.git.github.api.GitHubApiResponseCache.CachedResponse;
+import com.google.copybara.profiler.Profiler;
+import com.google.copybara.util.console.testing.TestingConsole;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Runs the {@link GitHubApiTest} tests with a {@link GitHubApiResponseCache}, and checks that
+ * cached responses are used when GitHub answers 304 (Not Modified).
+ */
+@RunWith(JUnit4.class)
+public class GitHubApiCacheTest extends GitHubApiTest {
+
+  private Path cacheDir;
+
+  @Override
+  protected GitHubApiTransport newTransport(GitRepository repo, HttpTransport httpTransport)
+      throws Exception {
+    cacheDir = Files.createTempDirectory("github_api_cache");
+    return new GitHubApiTransportImpl(new CredentialCache(repo), httpTransport,
+        "some_storage_file", new TestingConsole(), new GitHubApiResponseCache(cacheDir),
+        new GitHubApiRateLimiter(new Profiler(Ticker.systemTicker()),
+            GitHubApiTransportImpl.DEFAULT_REQUESTS_PER_SECOND,
+            GitHubApiTransportImpl.DEFAULT_MAX_RETRIES,
+            GitHubApiTransportImpl.DEFAULT_MAX_RATE_LIMIT_WAIT));
+  }
+
+  @Test
+  public void testNotModified() throws Exception {
+    trainMockGetWithHeaders("/repos/example/project/issues/12345",
+        "{\"number\": 12345, \"title\": \"Some issue\"}".getBytes(UTF_8),
+        ImmutableMap.of("ETag", "\"12345\""));
+
+    assertThat(api.getIssue("example/project", 12345).getTitle()).isEqualTo("Some issue");
+    assertThat(notModifiedRequests).isEmpty();
+    assertThat(api.getIssue("example/project", 12345).getTitle()).isEqualTo("Some issue");
+    assertThat(notModifiedRequests)
+        .containsExactly("GET https://api.github.com/repos/example/project/issues/12345");
+  }
+
+  @Test
+  public void testNotModifiedPaginated() throws Exception {
+    byte[] reviews = "[{\"id\": 80, \"body\": \"Looks good\"}]".getBytes(UTF_8);
+    trainMockGetWithHeaders("/repos/octocat/Hello-World/pulls/12/reviews?per_page=100", reviews,
+        ImmutableMap.of(
+            "ETag", "\"page1\"",
+            "Link", "<https://api.github.com/repositories/123/pulls?per_page=100&page=2>;"
+                + " rel=\"next\""));
+    trainMockGetWithHeaders("/repositories/123/pulls?per_page=100&page=2", reviews,
+        ImmutableMap.of("ETag", "\"page2\""));
+
+    assertThat(api.getReviews("octocat/Hello-World", 12)).hasSize(2);
+    List<Review> cached = api.getReviews("octocat/Hello-World", 12);
+
+    assertThat(cached).hasSize(2);
+    assertThat(cached.get(1).getBody()).isEqualTo("Looks good");
+    assertThat(notModifiedRequests).hasSize(2);
+  }
+
+  @Test
+  public void testWithoutValidatorsNothingIsCached() throws Exception {
+    trainMockGetWithHeaders("/repos/example/project/issues/12345",
+        "{\"number\": 12345, \"title\": \"Some issue\"}".getBytes(UTF_8), ImmutableMap.of());
+
+    api.getIssue("example/project", 12345);
+    api.getIssue("example/project", 12345);
+
+    assertThat(notModifiedRequests).isEmpty();
+    try (Stream<Path> files = Files.list(cacheDir)) {
+      assertThat(files.count()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void testOnlyReadableByOwner() throws Exception {
+    Path dir = Files.createTempDirectory("github_api_cache").resolve("responses");
+    GitHubApiResponseCache cache = new GitHubApiResponseCache(dir);
+    cache.put("https://api.github.com/foo", "user", new CachedResponse("\"1\"", null, null,
+        "private".getBytes(UTF_8)));
+
+    assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(dir)))
+        .isEqualTo("rwx------");
+    try (Stream<Path> files = Files.list(dir)) {
+      Path entry = Iterables.getOnlyElement(files.collect(Collectors.toList()));
+      assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(entry)))
+          .isEqualTo("rw-------");
+    }
+  }
+
+  @Test
+  public void testEvictLeastRecentlyUsed() throws Exception {
+    Path dir = Files.createTempDirectory("github_api_cache");
+    GitHubApiResponseCache cache = new GitHubApiResponseCache(dir, /*maxEntries=*/ 2);
+    for (String url : ImmutableList.of("first", "second", "third")) {
+      cache.put(url, "user", new CachedResponse("\"" + url + "\"", null, null,
+          url.getBytes(UTF_8)));
+    }
+    long now = System.currentTimeMillis();
+    try (Stream<Path> files = Files.list(dir)) {
+      for (Path file : files.collect(Collectors.toList())) {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(now - 60_000));
+      }
+    }
+    // Reading an entry makes it recently used
+    assertThat(cache.get("first", "user")).isNotNull();
+    cache.put("third", "user", new CachedResponse("\"third\"", null, null,
+        "third".getBytes(UTF_8)));
+
+    cache.evictLeastRecentlyUsed();
+
+    assertThat(cache.get("first", "user")).isNotNull();
+    assertThat(cache.get("second", "user")).isNull();
+    assertThat(cache.get("third", "user")).isNotNull();
+  }
+}
@@ -16,11 +16,13 @@
 
 package com.google.copybara.git.github.api;
 
+import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
 import static com.google.copybara.git.GitRepository.newBareRepo;
 import static com.google.copybara.testing.git.GitTestUtil.getGitEnv;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.LowLevelHttpRequest;
 import com.google.api.client.http.LowLevelHttpResponse;
 import com.google.api.client.testing.http.MockHttpTransport;
@@ -33,23 +35,33 @@ import com.google.copybara.util.console.testing.TestingConsole;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.function.Predicate;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 @RunWith(JUnit4.class)
 public class GitHubApiTest extends AbstractGitHubApiTest {
 
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
+
   private MockHttpTransport httpTransport;
 
   private Map<String, MockLowLevelHttpResponse> requestToResponse;
   private Map<String, Predicate<String>> requestValidators;
+  private Map<String, String> etags;
   private Path credentialsFile;
+  /** Requests answered with 304 (Not Modified). */
+  protected List<String> notModifiedRequests;
 
   @Before
   public void setUp() throws Exception {
@@ -68,6 +80,8 @@ public class GitHubApiTest extends AbstractGitHubApiTest {
 
     requestToResponse = new HashMap<>();
     requestValidators = new HashMap<>();
+    etags = new HashMap<>();
+    notModifiedRequests = new ArrayList<>();
     httpTransport =
         new MockHttpTransport() {
           @Override
@@ -83,6 +97,11 @@ public class GitHubApiTest extends AbstractGitHubApiTest {
                           .that(validator.test(getContentAsString()))
                           .isTrue();
                     }
+                    String etag = etags.get(requestString);
+                    if (etag != null && etag.equals(getFirstHeaderValue("If-None-Match"))) {
+                      notModifiedRequests.add(requestString);
+                      return new MockLowLevelHttpResponse().setStatusCode(304);
+                    }
                     return super.execute();
                   }
                 };
@@ -100,6 +119,11 @@ public class GitHubApiTest extends AbstractGitHubApiTest {
             return request;
           }
         };
+    return newTransport(repo, httpTransport);
+  }
+
+  protected GitHubApiTransport newTransport(GitRepository repo, HttpTransport httpTransport)
+      throws Exception {
     return new GitHubApiTransportImpl(repo, httpTransport, "some_storage_file",
         new TestingConsole());
   }
@@ -111,6 +135,9 @@ public class GitHubApiTest extends AbstractGitHubApiTest {
     MockLowLevelHttpResponse httpResponse = new MockLowLevelHttpResponse().setContent(response);
     for (Entry<String, String> entry : headers.entrySet()) {
       httpResponse.addHeader(entry.getKey(), entry.getValue());
+      if (entry.getKey().equals("ETag")) {
+        etags.put(path, entry.getValue());
+      }
     }
     requestToResponse.put(path, httpResponse);
     requestValidators.put(path, (r) -> true);
@@ -122,6 +149,58 @@ public class GitHubApiTest extends AbstractGitHubApiTest {
     testGetPull();
   }
 
+  @Test
+  public void testConcurrentPagesKeepOrder() throws Exception {
+    for (int page = 1; page <= 4; page++) {
+      String link = "<https://api.github.com/repositories/123/reviews?page=4&per_page=100>;"
+          + " rel=\"last\"";
+      if (page < 4) {
+        link = "<https://api.github.com/repositories/123/reviews?page=" + (page + 1)
+            + "&per_page=100>; rel=\"next\", " + link;
+      }
+      trainMockGetWithHeaders(page == 1
+              ? "/repos/octocat/Hello-World/pulls/12/reviews?per_page=100"
+              : "/repositories/123/reviews?page=" + page + "&per_page=100",
+          String.format("[{\"id\": %d}, {\"id\": %d}]", page * 10, page * 10 + 1)
+              .getBytes(UTF_8),
+          ImmutableMap.of("Link", link));
+    }
+
+    List<Long> ids = new ArrayList<>();
+    for (Review review : api.getReviews("octocat/Hello-World", 12)) {
+      ids.add(review.getId());
+    }
+    assertThat(ids).containsExactly(10L, 11L, 20L, 21L, 30L, 31L, 40L, 41L).inOrder();
+  }
+
+  @Test
+  public void testPagesWithoutLastLink() throws Exception {
+    trainMockGetWithHeaders("/repos/octocat/Hello-World/pulls/12/reviews?per_page=100",
+        "[{\"id\": 10}]".getBytes(UTF_8),
+        ImmutableMap.of("Link",
+            "<https://api.github.com/repositories/123/reviews?page=2&per_page=100>; rel=\"next\""));
+    trainMockGetWithHeaders("/repositories/123/reviews?page=2&per_page=100",
+        "[{\"id\": 20}]".getBytes(UTF_8), ImmutableMap.of());
+
+    assertThat(api.getReviews("octocat/Hello-World", 12)).hasSize(2);
+  }
+
+  @Test
+  public void testConcurrentPageError() throws Exception {
+    trainMockGetWithHeaders("/repos/octocat/Hello-World/pulls/12/reviews?per_page=100",
+        "[{\"id\": 10}]".getBytes(UTF_8),
+        ImmutableMap.of("Link", ""
+            + "<https://api.github.com/repositories/123/reviews?page=2&per_page=100>;"
+            + " rel=\"next\", "
+            + "<https://api.github.com/repositories/123/reviews?page=3&per_page=100>;"
+            + " rel=\"last\""));
+    trainMockGetWithHeaders("/repositories/123/reviews?page=2&per_page=100",
+        "[{\"id\": 20}]".getBytes(UTF_8), ImmutableMap.of());
+
+    thrown.expect(GitHubApiException.class);
+    api.getReviews("octocat/Hello-World", 12);
+  }
+
   @Override
   public void trainMockPost(String apiPath, Predicate<String> requestValidator, byte[] response) {
     String path = String.format("POST https://api.github.com%s", apiPath);
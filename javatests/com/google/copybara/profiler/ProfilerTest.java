@@ -96,6 +96,23 @@ public class ProfilerTest {
     assertThat(recordingCallback.events).isEmpty();
   }
 
+  @Test
+  public void testInitAfterStop() {
+    profiler.simpleTask("task1", ticker.read(), ticker.read());
+    profiler.stop();
+    recordingCallback.events.clear();
+
+    profiler.init(ImmutableList.of(recordingCallback));
+    profiler.simpleTask("task2", ticker.read(), ticker.read());
+    profiler.stop();
+
+    assertThat(recordingCallback.events).isEqualTo(ImmutableList.of(
+        new TaskWithType(EventType.START, new Task("//copybara", 4, -1)),
+        new TaskWithType(EventType.START, new Task("//copybara/task2", 5, -1)),
+        new TaskWithType(EventType.END, new Task("//copybara/task2", 5, 6)),
+        new TaskWithType(EventType.END, new Task("//copybara", 4, 7))));
+  }
+
   @Test
   public void testThreadCreatedInRootListener() {
     profiler = new Profiler(ticker);
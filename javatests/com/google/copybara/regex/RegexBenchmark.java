@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.regex;
+
+import com.google.copybara.LocalParallelizer;
+import com.google.re2j.Pattern;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks searching a regex in lots of lines from the {@link LocalParallelizer} threads, like
+ * {@code core.replace} and {@code core.verify_match} do for the files of a checkout.
+ *
+ * <p>Compares matching a single shared RE2J {@link Pattern}, that synchronizes on every match,
+ * with a {@link Regex} for each {@link RegexEngine}. The score is the number of lines searched
+ * per second. Divide it by {@code threads} for the matches per second per core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RegexBenchmark {
+
+  private static final int LINES = 100_000;
+  private static final String REGEX = "com\\.example\\.([A-Z]\\w*)";
+
+  @Param({"1", "4", "8"})
+  public int threads;
+
+  private LocalParallelizer parallelizer;
+  private Pattern sharedPattern;
+  private Regex re2jRegex;
+  private Regex jdkRegex;
+  private List<String> lines;
+
+  @Setup
+  public void setup() {
+    parallelizer = new LocalParallelizer(threads, /*minSize=*/1);
+    sharedPattern = Pattern.compile(REGEX);
+    re2jRegex = Regex.compile(REGEX, /*flags=*/0, RegexEngine.RE2J);
+    jdkRegex = Regex.compile(REGEX, /*flags=*/0, RegexEngine.JDK);
+    if (!jdkRegex.usesJdk()) {
+      throw new IllegalStateException(REGEX + " should be safe for " + RegexEngine.JDK);
+    }
+    lines = new ArrayList<>(LINES);
+    for (int i = 0; i < LINES; i++) {
+      lines.add(i % 20 == 0
+          ? "    com.example.Bar.call(" + i + ");"
+          : "    int value" + i + " = compute(" + i + ");");
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LINES)
+  public int sharedPattern() throws Exception {
+    return count(line -> sharedPattern.matcher(line).find());
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LINES)
+  public int re2j() throws Exception {
+    return count(line -> re2jRegex.matcher(line).find());
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LINES)
+  public int jdk() throws Exception {
+    return count(line -> jdkRegex.matcher(line).find());
+  }
+
+  private int count(LineMatcher matcher) throws Exception {
+    int matches = 0;
+    for (int batchMatches : parallelizer.run(lines, batch -> {
+      int found = 0;
+      for (String line : batch) {
+        if (matcher.find(line)) {
+          found++;
+        }
+      }
+      return found;
+    })) {
+      matches += batchMatches;
+    }
+    return matches;
+  }
+
+  private interface LineMatcher {
+    boolean find(String line);
+  }
+}
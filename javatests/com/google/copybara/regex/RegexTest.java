@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.regex;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Strings;
+import com.google.re2j.Pattern;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RegexTest {
+
+  @Test
+  public void testSafeForJdk() {
+    assertThat(Regex.isSafeForJdk("foo", false)).isTrue();
+    assertThat(Regex.isSafeForJdk("import com\\.google\\.(\\w+);", false)).isTrue();
+    assertThat(Regex.isSafeForJdk("[a-z0-9_]+\\.[A-Z]\\w{3}", false)).isTrue();
+    assertThat(Regex.isSafeForJdk("[A-Z]\\w{2,5}", false)).isTrue();
+    assertThat(Regex.isSafeForJdk("colou?r", false)).isTrue();
+    assertThat(Regex.isSafeForJdk("a.*?b", false)).isTrue();
+    assertThat(Regex.isSafeForJdk("a{b*}", false)).isTrue();
+    assertThat(Regex.isSafeForJdk("(?:TODO|NOTE)\\(([a-z,]*)\\)", false)).isTrue();
+    assertThat(Regex.isSafeForJdk("^foo", false)).isTrue();
+    assertThat(Regex.isSafeForJdk("foo$", true)).isTrue();
+  }
+
+  @Test
+  public void testNotSafeForJdk() {
+    // Different semantics
+    assertThat(Regex.isSafeForJdk("\\bfoo", false)).isFalse();
+    assertThat(Regex.isSafeForJdk("\\s", false)).isFalse();
+    assertThat(Regex.isSafeForJdk("\\pL", false)).isFalse();
+    assertThat(Regex.isSafeForJdk("(?i)foo", false)).isFalse();
+    assertThat(Regex.isSafeForJdk("(?P<name>foo)", false)).isFalse();
+    assertThat(Regex.isSafeForJdk("[a[b]]", false)).isFalse();
+    assertThat(Regex.isSafeForJdk("[]a]", false)).isFalse();
+    assertThat(Regex.isSafeForJdk("[^]a]", false)).isFalse();
+    assertThat(Regex.isSafeForJdk("[a-z&&[^c]]", false)).isFalse();
+    assertThat(Regex.isSafeForJdk("foo$", false)).isFalse();
+    assertThat(Regex.isSafeForJdk("^foo", true)).isFalse();
+    // Can backtrack a lot
+    assertThat(Regex.isSafeForJdk("(a|aa)+b", false)).isFalse();
+    assertThat(Regex.isSafeForJdk("a*a*b", false)).isFalse();
+    assertThat(Regex.isSafeForJdk("a+\\w{2,}", false)).isFalse();
+    assertThat(Regex.isSafeForJdk("a?a?a?aaa", false)).isFalse();
+    assertThat(Regex.isSafeForJdk("a.{0,1000}b.{0,1000}c", false)).isFalse();
+    assertThat(Regex.isSafeForJdk("[a-z0-9_]+\\.[A-Z]\\w{2,5}", false)).isFalse();
+    assertThat(Regex.isSafeForJdk("a*?a*?b", false)).isFalse();
+    assertThat(Regex.isSafeForJdk("a{b*}c+", false)).isFalse();
+  }
+
+  @Test
+  public void testEngine() {
+    assertThat(Regex.compile("foo", 0, RegexEngine.RE2J).usesJdk()).isFalse();
+    assertThat(Regex.compile("foo", 0, RegexEngine.JDK).usesJdk()).isTrue();
+    assertThat(Regex.compile("foo", Pattern.MULTILINE, RegexEngine.JDK).usesJdk()).isTrue();
+    // Falls back to RE2J
+    assertThat(Regex.compile("\\bfoo", 0, RegexEngine.JDK).usesJdk()).isFalse();
+    assertThat(Regex.compile("foo", Pattern.CASE_INSENSITIVE, RegexEngine.JDK).usesJdk())
+        .isFalse();
+  }
+
+  @Test
+  public void testSameResultsInBothEngines() {
+    checkSameResults("com\\.example\\.([A-Z]\\w*)", 0, "import com.example.Foo;\n"
+        + "com.example.Bar.call();\ncom.example.baz\n", "com.other.$1");
+    checkSameResults("^(foo|bar)", 0, "foo\nbar\n", "<$1>");
+    checkSameResults("(foo|bar)$", Pattern.MULTILINE, "foo\nbar\r\nbar\n", "<$1>");
+    checkSameResults("a.b", 0, "a\rb a\nb", "x");
+  }
+
+  @Test
+  public void testMatcher() {
+    for (RegexEngine engine : RegexEngine.values()) {
+      Regex regex = Regex.compile("(foo)(bar)?", 0, engine);
+      RegexMatcher matcher = regex.matcher("xfoo foobar");
+      assertThat(matcher.groupCount()).isEqualTo(2);
+      assertThat(matcher.find()).isTrue();
+      assertThat(matcher.start()).isEqualTo(1);
+      assertThat(matcher.end()).isEqualTo(4);
+      assertThat(matcher.group(2)).isNull();
+      assertThat(matcher.find()).isTrue();
+      assertThat(matcher.group(2)).isEqualTo("bar");
+      assertThat(matcher.find()).isFalse();
+      assertThat(matcher.find(2)).isTrue();
+      assertThat(matcher.start()).isEqualTo(5);
+      assertThat(regex.matches("foobar")).isTrue();
+      assertThat(regex.matches("foobarx")).isFalse();
+    }
+  }
+
+  @Test
+  public void testConcurrentMatching() throws Exception {
+    Regex regex = Regex.compile("f(o+)", 0, RegexEngine.RE2J);
+    Thread[] threads = new Thread[4];
+    boolean[] failed = new boolean[threads.length];
+    for (int t = 0; t < threads.length; t++) {
+      int thread = t;
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 1000; i++) {
+          String input = "x f" + Strings.repeat("o", thread + 1);
+          RegexMatcher matcher = regex.matcher(input);
+          if (!matcher.find() || matcher.group(1).length() != thread + 1) {
+            failed[thread] = true;
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(failed).asList().doesNotContain(true);
+  }
+
+  private void checkSameResults(String regex, int flags, String input, String replacement) {
+    Regex re2j = Regex.compile(regex, flags, RegexEngine.RE2J);
+    Regex jdk = Regex.compile(regex, flags, RegexEngine.JDK);
+    assertThat(jdk.usesJdk()).isTrue();
+    assertThat(jdk.matcher(input).replaceAll(replacement))
+        .isEqualTo(re2j.matcher(input).replaceAll(replacement));
+  }
+}
@@ -38,6 +38,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
@@ -244,6 +245,28 @@ public class CopyOrMoveTest {
     copier.reverse();
   }
 
+  @Test
+  public void testCopyOverwriteSameContentDifferentPermissions() throws Exception {
+    checkoutDir = Files.createTempDirectory("checkoutDir");
+    CopyOrMove copier = skylark.eval("m", "m = "
+        + "core.copy("
+        + "    before = 'foo',"
+        + "    after = 'bar',"
+        + "    overwrite = True,"
+        + ")");
+    Path foo = Files.write(checkoutDir.resolve("foo"), "foo".getBytes(UTF_8));
+    Path bar = Files.write(checkoutDir.resolve("bar"), "foo".getBytes(UTF_8));
+    Files.setPosixFilePermissions(foo, PosixFilePermissions.fromString("rwxr-xr-x"));
+    Files.setPosixFilePermissions(bar, PosixFilePermissions.fromString("rw-r--r--"));
+    transform(copier);
+
+    assertThatPath(checkoutDir)
+        .containsFile("foo", "foo")
+        .containsFile("bar", "foo")
+        .containsNoMoreFiles();
+    assertThat(Files.isExecutable(bar)).isTrue();
+  }
+
   @Test
   public void testMoveNoOverwrite() throws Exception {
     CopyOrMove mover = skylark.eval("m", "m = core.move('foo', 'bar')");
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import java.util.BitSet;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MultiLiteralMatcherTest {
+
+  @Test
+  public void testFindsOverlappingLiterals() {
+    MultiLiteralMatcher matcher =
+        MultiLiteralMatcher.create(ImmutableList.of("he", "she", "his", "hers", "absent"));
+
+    BitSet found = matcher.find("ushers".getBytes(UTF_8));
+
+    assertThat(found.get(matcher.indexOf("he"))).isTrue();
+    assertThat(found.get(matcher.indexOf("she"))).isTrue();
+    assertThat(found.get(matcher.indexOf("hers"))).isTrue();
+    assertThat(found.get(matcher.indexOf("his"))).isFalse();
+    assertThat(found.get(matcher.indexOf("absent"))).isFalse();
+  }
+
+  @Test
+  public void testUtf8Literals() {
+    MultiLiteralMatcher matcher =
+        MultiLiteralMatcher.create(ImmutableList.of("\u00f1and\u00fa", "\u65e5\u672c"));
+
+    BitSet found = matcher.find("El \u00f1and\u00fa corre".getBytes(UTF_8));
+
+    assertThat(found.get(matcher.indexOf("\u00f1and\u00fa"))).isTrue();
+    assertThat(found.get(matcher.indexOf("\u65e5\u672c"))).isFalse();
+  }
+
+  @Test
+  public void testUnsearchableLiteralsAreNotIndexed() {
+    MultiLiteralMatcher matcher =
+        MultiLiteralMatcher.create(ImmutableList.of("", "bad\uFFFD", "\uD800", "foo", "foo"));
+
+    assertThat(matcher.indexOf("")).isNull();
+    assertThat(matcher.indexOf("bad\uFFFD")).isNull();
+    assertThat(matcher.indexOf("\uD800")).isNull();
+    assertThat(matcher.indexOf("foo")).isEqualTo(0);
+  }
+
+  @Test
+  public void testEmptyContent() {
+    MultiLiteralMatcher matcher = MultiLiteralMatcher.create(ImmutableList.of("foo"));
+
+    assertThat(matcher.find(new byte[0]).isEmpty()).isTrue();
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.copybara.regex.RegexEngine;
+import com.google.copybara.transform.RegexTemplateTokens.Replacer;
+import com.google.devtools.build.lib.events.Location;
+import com.google.re2j.Matcher;
+import com.google.re2j.Pattern;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks a {@code core.replace} of a template with an interpolated group over a synthetic
+ * checkout where only a few files contain the pattern, like in most migrations.
+ *
+ * <p>Compares {@link Replacer#replace(String)}, that searches the whole content once and only
+ * processes the lines with matches, with splitting the content in lines and matching every one of
+ * them, that is how the content was replaced before. Run with {@code -prof gc} to compare the
+ * allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RegexTemplateTokensBenchmark {
+
+  private static final int FILES = 1000;
+  private static final int LINES_PER_FILE = 200;
+  /** The after template of the replacer, as passed to {@link Matcher#appendReplacement}. */
+  private static final String AFTER_TEMPLATE = "com.example.internal.$1";
+
+  /** Percentage of the files that contain the pattern. */
+  @Param({"5"})
+  public int matchingPercent;
+
+  private Replacer replacer;
+  private Pattern before;
+  private List<String> files;
+
+  @Setup
+  public void setup() throws Exception {
+    ImmutableMap<String, Pattern> groups = ImmutableMap.of("name", Pattern.compile("[A-Z]\\w*"));
+    RegexTemplateTokens beforeTokens = new RegexTemplateTokens(Location.BUILTIN,
+        "com.example.${name}", groups, /*repeatedGroups=*/false, RegexEngine.RE2J);
+    RegexTemplateTokens afterTokens = new RegexTemplateTokens(Location.BUILTIN,
+        "com.example.internal.${name}", groups, /*repeatedGroups=*/false,
+        RegexEngine.RE2J);
+    replacer = beforeTokens.replacer(afterTokens, /*firstOnly=*/false, /*multiline=*/false,
+        /*patternsToIgnore=*/ImmutableList.of());
+    before = beforeTokens.getBefore();
+
+    files = new ArrayList<>(FILES);
+    for (int f = 0; f < FILES; f++) {
+      boolean matching = f % 100 < matchingPercent;
+      StringBuilder sb = new StringBuilder();
+      sb.append("package com.other.module").append(f).append(";\n\n");
+      if (matching) {
+        sb.append("import com.example.Foo;\n");
+      }
+      for (int l = 0; l < LINES_PER_FILE; l++) {
+        if (matching && l % 50 == 0) {
+          sb.append("    com.example.Bar.call(").append(l).append(");\n");
+        } else {
+          sb.append("    int value").append(l).append(" = compute(").append(l).append(");\n");
+        }
+      }
+      sb.append("}\n");
+      files.add(sb.toString());
+    }
+  }
+
+  @Benchmark
+  public void replacer(Blackhole bh) {
+    for (String file : files) {
+      bh.consume(replacer.replace(file));
+    }
+  }
+
+  @Benchmark
+  public void splitLines(Blackhole bh) {
+    for (String file : files) {
+      bh.consume(replaceSplittingLines(file));
+    }
+  }
+
+  /** How {@link Replacer#replace(String)} replaced non-multiline templates before. */
+  private String replaceSplittingLines(String content) {
+    List<String> originalRanges = Splitter.on('\n').splitToList(content);
+    List<String> newRanges = new ArrayList<>(originalRanges.size());
+    for (String line : originalRanges) {
+      Matcher matcher = before.matcher(line);
+      StringBuffer sb = new StringBuffer();
+      while (matcher.find()) {
+        matcher.appendReplacement(sb, AFTER_TEMPLATE);
+      }
+      matcher.appendTail(sb);
+      newRanges.add(sb.toString());
+    }
+    return Joiner.on('\n').join(newRanges);
+  }
+}
@@ -20,13 +20,17 @@ import static com.google.common.truth.Truth.assertThat;
 import static com.google.copybara.testing.FileSubjects.assertThatPath;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.jimfs.Jimfs;
+import com.google.copybara.NonReversibleValidationException;
+import com.google.copybara.Transformation;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.exception.VoidOperationException;
 import com.google.copybara.testing.FileSubjects;
 import com.google.copybara.testing.OptionsBuilder;
 import com.google.copybara.testing.SkylarkTestExecutor;
 import com.google.copybara.testing.TransformWorks;
+import com.google.copybara.util.DirFactory;
 import com.google.copybara.util.console.Message.MessageType;
 import com.google.copybara.util.console.testing.TestingConsole;
 import java.io.IOException;
@@ -34,6 +38,9 @@ import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -116,6 +123,236 @@ public final class ReplaceTest {
     assertThat(before.lastModifiedTime()).isEqualTo(after.lastModifiedTime());
   }
 
+  @Test
+  public void testJoinedContentTransformations() throws Exception {
+    Transformation transformation = skylark.eval("t", "t = core.transform([\n"
+        + "  core.replace(before = 'foo', after = 'bar'),\n"
+        + "  core.todo_replace(mapping = {'alice' : 'bob'}),\n"
+        + "  core.replace(before = 'bar', after = 'baz', paths = glob(['*.java'])),\n"
+        + "  core.verify_match(regex = 'foo', verify_no_match = True),\n"
+        + "])");
+
+    writeFile(checkoutDir.resolve("file.java"), "foo\n// TODO(alice): bar");
+    writeFile(checkoutDir.resolve("file.txt"), "foo");
+    transformation.transform(TransformWorks.of(checkoutDir, "testmsg", console));
+
+    assertThatPath(checkoutDir)
+        .containsFile("file.java", "baz\n// TODO(bob): baz")
+        .containsFile("file.txt", "bar")
+        .containsNoMoreFiles();
+  }
+
+  @Test
+  public void testJoinedRemoveBetweenReplaces() throws Exception {
+    Transformation transformation = skylark.eval("t", "t = core.transform([\n"
+        + "  core.replace(before = 'foo', after = 'bar'),\n"
+        + "  core.remove(glob(['dir/removed.txt'])),\n"
+        + "  core.replace(before = 'bar', after = 'baz'),\n"
+        + "], reversal = [core.replace(before = 'baz', after = 'foo')])");
+
+    Files.createDirectories(checkoutDir.resolve("dir"));
+    writeFile(checkoutDir.resolve("dir/file.txt"), "foo");
+    writeFile(checkoutDir.resolve("dir/removed.txt"), "foo");
+    transformation.transform(TransformWorks.of(checkoutDir, "testmsg", console));
+
+    assertThatPath(checkoutDir)
+        .containsFile("dir/file.txt", "baz")
+        .containsNoMoreFiles();
+  }
+
+  @Test
+  public void testJoinedRunNotifiesLaterTransformations() throws Exception {
+    // The move and the last replace only see the joined run results through the tree state.
+    Transformation transformation = skylark.eval("t", "t = core.transform([\n"
+        + "  core.replace(before = 'foo', after = 'foobar'),\n"
+        + "  core.remove(glob(['dir/removed.txt'])),\n"
+        + "  core.move('dir', 'moved'),\n"
+        + "  core.replace(before = 'foobar', after = 'done'),\n"
+        + "], reversal = [core.replace(before = 'done', after = 'foo')])");
+
+    Files.createDirectories(checkoutDir.resolve("dir"));
+    writeFile(checkoutDir.resolve("dir/file.txt"), "foo");
+    writeFile(checkoutDir.resolve("dir/removed.txt"), "foo");
+    writeFile(checkoutDir.resolve("dir/other.txt"), "other");
+    transformation.transform(TransformWorks.of(checkoutDir, "testmsg", console));
+
+    assertThatPath(checkoutDir)
+        .containsFile("moved/file.txt", "done")
+        .containsFile("moved/other.txt", "other")
+        .containsNoMoreFiles();
+  }
+
+  @Test
+  public void testJoinedVerifyMatchFailsAfterReplace() throws Exception {
+    Transformation transformation = skylark.eval("t", "t = core.transform([\n"
+        + "  core.replace(before = 'foo', after = 'bar'),\n"
+        + "  core.verify_match(regex = 'bar', verify_no_match = True),\n"
+        + "])");
+
+    writeFile(checkoutDir.resolve("file.txt"), "foo");
+    thrown.expect(ValidationException.class);
+    thrown.expectMessage("1 file(s) failed the validation of Verify match 'bar'");
+    transformation.transform(TransformWorks.of(checkoutDir, "testmsg", console));
+  }
+
+  @Test
+  public void testJoinedContentTransformationsReverse() throws Exception {
+    Replace first = eval("core.replace(before = 'foo', after = 'bar')");
+    Replace second = eval("core.replace(before = 'bar', after = 'baz')");
+    Transformation reverse = first.join(second).reverse();
+
+    writeFile(checkoutDir.resolve("file.txt"), "baz");
+    reverse.transform(TransformWorks.of(checkoutDir, "testmsg", console));
+
+    assertThatPath(checkoutDir)
+        .containsFile("file.txt", "foo")
+        .containsNoMoreFiles();
+  }
+
+  @Test
+  public void testJoinedContentTransformationsReverseNotContent() throws Exception {
+    Replace replace = eval("core.replace(before = 'foo', after = 'bar')");
+    VerifyMatch verifyMatch = skylark.eval("t", "t = core.verify_match(regex = 'bar')");
+
+    thrown.expect(NonReversibleValidationException.class);
+    thrown.expectMessage("is not a content transformation");
+    replace.join(verifyMatch).reverse();
+  }
+
+  @Test
+  public void testJoinedContentTransformationsNoop() throws Exception {
+    Transformation transformation = skylark.eval("t", "t = core.transform([\n"
+        + "  core.replace(before = 'foo', after = 'bar'),\n"
+        + "  core.replace(before = 'foo', after = 'baz'),\n"
+        + "])");
+
+    writeFile(checkoutDir.resolve("file.txt"), "foo");
+    thrown.expect(VoidOperationException.class);
+    thrown.expectMessage("didn't change any of the matching files");
+    transformation.transform(TransformWorks.of(checkoutDir, "testmsg", console));
+  }
+
+  @Test
+  public void testRequiredLiteralPrefilter() throws Exception {
+    Transformation transformation = skylark.eval("t", "t = core.transform([\n"
+        + "  core.replace(before = 'foo${x}', after = 'bar${x}', regex_groups = {'x': '[0-9]+'}),\n"
+        + "  core.replace(before = '${x}baz', after = '${x}qux', regex_groups = {'x': '[a-z]+'}),\n"
+        + "])");
+
+    writeFile(checkoutDir.resolve("match.txt"), "foo1 foo\nfoobaz");
+    writeFile(checkoutDir.resolve("nomatch.txt"), "fo1 ba z");
+    transformation.transform(TransformWorks.of(checkoutDir, "testmsg", console));
+
+    assertThatPath(checkoutDir)
+        .containsFile("match.txt", "bar1 foo\nfooqux")
+        .containsFile("nomatch.txt", "fo1 ba z")
+        .containsNoMoreFiles();
+  }
+
+  @Test
+  public void testJoinedReplacesThatRevertAreNotWritten() throws Exception {
+    Transformation transformation = skylark.eval("t", "t = core.transform([\n"
+        + "  core.replace(before = 'foo', after = 'bar'),\n"
+        + "  core.replace(before = 'bar', after = 'foo'),\n"
+        + "])");
+
+    Path file = checkoutDir.resolve("file.txt");
+    writeFile(file, "foo");
+    FileTime oldTime = FileTime.fromMillis(1000);
+    Files.setLastModifiedTime(file, oldTime);
+    transformation.transform(TransformWorks.of(checkoutDir, "testmsg", console));
+
+    assertThatPath(checkoutDir)
+        .containsFile("file.txt", "foo")
+        .containsNoMoreFiles();
+    assertThat(Files.getLastModifiedTime(file)).isEqualTo(oldTime);
+  }
+
+  @Test
+  public void testStreamingReplace() throws Exception {
+    options.workflowOptions.replaceStreamingThreshold = 10;
+    Transformation transformation = skylark.eval("t", "t = core.transform([\n"
+        + "  core.replace(before = 'foo', after = 'bar'),\n"
+        + "  core.replace(before = 'bar\\n', after = 'baz\\n', multiline = True),\n"
+        + "  core.replace(before = 'baz', after = 'qux', first_only = True),\n"
+        + "])");
+
+    writeFile(checkoutDir.resolve("small.txt"), "foo");
+    writeFile(checkoutDir.resolve("big.txt"), "foo\r\nbar foo\n\nfoo");
+    Path unchanged = checkoutDir.resolve("unchanged.txt");
+    writeFile(unchanged, "nothing to replace here\n");
+    BasicFileAttributes before = Files.readAttributes(unchanged, BasicFileAttributes.class);
+    transformation.transform(TransformWorks.of(checkoutDir, "testmsg", console));
+
+    assertThatPath(checkoutDir)
+        .containsFile("small.txt", "bar")
+        .containsFile("big.txt", "bar\r\nbar qux\n\nbar")
+        .containsFile("unchanged.txt", "nothing to replace here\n")
+        .containsNoMoreFiles();
+    assertThat(Files.readAttributes(unchanged, BasicFileAttributes.class).lastModifiedTime())
+        .isEqualTo(before.lastModifiedTime());
+  }
+
+  @Test
+  public void testTransformationCache() throws Exception {
+    Path outputRoot = Jimfs.newFileSystem().getPath("/output");
+    options.general.setOutputRootPathForTest(outputRoot);
+    options.workflowOptions.transformationCache = true;
+    Replace transformation =
+        eval("core.replace(\n"
+            + "  before = 'foo',\n"
+            + "  after  = 'bar',\n"
+            + ")");
+
+    writeFile(checkoutDir.resolve("file1.txt"), "foo");
+    writeFile(checkoutDir.resolve("file2.txt"), "baz");
+    transform(transformation);
+    assertThatPath(checkoutDir)
+        .containsFile("file1.txt", "bar")
+        .containsFile("file2.txt", "baz");
+
+    ImmutableList<Path> entries;
+    try (Stream<Path> paths = Files.walk(outputRoot)) {
+      entries = paths.filter(Files::isRegularFile).collect(ImmutableList.toImmutableList());
+    }
+    // Files that are not changed are not stored
+    assertThat(entries).hasSize(1);
+    Path changedEntry = entries.get(0);
+    assertThat(new String(Files.readAllBytes(changedEntry), UTF_8)).isEqualTo("bar");
+
+    // Prove that the second run uses the cache instead of applying the replace
+    Files.write(changedEntry, "cached".getBytes(UTF_8));
+    writeFile(checkoutDir.resolve("file1.txt"), "foo");
+    transform(transformation);
+    assertThatPath(checkoutDir)
+        .containsFile("file1.txt", "cached")
+        .containsFile("file2.txt", "baz");
+  }
+
+  @Test
+  public void testTransformationCacheEviction() throws Exception {
+    Path outputRoot = Jimfs.newFileSystem().getPath("/output");
+    TransformationCache cache =
+        new TransformationCache(new DirFactory(outputRoot), /*maxBytes=*/ 10);
+    byte[] first = "first".getBytes(UTF_8);
+    byte[] second = "second".getBytes(UTF_8);
+    cache.put("fingerprint", first, "FIRST".getBytes(UTF_8));
+    cache.put("fingerprint", second, "SECOND".getBytes(UTF_8));
+    Path cacheDir = outputRoot.resolve("cache/transformations");
+    try (Stream<Path> paths = Files.walk(cacheDir)) {
+      for (Path path : paths.filter(Files::isRegularFile).collect(Collectors.toList())) {
+        Files.setLastModifiedTime(path, FileTime.fromMillis(0));
+      }
+    }
+    // Reading an entry makes it recently used
+    assertThat(cache.get("fingerprint", first)).isEqualTo("FIRST".getBytes(UTF_8));
+
+    cache.evictLeastRecentlyUsed(cacheDir);
+
+    assertThat(cache.get("fingerprint", first)).isEqualTo("FIRST".getBytes(UTF_8));
+    assertThat(cache.get("fingerprint", second)).isNull();
+  }
+
   @Test
   public void testWithGroups() throws Exception {
     Replace transformation = eval("core.replace(\n"
@@ -391,6 +628,52 @@ public final class ReplaceTest {
         .containsFile("before_and_after", "after ... still after");
   }
 
+  @Test
+  public void matchSpanningLinesIsNotReplaced() throws Exception {
+    Replace transformation = eval("core.replace(\n"
+        + "  before = 'foo${s}bar',\n"
+        + "  after = 'baz${s}',\n"
+        + "  regex_groups = {\n"
+        + "       's' : '\\\\s+',\n"
+        + "  },\n"
+        + ")");
+
+    writeFile(checkoutDir.resolve("file"), ""
+        + "first\n"
+        + "foo\n"
+        + "bar foo  bar\n"
+        + "\n"
+        + "foo bar\n");
+
+    transform(transformation);
+
+    assertThatPath(checkoutDir)
+        .containsFile("file", ""
+            + "first\n"
+            + "foo\n"
+            + "bar baz  \n"
+            + "\n"
+            + "baz \n");
+  }
+
+  @Test
+  public void endOfTextMatchesEveryLine() throws Exception {
+    Replace transformation = eval("core.replace(\n"
+        + "  before = 'x${end}',\n"
+        + "  after = 'y${end}',\n"
+        + "  regex_groups = {\n"
+        + "       'end' : '\\\\z',\n"
+        + "  },\n"
+        + ")");
+
+    writeFile(checkoutDir.resolve("file"), "ax\nxb\ncx");
+
+    transform(transformation);
+
+    assertThatPath(checkoutDir)
+        .containsFile("file", "ay\nxb\ncy");
+  }
+
   @Test
   public void showOriginalTemplateInToString() throws ValidationException {
     Replace transformation = eval("core.replace(\n"
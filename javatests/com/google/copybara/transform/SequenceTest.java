@@ -51,7 +51,7 @@ public final class SequenceTest {
     @Override
     public void transform(TransformWork work) throws IOException {
       if (useTreeState) {
-        work.getTreeState().find(Glob.ALL_FILES.relativeTo(work.getCheckoutDir()));
+        work.getTreeState().find(Glob.ALL_FILES);
         work.getTreeState().notifyNoChange();
       }
     }
@@ -113,7 +113,7 @@ public final class SequenceTest {
   private TransformWork cachedTreeStateTranformWork() throws IOException {
     TransformWork work = TransformWorks.of(checkoutDir, "foo", console);
     // Force a map based tree-state
-    work.getTreeState().find(Glob.ALL_FILES.relativeTo(checkoutDir));
+    work.getTreeState().find(Glob.ALL_FILES);
     work.getTreeState().notifyNoChange();
     work = work.withUpdatedTreeState();
     assertCachedTreeState(work).isTrue();
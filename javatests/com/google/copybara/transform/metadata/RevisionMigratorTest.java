@@ -106,6 +106,22 @@ public class RevisionMigratorTest {
         .isEqualTo("This is an awesome change, building on http://externalreviews.com/view?7b");
   }
 
+  @Test
+  public void testReferenceAtEndOfLineGetsUpdated() throws Exception {
+    referenceMigrator = ReferenceMigrator.create(
+        "http://internalReviews.com/${reference}",
+        "http://externalreviews.com/view?${reference}",
+        Pattern.compile("[0-9]+$"),
+        Pattern.compile("[0-9a-f]+"),
+        ImmutableList.of(),
+        location);
+    TransformWork work = getTransformWork(
+        "This is an awesome change, building on http://internalReviews.com/123\nMore text");
+    referenceMigrator.transform(work);
+    assertThat(work.getMessage()).isEqualTo(
+        "This is an awesome change, building on http://externalreviews.com/view?7b\nMore text");
+  }
+
   @Test
   public void testUndefinedReferenceGetsNotUpdated() throws Exception {
     String desc = "This is an awesome change, building on http://internalReviews.com/5";
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.treestate;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.jimfs.Jimfs;
+import com.google.copybara.treestate.TreeState.FileState;
+import com.google.copybara.util.Glob;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the lookup of a config with lots of narrowly scoped globs (Like a Sequence with
+ * hundreds of {@code core.replace(paths = glob([...]))}) over a big checkout dir.
+ *
+ * <p>Compares the {@link FileStateTrie} lookup by glob roots with matching every glob against
+ * every file. Only the lookup is measured, so no files are created in the file system.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TreeStateBenchmark {
+
+  private static final int MODULES = 500;
+  private static final int DIRS_PER_MODULE = 10;
+  private static final int FILES_PER_DIR = 100;
+
+  @Param({"200"})
+  public int globCount;
+
+  private Path checkoutDir;
+  private FileStateTrie trie;
+  private List<FileState> allFiles;
+  private List<Glob> globs;
+
+  @Setup
+  public void setup() {
+    checkoutDir = Jimfs.newFileSystem().getPath("/checkout");
+    trie = new FileStateTrie(checkoutDir);
+    // 500 modules * 10 dirs * 100 files = 500k paths.
+    for (int m = 0; m < MODULES; m++) {
+      for (int d = 0; d < DIRS_PER_MODULE; d++) {
+        for (int f = 0; f < FILES_PER_DIR; f++) {
+          String ext = f % 2 == 0 ? ".java" : ".txt";
+          trie.put(new FileState(
+              checkoutDir.resolve("module" + m + "/dir" + d + "/File" + f + ext)));
+        }
+      }
+    }
+    allFiles = trie.values();
+
+    globs = new ArrayList<>(globCount);
+    for (int i = 0; i < globCount; i++) {
+      int module = i * MODULES / globCount;
+      globs.add(Glob.createGlob(
+          ImmutableList.of("module" + module + "/dir" + (i % DIRS_PER_MODULE) + "/**.java"),
+          ImmutableList.of("module" + module + "/**/File1*")));
+    }
+  }
+
+  @Benchmark
+  public void indexedByRoots(Blackhole bh) {
+    for (Glob glob : globs) {
+      bh.consume(trie.find(glob.roots(), glob.relativeTo(checkoutDir)));
+    }
+  }
+
+  @Benchmark
+  public void linearFilter(Blackhole bh) {
+    for (Glob glob : globs) {
+      PathMatcher matcher = glob.relativeTo(checkoutDir);
+      List<FileState> result = new ArrayList<>();
+      for (FileState file : allFiles) {
+        if (matcher.matches(file.getPath())) {
+          result.add(file);
+        }
+      }
+      bh.consume(result);
+    }
+  }
+}
@@ -19,12 +19,18 @@ package com.google.copybara.treestate;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.copybara.treestate.TreeStateUtil.isCachedTreeState;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
 import com.google.common.jimfs.Jimfs;
+import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.Glob;
 import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -51,7 +57,7 @@ public class TreeStateTest {
   @Test
   public void testNotifiedReturnsCached() throws IOException {
     TreeState treeState = new FileSystemTreeState(checkoutDir);
-    treeState.find(Glob.ALL_FILES.relativeTo(checkoutDir));
+    treeState.find(Glob.ALL_FILES);
     treeState.notifyNoChange();
     assertThat(isCachedTreeState(treeState.newTreeState())).isTrue();
   }
@@ -67,7 +73,7 @@ public class TreeStateTest {
   @Test
   public void testBackToFSIfNotNotified() throws IOException {
     TreeState treeState = new FileSystemTreeState(checkoutDir);
-    treeState.find(Glob.ALL_FILES.relativeTo(checkoutDir));
+    treeState.find(Glob.ALL_FILES);
     treeState.notifyNoChange();
     assertThat(isCachedTreeState(treeState.newTreeState())).isTrue();
     assertThat(isCachedTreeState(treeState.newTreeState().newTreeState()))
@@ -81,16 +87,111 @@ public class TreeStateTest {
   @Test
   public void testCachedNotifiedIsNotSticky() throws IOException {
     TreeState treeState = new FileSystemTreeState(checkoutDir);
-    treeState.find(Glob.ALL_FILES.relativeTo(checkoutDir));
+    treeState.find(Glob.ALL_FILES);
     treeState.notifyNoChange();
 
     treeState = treeState.newTreeState();
     assertThat(isCachedTreeState(treeState)).isTrue();
-    treeState.find(Glob.ALL_FILES.relativeTo(checkoutDir));
+    treeState.find(Glob.ALL_FILES);
     treeState.notifyNoChange();
 
     treeState = treeState.newTreeState();
     // This TreeState has not been used or notified. Should return a FS based one.
     assertThat(isCachedTreeState(treeState.newTreeState())).isFalse();
   }
+
+  @Test
+  public void testNotifyAddDeleteMove() throws IOException {
+    Files.write(checkoutDir.resolve("a.txt"), "a".getBytes());
+    Files.write(checkoutDir.resolve("b.txt"), "b".getBytes());
+    TreeState treeState = new FileSystemTreeState(checkoutDir);
+    assertThat(findAll(treeState)).containsExactly("a.txt", "b.txt");
+
+    Files.write(checkoutDir.resolve("c.txt"), "c".getBytes());
+    treeState.notifyAdd(ImmutableList.of(checkoutDir.resolve("c.txt")));
+    Files.delete(checkoutDir.resolve("a.txt"));
+    treeState.notifyDelete(ImmutableList.of(checkoutDir.resolve("a.txt")));
+
+    treeState = treeState.newTreeState();
+    assertThat(isCachedTreeState(treeState)).isTrue();
+    assertThat(findAll(treeState)).containsExactly("b.txt", "c.txt");
+
+    Files.move(checkoutDir.resolve("b.txt"), checkoutDir.resolve("d.txt"));
+    treeState.notifyMove(
+        ImmutableMap.of(checkoutDir.resolve("b.txt"), checkoutDir.resolve("d.txt")));
+
+    treeState = treeState.newTreeState();
+    assertThat(isCachedTreeState(treeState)).isTrue();
+    assertThat(findAll(treeState)).containsExactly("c.txt", "d.txt");
+  }
+
+  @Test
+  public void testFindUnderGlobRoots() throws IOException {
+    Files.createDirectories(checkoutDir.resolve("a/b"));
+    Files.createDirectories(checkoutDir.resolve("c"));
+    Files.write(checkoutDir.resolve("a/b/1.txt"), "1".getBytes());
+    Files.write(checkoutDir.resolve("a/2.java"), "2".getBytes());
+    Files.write(checkoutDir.resolve("c/3.txt"), "3".getBytes());
+    Files.write(checkoutDir.resolve("4.txt"), "4".getBytes());
+    Glob aTxt = Glob.createGlob(ImmutableList.of("a/**.txt"));
+    Glob c = Glob.createGlob(ImmutableList.of("c/**"));
+    Glob txt = Glob.createGlob(ImmutableList.of("**.txt"));
+
+    TreeState treeState = new FileSystemTreeState(checkoutDir);
+    assertThat(find(treeState, aTxt)).containsExactly("a/b/1.txt");
+    assertThat(find(treeState, c)).containsExactly("c/3.txt");
+    assertThat(find(treeState, txt)).containsExactly("a/b/1.txt", "c/3.txt", "4.txt");
+
+    Files.write(checkoutDir.resolve("c/5.txt"), "5".getBytes());
+    treeState.notifyAdd(ImmutableList.of(checkoutDir.resolve("c/5.txt")));
+    Files.delete(checkoutDir.resolve("a/b/1.txt"));
+    treeState.notifyDelete(ImmutableList.of(checkoutDir.resolve("a/b/1.txt")));
+
+    treeState = treeState.newTreeState();
+    assertThat(isCachedTreeState(treeState)).isTrue();
+    assertThat(find(treeState, aTxt)).isEmpty();
+    assertThat(find(treeState, c)).containsExactly("c/3.txt", "c/5.txt");
+    assertThat(find(treeState, txt)).containsExactly("c/3.txt", "c/5.txt", "4.txt");
+    // Equal globs share the cached result.
+    assertThat(find(treeState, Glob.createGlob(ImmutableList.of("c/**"))))
+        .containsExactly("c/3.txt", "c/5.txt");
+  }
+
+  @Test
+  public void testUnknownChangesReadsFileSystem() throws IOException {
+    TreeState treeState = new FileSystemTreeState(checkoutDir);
+    treeState.find(Glob.ALL_FILES);
+    treeState.notifyNoChange();
+    treeState.notifyUnknownChanges();
+    assertThat(isCachedTreeState(treeState.newTreeState())).isFalse();
+  }
+
+  @Test
+  public void testFileStateAttributes() throws IOException {
+    Path file = checkoutDir.resolve("foo.txt");
+    Files.write(file, "foo".getBytes());
+    TreeState treeState = new FileSystemTreeState(checkoutDir);
+    FileState state = treeState.find(Glob.ALL_FILES).iterator().next();
+
+    assertThat(state.getSize()).isEqualTo(3);
+    HashCode hash = state.getContentHash();
+    assertThat(state.getContentHash()).isEqualTo(hash);
+
+    Files.write(file, "other".getBytes());
+    treeState.notifyModify(ImmutableList.of(state));
+    assertThat(state.getSize()).isEqualTo(5);
+    assertThat(state.getContentHash()).isNotEqualTo(hash);
+  }
+
+  private List<String> findAll(TreeState treeState) throws IOException {
+    return find(treeState, Glob.ALL_FILES);
+  }
+
+  private List<String> find(TreeState treeState, Glob glob) throws IOException {
+    List<String> result = new ArrayList<>();
+    for (FileState file : treeState.find(glob)) {
+      result.add(checkoutDir.relativize(file.getPath()).toString());
+    }
+    return result;
+  }
 }
@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermission;
 import org.junit.Before;
 import org.junit.Rule;
@@ -271,4 +272,34 @@ public class FileUtilTest {
         .containsNoMoreFiles();
   }
 
+  @Test
+  public void testWriteIfChanged() throws Exception {
+    Path file = temp.resolve("file.txt");
+    Files.write(file, "foo".getBytes(UTF_8));
+    FileTime oldTime = FileTime.fromMillis(1000);
+    Files.setLastModifiedTime(file, oldTime);
+
+    assertThat(FileUtil.writeIfChanged(file, "foo".getBytes(UTF_8))).isFalse();
+    assertThat(Files.getLastModifiedTime(file)).isEqualTo(oldTime);
+
+    assertThat(FileUtil.writeIfChanged(file, "bar".getBytes(UTF_8))).isTrue();
+    assertThat(Files.getLastModifiedTime(file)).isNotEqualTo(oldTime);
+    assertThatPath(temp).containsFile("file.txt", "bar");
+
+    assertThat(FileUtil.writeIfChanged(temp.resolve("new.txt"), "baz".getBytes(UTF_8))).isTrue();
+    assertThatPath(temp).containsFile("new.txt", "baz");
+  }
+
+  @Test
+  public void testHaveSameContent() throws Exception {
+    Path foo = Files.write(temp.resolve("foo"), "foo".getBytes(UTF_8));
+    Path foo2 = Files.write(temp.resolve("foo2"), "foo".getBytes(UTF_8));
+    Path bar = Files.write(temp.resolve("bar"), "bar".getBytes(UTF_8));
+    Path link = Files.createSymbolicLink(temp.resolve("link"), foo);
+
+    assertThat(FileUtil.haveSameContent(foo, foo2)).isTrue();
+    assertThat(FileUtil.haveSameContent(foo, bar)).isFalse();
+    assertThat(FileUtil.haveSameContent(foo, link)).isFalse();
+    assertThat(FileUtil.haveSameContent(foo, temp.resolve("missing"))).isFalse();
+  }
 }